@@ -0,0 +1,97 @@
+package callum.nightingale.api.benchmark;
+
+import callum.nightingale.api.config.FanOutConfig;
+import callum.nightingale.api.dto.audit.request.AuditSearchRequest;
+import callum.nightingale.api.dto.audit.response.AuditSearchResponse;
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.properties.FanOutProperties;
+import callum.nightingale.api.properties.HedgeProperties;
+import callum.nightingale.api.service.AuditService;
+import callum.nightingale.api.service.cache.StaleCache;
+import callum.nightingale.api.service.client.Hedger;
+import callum.nightingale.api.service.client.SingleFlight;
+import callum.nightingale.api.service.fanout.FanOut;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * {@code searchObjectsByMetadata} over {@code records} synthetic audit records answered from
+ * memory: the date filter, the tag filter, the {@code AuditInfo} mapping with its Europe/London
+ * conversion and the newest-first sort. {@code filter} is {@code none} (every record is mapped),
+ * {@code dates} (the last six months) or {@code tags} (one user in twenty). Every record is
+ * returned, rather than the first {@code s3.audit.maxRecords}, so the cost scales with the
+ * listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditSearchBenchmark {
+
+  @Param({"1000", "10000"})
+  private int records;
+
+  @Param({"none", "dates", "tags"})
+  private String filter;
+
+  private ExecutorService fanOutExecutor;
+  private AuditService auditService;
+  private AuditSearchRequest searchRequest;
+
+  @Setup
+  public void setUp() {
+    FanOutProperties fanOutProperties = new FanOutProperties();
+    fanOutExecutor = new FanOutConfig(fanOutProperties)
+        .fanOutExecutor(new SimpleMeterRegistry());
+    auditService = new AuditService(new SyntheticS3Client(records),
+        new FanOut(fanOutExecutor, fanOutProperties),
+        new Hedger(new HedgeProperties(), fanOutExecutor, new SimpleMeterRegistry()),
+        new SingleFlight(new SimpleMeterRegistry()), new StaleCache(new BreakerProperties()),
+        ObservationRegistry.NOOP);
+    ReflectionTestUtils.setField(auditService, "auditBucketName", "audit");
+    ReflectionTestUtils.setField(auditService, "auditEnabled", true);
+    ReflectionTestUtils.setField(auditService, "maxAuditRecords", records);
+
+    LocalDateTime now = LocalDateTime.ofInstant(SyntheticS3Client.NOW, ZoneId.of("Europe/London"));
+    searchRequest = switch (filter) {
+      case "dates" -> AuditSearchRequest.builder()
+          .fromDate(now.minus(182, ChronoUnit.DAYS))
+          .toDate(now)
+          .build();
+      case "tags" -> AuditSearchRequest.builder()
+          .userName("user-7")
+          .build();
+      default -> AuditSearchRequest.builder().build();
+    };
+  }
+
+  @TearDown
+  public void tearDown() {
+    fanOutExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public AuditSearchResponse search() {
+    return auditService.searchObjectsByMetadata(searchRequest);
+  }
+}
@@ -0,0 +1,115 @@
+package callum.nightingale.api.benchmark;
+
+import callum.nightingale.api.properties.DiffProperties;
+import callum.nightingale.api.service.DiffService;
+import callum.nightingale.api.service.diff.DiffResult;
+import callum.nightingale.api.service.upload.StreamedContent;
+import callum.nightingale.api.service.upload.UploadPipeline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The diff of {@code preUploadFile}, from hashed content to the unified diff or block delta, over
+ * files of {@code lines} lines where a {@code changeRatio} of the lines were rewritten. Binary
+ * files are random bytes of the same size with the same share of bytes changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  private int lines;
+
+  @Param({"0.001", "0.01", "0.1"})
+  private double changeRatio;
+
+  @Param({"text", "binary"})
+  private String content;
+
+  private ExecutorService diffExecutor;
+  private DiffService diffService;
+  private StreamedContent original;
+  private StreamedContent revised;
+
+  @Setup
+  public void setUp() {
+    DiffProperties diffProperties = new DiffProperties();
+    diffProperties.setTimeout(Duration.ofMinutes(5));
+    diffExecutor = Executors.newSingleThreadExecutor();
+    diffService = new DiffService(diffProperties, diffExecutor, new SimpleMeterRegistry(),
+        ObservationRegistry.NOOP);
+
+    Random random = new Random(42);
+    byte[][] files = content.equals("text") ? textFiles(random) : binaryFiles(random);
+    original = UploadPipeline.read(new ByteArrayInputStream(files[0]),
+        diffService.maxLinesPerSide());
+    revised = UploadPipeline.read(new ByteArrayInputStream(files[1]),
+        diffService.maxLinesPerSide());
+  }
+
+  @TearDown
+  public void tearDown() {
+    original.close();
+    revised.close();
+    diffExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public void diff(Blackhole blackhole) {
+    try (DiffResult result = diffService.diff("benchmark.txt", original, revised)) {
+      blackhole.consume(result.getUnifiedDiff());
+      blackhole.consume(result.getChangedRanges());
+    }
+  }
+
+  private byte[][] textFiles(Random random) {
+    ByteArrayOutputStream originalText = new ByteArrayOutputStream();
+    ByteArrayOutputStream revisedText = new ByteArrayOutputStream();
+    for (int i = 0; i < lines; i++) {
+      byte[] line = String.format("%08d,account-%d,%d.%02d,settled%n", i, random.nextInt(5000),
+          random.nextInt(100_000), random.nextInt(100)).getBytes(StandardCharsets.UTF_8);
+      originalText.writeBytes(line);
+      revisedText.writeBytes(random.nextDouble() < changeRatio
+          ? String.format("%08d,account-%d,0.00,reversed%n", i, random.nextInt(5000))
+              .getBytes(StandardCharsets.UTF_8)
+          : line);
+    }
+    return new byte[][]{originalText.toByteArray(), revisedText.toByteArray()};
+  }
+
+  private byte[][] binaryFiles(Random random) {
+    byte[] originalBytes = new byte[lines * 40];
+    random.nextBytes(originalBytes);
+    byte[] revisedBytes = originalBytes.clone();
+    int changes = (int) (originalBytes.length * changeRatio);
+    for (int i = 0; i < changes; i++) {
+      revisedBytes[random.nextInt(revisedBytes.length)] ^= (byte) (1 + random.nextInt(255));
+    }
+    return new byte[][]{originalBytes, revisedBytes};
+  }
+}
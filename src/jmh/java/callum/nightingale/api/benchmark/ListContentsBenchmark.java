@@ -0,0 +1,57 @@
+package callum.nightingale.api.benchmark;
+
+import callum.nightingale.api.dto.s3.response.ListContentsResponse;
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.properties.S3Properties;
+import callum.nightingale.api.service.S3Service;
+import callum.nightingale.api.service.cache.StaleCache;
+import callum.nightingale.api.service.client.SingleFlight;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code listContents} over a bucket of {@code objects} objects answered from memory: the
+ * {@code BucketObject} mapping with its Europe/London conversion and the newest-first sort.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListContentsBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  private int objects;
+
+  private S3Service s3Service;
+
+  @Setup
+  public void setUp() {
+    S3Properties s3Properties = new S3Properties();
+    s3Properties.setBuckets(List.of("bucket"));
+    SyntheticS3Client s3Client = new SyntheticS3Client(objects);
+    // Listing touches none of the upload, diff, download or cache collaborators.
+    s3Service = new S3Service(s3Client, s3Client, null, s3Properties, null, null, null, null,
+        null, null, Optional.empty(), null, new SingleFlight(new SimpleMeterRegistry()),
+        new StaleCache(new BreakerProperties()));
+  }
+
+  @Benchmark
+  public ListContentsResponse listContents() {
+    return s3Service.listContents("bucket");
+  }
+}
@@ -0,0 +1,86 @@
+package callum.nightingale.api.benchmark;
+
+import callum.nightingale.api.dto.audit.model.AuditEventType;
+import callum.nightingale.api.dto.audit.model.AuditInfo;
+import callum.nightingale.api.dto.audit.response.AuditSearchResponse;
+import callum.nightingale.api.dto.s3.model.BucketObject;
+import callum.nightingale.api.dto.s3.response.ListContentsResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Jackson serialization of listing and audit search responses of {@code items} items, with the
+ * object mapper configured as Spring Boot configures it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  private int items;
+
+  private ObjectMapper objectMapper;
+  private ListContentsResponse contentsResponse;
+  private AuditSearchResponse auditSearchResponse;
+
+  @Setup
+  public void setUp() {
+    objectMapper = Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+        .build();
+    LocalDateTime now = LocalDateTime.of(2025, 6, 1, 12, 0);
+    AuditEventType[] eventTypes = AuditEventType.values();
+
+    contentsResponse = ListContentsResponse.builder()
+        .objects(IntStream.range(0, items)
+            .mapToObj(i -> BucketObject.builder()
+                .objectKey("reports/" + i + ".csv")
+                .objectSize(1024L * i)
+                .lastModifiedTimestamp(now.minusMinutes(i))
+                .build())
+            .toList())
+        .build();
+    auditSearchResponse = AuditSearchResponse.builder()
+        .auditRecords(IntStream.range(0, items)
+            .mapToObj(i -> AuditInfo.builder()
+                .eventType(eventTypes[i % eventTypes.length])
+                .bucketName("bucket-" + i % 5)
+                .objectKey("reports/" + i + ".csv")
+                .userName("user-" + i % 20)
+                .auditDate(now.minusMinutes(i))
+                .auditObjectKey(eventTypes[i % eventTypes.length] + "/" + i)
+                .build())
+            .toList())
+        .build();
+  }
+
+  @Benchmark
+  public byte[] listContentsResponse() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(contentsResponse);
+  }
+
+  @Benchmark
+  public byte[] auditSearchResponse() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(auditSearchResponse);
+  }
+}
@@ -0,0 +1,72 @@
+package callum.nightingale.api.benchmark;
+
+import callum.nightingale.api.dto.audit.model.AuditEventType;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+/**
+ * An S3 client answering from memory without delay, so benchmarks measure only our own code. Every
+ * bucket lists the same synthetic audit records, in no particular date order, spread over the
+ * last year and across five buckets and twenty users.
+ */
+class SyntheticS3Client implements S3Client {
+
+  static final Instant NOW = Instant.parse("2025-06-01T12:00:00Z");
+
+  private final List<S3Object> objects;
+
+  SyntheticS3Client(int objects) {
+    Random random = new Random(42);
+    AuditEventType[] eventTypes = AuditEventType.values();
+    this.objects = IntStream.range(0, objects)
+        .mapToObj(i -> S3Object.builder()
+            .key(eventTypes[i % eventTypes.length] + "/" + i)
+            .size(1024L + random.nextInt(1 << 20))
+            .lastModified(NOW.minus(Duration.ofMinutes(random.nextInt(365 * 24 * 60))))
+            .build())
+        .toList();
+  }
+
+  @Override
+  public HeadBucketResponse headBucket(HeadBucketRequest request) {
+    return HeadBucketResponse.builder().build();
+  }
+
+  @Override
+  public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+    return ListObjectsV2Response.builder()
+        .contents(objects)
+        .build();
+  }
+
+  @Override
+  public GetObjectTaggingResponse getObjectTagging(GetObjectTaggingRequest request) {
+    int i = Integer.parseInt(request.key().substring(request.key().indexOf('/') + 1));
+    return GetObjectTaggingResponse.builder()
+        .tagSet(Tag.builder().key("bucketName").value("bucket-" + i % 5).build(),
+            Tag.builder().key("objectKey").value("reports/" + i + ".csv").build(),
+            Tag.builder().key("userName").value("user-" + i % 20).build())
+        .build();
+  }
+
+  @Override
+  public String serviceName() {
+    return SERVICE_NAME;
+  }
+
+  @Override
+  public void close() {
+  }
+}
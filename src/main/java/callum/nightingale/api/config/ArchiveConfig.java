@@ -0,0 +1,37 @@
+package callum.nightingale.api.config;
+
+import callum.nightingale.api.properties.ArchiveProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@RequiredArgsConstructor
+public class ArchiveConfig {
+
+  private final ArchiveProperties archiveProperties;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  /**
+   * Shared by all archives to open objects ahead of the one being written. When it is saturated
+   * the archive's own thread does the fetch, which slows that archive down instead of failing it.
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService archiveExecutor(MeterRegistry meterRegistry) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(archiveProperties.getThreads(),
+        archiveProperties.getThreads(), 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(archiveProperties.getQueueCapacity()),
+        ThreadFactories.named("archive", virtualThreads),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    return ExecutorServiceMetrics.monitor(meterRegistry, executor, "archive");
+  }
+}
@@ -0,0 +1,44 @@
+package callum.nightingale.api.config;
+
+import callum.nightingale.api.properties.DiffProperties;
+import callum.nightingale.api.properties.UploadProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@RequiredArgsConstructor
+public class DiffConfig {
+
+  private final DiffProperties diffProperties;
+  private final UploadProperties uploadProperties;
+
+  /**
+   * Fixed-size pool with a bounded queue, so diffs beyond capacity are rejected rather than
+   * queueing behind each other on request threads. The queue holds a further
+   * {@code upload.batchConcurrency} diffs, the most batch uploads can submit at once, so batches
+   * of any size fit alongside a full queue of single uploads.
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService diffExecutor(MeterRegistry meterRegistry) {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(diffProperties.getThreads(),
+        diffProperties.getThreads(), 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(
+            diffProperties.getQueueCapacity() + uploadProperties.getBatchConcurrency()),
+        runnable -> {
+          Thread thread = new Thread(runnable, "diff-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+    return ExecutorServiceMetrics.monitor(meterRegistry, executor, "diff");
+  }
+}
@@ -0,0 +1,45 @@
+package callum.nightingale.api.config;
+
+import callum.nightingale.api.properties.DownloadProperties;
+import callum.nightingale.api.service.download.DownloadStreamer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@RequiredArgsConstructor
+public class DownloadConfig implements WebMvcConfigurer {
+
+  private final DownloadProperties downloadProperties;
+  private final DownloadStreamer downloadStreamer;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  /**
+   * Runs streamed response bodies. Each stream holds an S3 connection for its whole transfer, so
+   * the pool is capped well below the S3 client's connection pool.
+   */
+  @Bean
+  public ThreadPoolTaskExecutor downloadTaskExecutor() {
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(downloadProperties.getMaxConcurrentStreams());
+    executor.setMaxPoolSize(downloadProperties.getMaxConcurrentStreams());
+    executor.setQueueCapacity(downloadProperties.getMaxConcurrentStreams());
+    executor.setThreadNamePrefix("download-");
+    executor.setVirtualThreads(virtualThreads);
+    return executor;
+  }
+
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    configurer.setTaskExecutor(downloadTaskExecutor());
+    // Large downloads legitimately outlast the container's default async timeout.
+    configurer.setDefaultTimeout(downloadProperties.getTimeout().toMillis());
+    configurer.registerCallableInterceptors(downloadStreamer);
+  }
+}
@@ -0,0 +1,43 @@
+package callum.nightingale.api.config;
+
+import callum.nightingale.api.properties.FanOutProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@RequiredArgsConstructor
+public class FanOutConfig {
+
+  private final FanOutProperties fanOutProperties;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  /**
+   * Runs the per-object S3 calls that one request fans out into. With virtual threads each call
+   * gets its own thread; otherwise a fixed pool is used and the caller runs the call itself when
+   * the queue is full. Either way {@code FanOut} caps the calls in flight.
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService fanOutExecutor(MeterRegistry meterRegistry) {
+    if (virtualThreads) {
+      // Micrometer cannot instrument a thread-per-task executor; there is no pool to measure.
+      return Executors.newThreadPerTaskExecutor(ThreadFactories.named("fanout", true));
+    }
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(fanOutProperties.getThreads(),
+        fanOutProperties.getThreads(), 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(fanOutProperties.getQueueCapacity()),
+        ThreadFactories.named("fanout", false),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    return ExecutorServiceMetrics.monitor(meterRegistry, executor, "fanout");
+  }
+}
@@ -0,0 +1,41 @@
+package callum.nightingale.api.config;
+
+import callum.nightingale.api.properties.S3Properties;
+import callum.nightingale.api.properties.StorageProperties;
+import callum.nightingale.api.service.storage.FileSystemS3Client;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * Serves every lane from local disk when {@code storage.backend} is {@code filesystem}, in place
+ * of {@link S3Config}. There is no async client, so the async endpoints use the blocking path.
+ */
+@Configuration
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "storage", name = "backend", havingValue = "filesystem")
+public class FileSystemStorageConfig {
+
+  private final StorageProperties storageProperties;
+  private final S3Properties s3Properties;
+
+  @Value("${s3.audit.bucketName}")
+  private String auditBucketName;
+
+  /**
+   * One client under each lane's name. Lanes exist to keep S3 connection pools apart, which local
+   * disk does not have.
+   */
+  @Bean({"s3Client", "uploadS3Client", "auditS3Client", "archiveS3Client"})
+  public S3Client fileSystemS3Client() {
+    List<String> bucketNames = new ArrayList<>(s3Properties.getBuckets());
+    bucketNames.add(auditBucketName);
+    return new FileSystemS3Client(Path.of(storageProperties.getRoot()), bucketNames);
+  }
+}
@@ -0,0 +1,41 @@
+package callum.nightingale.api.config;
+
+import callum.nightingale.api.properties.HedgeProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@RequiredArgsConstructor
+public class HedgeConfig {
+
+  private final HedgeProperties hedgeProperties;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  /**
+   * Runs the primary and hedge of each hedged read. A full pool rejects rather than queueing the
+   * caller: a rejected primary runs on the caller unhedged and a rejected hedge is not sent.
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService hedgeExecutor(MeterRegistry meterRegistry) {
+    if (virtualThreads) {
+      return Executors.newThreadPerTaskExecutor(ThreadFactories.named("hedge", true));
+    }
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(hedgeProperties.getThreads(),
+        hedgeProperties.getThreads(), 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(hedgeProperties.getQueueCapacity()),
+        ThreadFactories.named("hedge", false),
+        new ThreadPoolExecutor.AbortPolicy());
+    return ExecutorServiceMetrics.monitor(meterRegistry, executor, "hedge");
+  }
+}
@@ -1,27 +1,181 @@
 package callum.nightingale.api.config;
 
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.properties.LimiterProperties;
+import callum.nightingale.api.properties.S3AsyncProperties;
+import callum.nightingale.api.properties.S3Properties;
+import callum.nightingale.api.service.client.AdaptiveLimiter;
+import callum.nightingale.api.service.client.BreakerInterceptor;
+import callum.nightingale.api.service.client.CircuitBreakers;
+import callum.nightingale.api.service.client.LimiterInterceptor;
+import callum.nightingale.api.service.client.PoolMetricsPublisher;
+import callum.nightingale.api.service.client.S3CallMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import java.net.URI;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.retries.api.BackoffStrategy;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
 
 @Configuration
 @RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "storage", name = "backend", havingValue = "s3",
+    matchIfMissing = true)
 public class S3Config {
 
+  private final S3Properties s3Properties;
+  private final LimiterProperties limiterProperties;
+  private final AdaptiveLimiter adaptiveLimiter;
+  private final BreakerProperties breakerProperties;
+  private final CircuitBreakers circuitBreakers;
+  private final ObservationRegistry observationRegistry;
+
   @Value("${s3.endpoint}")
   private String endpoint;
 
+  /**
+   * Interactive lane: downloads, listings and previews.
+   */
+  @Bean
+  public S3Client s3Client(MeterRegistry meterRegistry) {
+    return laneClient(s3Properties.getLanes().getInteractive(), "interactive", meterRegistry);
+  }
+
+  /**
+   * Upload lane: the heads, reads and puts of single, batch and session uploads.
+   */
+  @Bean
+  public S3Client uploadS3Client(MeterRegistry meterRegistry) {
+    return laneClient(s3Properties.getLanes().getUpload(), "upload", meterRegistry);
+  }
+
+  /**
+   * Audit lane: audit writes and the listing and tag scans of audit search.
+   */
   @Bean
-  public S3Client s3Client() {
+  public S3Client auditS3Client(MeterRegistry meterRegistry) {
+    return laneClient(s3Properties.getLanes().getAudit(), "audit", meterRegistry);
+  }
+
+  /**
+   * Archive lane: the object reads of ZIP downloads, each of which keeps up to
+   * {@code archive.prefetch} GETs open, so archives queue for their own connections.
+   */
+  @Bean
+  public S3Client archiveS3Client(MeterRegistry meterRegistry) {
+    return laneClient(s3Properties.getLanes().getArchive(), "archive", meterRegistry);
+  }
+
+  private S3Client laneClient(S3Properties.Lane lane, String laneName,
+      MeterRegistry meterRegistry) {
+    S3Properties.Client client = s3Properties.getClient();
     return S3Client.builder()
         .endpointOverride(URI.create(endpoint))
         .region(Region.EU_WEST_2)
+        .forcePathStyle(client.isPathStyleAccess())
         .credentialsProvider(DefaultCredentialsProvider.create())
+        .httpClientBuilder(httpClientBuilder(lane))
+        .overrideConfiguration(laneOverrideConfiguration(meterRegistry, laneName))
         .build();
   }
+
+  private SdkHttpClient.Builder<?> httpClientBuilder(S3Properties.Lane lane) {
+    S3Properties.Client client = s3Properties.getClient();
+    if (client.getHttpClient() == S3Properties.HttpClient.URL_CONNECTION) {
+      return UrlConnectionHttpClient.builder()
+          .connectionTimeout(client.getConnectionTimeout())
+          .socketTimeout(client.getSocketTimeout());
+    }
+    return ApacheHttpClient.builder()
+        .maxConnections(lane.getMaxConnections())
+        .connectionAcquisitionTimeout(lane.getConnectionAcquisitionTimeout())
+        .connectionTimeout(client.getConnectionTimeout())
+        .socketTimeout(client.getSocketTimeout())
+        .connectionMaxIdleTime(client.getConnectionMaxIdleTime())
+        .connectionTimeToLive(client.getConnectionTimeToLive())
+        .tcpKeepAlive(client.isTcpKeepAlive());
+  }
+
+  /**
+   * Blocking lanes also sit behind the {@link AdaptiveLimiter}, with a limit per lane and bucket,
+   * which waits for a slot on the calling thread. It runs after the breaker, so refused calls never
+   * take a slot, and a call it sheds gives back its breaker permit.
+   */
+  private ClientOverrideConfiguration laneOverrideConfiguration(MeterRegistry meterRegistry,
+      String laneName) {
+    ClientOverrideConfiguration overrideConfiguration = overrideConfiguration(meterRegistry,
+        laneName);
+    if (!limiterProperties.isEnabled()) {
+      return overrideConfiguration;
+    }
+    return overrideConfiguration.toBuilder()
+        .addExecutionInterceptor(new LimiterInterceptor(adaptiveLimiter, laneName))
+        .build();
+  }
+
+  /**
+   * Non-blocking client for the endpoints that can complete without holding a request thread.
+   * Only created when {@code s3.async.enabled} is set; callers fall back to {@link S3Client}.
+   */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(prefix = "s3.async", name = "enabled", havingValue = "true")
+  public S3AsyncClient s3AsyncClient(S3AsyncProperties asyncProperties,
+      MeterRegistry meterRegistry) {
+    S3Properties.Client client = s3Properties.getClient();
+    return S3AsyncClient.builder()
+        .endpointOverride(URI.create(endpoint))
+        .region(Region.EU_WEST_2)
+        .forcePathStyle(client.isPathStyleAccess())
+        .credentialsProvider(DefaultCredentialsProvider.create())
+        .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+            .maxConcurrency(asyncProperties.getMaxConcurrency())
+            .connectionAcquisitionTimeout(asyncProperties.getConnectionAcquisitionTimeout())
+            .connectionTimeout(client.getConnectionTimeout())
+            .readTimeout(client.getSocketTimeout())
+            .writeTimeout(client.getSocketTimeout())
+            .connectionMaxIdleTime(client.getConnectionMaxIdleTime())
+            .tcpKeepAlive(client.isTcpKeepAlive()))
+        .overrideConfiguration(overrideConfiguration(meterRegistry, "async"))
+        .multipartEnabled(asyncProperties.isMultipartEnabled())
+        .multipartConfiguration(MultipartConfiguration.builder()
+            .thresholdInBytes(asyncProperties.getMultipartThresholdBytes())
+            .minimumPartSizeInBytes(asyncProperties.getMinimumPartSizeBytes())
+            .build())
+        .build();
+  }
+
+  private ClientOverrideConfiguration overrideConfiguration(MeterRegistry meterRegistry,
+      String clientName) {
+    S3Properties.Client client = s3Properties.getClient();
+    ClientOverrideConfiguration.Builder overrideConfiguration = ClientOverrideConfiguration
+        .builder()
+        .apiCallTimeout(client.getApiCallTimeout())
+        .apiCallAttemptTimeout(client.getApiCallAttemptTimeout())
+        .retryStrategy(AwsRetryStrategy.forRetryMode(client.getRetryMode()).toBuilder()
+            .maxAttempts(client.getMaxAttempts())
+            .backoffStrategy(BackoffStrategy.exponentialDelay(client.getBaseDelay(),
+                client.getMaxBackoff()))
+            .build())
+        .addExecutionInterceptor(new S3CallMetrics(meterRegistry, observationRegistry,
+            clientName))
+        .addMetricPublisher(new PoolMetricsPublisher(meterRegistry, clientName));
+    if (breakerProperties.isEnabled()) {
+      overrideConfiguration.addExecutionInterceptor(new BreakerInterceptor(circuitBreakers));
+    }
+    return overrideConfiguration.build();
+  }
 }
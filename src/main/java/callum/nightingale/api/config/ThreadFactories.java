@@ -0,0 +1,27 @@
+package callum.nightingale.api.config;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class ThreadFactories {
+
+  private ThreadFactories() {
+  }
+
+  /**
+   * Names threads {@code <prefix>-N}. With {@code virtual} set the threads are virtual, so a task
+   * blocked on S3 releases its carrier; the pool size in front of the factory still bounds how
+   * many run at once.
+   */
+  static ThreadFactory named(String prefix, boolean virtual) {
+    if (virtual) {
+      return Thread.ofVirtual().name(prefix + "-", 1).factory();
+    }
+    AtomicInteger threadCount = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,37 @@
+package callum.nightingale.api.config;
+
+import callum.nightingale.api.properties.UploadProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@RequiredArgsConstructor
+public class UploadConfig {
+
+  private final UploadProperties uploadProperties;
+
+  @Value("${spring.threads.virtual.enabled:false}")
+  private boolean virtualThreads;
+
+  /**
+   * Runs the files of batch uploads, {@code upload.batchConcurrency} at a time across all batches.
+   * When the queue is full the request thread uploads the file itself.
+   */
+  @Bean(destroyMethod = "shutdownNow")
+  public ExecutorService uploadExecutor(MeterRegistry meterRegistry) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(uploadProperties.getBatchConcurrency(),
+        uploadProperties.getBatchConcurrency(), 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(uploadProperties.getBatchQueueCapacity()),
+        ThreadFactories.named("upload", virtualThreads),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    return ExecutorServiceMetrics.monitor(meterRegistry, executor, "upload");
+  }
+}
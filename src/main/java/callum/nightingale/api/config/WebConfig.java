@@ -1,8 +1,18 @@
 package callum.nightingale.api.config;
 
+import callum.nightingale.api.properties.TimingProperties;
+import callum.nightingale.api.service.client.CallOrigin;
+import callum.nightingale.api.service.timing.TimedJsonConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
@@ -21,4 +31,49 @@ public class WebConfig {
       }
     };
   }
+
+  /**
+   * Replaces the default JSON converter so serialization shows in {@code Server-Timing}.
+   */
+  @Bean
+  public TimedJsonConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper,
+      ObservationRegistry observationRegistry, TimingProperties timingProperties) {
+    return new TimedJsonConverter(objectMapper, observationRegistry,
+        timingProperties.getSerializeBufferBytes());
+  }
+
+  /**
+   * Marks the request thread with the matched endpoint, so S3 call metrics can be attributed to
+   * it.
+   */
+  @Bean
+  public WebMvcConfigurer callOriginConfigurer() {
+    return new WebMvcConfigurer() {
+      @Override
+      public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new AsyncHandlerInterceptor() {
+          @Override
+          public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+              Object handler) {
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            CallOrigin.set(request.getMethod() + " "
+                + (pattern != null ? pattern : request.getRequestURI()));
+            return true;
+          }
+
+          @Override
+          public void afterConcurrentHandlingStarted(HttpServletRequest request,
+              HttpServletResponse response, Object handler) {
+            CallOrigin.clear();
+          }
+
+          @Override
+          public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+              Object handler, Exception ex) {
+            CallOrigin.clear();
+          }
+        });
+      }
+    };
+  }
 }
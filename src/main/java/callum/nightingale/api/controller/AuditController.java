@@ -5,7 +5,9 @@ import callum.nightingale.api.dto.audit.request.AuditDiffRequest;
 import callum.nightingale.api.dto.audit.request.AuditSearchRequest;
 import callum.nightingale.api.dto.audit.response.AuditSearchResponse;
 import callum.nightingale.api.service.AuditService;
+import java.util.concurrent.CompletableFuture;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -19,12 +21,14 @@ public class AuditController {
   private final AuditService auditService;
 
   @PostMapping("/search")
-  public AuditSearchResponse searchAuditRecords(@RequestBody AuditSearchRequest request) {
-    return auditService.searchObjectsByMetadata(request);
+  public CompletableFuture<ResponseEntity<AuditSearchResponse>> searchAuditRecords(
+      @RequestBody AuditSearchRequest request) {
+    return auditService.searchObjectsByMetadataAsync(request);
   }
 
   @PostMapping("/diff")
-  public AuditDiff getAuditDiff(@RequestBody AuditDiffRequest request) {
-    return auditService.getAuditDiff(request.getAuditObjectKey());
+  public CompletableFuture<ResponseEntity<AuditDiff>> getAuditDiff(
+      @RequestBody AuditDiffRequest request) {
+    return auditService.getAuditDiffAsync(request.getAuditObjectKey());
   }
 }
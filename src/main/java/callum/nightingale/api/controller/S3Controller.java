@@ -1,21 +1,31 @@
 package callum.nightingale.api.controller;
 
+import callum.nightingale.api.dto.s3.model.PreviewMode;
+import callum.nightingale.api.dto.s3.request.ArchiveRequest;
 import callum.nightingale.api.dto.s3.request.GetFileRequest;
+import callum.nightingale.api.dto.s3.response.BatchUploadResponse;
 import callum.nightingale.api.dto.s3.response.ListBucketsResponse;
 import callum.nightingale.api.dto.s3.response.ListContentsResponse;
 import callum.nightingale.api.dto.s3.response.PreUploadObjectResponse;
+import callum.nightingale.api.dto.s3.response.PreviewObjectResponse;
+import callum.nightingale.api.service.ArchiveService;
+import callum.nightingale.api.service.PreviewService;
 import callum.nightingale.api.service.S3Service;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/v1/s3")
@@ -23,6 +33,8 @@ import org.springframework.web.multipart.MultipartFile;
 public class S3Controller {
 
   private final S3Service s3Service;
+  private final PreviewService previewService;
+  private final ArchiveService archiveService;
 
   @GetMapping("/buckets")
   public ListBucketsResponse listBuckets() {
@@ -30,14 +42,38 @@ public class S3Controller {
   }
 
   @GetMapping("/buckets/{bucketName}/contents")
-  public ListContentsResponse listContents(@PathVariable String bucketName) {
-    return s3Service.listContents(bucketName);
+  public CompletableFuture<ResponseEntity<ListContentsResponse>> listContents(
+      @PathVariable String bucketName) {
+    return s3Service.listContentsAsync(bucketName);
+  }
+
+  @GetMapping("/buckets/{bucketName}/file")
+  public ResponseEntity<StreamingResponseBody> downloadFile(@PathVariable String bucketName,
+      @RequestParam("objectKey") String objectKey, @RequestHeader HttpHeaders headers) {
+    return s3Service.getFile(bucketName, objectKey, headers);
   }
 
   @PostMapping("/buckets/{bucketName}/file")
-  public ResponseEntity<InputStreamResource> getFile(@PathVariable String bucketName,
-      @RequestBody GetFileRequest request) {
-    return s3Service.getFile(bucketName, request.getObjectKey());
+  public ResponseEntity<StreamingResponseBody> getFile(@PathVariable String bucketName,
+      @RequestBody GetFileRequest request, @RequestHeader HttpHeaders headers) {
+    return s3Service.getFile(bucketName, request.getObjectKey(), headers);
+  }
+
+  @PostMapping("/buckets/{bucketName}/archive")
+  public ResponseEntity<StreamingResponseBody> downloadArchive(@PathVariable String bucketName,
+      @RequestBody ArchiveRequest request) {
+    return archiveService.archive(bucketName, request);
+  }
+
+  @GetMapping("/buckets/{bucketName}/preview")
+  public PreviewObjectResponse previewObject(
+      @PathVariable String bucketName,
+      @RequestParam("objectKey") String objectKey,
+      @RequestParam(value = "mode", defaultValue = "HEAD") PreviewMode mode,
+      @RequestParam(value = "fromLine", defaultValue = "0") long fromLine,
+      @RequestParam(value = "lines", defaultValue = "100") int lines,
+      @RequestParam(value = "buildIndex", defaultValue = "false") boolean buildIndex) {
+    return previewService.preview(bucketName, objectKey, mode, fromLine, lines, buildIndex);
   }
 
   @PostMapping("/buckets/{bucketName}/pre-upload")
@@ -51,8 +87,17 @@ public class S3Controller {
   @PostMapping("/buckets/{bucketName}/upload")
   public void uploadObject(
       @PathVariable String bucketName,
-      @RequestParam("file") MultipartFile file,
-      @RequestParam("objectKey") String objectKey) {
-    s3Service.uploadFile(bucketName, file, objectKey);
+      @RequestParam(value = "file", required = false) MultipartFile file,
+      @RequestParam("objectKey") String objectKey,
+      @RequestParam(value = "uploadToken", required = false) String uploadToken) {
+    s3Service.uploadFile(bucketName, file, objectKey, uploadToken);
+  }
+
+  @PostMapping("/buckets/{bucketName}/uploads")
+  public BatchUploadResponse uploadObjects(
+      @PathVariable String bucketName,
+      @RequestParam("files") List<MultipartFile> files,
+      @RequestParam(value = "objectKeys", required = false) List<String> objectKeys) {
+    return s3Service.uploadFiles(bucketName, files, objectKeys);
   }
 }
@@ -1,5 +1,6 @@
 package callum.nightingale.api.dto.audit.model;
 
+import callum.nightingale.api.dto.s3.model.ByteRange;
 import java.util.List;
 import lombok.Builder;
 import lombok.Data;
@@ -9,4 +10,6 @@ import lombok.Data;
 public class AuditDiff {
 
   List<String> unifiedDiff;
+  boolean binary;
+  List<ByteRange> changedRanges;
 }
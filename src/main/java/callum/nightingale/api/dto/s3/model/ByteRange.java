@@ -0,0 +1,12 @@
+package callum.nightingale.api.dto.s3.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ByteRange {
+
+  long offset;
+  long length;
+}
@@ -0,0 +1,7 @@
+package callum.nightingale.api.dto.s3.model;
+
+public enum PreviewMode {
+  HEAD,
+  TAIL,
+  OFFSET
+}
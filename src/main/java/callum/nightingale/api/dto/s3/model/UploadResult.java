@@ -0,0 +1,15 @@
+package callum.nightingale.api.dto.s3.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class UploadResult {
+
+  String objectKey;
+  UploadStatus status;
+  boolean diffTooLarge;
+  boolean binary;
+  String error;
+}
@@ -0,0 +1,8 @@
+package callum.nightingale.api.dto.s3.model;
+
+public enum UploadStatus {
+  CREATED,
+  MODIFIED,
+  UNCHANGED,
+  FAILED
+}
@@ -0,0 +1,18 @@
+package callum.nightingale.api.dto.s3.request;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchiveRequest {
+
+  List<String> objectKeys;
+  String prefix;
+  boolean compress;
+}
@@ -0,0 +1,13 @@
+package callum.nightingale.api.dto.s3.response;
+
+import callum.nightingale.api.dto.s3.model.UploadResult;
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BatchUploadResponse {
+
+  List<UploadResult> results;
+}
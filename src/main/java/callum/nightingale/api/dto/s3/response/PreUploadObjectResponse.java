@@ -1,6 +1,6 @@
 package callum.nightingale.api.dto.s3.response;
 
-import com.github.difflib.patch.AbstractDelta;
+import callum.nightingale.api.dto.s3.model.ByteRange;
 import java.util.List;
 import lombok.Builder;
 import lombok.Data;
@@ -10,5 +10,10 @@ import lombok.Data;
 public class PreUploadObjectResponse {
 
   boolean newUpload;
+  boolean unchanged;
+  boolean diffTooLarge;
+  boolean binary;
   List<String> unifiedDiff;
+  List<ByteRange> changedRanges;
+  String uploadToken;
 }
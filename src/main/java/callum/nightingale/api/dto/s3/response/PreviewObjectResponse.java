@@ -0,0 +1,20 @@
+package callum.nightingale.api.dto.s3.response;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class PreviewObjectResponse {
+
+  String objectKey;
+  String eTag;
+  long objectSize;
+  Long firstLine;
+  Long totalLines;
+  List<String> lines;
+  boolean endOfObject;
+  boolean truncated;
+  long bytesRead;
+}
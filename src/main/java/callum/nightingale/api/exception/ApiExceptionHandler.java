@@ -32,6 +32,15 @@ public class ApiExceptionHandler {
         ErrorCodes.INVALID_PAYLOAD.getReason());
   }
 
+  @ResponseStatus(HttpStatus.BAD_REQUEST)
+  @ExceptionHandler({
+      BadRequestException.class
+  })
+  public ExceptionResponse invalidRequest(Exception ex) {
+    log.error("Bad Request (400): ", ex);
+    return new ExceptionResponse(ErrorCodes.INVALID_PAYLOAD.name(), ex.getMessage());
+  }
+
   @ResponseStatus(HttpStatus.NOT_FOUND)
   @ExceptionHandler({
       NotFoundException.class
@@ -50,6 +59,33 @@ public class ApiExceptionHandler {
     return new ExceptionResponse(ErrorCodes.FORBIDDEN.name(), ex.getMessage());
   }
 
+  @ResponseStatus(HttpStatus.CONFLICT)
+  @ExceptionHandler({
+      ConflictException.class
+  })
+  public ExceptionResponse conflict(Exception ex) {
+    log.error("Conflict (409): ", ex);
+    return new ExceptionResponse(ErrorCodes.CONFLICT.name(), ex.getMessage());
+  }
+
+  @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+  @ExceptionHandler({
+      ThrottledException.class
+  })
+  public ExceptionResponse throttled(Exception ex) {
+    log.warn("Service Unavailable (503): {}", ex.getMessage());
+    return new ExceptionResponse(ErrorCodes.THROTTLED.name(), ex.getMessage());
+  }
+
+  @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+  @ExceptionHandler({
+      ServiceUnavailableException.class
+  })
+  public ExceptionResponse unavailable(Exception ex) {
+    log.warn("Service Unavailable (503): {}", ex.getMessage());
+    return new ExceptionResponse(ErrorCodes.UNAVAILABLE.name(), ex.getMessage());
+  }
+
   @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
   @ExceptionHandler
   public ExceptionResponse serverError(Exception ex) {
@@ -65,7 +101,9 @@ public class ApiExceptionHandler {
     SERVER_ERROR("AWS Client is currently experiencing problems that require live service intervention."),
     FORBIDDEN("You are forbidden to perform the action requested."),
     CONFLICT("There has been a conflict whilst making the requested updates."),
-    NOT_FOUND("The entity you are searching for is not found.");
+    NOT_FOUND("The entity you are searching for is not found."),
+    THROTTLED("The storage backend is at capacity. Please retry shortly."),
+    UNAVAILABLE("The storage backend is unavailable. Please retry shortly.");
 
     private final String reason;
   }
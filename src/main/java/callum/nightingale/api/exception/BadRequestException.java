@@ -0,0 +1,9 @@
+package callum.nightingale.api.exception;
+
+public class BadRequestException extends RuntimeException {
+
+    public BadRequestException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,9 @@
+package callum.nightingale.api.exception;
+
+public class ConflictException extends RuntimeException {
+
+    public ConflictException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,9 @@
+package callum.nightingale.api.exception;
+
+public class ServiceUnavailableException extends RuntimeException {
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+
+}
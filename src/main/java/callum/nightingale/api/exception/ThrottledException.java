@@ -0,0 +1,9 @@
+package callum.nightingale.api.exception;
+
+public class ThrottledException extends RuntimeException {
+
+    public ThrottledException(String message) {
+        super(message);
+    }
+
+}
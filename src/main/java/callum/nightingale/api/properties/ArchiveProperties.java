@@ -0,0 +1,25 @@
+package callum.nightingale.api.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "archive")
+public class ArchiveProperties {
+
+  private int threads = 16;
+  private int queueCapacity = 256;
+  private int prefetch = 8;
+  private int prefetchBufferBytes = 256 * 1024;
+  private int bufferSize = 64 * 1024;
+  private int deflateLevel = 1;
+  private int maxObjects = 10_000;
+}
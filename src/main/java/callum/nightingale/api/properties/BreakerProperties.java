@@ -0,0 +1,26 @@
+package callum.nightingale.api.properties;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "breaker")
+public class BreakerProperties {
+
+  private boolean enabled = true;
+  private int windowSize = 20;
+  private int minimumCalls = 10;
+  private int failureRatePercent = 50;
+  private Duration openFor = Duration.ofSeconds(30);
+  private int halfOpenCalls = 3;
+  private int staleEntries = 256;
+}
@@ -0,0 +1,24 @@
+package callum.nightingale.api.properties;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "cache")
+public class CacheProperties {
+
+  private boolean enabled = true;
+  private long maxObjectBytes = 1024 * 1024;
+  private long maxBytes = 64L * 1024 * 1024;
+  private Duration revalidateAfter = Duration.ofSeconds(5);
+  private boolean offHeap = false;
+}
@@ -0,0 +1,29 @@
+package callum.nightingale.api.properties;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "diff")
+public class DiffProperties {
+
+  private Charset charset = StandardCharsets.UTF_8;
+  private int contextLines = 3;
+  private long maxMemoryBytes = 256L * 1024 * 1024;
+  private int maxEditDistance = 1000;
+  private int blockSize = 4096;
+  private int threads = 2;
+  private int queueCapacity = 16;
+  private Duration timeout = Duration.ofSeconds(10);
+}
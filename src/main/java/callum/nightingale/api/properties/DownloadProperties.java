@@ -0,0 +1,22 @@
+package callum.nightingale.api.properties;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "download")
+public class DownloadProperties {
+
+  private int bufferSize = 256 * 1024;
+  private int maxConcurrentStreams = 32;
+  private Duration timeout = Duration.ofHours(1);
+}
@@ -0,0 +1,21 @@
+package callum.nightingale.api.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "fanout")
+public class FanOutProperties {
+
+  private int threads = 32;
+  private int queueCapacity = 1024;
+  private int maxConcurrency = 25;
+}
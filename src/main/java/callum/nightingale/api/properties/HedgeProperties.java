@@ -0,0 +1,27 @@
+package callum.nightingale.api.properties;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "hedge")
+public class HedgeProperties {
+
+  private boolean enabled = false;
+  private Duration delay;
+  private Duration initialDelay = Duration.ofMillis(200);
+  private Duration minDelay = Duration.ofMillis(20);
+  private double budgetPercent = 5;
+  private int maxBurst = 10;
+  private int threads = 64;
+  private int queueCapacity = 64;
+}
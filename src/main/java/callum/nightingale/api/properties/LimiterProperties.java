@@ -0,0 +1,26 @@
+package callum.nightingale.api.properties;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "limiter")
+public class LimiterProperties {
+
+  private boolean enabled = true;
+  private int initialLimit = 20;
+  private int minLimit = 2;
+  private int maxLimit = 200;
+  private double backoffRatio = 0.9;
+  private Duration latencyThreshold = Duration.ofSeconds(2);
+  private Duration maxWait = Duration.ofMillis(500);
+}
@@ -0,0 +1,28 @@
+package callum.nightingale.api.properties;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "preview")
+public class PreviewProperties {
+
+  private Charset charset = StandardCharsets.UTF_8;
+  private int maxLines = 1000;
+  private int maxLineBytes = 16 * 1024;
+  private int initialRangeBytes = 64 * 1024;
+  private int maxRangeBytes = 8 * 1024 * 1024;
+  private long maxScanBytes = 64L * 1024 * 1024;
+  private int indexInterval = 1000;
+  private int indexCacheSize = 64;
+}
@@ -0,0 +1,25 @@
+package callum.nightingale.api.properties;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "s3.async")
+public class S3AsyncProperties {
+
+  private boolean enabled = false;
+  private int maxConcurrency = 512;
+  private Duration connectionAcquisitionTimeout = Duration.ofSeconds(10);
+  private boolean multipartEnabled = true;
+  private long multipartThresholdBytes = 8 * 1024 * 1024;
+  private long minimumPartSizeBytes = 8 * 1024 * 1024;
+}
@@ -1,5 +1,6 @@
 package callum.nightingale.api.properties;
 
+import java.time.Duration;
 import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
@@ -7,6 +8,7 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.retry.RetryMode;
 
 @Getter
 @Setter
@@ -17,4 +19,63 @@ import org.springframework.stereotype.Component;
 public class S3Properties {
 
   private List<String> buckets;
+  private Client client = new Client();
+  private Lanes lanes = new Lanes();
+
+  /**
+   * Timeout and retry settings shared by the S3 clients; pool sizes are per lane. Unset API call
+   * timeouts leave the SDK's (unbounded) defaults in place. Path-style access is for S3-compatible
+   * endpoints without per-bucket host names. The blocking lanes use Apache's pooled HTTP client
+   * unless {@code httpClient} is {@code URL_CONNECTION}, the JDK's lighter client. It ignores the
+   * lane pool settings and keeps only {@code http.maxConnections} (5) idle connections per host.
+   */
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class Client {
+
+    private Duration connectionTimeout = Duration.ofSeconds(2);
+    private Duration socketTimeout = Duration.ofSeconds(30);
+    private Duration connectionMaxIdleTime = Duration.ofSeconds(60);
+    private Duration connectionTimeToLive;
+    private boolean tcpKeepAlive = true;
+    private Duration apiCallTimeout;
+    private Duration apiCallAttemptTimeout;
+    private RetryMode retryMode = RetryMode.STANDARD;
+    private int maxAttempts = 3;
+    private Duration baseDelay = Duration.ofMillis(100);
+    private Duration maxBackoff = Duration.ofSeconds(20);
+    private boolean pathStyleAccess;
+    private HttpClient httpClient = HttpClient.APACHE;
+  }
+
+  public enum HttpClient {
+    APACHE,
+    URL_CONNECTION
+  }
+
+  /**
+   * Each lane gets its own client and connection pool, so a long audit scan queues behind its own
+   * connections rather than the ones serving downloads.
+   */
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  public static class Lanes {
+
+    private Lane interactive = new Lane(50, Duration.ofSeconds(10));
+    private Lane upload = new Lane(25, Duration.ofSeconds(30));
+    private Lane audit = new Lane(25, Duration.ofSeconds(60));
+    private Lane archive = new Lane(25, Duration.ofSeconds(30));
+  }
+
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Lane {
+
+    private int maxConnections;
+    private Duration connectionAcquisitionTimeout;
+  }
 }
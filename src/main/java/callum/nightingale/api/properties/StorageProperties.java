@@ -0,0 +1,28 @@
+package callum.nightingale.api.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Where objects are stored: S3, or a directory per bucket under {@code root} on local disk.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "storage")
+public class StorageProperties {
+
+  private Backend backend = Backend.S3;
+  private String root = "data";
+
+  public enum Backend {
+    S3,
+    FILESYSTEM
+  }
+}
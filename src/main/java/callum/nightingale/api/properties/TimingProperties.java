@@ -0,0 +1,23 @@
+package callum.nightingale.api.properties;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "timing")
+public class TimingProperties {
+
+  private boolean enabled = true;
+  private Duration slowThreshold = Duration.ofSeconds(2);
+  private double slowSampleRate = 1.0;
+  private int serializeBufferBytes = 64 * 1024;
+}
@@ -0,0 +1,24 @@
+package callum.nightingale.api.properties;
+
+import java.time.Duration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = "upload")
+public class UploadProperties {
+
+  private Duration sessionTtl = Duration.ofMinutes(5);
+  private int maxSessions = 100;
+  private int batchConcurrency = 8;
+  private int batchQueueCapacity = 512;
+  private int maxBatchFiles = 500;
+}
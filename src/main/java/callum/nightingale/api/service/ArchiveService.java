@@ -0,0 +1,112 @@
+package callum.nightingale.api.service;
+
+import callum.nightingale.api.dto.audit.model.AuditEventType;
+import callum.nightingale.api.dto.s3.request.ArchiveRequest;
+import callum.nightingale.api.exception.BadRequestException;
+import callum.nightingale.api.exception.ForbiddenException;
+import callum.nightingale.api.exception.NotFoundException;
+import callum.nightingale.api.properties.ArchiveProperties;
+import callum.nightingale.api.properties.S3Properties;
+import callum.nightingale.api.service.archive.ArchiveWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+@Service
+@RequiredArgsConstructor
+public class ArchiveService {
+
+  private static final String userName = "admin";
+  private final S3Client s3Client;
+  private final S3Client archiveS3Client;
+  private final AuditService auditService;
+  private final S3Properties s3Properties;
+  private final ArchiveProperties archiveProperties;
+  private final ExecutorService archiveExecutor;
+
+  /**
+   * Streams the listed objects, or every object under the prefix, as one ZIP archive. The whole
+   * download is audited as a single view listing the keys it contains.
+   */
+  public ResponseEntity<StreamingResponseBody> archive(String bucketName, ArchiveRequest request) {
+    if (!s3Properties.getBuckets().contains(bucketName)) {
+      throw new ForbiddenException(String.format("Forbidden to access bucket %s", bucketName));
+    }
+    List<String> objectKeys = resolveKeys(bucketName, request);
+
+    String auditKey = request.getPrefix() != null && request.getObjectKeys() == null
+        ? request.getPrefix()
+        : String.format("archive of %d objects", objectKeys.size());
+    auditService.writeAuditDiff(AuditEventType.VIEW, bucketName, auditKey, userName, objectKeys);
+
+    ArchiveWriter writer = new ArchiveWriter(objectKeys,
+        objectKey -> archiveS3Client.getObject(GetObjectRequest.builder()
+            .bucket(bucketName)
+            .key(objectKey)
+            .build()),
+        archiveExecutor, archiveProperties, request.isCompress());
+
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.parseMediaType("application/zip"));
+    headers.setContentDisposition(ContentDisposition.attachment()
+        .filename(bucketName + ".zip")
+        .build());
+    return new ResponseEntity<>(writer::writeTo, headers, HttpStatus.OK);
+  }
+
+  private List<String> resolveKeys(String bucketName, ArchiveRequest request) {
+    List<String> objectKeys;
+    if (request.getObjectKeys() != null && !request.getObjectKeys().isEmpty()) {
+      objectKeys = new ArrayList<>(new LinkedHashSet<>(request.getObjectKeys()));
+    } else if (request.getPrefix() != null) {
+      objectKeys = listKeys(bucketName, request.getPrefix());
+    } else {
+      throw new BadRequestException("Either objectKeys or prefix is required");
+    }
+    if (objectKeys.size() > archiveProperties.getMaxObjects()) {
+      throw new BadRequestException(String.format("An archive can hold at most %d objects",
+          archiveProperties.getMaxObjects()));
+    }
+    return objectKeys;
+  }
+
+  private List<String> listKeys(String bucketName, String prefix) {
+    List<String> objectKeys = new ArrayList<>();
+    String continuationToken = null;
+    do {
+      ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request.builder()
+          .bucket(bucketName)
+          .prefix(prefix)
+          .continuationToken(continuationToken)
+          .build();
+      ListObjectsV2Response listObjectsV2Response;
+      try {
+        listObjectsV2Response = s3Client.listObjectsV2(listObjectsV2Request);
+      } catch (NoSuchBucketException e) {
+        throw new NotFoundException(String.format("Bucket %s not found", bucketName));
+      }
+      listObjectsV2Response.contents().stream()
+          // Zero-byte keys ending in a slash are folder markers made by the console.
+          .filter(object -> !object.key().endsWith("/"))
+          .map(S3Object::key)
+          .forEach(objectKeys::add);
+      continuationToken = listObjectsV2Response.nextContinuationToken();
+    } while (continuationToken != null && objectKeys.size() <= archiveProperties.getMaxObjects());
+    return objectKeys;
+  }
+}
@@ -5,23 +5,42 @@ import callum.nightingale.api.dto.audit.model.AuditEventType;
 import callum.nightingale.api.dto.audit.model.AuditInfo;
 import callum.nightingale.api.dto.audit.request.AuditSearchRequest;
 import callum.nightingale.api.dto.audit.response.AuditSearchResponse;
+import callum.nightingale.api.dto.s3.model.ByteRange;
+import callum.nightingale.api.service.cache.StaleCache;
+import callum.nightingale.api.service.client.Hedger;
+import callum.nightingale.api.service.client.SingleFlight;
+import callum.nightingale.api.service.diff.BlockDelta;
+import callum.nightingale.api.service.fanout.FanOut;
+import callum.nightingale.api.service.timing.RequestTimings;
+import callum.nightingale.api.service.upload.Spool;
+import io.micrometer.observation.ObservationRegistry;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import lombok.Builder;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
@@ -37,7 +56,14 @@ import software.amazon.awssdk.services.s3.model.Tagging;
 @RequiredArgsConstructor
 public class AuditService {
 
-  private final S3Client s3Client;
+  private static final String TEXT_DIFF = "text/plain; charset=UTF-8";
+  private final S3Client auditS3Client;
+  private final Optional<S3AsyncClient> s3AsyncClient;
+  private final FanOut fanOut;
+  private final Hedger hedger;
+  private final SingleFlight singleFlight;
+  private final StaleCache staleCache;
+  private final ObservationRegistry observationRegistry;
 
   @Value("${s3.audit.bucketName}")
   private String auditBucketName;
@@ -52,12 +78,62 @@ public class AuditService {
       return;
     }
 
-    String diffContent = String.join("\n", unifiedDiff);
+    byte[] diffContent = String.join("\n", unifiedDiff).getBytes(StandardCharsets.UTF_8);
+    RequestTimings.span("audit", observationRegistry).observe(() -> auditS3Client.putObject(
+        auditPutRequest(eventType, bucketName, objectKey, userName, TEXT_DIFF),
+        RequestBody.fromInputStream(new ByteArrayInputStream(diffContent), diffContent.length)));
+  }
+
+  /**
+   * Writes a binary {@link BlockDelta} as the audit record; {@link #getAuditDiff} recognises it by
+   * its content type.
+   */
+  public void writeAuditDelta(AuditEventType eventType, String bucketName, String objectKey,
+      String userName, Spool delta) {
+    if (!auditEnabled) {
+      return;
+    }
+
+    try (InputStream deltaContent = delta.openInputStream()) {
+      RequestTimings.span("audit", observationRegistry).observe(() -> auditS3Client.putObject(
+          auditPutRequest(eventType, bucketName, objectKey, userName, BlockDelta.CONTENT_TYPE),
+          RequestBody.fromInputStream(deltaContent, delta.size())));
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to write audit delta", e);
+    }
+  }
+
+  /**
+   * Writes the audit records of one batch upload together, through {@link FanOut}, so a large
+   * batch stays within {@code fanout.maxConcurrency}. Returns each record's failure, or
+   * {@code null} where it was written, in record order.
+   */
+  public List<RuntimeException> writeAuditBatch(String bucketName, String userName,
+      List<BatchRecord> records) {
+    return fanOut.map(records, record -> {
+      try {
+        if (record.getDelta() != null) {
+          writeAuditDelta(record.getEventType(), bucketName, record.getObjectKey(), userName,
+              record.getDelta());
+        } else {
+          writeAuditDiff(record.getEventType(), bucketName, record.getObjectKey(), userName,
+              record.getUnifiedDiff());
+        }
+        return null;
+      } catch (RuntimeException e) {
+        return e;
+      }
+    });
+  }
+
+  private PutObjectRequest auditPutRequest(AuditEventType eventType, String bucketName,
+      String objectKey, String userName, String contentType) {
     String auditKey = String.format("%s/%s", eventType.name(), UUID.randomUUID());
 
-    PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+    return PutObjectRequest.builder()
         .bucket(auditBucketName)
         .key(auditKey)
+        .contentType(contentType)
         .tagging(Tagging.builder()
             .tagSet(List.of(
                 Tag.builder()
@@ -75,118 +151,252 @@ public class AuditService {
             ))
             .build())
         .build();
-
-    s3Client.putObject(putObjectRequest,
-        RequestBody.fromInputStream(
-            new ByteArrayInputStream(diffContent.getBytes(StandardCharsets.UTF_8)),
-            diffContent.length()
-        ));
   }
 
+  /**
+   * Tags are fetched through {@link FanOut}, a page at a time, and those fetched while filtering
+   * are reused when the records are built.
+   */
   public AuditSearchResponse searchObjectsByMetadata(AuditSearchRequest searchRequest) {
 
     List<S3Object> matchingObjects = new ArrayList<>();
+    Map<String, Map<String, String>> tagsByKey = new HashMap<>();
     String continuationToken = null;
 
     do {
-      ListObjectsV2Request.Builder listObjectsV2RequestBuilder = ListObjectsV2Request.builder()
-          .bucket(auditBucketName);
+      ListObjectsV2Response listObjectsV2Response = auditS3Client.listObjectsV2(
+          auditListRequest(searchRequest, continuationToken));
 
-      if (continuationToken != null) {
-        listObjectsV2RequestBuilder.continuationToken(continuationToken);
+      List<S3Object> inDateRange = listObjectsV2Response.contents().stream()
+          .filter(s3Object -> matchesDates(s3Object, searchRequest))
+          .toList();
+      if (hasTagFilter(searchRequest)) {
+        List<Map<String, String>> tags = fanOut.map(inDateRange,
+            s3Object -> getTags(s3Object.key()));
+        for (int i = 0; i < inDateRange.size(); i++) {
+          tagsByKey.put(inDateRange.get(i).key(), tags.get(i));
+          if (matchesTags(tags.get(i), searchRequest)) {
+            matchingObjects.add(inDateRange.get(i));
+          }
+        }
+      } else {
+        matchingObjects.addAll(inDateRange);
       }
 
-      if (searchRequest.getEventType() != null) {
-        listObjectsV2RequestBuilder.prefix(searchRequest.getEventType().name());
-      }
+      continuationToken = listObjectsV2Response.nextContinuationToken();
+    } while (continuationToken != null && matchingObjects.size() <= maxAuditRecords);
 
-      ListObjectsV2Response listObjectsV2Response = s3Client.listObjectsV2(
-          listObjectsV2RequestBuilder.build());
+    return AuditSearchResponse.builder()
+        .auditRecords(fanOut.map(limit(matchingObjects),
+                s3Object -> auditInfo(s3Object, Optional.ofNullable(tagsByKey.get(s3Object.key()))
+                    .orElseGet(() -> getTags(s3Object.key()))))
+            .stream()
+            .sorted((a, b) -> b.getAuditDate().compareTo(a.getAuditDate()))
+            .toList())
+        .build();
+  }
 
-      List<S3Object> filteredObjects = listObjectsV2Response.contents().stream()
-          .filter(s3Object -> {
-            boolean matches = true;
+  /**
+   * Non-blocking form of {@link #searchObjectsByMetadata}: pages are listed one after another and
+   * each page's tags are fetched concurrently, within {@code fanout.maxConcurrency}. Tags fetched
+   * while filtering are reused when the records are built. Without an {@link S3AsyncClient} the
+   * blocking search is used. While S3 is out the last good result of the same search is served
+   * stale.
+   */
+  public CompletableFuture<ResponseEntity<AuditSearchResponse>> searchObjectsByMetadataAsync(
+      AuditSearchRequest searchRequest) {
+    return staleCache.serve("searchAudit", searchRequest, () -> s3AsyncClient.isEmpty()
+        ? CompletableFuture.completedFuture(searchObjectsByMetadata(searchRequest))
+        : searchNonBlocking(searchRequest));
+  }
 
-            LocalDateTime lastModified = LocalDateTime.ofInstant(s3Object.lastModified(),
-                ZoneId.of("Europe/London"));
-            if (searchRequest.getFromDate() != null && lastModified.isBefore(
-                searchRequest.getFromDate())) {
-              matches = false;
-            }
-            if (searchRequest.getToDate() != null && lastModified.isAfter(
-                searchRequest.getToDate())) {
-              matches = false;
+  private CompletableFuture<AuditSearchResponse> searchNonBlocking(
+      AuditSearchRequest searchRequest) {
+    Map<String, Map<String, String>> tagsByKey = new ConcurrentHashMap<>();
+    return searchPage(searchRequest, null, new ArrayList<>(), tagsByKey)
+        .thenCompose(matchingObjects -> {
+          List<S3Object> untagged = limit(matchingObjects).stream()
+              .filter(s3Object -> !tagsByKey.containsKey(s3Object.key()))
+              .toList();
+          return fanOut.mapAsync(untagged, s3Object -> getTagsAsync(s3Object.key()))
+              .thenApply(tags -> {
+                for (int i = 0; i < untagged.size(); i++) {
+                  tagsByKey.put(untagged.get(i).key(), tags.get(i));
+                }
+                return AuditSearchResponse.builder()
+                    .auditRecords(limit(matchingObjects).stream()
+                        .map(s3Object -> auditInfo(s3Object, tagsByKey.get(s3Object.key())))
+                        .sorted((a, b) -> b.getAuditDate().compareTo(a.getAuditDate()))
+                        .toList())
+                    .build();
+              });
+        });
+  }
+
+  private CompletableFuture<List<S3Object>> searchPage(AuditSearchRequest searchRequest,
+      String continuationToken, List<S3Object> matchingObjects,
+      Map<String, Map<String, String>> tagsByKey) {
+    return s3AsyncClient.get().listObjectsV2(auditListRequest(searchRequest, continuationToken))
+        .thenCompose(listObjectsV2Response -> {
+          List<S3Object> inDateRange = listObjectsV2Response.contents().stream()
+              .filter(s3Object -> matchesDates(s3Object, searchRequest))
+              .toList();
+          CompletableFuture<List<S3Object>> filtered = !hasTagFilter(searchRequest)
+              ? CompletableFuture.completedFuture(inDateRange)
+              : filterByTags(inDateRange, searchRequest, tagsByKey);
+
+          return filtered.thenCompose(filteredObjects -> {
+            matchingObjects.addAll(filteredObjects);
+            String nextToken = listObjectsV2Response.nextContinuationToken();
+            if (nextToken != null && matchingObjects.size() <= maxAuditRecords) {
+              return searchPage(searchRequest, nextToken, matchingObjects, tagsByKey);
             }
+            return CompletableFuture.completedFuture(matchingObjects);
+          });
+        });
+  }
 
-            if (searchRequest.getObjectKey() != null || searchRequest.getBucketName() != null
-                || searchRequest.getUserName() != null) {
-              GetObjectTaggingRequest getObjectTaggingRequest = GetObjectTaggingRequest.builder()
-                  .bucket(auditBucketName)
-                  .key(s3Object.key())
-                  .build();
-              Map<String, String> tags = s3Client.getObjectTagging(getObjectTaggingRequest)
-                  .tagSet()
-                  .stream()
-                  .collect(Collectors.toMap(Tag::key, Tag::value));
-
-              if (searchRequest.getBucketName() != null && !tags.get("bucketName").toLowerCase()
-                  .contains(searchRequest.getBucketName().toLowerCase())) {
-                matches = false;
-              }
-
-              if (searchRequest.getObjectKey() != null && !tags.get("objectKey")
-                  .contains(searchRequest.getObjectKey())) {
-                matches = false;
-              }
-
-              if (searchRequest.getUserName() != null && !searchRequest.getUserName().toLowerCase()
-                  .contains(tags.get("userName").toLowerCase())) {
-                matches = false;
-              }
+  private CompletableFuture<List<S3Object>> filterByTags(List<S3Object> s3Objects,
+      AuditSearchRequest searchRequest, Map<String, Map<String, String>> tagsByKey) {
+    return fanOut.mapAsync(s3Objects, s3Object -> getTagsAsync(s3Object.key()))
+        .thenApply(tags -> {
+          List<S3Object> filteredObjects = new ArrayList<>();
+          for (int i = 0; i < s3Objects.size(); i++) {
+            tagsByKey.put(s3Objects.get(i).key(), tags.get(i));
+            if (matchesTags(tags.get(i), searchRequest)) {
+              filteredObjects.add(s3Objects.get(i));
             }
+          }
+          return filteredObjects;
+        });
+  }
 
-            return matches;
-          })
-          .toList();
+  private ListObjectsV2Request auditListRequest(AuditSearchRequest searchRequest,
+      String continuationToken) {
+    ListObjectsV2Request.Builder listObjectsV2RequestBuilder = ListObjectsV2Request.builder()
+        .bucket(auditBucketName);
 
-      matchingObjects.addAll(filteredObjects);
-      continuationToken = listObjectsV2Response.nextContinuationToken();
-    } while (continuationToken != null && matchingObjects.size() <= maxAuditRecords);
+    if (continuationToken != null) {
+      listObjectsV2RequestBuilder.continuationToken(continuationToken);
+    }
 
-    return AuditSearchResponse.builder()
-        .auditRecords(matchingObjects.subList(0, maxAuditRecords > matchingObjects.size() ? matchingObjects.size() : maxAuditRecords)
-            .stream().map(s3Object -> {
-              GetObjectTaggingRequest getObjectTaggingRequest = GetObjectTaggingRequest.builder()
-                  .bucket(auditBucketName)
-                  .key(s3Object.key())
-                  .build();
-              Map<String, String> tags = s3Client.getObjectTagging(getObjectTaggingRequest)
-                  .tagSet()
-                  .stream()
-                  .collect(Collectors.toMap(Tag::key, Tag::value));
-              return AuditInfo.builder()
-                  .auditDate(
-                      LocalDateTime.ofInstant(s3Object.lastModified(), ZoneId.of("Europe/London")))
-                  .bucketName(tags.get("bucketName"))
-                  .objectKey(tags.get("objectKey"))
-                  .userName(tags.get("userName"))
-                  .eventType(AuditEventType.valueOf(s3Object.key().split("/")[0]))
-                  .auditObjectKey(s3Object.key())
-                  .build();
-            })
-            .sorted((a, b) -> b.getAuditDate().compareTo(a.getAuditDate()))
-            .toList())
+    if (searchRequest.getEventType() != null) {
+      listObjectsV2RequestBuilder.prefix(searchRequest.getEventType().name());
+    }
+    return listObjectsV2RequestBuilder.build();
+  }
+
+  private static boolean matchesDates(S3Object s3Object, AuditSearchRequest searchRequest) {
+    LocalDateTime lastModified = LocalDateTime.ofInstant(s3Object.lastModified(),
+        ZoneId.of("Europe/London"));
+    if (searchRequest.getFromDate() != null && lastModified.isBefore(
+        searchRequest.getFromDate())) {
+      return false;
+    }
+    return searchRequest.getToDate() == null || !lastModified.isAfter(searchRequest.getToDate());
+  }
+
+  private static boolean hasTagFilter(AuditSearchRequest searchRequest) {
+    return searchRequest.getObjectKey() != null || searchRequest.getBucketName() != null
+        || searchRequest.getUserName() != null;
+  }
+
+  private static boolean matchesTags(Map<String, String> tags, AuditSearchRequest searchRequest) {
+    if (searchRequest.getBucketName() != null && !tags.get("bucketName").toLowerCase()
+        .contains(searchRequest.getBucketName().toLowerCase())) {
+      return false;
+    }
+
+    if (searchRequest.getObjectKey() != null && !tags.get("objectKey")
+        .contains(searchRequest.getObjectKey())) {
+      return false;
+    }
+
+    return searchRequest.getUserName() == null || searchRequest.getUserName().toLowerCase()
+        .contains(tags.get("userName").toLowerCase());
+  }
+
+  private List<S3Object> limit(List<S3Object> matchingObjects) {
+    return matchingObjects.subList(0, Math.min(maxAuditRecords, matchingObjects.size()));
+  }
+
+  private GetObjectTaggingRequest taggingRequest(String auditObjectKey) {
+    return GetObjectTaggingRequest.builder()
+        .bucket(auditBucketName)
+        .key(auditObjectKey)
         .build();
   }
 
+  private Map<String, String> getTags(String auditObjectKey) {
+    return toMap(hedger.call("getObjectTagging",
+        () -> auditS3Client.getObjectTagging(taggingRequest(auditObjectKey)), ignored -> {
+        }).tagSet());
+  }
+
+  private CompletableFuture<Map<String, String>> getTagsAsync(String auditObjectKey) {
+    return s3AsyncClient.get().getObjectTagging(taggingRequest(auditObjectKey))
+        .thenApply(taggingResponse -> toMap(taggingResponse.tagSet()));
+  }
+
+  private static Map<String, String> toMap(List<Tag> tagSet) {
+    return tagSet.stream().collect(Collectors.toMap(Tag::key, Tag::value));
+  }
+
+  private static AuditInfo auditInfo(S3Object s3Object, Map<String, String> tags) {
+    return AuditInfo.builder()
+        .auditDate(LocalDateTime.ofInstant(s3Object.lastModified(), ZoneId.of("Europe/London")))
+        .bucketName(tags.get("bucketName"))
+        .objectKey(tags.get("objectKey"))
+        .userName(tags.get("userName"))
+        .eventType(AuditEventType.valueOf(s3Object.key().split("/")[0]))
+        .auditObjectKey(s3Object.key())
+        .build();
+  }
+
+  /**
+   * Reads and parses the audit record. Concurrent reads of the same record share one S3 call.
+   */
   public AuditDiff getAuditDiff(String auditObjectKey) {
-    ResponseInputStream<GetObjectResponse> objectResponse = s3Client.getObject(
-        GetObjectRequest.builder()
-            .bucket(auditBucketName)
-            .key(auditObjectKey)
-            .build());
+    return singleFlight.run("getAuditDiff", auditObjectKey, () -> {
+      ResponseInputStream<GetObjectResponse> objectResponse = hedger.call("getAuditDiff",
+          () -> auditS3Client.getObject(auditGetRequest(auditObjectKey)),
+          ResponseInputStream::abort);
+      return readAuditDiff(objectResponse.response().contentType(), objectResponse);
+    });
+  }
+
+  /**
+   * Non-blocking form of {@link #getAuditDiff}; the record is buffered by the async client and
+   * parsed once complete. Without an {@link S3AsyncClient} the blocking read is used. While S3 is
+   * out the last good read of the record is served stale.
+   */
+  public CompletableFuture<ResponseEntity<AuditDiff>> getAuditDiffAsync(String auditObjectKey) {
+    return staleCache.serve("getAuditDiff", auditObjectKey, () -> s3AsyncClient.isEmpty()
+        ? CompletableFuture.completedFuture(getAuditDiff(auditObjectKey))
+        : getAuditDiffNonBlocking(auditObjectKey));
+  }
+
+  private CompletableFuture<AuditDiff> getAuditDiffNonBlocking(String auditObjectKey) {
+    return singleFlight.runAsync("getAuditDiff", auditObjectKey,
+        () -> s3AsyncClient.get().getObject(auditGetRequest(auditObjectKey),
+                AsyncResponseTransformer.toBytes())
+            .thenApply(objectBytes -> readAuditDiff(objectBytes.response().contentType(),
+                objectBytes.asInputStream())));
+  }
+
+  private GetObjectRequest auditGetRequest(String auditObjectKey) {
+    return GetObjectRequest.builder()
+        .bucket(auditBucketName)
+        .key(auditObjectKey)
+        .build();
+  }
 
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(objectResponse))) {
+  private AuditDiff readAuditDiff(String contentType, InputStream content) {
+    if (BlockDelta.CONTENT_TYPE.equals(contentType)) {
+      return getAuditDelta(content);
+    }
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(content, StandardCharsets.UTF_8))) {
       return AuditDiff.builder()
           .unifiedDiff(reader.lines().collect(Collectors.toList()))
           .build();
@@ -194,4 +404,32 @@ public class AuditService {
       throw new RuntimeException("Failed to read audit diff", e);
     }
   }
+
+  private AuditDiff getAuditDelta(InputStream deltaContent) {
+    try (deltaContent) {
+      List<ByteRange> changedRanges = BlockDelta.changedRanges(deltaContent);
+      long changedBytes = changedRanges.stream().mapToLong(ByteRange::getLength).sum();
+      return AuditDiff.builder()
+          .unifiedDiff(List.of(String.format("Binary content differs: %d changed ranges, %d bytes"
+              + " changed", changedRanges.size(), changedBytes)))
+          .binary(true)
+          .changedRanges(changedRanges)
+          .build();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read audit delta", e);
+    }
+  }
+
+  /**
+   * One object's audit record in a batch: a unified diff, or a binary delta when one was computed.
+   */
+  @Getter
+  @Builder
+  public static class BatchRecord {
+
+    private final AuditEventType eventType;
+    private final String objectKey;
+    private final List<String> unifiedDiff;
+    private final Spool delta;
+  }
 }
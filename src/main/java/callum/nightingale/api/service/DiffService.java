@@ -0,0 +1,209 @@
+package callum.nightingale.api.service;
+
+import callum.nightingale.api.dto.s3.model.ByteRange;
+import callum.nightingale.api.properties.DiffProperties;
+import callum.nightingale.api.service.diff.BlockDelta;
+import callum.nightingale.api.service.diff.DiffResult;
+import callum.nightingale.api.service.diff.Edit;
+import callum.nightingale.api.service.diff.HistogramDiff;
+import callum.nightingale.api.service.diff.LineHashes;
+import callum.nightingale.api.service.diff.LineReader;
+import callum.nightingale.api.service.diff.UnifiedDiffWriter;
+import callum.nightingale.api.service.timing.RequestTimings;
+import callum.nightingale.api.service.upload.Spool;
+import callum.nightingale.api.service.upload.StreamedContent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DiffService {
+
+  private static final int MAX_REPORTED_RANGES = 1000;
+
+  private final DiffProperties diffProperties;
+  private final ExecutorService diffExecutor;
+  private final MeterRegistry meterRegistry;
+  private final ObservationRegistry observationRegistry;
+
+  public int maxLinesPerSide() {
+    return (int) Math.min(Integer.MAX_VALUE - 8, diffProperties.getMaxMemoryBytes() / Long.BYTES);
+  }
+
+  /**
+   * Diffs the two contents on the diff executor, waiting at most {@code diff.timeout}. Text is
+   * diffed by line; if either side is binary a block delta is computed instead. When the content
+   * is over the memory budget, the executor is saturated or the deadline passes, a summary of
+   * both sides is returned in place of the diff. Observed as the request's {@code diff} span.
+   */
+  public DiffResult diff(String objectKey, StreamedContent original, StreamedContent revised) {
+    return RequestTimings.span("diff", observationRegistry)
+        .observe(() -> computeDiff(objectKey, original, revised));
+  }
+
+  private DiffResult computeDiff(String objectKey, StreamedContent original,
+      StreamedContent revised) {
+    if (original.getSha256().equals(revised.getSha256())) {
+      return DiffResult.builder()
+          .unifiedDiff(Collections.emptyList())
+          .build();
+    }
+    boolean binary = isBinary(original) || isBinary(revised);
+    boolean fits = binary
+        ? BlockDelta.estimateWorkingBytes(original.getSize(), diffProperties.getBlockSize())
+        <= diffProperties.getMaxMemoryBytes()
+        : fitsLineDiff(original, revised);
+    if (!fits) {
+      record("too_large", 0);
+      return summary(objectKey, original, revised, "content exceeds the diff memory budget");
+    }
+
+    Callable<DiffResult> task = binary
+        ? () -> blockDelta(objectKey, original, revised)
+        : () -> lineDiff(objectKey, original, revised);
+    long start = System.nanoTime();
+    Future<DiffResult> future;
+    try {
+      future = diffExecutor.submit(task);
+    } catch (RejectedExecutionException e) {
+      log.warn("Diff of {} rejected, diff executor is at capacity", objectKey);
+      record("rejected", 0);
+      return summary(objectKey, original, revised, "too many diffs in progress");
+    }
+
+    try {
+      DiffResult result = future.get(diffProperties.getTimeout().toMillis(),
+          TimeUnit.MILLISECONDS);
+      record("completed", System.nanoTime() - start);
+      return result;
+    } catch (TimeoutException e) {
+      // A diff finishing between the timeout and the cancel still owns a delta spool, so keep it.
+      if (!future.cancel(true) && future.state() == Future.State.SUCCESS) {
+        record("completed", System.nanoTime() - start);
+        return future.resultNow();
+      }
+      log.warn("Diff of {} cancelled after {}", objectKey, diffProperties.getTimeout());
+      record("timeout", System.nanoTime() - start);
+      return summary(objectKey, original, revised,
+          "diff did not finish within " + diffProperties.getTimeout());
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for diff", e);
+    } catch (ExecutionException e) {
+      record("failed", System.nanoTime() - start);
+      throw new RuntimeException("Failed to compute diff", e.getCause());
+    }
+  }
+
+  private DiffResult lineDiff(String objectKey, StreamedContent original,
+      StreamedContent revised) {
+    List<Edit> edits = HistogramDiff.diff(original.getLineHashes(), revised.getLineHashes(),
+        diffProperties.getMaxEditDistance());
+    List<String> unifiedDiff = new ArrayList<>();
+    try (LineReader originalReader = new LineReader(original.openInputStream(),
+        diffProperties.getCharset());
+        LineReader revisedReader = new LineReader(revised.openInputStream(),
+            diffProperties.getCharset())) {
+      UnifiedDiffWriter.write(objectKey, edits, original.getLineHashes().getSize(),
+          originalReader, revisedReader, diffProperties.getContextLines(), unifiedDiff::add);
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to write unified diff", e);
+    }
+    return DiffResult.builder()
+        .unifiedDiff(unifiedDiff)
+        .build();
+  }
+
+  private DiffResult blockDelta(String objectKey, StreamedContent original,
+      StreamedContent revised) {
+    Spool delta = new Spool();
+    List<ByteRange> changedRanges;
+    try (delta;
+        InputStream originalStream = original.openInputStream();
+        InputStream revisedStream = revised.openInputStream()) {
+      changedRanges = BlockDelta.write(originalStream, original.getSize(), revisedStream,
+          revised.getSize(), diffProperties.getBlockSize(), delta);
+    } catch (IOException e) {
+      delta.release();
+      throw new RuntimeException("Failed to compute binary delta", e);
+    } catch (RuntimeException e) {
+      delta.release();
+      throw e;
+    }
+    long changedBytes = changedRanges.stream().mapToLong(ByteRange::getLength).sum();
+    return DiffResult.builder()
+        .unifiedDiff(List.of(
+            String.format("Binary content differs: %d changed ranges, %d of %d bytes changed",
+                changedRanges.size(), changedBytes, revised.getSize()),
+            header("---", objectKey, original),
+            header("+++", objectKey, revised)))
+        .binary(true)
+        .changedRanges(changedRanges.subList(0, Math.min(changedRanges.size(),
+            MAX_REPORTED_RANGES)))
+        .delta(delta)
+        .build();
+  }
+
+  private DiffResult summary(String objectKey, StreamedContent original, StreamedContent revised,
+      String reason) {
+    return DiffResult.builder()
+        .unifiedDiff(List.of(
+            "Diff omitted: " + reason,
+            header("---", objectKey, original),
+            header("+++", objectKey, revised)))
+        .tooLarge(true)
+        .binary(isBinary(original) || isBinary(revised))
+        .build();
+  }
+
+  private static String header(String marker, String objectKey, StreamedContent content) {
+    return String.format("%s %s\t%d bytes, sha256 %s", marker, objectKey, content.getSize(),
+        content.getSha256());
+  }
+
+  private boolean isBinary(StreamedContent content) {
+    // Any byte sequence decodes in single-byte charsets, so invalid UTF-8 only marks content as
+    // binary when UTF-8 is the configured text charset.
+    return content.isContainsNul()
+        || (StandardCharsets.UTF_8.equals(diffProperties.getCharset())
+        && !content.isValidUtf8());
+  }
+
+  private void record(String outcome, long nanos) {
+    Timer.builder("diff.duration")
+        .tag("outcome", outcome)
+        .register(meterRegistry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  private boolean fitsLineDiff(StreamedContent original, StreamedContent revised) {
+    LineHashes originalLines = original.getLineHashes();
+    LineHashes revisedLines = revised.getLineHashes();
+    if (originalLines == null || revisedLines == null) {
+      return false;
+    }
+    long bytes = (long) Long.BYTES * (originalLines.getSize() + revisedLines.getSize())
+        + HistogramDiff.estimateWorkingBytes(originalLines.getSize(),
+        diffProperties.getMaxEditDistance());
+    return bytes <= diffProperties.getMaxMemoryBytes();
+  }
+}
@@ -0,0 +1,332 @@
+package callum.nightingale.api.service;
+
+import callum.nightingale.api.dto.audit.model.AuditEventType;
+import callum.nightingale.api.dto.s3.model.PreviewMode;
+import callum.nightingale.api.dto.s3.response.PreviewObjectResponse;
+import callum.nightingale.api.exception.ConflictException;
+import callum.nightingale.api.exception.ForbiddenException;
+import callum.nightingale.api.exception.NotFoundException;
+import callum.nightingale.api.properties.PreviewProperties;
+import callum.nightingale.api.properties.S3Properties;
+import callum.nightingale.api.service.preview.LineIndex;
+import callum.nightingale.api.service.preview.LineIndexCache;
+import callum.nightingale.api.service.preview.LineScanner;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Returns a window of lines from an object using ranged GETs, starting small and doubling the
+ * range until the window is complete, so a preview of a large object reads little more than the
+ * lines it returns. Forward scans record a sparse {@link LineIndex} for the object's ETag, so
+ * later previews deep into the object start from the nearest checkpoint instead of the top.
+ */
+@Service
+@RequiredArgsConstructor
+public class PreviewService {
+
+  private static final String userName = "admin";
+  private final S3Client s3Client;
+  private final AuditService auditService;
+  private final S3Properties s3Properties;
+  private final PreviewProperties previewProperties;
+  private final LineIndexCache lineIndexCache;
+
+  /**
+   * Previews {@code lines} lines: the first ones, the last ones, or those from {@code fromLine}
+   * (zero-based). With {@code buildIndex} the rest of the object is scanned once to complete its
+   * index, after which any window, including the tail, costs one small ranged read.
+   */
+  public PreviewObjectResponse preview(String bucketName, String objectKey, PreviewMode mode,
+      long fromLine, int lines, boolean buildIndex) {
+    if (!s3Properties.getBuckets().contains(bucketName)) {
+      throw new ForbiddenException(String.format("Forbidden to access bucket %s", bucketName));
+    }
+    int count = Math.max(1, Math.min(lines, previewProperties.getMaxLines()));
+    LineIndex index = lineIndexCache.get(bucketName, objectKey);
+    if (buildIndex) {
+      index = buildIndex(bucketName, objectKey, index);
+    }
+
+    PreviewObjectResponse response = null;
+    if (index != null && (mode != PreviewMode.TAIL || index.getTotalLines() != null)) {
+      response = window(bucketName, objectKey, index, firstLine(mode, fromLine, count, index),
+          count);
+    }
+    if (response == null) {
+      response = mode == PreviewMode.TAIL
+          ? tail(bucketName, objectKey, count)
+          : window(bucketName, objectKey, null, firstLine(mode, fromLine, count, null), count);
+    }
+
+    auditService.writeAuditDiff(AuditEventType.VIEW, bucketName, objectKey, userName,
+        Collections.emptyList());
+    return response;
+  }
+
+  private static long firstLine(PreviewMode mode, long fromLine, int count, LineIndex index) {
+    return switch (mode) {
+      case HEAD -> 0;
+      case TAIL -> Math.max(0, index.getTotalLines() - count);
+      case OFFSET -> Math.max(0, fromLine);
+    };
+  }
+
+  /**
+   * Reads forward from the index checkpoint nearest {@code from}, or from the top without an
+   * index. Returns {@code null} when the index belongs to an older version of the object.
+   */
+  private PreviewObjectResponse window(String bucketName, String objectKey, LineIndex index,
+      long from, int count) {
+    long[] checkpoint = index == null ? new long[]{0, 0} : index.floor(from);
+    int rangeBytes = previewProperties.getInitialRangeBytes();
+    long end = index == null ? -1 : index.ceilingOffset(from + count);
+    if (end > checkpoint[1]) {
+      // The index bounds the window, so a single read of exactly that span is enough.
+      rangeBytes = (int) Math.min(end - checkpoint[1], previewProperties.getMaxRangeBytes());
+    }
+    Chunk chunk;
+    try {
+      chunk = read(bucketName, objectKey, index == null ? null : index.getETag(), checkpoint[1],
+          rangeBytes);
+    } catch (S3Exception e) {
+      if (index != null && e.statusCode() == HttpStatus.PRECONDITION_FAILED.value()) {
+        return null;
+      }
+      if (e.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+        return empty(objectKey);
+      }
+      throw e;
+    }
+    LineIndex target = index != null ? index
+        : lineIndexCache.getOrCreate(bucketName, objectKey, chunk.getETag());
+    LineScanner scanner = new LineScanner(checkpoint[0], checkpoint[1], from, count,
+        previewProperties.getCharset(), previewProperties.getMaxLineBytes(), target::record);
+    long position = checkpoint[1];
+    long bytesRead = 0;
+    while (true) {
+      scanner.feed(chunk.getBytes(), 0, chunk.getBytes().length);
+      position += chunk.getBytes().length;
+      bytesRead += chunk.getBytes().length;
+      if (scanner.isComplete() || chunk.getBytes().length == 0) {
+        break;
+      }
+      if (position >= chunk.getObjectSize()) {
+        scanner.finish();
+        target.complete(scanner.nextLine(), chunk.getObjectSize());
+        break;
+      }
+      if (bytesRead >= previewProperties.getMaxScanBytes()) {
+        break;
+      }
+      rangeBytes = (int) Math.min(rangeBytes * 2L, previewProperties.getMaxRangeBytes());
+      chunk = readMatching(bucketName, objectKey, chunk.getETag(), position, rangeBytes);
+    }
+    return PreviewObjectResponse.builder()
+        .objectKey(objectKey)
+        .eTag(chunk.getETag())
+        .objectSize(chunk.getObjectSize())
+        .firstLine(from)
+        .totalLines(target.getTotalLines())
+        .lines(scanner.lines())
+        .endOfObject(scanner.isEndOfObject() || scanner.offset() >= chunk.getObjectSize())
+        .truncated(!scanner.isComplete() && !scanner.isEndOfObject())
+        .bytesRead(bytesRead)
+        .build();
+  }
+
+  /**
+   * Reads backwards from the end in doubling suffix ranges until enough whole lines are held. Line
+   * numbers are only known if this reaches the top of the object.
+   */
+  private PreviewObjectResponse tail(String bucketName, String objectKey, int count) {
+    int rangeBytes = previewProperties.getInitialRangeBytes();
+    Chunk chunk;
+    try {
+      chunk = read(bucketName, objectKey, null, -1, rangeBytes);
+    } catch (S3Exception e) {
+      if (e.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+        return empty(objectKey);
+      }
+      throw e;
+    }
+    byte[] buffer = chunk.getBytes();
+    long start = chunk.getObjectSize() - buffer.length;
+    int lineStart;
+    long available;
+    while (true) {
+      // Unless this is the top of the object, the first line may have started before the buffer.
+      lineStart = start == 0 ? 0 : firstLineStart(buffer);
+      available = lineStart < 0 ? 0 : countLines(buffer, lineStart);
+      if (available >= count || start == 0
+          || buffer.length >= previewProperties.getMaxScanBytes()) {
+        break;
+      }
+      rangeBytes = (int) Math.min(rangeBytes * 2L, previewProperties.getMaxRangeBytes());
+      long from = Math.max(0, start - rangeBytes);
+      byte[] previous = readMatching(bucketName, objectKey, chunk.getETag(), from, start - from)
+          .getBytes();
+      byte[] combined = Arrays.copyOf(previous, previous.length + buffer.length);
+      System.arraycopy(buffer, 0, combined, previous.length, buffer.length);
+      buffer = combined;
+      start = from;
+    }
+
+    long windowStart = Math.max(0, available - count);
+    LineScanner scanner = new LineScanner(0, 0, windowStart, count,
+        previewProperties.getCharset(), previewProperties.getMaxLineBytes(), (line, offset) -> {
+        });
+    if (lineStart >= 0) {
+      scanner.feed(buffer, lineStart, buffer.length - lineStart);
+    }
+    scanner.finish();
+    return PreviewObjectResponse.builder()
+        .objectKey(objectKey)
+        .eTag(chunk.getETag())
+        .objectSize(chunk.getObjectSize())
+        .firstLine(start == 0 ? windowStart : null)
+        .totalLines(start == 0 ? available : null)
+        .lines(scanner.lines())
+        .endOfObject(true)
+        .truncated(available < count && start > 0)
+        .bytesRead(buffer.length)
+        .build();
+  }
+
+  /**
+   * Scans the object from the index's furthest checkpoint to the end, so the index covers every
+   * line and knows the line count.
+   */
+  private LineIndex buildIndex(String bucketName, String objectKey, LineIndex index) {
+    if (index != null && index.getTotalLines() != null) {
+      return index;
+    }
+    long[] last = index == null ? new long[]{0, 0} : index.last();
+    GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+        .bucket(bucketName)
+        .key(objectKey)
+        .range(last[1] == 0 ? null : "bytes=" + last[1] + "-")
+        .ifMatch(index == null ? null : index.getETag())
+        .build();
+    ResponseInputStream<GetObjectResponse> object;
+    try {
+      object = s3Client.getObject(getObjectRequest);
+    } catch (NoSuchKeyException e) {
+      throw new NotFoundException(String.format("Object %s not found", objectKey));
+    } catch (S3Exception e) {
+      if (index != null && e.statusCode() == HttpStatus.PRECONDITION_FAILED.value()) {
+        return buildIndex(bucketName, objectKey, null);
+      }
+      throw e;
+    }
+    LineIndex target = index != null ? index
+        : lineIndexCache.getOrCreate(bucketName, objectKey, object.response().eTag());
+    LineScanner scanner = LineScanner.counter(last[0], last[1], previewProperties.getCharset(),
+        target::record);
+    try (object) {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = object.read(buffer)) != -1) {
+        scanner.feed(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      object.abort();
+      throw new RuntimeException("Failed to index object", e);
+    }
+    scanner.finish();
+    target.complete(scanner.nextLine(), scanner.offset());
+    return target;
+  }
+
+  private Chunk readMatching(String bucketName, String objectKey, String eTag, long start,
+      long length) {
+    try {
+      return read(bucketName, objectKey, eTag, start, length);
+    } catch (S3Exception e) {
+      if (e.statusCode() == HttpStatus.PRECONDITION_FAILED.value()) {
+        throw new ConflictException(
+            String.format("Object %s changed while it was being previewed", objectKey));
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Reads {@code length} bytes from {@code start}, or the last {@code length} bytes when
+   * {@code start} is negative.
+   */
+  private Chunk read(String bucketName, String objectKey, String eTag, long start, long length) {
+    GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+        .bucket(bucketName)
+        .key(objectKey)
+        .range(start < 0 ? "bytes=-" + length : "bytes=" + start + "-" + (start + length - 1))
+        .ifMatch(eTag)
+        .build();
+    try (ResponseInputStream<GetObjectResponse> object = s3Client.getObject(getObjectRequest)) {
+      byte[] bytes = object.readAllBytes();
+      GetObjectResponse response = object.response();
+      String contentRange = response.contentRange();
+      if (contentRange != null) {
+        return new Chunk(bytes, response.eTag(),
+            Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1)));
+      }
+      // Without a Content-Range the whole object was returned, so cut out the requested range.
+      long from = start < 0 ? Math.max(0, bytes.length - length) : Math.min(start, bytes.length);
+      return new Chunk(Arrays.copyOfRange(bytes, (int) from,
+          (int) Math.min(from + length, bytes.length)), response.eTag(), bytes.length);
+    } catch (NoSuchKeyException e) {
+      throw new NotFoundException(String.format("Object %s not found", objectKey));
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read object", e);
+    }
+  }
+
+  private static int firstLineStart(byte[] buffer) {
+    for (int i = 0; i < buffer.length; i++) {
+      if (buffer[i] == '\n') {
+        return i + 1;
+      }
+      if (buffer[i] == '\r') {
+        return i + 1 < buffer.length && buffer[i + 1] == '\n' ? i + 2 : i + 1;
+      }
+    }
+    return -1;
+  }
+
+  private long countLines(byte[] buffer, int from) {
+    LineScanner counter = LineScanner.counter(0, 0, previewProperties.getCharset(),
+        (line, offset) -> {
+        });
+    counter.feed(buffer, from, buffer.length - from);
+    counter.finish();
+    return counter.nextLine();
+  }
+
+  private static PreviewObjectResponse empty(String objectKey) {
+    return PreviewObjectResponse.builder()
+        .objectKey(objectKey)
+        .lines(Collections.emptyList())
+        .endOfObject(true)
+        .build();
+  }
+
+  @Getter
+  @AllArgsConstructor
+  private static class Chunk {
+
+    private final byte[] bytes;
+    private final String eTag;
+    private final long objectSize;
+  }
+}
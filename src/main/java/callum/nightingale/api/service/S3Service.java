@@ -3,50 +3,103 @@ package callum.nightingale.api.service;
 import callum.nightingale.api.dto.audit.model.AuditEventType;
 import callum.nightingale.api.dto.s3.model.Bucket;
 import callum.nightingale.api.dto.s3.model.BucketObject;
+import callum.nightingale.api.dto.s3.model.UploadResult;
+import callum.nightingale.api.dto.s3.model.UploadStatus;
+import callum.nightingale.api.dto.s3.response.BatchUploadResponse;
 import callum.nightingale.api.dto.s3.response.ListBucketsResponse;
 import callum.nightingale.api.dto.s3.response.ListContentsResponse;
 import callum.nightingale.api.dto.s3.response.PreUploadObjectResponse;
+import callum.nightingale.api.exception.BadRequestException;
+import callum.nightingale.api.exception.ConflictException;
 import callum.nightingale.api.exception.ForbiddenException;
 import callum.nightingale.api.exception.NotFoundException;
 import callum.nightingale.api.properties.S3Properties;
-import com.github.difflib.DiffUtils;
-import com.github.difflib.UnifiedDiffUtils;
-import com.github.difflib.patch.Patch;
-import java.io.BufferedReader;
+import callum.nightingale.api.properties.UploadProperties;
+import callum.nightingale.api.service.cache.CachedObject;
+import callum.nightingale.api.service.cache.ContentCache;
+import callum.nightingale.api.service.cache.StaleCache;
+import callum.nightingale.api.service.client.CallOrigin;
+import callum.nightingale.api.service.client.CircuitBreakers;
+import callum.nightingale.api.service.client.Hedger;
+import callum.nightingale.api.service.client.SingleFlight;
+import callum.nightingale.api.service.diff.DiffResult;
+import callum.nightingale.api.service.download.DownloadStreamer;
+import callum.nightingale.api.service.upload.StreamedContent;
+import callum.nightingale.api.service.upload.UploadPipeline;
+import callum.nightingale.api.service.upload.UploadSession;
+import callum.nightingale.api.service.upload.UploadSessionStore;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.InputStreamResource;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumAlgorithm;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class S3Service {
 
   private static final String userName = "admin";
   private final S3Client s3Client;
+  private final S3Client uploadS3Client;
   private final AuditService auditService;
   private final S3Properties s3Properties;
+  private final DiffService diffService;
+  private final UploadSessionStore uploadSessionStore;
+  private final DownloadStreamer downloadStreamer;
+  private final UploadProperties uploadProperties;
+  private final ExecutorService uploadExecutor;
+  private final ContentCache contentCache;
+  private final Optional<S3AsyncClient> s3AsyncClient;
+  private final Hedger hedger;
+  private final SingleFlight singleFlight;
+  private final StaleCache staleCache;
 
   public ListBucketsResponse listBuckets() {
     return ListBucketsResponse.builder()
@@ -60,24 +113,70 @@ public class S3Service {
         .build();
   }
 
+  /**
+   * Lists the bucket's objects, newest first. Identical listings already in flight are shared.
+   */
   public ListContentsResponse listContents(String bucketName) {
+    checkBucket(bucketName);
+    return singleFlight.run("listContents", bucketName, () -> {
+      try {
+        s3Client.headBucket(HeadBucketRequest.builder()
+            .bucket(bucketName)
+            .build());
+      } catch (NoSuchBucketException e) {
+        throw new NotFoundException(String.format("Bucket %s not found", bucketName));
+      }
+
+      return contentsResponse(s3Client.listObjectsV2(ListObjectsV2Request.builder()
+          .bucket(bucketName)
+          .build()));
+    });
+  }
+
+  /**
+   * Same as {@link #listContents} but completes on the async client's event loop, so no request
+   * thread waits on S3. Without an {@link S3AsyncClient} the blocking path is used. While S3 is
+   * out the bucket's last good listing is served stale.
+   */
+  public CompletableFuture<ResponseEntity<ListContentsResponse>> listContentsAsync(
+      String bucketName) {
+    checkBucket(bucketName);
+    return staleCache.serve("listContents", bucketName, () -> s3AsyncClient.isEmpty()
+        ? CompletableFuture.completedFuture(listContents(bucketName))
+        : listContentsNonBlocking(bucketName, s3AsyncClient.get()));
+  }
+
+  private CompletableFuture<ListContentsResponse> listContentsNonBlocking(String bucketName,
+      S3AsyncClient client) {
+    return singleFlight.runAsync("listContents", bucketName, () -> client.headBucket(
+            HeadBucketRequest.builder()
+                .bucket(bucketName)
+                .build())
+        .exceptionally(e -> {
+          if (unwrap(e) instanceof NoSuchBucketException) {
+            throw new NotFoundException(String.format("Bucket %s not found", bucketName));
+          }
+          throw new CompletionException(unwrap(e));
+        })
+        .thenCompose(headBucketResponse -> client.listObjectsV2(ListObjectsV2Request.builder()
+            .bucket(bucketName)
+            .build()))
+        .thenApply(S3Service::contentsResponse));
+  }
+
+  private void checkBucket(String bucketName) {
     if (!s3Properties.getBuckets().contains(bucketName)) {
       throw new ForbiddenException(String.format("Forbidden to access bucket %s", bucketName));
     }
-    HeadBucketRequest headBucketRequest = HeadBucketRequest.builder()
-        .bucket(bucketName)
-        .build();
-    try {
-      s3Client.headBucket(headBucketRequest);
-    } catch (NoSuchBucketException e) {
-      throw new NotFoundException(String.format("Bucket %s not found", bucketName));
-    }
+  }
 
-    ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request.builder()
-        .bucket(bucketName)
-        .build();
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  private static ListContentsResponse contentsResponse(ListObjectsV2Response listResponse) {
     return ListContentsResponse.builder()
-        .objects(s3Client.listObjectsV2(listObjectsV2Request)
+        .objects(listResponse
             .contents()
             .stream()
             .map(object -> BucketObject.builder()
@@ -91,45 +190,418 @@ public class S3Service {
         .build();
   }
 
-  public ResponseEntity<InputStreamResource> getFile(String bucketName, String key) {
+  /**
+   * Streams the object, passing {@code Range}, {@code If-None-Match} and
+   * {@code If-Modified-Since} through to S3 so partial (206) and not-modified (304) responses
+   * cost only what is actually sent. Whole reads of small objects are served from the
+   * {@link ContentCache}, revalidated with the cached ETag once they are no longer fresh.
+   * Identical concurrent whole reads share one GET when the object is small enough to buffer.
+   * While S3 is out a cached copy is served stale. A view is audited for whole reads and ranges
+   * starting at the first byte, not for 304s or later ranges.
+   */
+  public ResponseEntity<StreamingResponseBody> getFile(String bucketName, String key,
+      HttpHeaders requestHeaders) {
     if (!s3Properties.getBuckets().contains(bucketName)) {
       throw new ForbiddenException(String.format("Forbidden to access bucket %s", bucketName));
     }
-    InputStreamResource resource = new InputStreamResource(getObject(bucketName, key));
+    String range = requestHeaders.getFirst(HttpHeaders.RANGE);
+    CachedObject cached = range == null ? contentCache.get(bucketName, key) : null;
+    if (cached != null && contentCache.isFresh(cached)) {
+      return cachedFile(bucketName, key, cached, requestHeaders);
+    }
+    // With a cached copy the client's own conditions are evaluated against it instead.
+    GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+        .bucket(bucketName)
+        .key(key)
+        .range(range)
+        .ifNoneMatch(cached != null ? cached.getETag()
+            : requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH))
+        .ifModifiedSince(cached != null ? null : ifModifiedSince(requestHeaders))
+        .build();
+    ResponseInputStream<GetObjectResponse> object;
+    try {
+      if (range == null) {
+        // Only a buffered body can be shared; a large object is streamed by the caller that
+        // fetched it and any callers waiting on it fetch their own.
+        AtomicReference<ResponseInputStream<GetObjectResponse>> unshared = new AtomicReference<>();
+        CachedObject shared = singleFlight.run("getObject", getObjectRequest, () -> {
+          long fetchedSince = System.nanoTime();
+          ResponseInputStream<GetObjectResponse> fetched = getObject(getObjectRequest);
+          GetObjectResponse response = fetched.response();
+          if (!contentCache.accepts(response.contentLength())) {
+            unshared.set(fetched);
+            return null;
+          }
+          return contentCache.put(bucketName, key, response.eTag(), response.lastModified(),
+              readAll(fetched), fetchedSince);
+        });
+        if (shared != null) {
+          return cachedFile(bucketName, key, shared, requestHeaders);
+        }
+        object = unshared.get() != null ? unshared.get() : getObject(getObjectRequest);
+      } else {
+        object = getObject(getObjectRequest);
+      }
+    } catch (NoSuchKeyException e) {
+      contentCache.invalidate(bucketName, key);
+      throw new NotFoundException(String.format("Object %s not found", key));
+    } catch (S3Exception e) {
+      if (e.statusCode() == HttpStatus.NOT_MODIFIED.value() && cached != null) {
+        contentCache.revalidated(cached);
+        return cachedFile(bucketName, key, cached, requestHeaders);
+      }
+      if (e.statusCode() == HttpStatus.NOT_MODIFIED.value()) {
+        HttpHeaders headers = new HttpHeaders();
+        Optional.ofNullable(e.awsErrorDetails())
+            .flatMap(details -> details.sdkHttpResponse().firstMatchingHeader(HttpHeaders.ETAG))
+            .ifPresent(headers::setETag);
+        return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+      }
+      if (e.statusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+        return new ResponseEntity<>(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+      }
+      return staleFile(bucketName, key, cached, requestHeaders, e);
+    } catch (RuntimeException e) {
+      return staleFile(bucketName, key, cached, requestHeaders, e);
+    }
+    GetObjectResponse response = object.response();
+    HttpHeaders headers = fileHeaders(key);
+    if (response.contentLength() != null) {
+      headers.setContentLength(response.contentLength());
+    }
+    if (response.eTag() != null) {
+      headers.setETag(response.eTag());
+    }
+    if (response.lastModified() != null) {
+      headers.setLastModified(response.lastModified());
+    }
+    if (response.contentRange() != null) {
+      headers.set(HttpHeaders.CONTENT_RANGE, response.contentRange());
+    }
+
+    // One view per download: the later ranges of a resumed or chunked read are not audited.
+    if (response.contentRange() == null || response.contentRange().startsWith("bytes 0-")) {
+      try {
+        auditService.writeAuditDiff(AuditEventType.VIEW, bucketName, key, userName,
+            Collections.emptyList());
+      } catch (RuntimeException e) {
+        object.abort();
+        throw e;
+      }
+    }
+
+    return new ResponseEntity<>(downloadStreamer.stream(object), headers,
+        response.contentRange() != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK);
+  }
+
+  private ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+    return hedger.call("getObject", () -> s3Client.getObject(getObjectRequest),
+        ResponseInputStream::abort);
+  }
+
+  private ResponseEntity<StreamingResponseBody> staleFile(String bucketName, String key,
+      CachedObject cached, HttpHeaders requestHeaders, RuntimeException failure) {
+    if (cached == null || !CircuitBreakers.isOutage(failure)) {
+      throw failure;
+    }
+    ResponseEntity<StreamingResponseBody> response = cachedFile(bucketName, key, cached,
+        requestHeaders);
+    return ResponseEntity.status(response.getStatusCode())
+        .headers(response.getHeaders())
+        .header(StaleCache.STALE_HEADER, String.valueOf(cached.ageSeconds()))
+        .body(response.getBody());
+  }
+
+  private ResponseEntity<StreamingResponseBody> cachedFile(String bucketName, String key,
+      CachedObject cached, HttpHeaders requestHeaders) {
+    HttpHeaders headers = fileHeaders(key);
+    headers.setETag(cached.getETag());
+    if (cached.getLastModified() != null) {
+      headers.setLastModified(cached.getLastModified());
+    }
+    if (isNotModified(cached, requestHeaders)) {
+      return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+    }
+    headers.setContentLength(cached.size());
+
+    auditService.writeAuditDiff(AuditEventType.VIEW, bucketName, key, userName,
+        Collections.emptyList());
+
+    return new ResponseEntity<>(cached::writeTo, headers, HttpStatus.OK);
+  }
+
+  private static boolean isNotModified(CachedObject cached, HttpHeaders requestHeaders) {
+    // As in RFC 9110, If-Modified-Since is only considered without If-None-Match.
+    if (requestHeaders.containsKey(HttpHeaders.IF_NONE_MATCH)) {
+      List<String> eTags = requestHeaders.getIfNoneMatch();
+      return eTags.contains("*") || eTags.contains(cached.getETag());
+    }
+    Instant ifModifiedSince = ifModifiedSince(requestHeaders);
+    return ifModifiedSince != null && cached.getLastModified() != null
+        && !cached.getLastModified().isAfter(ifModifiedSince);
+  }
 
+  private static HttpHeaders fileHeaders(String key) {
     HttpHeaders headers = new HttpHeaders();
     headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + key);
     headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+    headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+    return headers;
+  }
 
-    auditService.writeAuditDiff(AuditEventType.VIEW, bucketName, key, userName,
-        Collections.emptyList());
+  private static byte[] readAll(ResponseInputStream<GetObjectResponse> object) {
+    try (object) {
+      return object.readAllBytes();
+    } catch (IOException e) {
+      object.abort();
+      throw new RuntimeException("Failed to read file", e);
+    }
+  }
+
+  private static Instant ifModifiedSince(HttpHeaders requestHeaders) {
+    try {
+      long ifModifiedSince = requestHeaders.getIfModifiedSince();
+      return ifModifiedSince < 0 ? null : Instant.ofEpochMilli(ifModifiedSince);
+    } catch (IllegalArgumentException e) {
+      // An unparseable date is ignored, as RFC 9110 requires.
+      return null;
+    }
+  }
+
+  /**
+   * Uploads the file, or with an {@code uploadToken} from {@link #preUploadFile} the content and
+   * diff held by that session, conditional on the object still having the ETag it was diffed
+   * against. The session is only used when the file, if sent again, has the same content.
+   */
+  public void uploadFile(String bucketName, MultipartFile file, String objectKey,
+      String uploadToken) {
+    if (!s3Properties.getBuckets().contains(bucketName)) {
+      throw new ForbiddenException(String.format("Forbidden to access bucket %s", bucketName));
+    }
+    if (uploadToken != null) {
+      UploadSession session = uploadSessionStore.take(uploadToken, bucketName, objectKey);
+      if (session != null && (file == null || isSessionContent(session, file))) {
+        try (session) {
+          uploadSession(session);
+          return;
+        }
+      }
+      if (session != null) {
+        session.close();
+      }
+    }
+    if (file == null) {
+      throw new BadRequestException(
+          String.format("Upload session for %s not found or expired, and no file was sent",
+              objectKey));
+    }
 
-    return new ResponseEntity<>(resource, headers, HttpStatus.OK);
+    try (Outcome outcome = upload(bucketName, file, objectKey)) {
+      audit(bucketName, outcome);
+    }
   }
 
-  public void uploadFile(String bucketName, MultipartFile file, String objectKey) {
+  /**
+   * Uploads each file to the object key at the same position, or to its original filename, with
+   * up to {@code upload.batchConcurrency} files in flight. A failure only fails its own file. The
+   * audit records are written together once every put has finished.
+   */
+  public BatchUploadResponse uploadFiles(String bucketName, List<MultipartFile> files,
+      List<String> objectKeys) {
     if (!s3Properties.getBuckets().contains(bucketName)) {
       throw new ForbiddenException(String.format("Forbidden to access bucket %s", bucketName));
     }
-    PreUploadObjectResponse preUploadObjectResponse = preUploadFile(bucketName, file, objectKey);
+    List<String> keys = objectKeys != null ? objectKeys
+        : files.stream().map(MultipartFile::getOriginalFilename).toList();
+    if (files.isEmpty() || files.size() != keys.size()
+        || keys.stream().anyMatch(Objects::isNull)) {
+      throw new BadRequestException("Every file needs an object key");
+    }
+    if (files.size() > uploadProperties.getMaxBatchFiles()) {
+      throw new BadRequestException(String.format("A batch can hold at most %d files",
+          uploadProperties.getMaxBatchFiles()));
+    }
+    if (new HashSet<>(keys).size() != keys.size()) {
+      throw new BadRequestException("Object keys in a batch must be unique");
+    }
 
-    PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-        .bucket(bucketName)
-        .key(objectKey)
+    List<Future<Outcome>> uploads = new ArrayList<>();
+    for (int i = 0; i < files.size(); i++) {
+      MultipartFile file = files.get(i);
+      String objectKey = keys.get(i);
+      uploads.add(uploadExecutor.submit(
+          CallOrigin.wrap(() -> upload(bucketName, file, objectKey))));
+    }
+    List<UploadResult> results = new ArrayList<>();
+    List<Outcome> outcomes = new ArrayList<>();
+    try {
+      for (int i = 0; i < uploads.size(); i++) {
+        try {
+          Outcome outcome = await(uploads.get(i));
+          outcomes.add(outcome);
+          results.add(outcome.getResult());
+        } catch (RuntimeException e) {
+          log.error("Failed to upload {}/{}", bucketName, keys.get(i), e);
+          results.add(UploadResult.builder()
+              .objectKey(keys.get(i))
+              .status(UploadStatus.FAILED)
+              .error(e.getMessage())
+              .build());
+        }
+      }
+
+      auditBatch(bucketName, outcomes);
+    } finally {
+      outcomes.forEach(Outcome::close);
+    }
+    return BatchUploadResponse.builder()
+        .results(results)
         .build();
+  }
+
+  /**
+   * Puts the file and diffs it against the object it replaces, leaving the audit to the caller.
+   */
+  private Outcome upload(String bucketName, MultipartFile file, String objectKey) {
+    HeadObjectResponse existing = headObject(bucketName, objectKey);
+    if (existing == null) {
+      putObject(bucketName, objectKey, file).close();
+      return new Outcome(objectKey, UploadStatus.CREATED, null);
+    }
+
+    // Only an upload of the same size can be unchanged, so only then is it worth hashing ahead
+    // of the put; otherwise the upload is still read once, during the put.
+    if (existing.contentLength() != null && existing.contentLength() == file.getSize()) {
+      try (StreamedContent uploaded = readUpload(file)) {
+        if (isUnchanged(existing, uploaded)) {
+          log.info("Upload of {}/{} is unchanged, skipping put", bucketName, objectKey);
+          return new Outcome(objectKey, UploadStatus.UNCHANGED, null);
+        }
+      }
+    }
+
+    try (StreamedContent original = readOriginal(bucketName, objectKey, existing.eTag(), false);
+        StreamedContent uploaded = putObject(bucketName, objectKey, file)) {
+      return new Outcome(objectKey, UploadStatus.MODIFIED,
+          diffService.diff(objectKey, original, uploaded));
+    }
+  }
+
+  private void audit(String bucketName, Outcome outcome) {
+    String objectKey = outcome.getResult().getObjectKey();
+    switch (outcome.getResult().getStatus()) {
+      case CREATED -> auditService.writeAuditDiff(AuditEventType.UPLOAD, bucketName, objectKey,
+          userName, Collections.emptyList());
+      case MODIFIED -> auditModify(bucketName, objectKey, outcome.getDiff());
+      default -> {
+        // Unchanged uploads are not audited.
+      }
+    }
+  }
+
+  /**
+   * Writes the audit records of the created and modified files as one batch. Unchanged uploads
+   * are not audited.
+   */
+  private void auditBatch(String bucketName, List<Outcome> outcomes) {
+    List<Outcome> audited = outcomes.stream()
+        .filter(outcome -> outcome.getResult().getStatus() != UploadStatus.UNCHANGED)
+        .toList();
+    List<RuntimeException> failures = auditService.writeAuditBatch(bucketName, userName,
+        audited.stream().map(S3Service::batchRecord).toList());
+    for (int i = 0; i < failures.size(); i++) {
+      if (failures.get(i) != null) {
+        Outcome outcome = audited.get(i);
+        log.error("Failed to audit upload of {}/{}", bucketName,
+            outcome.getResult().getObjectKey(), failures.get(i));
+        outcome.getResult().setError("Uploaded, but the audit record could not be written");
+      }
+    }
+  }
+
+  private static AuditService.BatchRecord batchRecord(Outcome outcome) {
+    if (outcome.getResult().getStatus() == UploadStatus.CREATED) {
+      return AuditService.BatchRecord.builder()
+          .eventType(AuditEventType.UPLOAD)
+          .objectKey(outcome.getResult().getObjectKey())
+          .unifiedDiff(Collections.emptyList())
+          .build();
+    }
+    return AuditService.BatchRecord.builder()
+        .eventType(AuditEventType.MODIFY)
+        .objectKey(outcome.getResult().getObjectKey())
+        .unifiedDiff(outcome.getDiff().getUnifiedDiff())
+        .delta(outcome.getDiff().getDelta())
+        .build();
+  }
+
+  private static <T> T await(Future<T> future) {
     try {
-      s3Client.putObject(putObjectRequest,
-          RequestBody.fromInputStream(file.getInputStream(), file.getInputStream().available()));
-    } catch (Exception e) {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while uploading files", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      throw new RuntimeException("Failed to upload file", e.getCause());
+    }
+  }
+
+  /**
+   * Whether a file sent again with its upload token is the content the session diffed. An edit
+   * that keeps the size still changes the SHA-256.
+   */
+  private static boolean isSessionContent(UploadSession session, MultipartFile file) {
+    StreamedContent uploaded = session.getUploaded();
+    if (file.getSize() != uploaded.getSize()) {
+      return false;
+    }
+    try (InputStream content = file.getInputStream()) {
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = content.read(buffer)) != -1) {
+        sha256.update(buffer, 0, read);
+      }
+      return HexFormat.of().formatHex(sha256.digest()).equals(uploaded.getSha256());
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read file content", e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Content digests are not available", e);
+    }
+  }
+
+  private void uploadSession(UploadSession session) {
+    StreamedContent uploaded = session.getUploaded();
+    PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+        .bucket(session.getBucketName())
+        .key(session.getObjectKey())
+        .checksumSHA256(Base64.getEncoder().encodeToString(
+            HexFormat.of().parseHex(uploaded.getSha256())))
+        .ifMatch(session.getETag())
+        .build();
+    try (InputStream content = uploaded.openInputStream()) {
+      uploadS3Client.putObject(putObjectRequest,
+          RequestBody.fromInputStream(content, uploaded.getSize()));
+    } catch (S3Exception e) {
+      throw conflictOr(e, session.getObjectKey());
+    } catch (IOException e) {
       throw new RuntimeException("Failed to upload file", e);
+    } finally {
+      contentCache.invalidate(session.getBucketName(), session.getObjectKey());
     }
+    auditModify(session.getBucketName(), session.getObjectKey(), session.getDiff());
+  }
 
-    if (preUploadObjectResponse.isNewUpload()) {
-      auditService.writeAuditDiff(AuditEventType.UPLOAD, bucketName, objectKey, userName,
-          Collections.emptyList());
+  private void auditModify(String bucketName, String objectKey, DiffResult diff) {
+    if (diff.getDelta() != null) {
+      auditService.writeAuditDelta(AuditEventType.MODIFY, bucketName, objectKey, userName,
+          diff.getDelta());
     } else {
       auditService.writeAuditDiff(AuditEventType.MODIFY, bucketName, objectKey, userName,
-          preUploadObjectResponse.getUnifiedDiff());
+          diff.getUnifiedDiff());
     }
   }
 
@@ -138,48 +610,173 @@ public class S3Service {
     if (!s3Properties.getBuckets().contains(bucketName)) {
       throw new ForbiddenException(String.format("Forbidden to access bucket %s", bucketName));
     }
-    ResponseInputStream<GetObjectResponse> object;
-    try {
-      object = getObject(bucketName, objectKey);
-    } catch (NotFoundException e) {
+    HeadObjectResponse existing = headObject(bucketName, objectKey);
+    if (existing == null) {
       return PreUploadObjectResponse.builder()
           .newUpload(true)
           .build();
     }
 
-    List<String> originalLines;
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(object))) {
-      originalLines = reader.lines().toList();
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to read object content", e);
+    // The session takes ownership of the spooled upload and the diff, so the upload call can put
+    // them without reading the file or the original again.
+    UploadSession session = UploadSession.builder()
+        .bucketName(bucketName)
+        .objectKey(objectKey)
+        .eTag(existing.eTag())
+        .uploaded(readUpload(file))
+        .build();
+    try {
+      if (isUnchanged(existing, session.getUploaded())) {
+        session.close();
+        return PreUploadObjectResponse.builder()
+            .newUpload(false)
+            .unchanged(true)
+            .unifiedDiff(Collections.emptyList())
+            .build();
+      }
+
+      try (StreamedContent original = readOriginal(bucketName, objectKey, existing.eTag(),
+          true)) {
+        session.setDiff(diffService.diff(objectKey, original, session.getUploaded()));
+      }
+      DiffResult diff = session.getDiff();
+      return PreUploadObjectResponse.builder()
+          .newUpload(false)
+          .diffTooLarge(diff.isTooLarge())
+          .binary(diff.isBinary())
+          .unifiedDiff(diff.getUnifiedDiff())
+          .changedRanges(diff.getChangedRanges())
+          .uploadToken(uploadSessionStore.save(session))
+          .build();
+    } catch (RuntimeException e) {
+      session.close();
+      throw e;
     }
+  }
+
+  private StreamedContent putObject(String bucketName, String objectKey, MultipartFile file) {
+    PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+        .bucket(bucketName)
+        .key(objectKey)
+        .checksumAlgorithm(ChecksumAlgorithm.SHA256)
+        .build();
+    try (UploadPipeline pipeline = UploadPipeline.open(file.getInputStream(),
+        diffService.maxLinesPerSide())) {
+      uploadS3Client.putObject(putObjectRequest,
+          RequestBody.fromInputStream(pipeline.body(), file.getSize()));
+      return pipeline.finish();
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to upload file", e);
+    } finally {
+      // A put that failed may still have landed, so the cached copy is dropped either way.
+      contentCache.invalidate(bucketName, objectKey);
+    }
+  }
 
-    List<String> newLines;
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
-      newLines = reader.lines().toList();
+  private StreamedContent readUpload(MultipartFile file) {
+    try {
+      return UploadPipeline.read(file.getInputStream(), diffService.maxLinesPerSide());
     } catch (IOException e) {
       throw new RuntimeException("Failed to read file content", e);
     }
+  }
 
-    Patch<String> patch = DiffUtils.diff(originalLines, newLines);
-    List<String> unifiedDiff = UnifiedDiffUtils.generateUnifiedDiff(objectKey, objectKey,
-        originalLines, patch, Integer.MAX_VALUE);
-
-    return PreUploadObjectResponse.builder()
-        .newUpload(false)
-        .unifiedDiff(unifiedDiff)
+  /**
+   * Reads the version of the object with {@code eTag}, from the content cache when it holds it.
+   * With {@code ifMatch} the GET fails with a conflict if the object has since changed.
+   */
+  private StreamedContent readOriginal(String bucketName, String objectKey, String eTag,
+      boolean ifMatch) {
+    CachedObject cached = contentCache.get(bucketName, objectKey, eTag);
+    if (cached != null) {
+      return UploadPipeline.read(cached.openInputStream(), diffService.maxLinesPerSide());
+    }
+    GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+        .bucket(bucketName)
+        .key(objectKey)
+        .ifMatch(ifMatch ? eTag : null)
         .build();
+    long fetchedSince = System.nanoTime();
+    ResponseInputStream<GetObjectResponse> object;
+    try {
+      object = uploadS3Client.getObject(getObjectRequest);
+    } catch (NoSuchKeyException e) {
+      throw new NotFoundException(String.format("Object %s not found", objectKey));
+    } catch (S3Exception e) {
+      throw conflictOr(e, objectKey);
+    }
+    GetObjectResponse response = object.response();
+    if (contentCache.accepts(response.contentLength())) {
+      cached = contentCache.put(bucketName, objectKey, response.eTag(), response.lastModified(),
+          readAll(object), fetchedSince);
+      return UploadPipeline.read(cached.openInputStream(), diffService.maxLinesPerSide());
+    }
+    return UploadPipeline.read(object, diffService.maxLinesPerSide());
   }
 
-  private ResponseInputStream<GetObjectResponse> getObject(String bucketName, String key) {
-    GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+  private static RuntimeException conflictOr(S3Exception e, String objectKey) {
+    // 412 is a failed If-Match; S3 answers 409 when a concurrent write to the key wins the race.
+    if (e.statusCode() == HttpStatus.PRECONDITION_FAILED.value()
+        || e.statusCode() == HttpStatus.CONFLICT.value()) {
+      return new ConflictException(
+          String.format("Object %s has changed since it was diffed", objectKey));
+    }
+    return e;
+  }
+
+  private boolean isUnchanged(HeadObjectResponse existing, StreamedContent uploaded) {
+    if (existing.contentLength() != null && existing.contentLength() != uploaded.getSize()) {
+      return false;
+    }
+    // Objects we put carry a SHA-256 checksum; composite checksums of multipart uploads end in
+    // "-<parts>" and cannot be compared with a whole-object digest.
+    String checksum = existing.checksumSHA256();
+    if (checksum != null && !checksum.contains("-")) {
+      return HexFormat.of().formatHex(Base64.getDecoder().decode(checksum))
+          .equals(uploaded.getSha256());
+    }
+    // Single-part uploads without SSE-KMS have the content MD5 as their ETag.
+    String eTag = existing.eTag() == null ? null : existing.eTag().replace("\"", "");
+    return eTag != null && !eTag.contains("-") && eTag.equalsIgnoreCase(uploaded.getMd5());
+  }
+
+  private HeadObjectResponse headObject(String bucketName, String key) {
+    HeadObjectRequest headObjectRequest = HeadObjectRequest.builder()
         .bucket(bucketName)
         .key(key)
+        .checksumMode(ChecksumMode.ENABLED)
         .build();
     try {
-      return s3Client.getObject(getObjectRequest);
+      return uploadS3Client.headObject(headObjectRequest);
     } catch (NoSuchKeyException e) {
-      throw new NotFoundException(String.format("Object %s not found", key));
+      return null;
+    }
+  }
+
+  /**
+   * The result of one upload, holding its diff until the upload has been audited.
+   */
+  @Getter
+  private static class Outcome implements Closeable {
+
+    private final UploadResult result;
+    private final DiffResult diff;
+
+    private Outcome(String objectKey, UploadStatus status, DiffResult diff) {
+      this.result = UploadResult.builder()
+          .objectKey(objectKey)
+          .status(status)
+          .diffTooLarge(diff != null && diff.isTooLarge())
+          .binary(diff != null && diff.isBinary())
+          .build();
+      this.diff = diff;
+    }
+
+    @Override
+    public void close() {
+      if (diff != null) {
+        diff.close();
+      }
     }
   }
 }
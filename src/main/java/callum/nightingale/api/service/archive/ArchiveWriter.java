@@ -0,0 +1,225 @@
+package callum.nightingale.api.service.archive;
+
+import callum.nightingale.api.properties.ArchiveProperties;
+import callum.nightingale.api.service.client.CallOrigin;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * Writes one ZIP archive of objects in key order while up to {@code archive.prefetch} of the
+ * following objects are opened on the archive executor. Objects no larger than
+ * {@code archive.prefetchBufferBytes} are read whole when prefetched, releasing their connection
+ * early; larger ones are left open and streamed straight into the archive. Every stream opened is
+ * either closed once written or aborted, including when the client goes away.
+ */
+@Slf4j
+public class ArchiveWriter {
+
+  private final List<String> objectKeys;
+  private final Function<String, ResponseInputStream<GetObjectResponse>> opener;
+  private final ExecutorService executor;
+  private final ArchiveProperties archiveProperties;
+  private final int level;
+  private final Set<ResponseInputStream<GetObjectResponse>> open = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean cancelled = new AtomicBoolean();
+
+  public ArchiveWriter(List<String> objectKeys,
+      Function<String, ResponseInputStream<GetObjectResponse>> opener, ExecutorService executor,
+      ArchiveProperties archiveProperties, boolean compress) {
+    this.objectKeys = objectKeys;
+    this.opener = opener;
+    this.executor = executor;
+    this.archiveProperties = archiveProperties;
+    this.level = compress ? archiveProperties.getDeflateLevel() : Deflater.NO_COMPRESSION;
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    Deque<Future<Fetched>> pending = new ArrayDeque<>();
+    Iterator<String> keys = objectKeys.iterator();
+    Set<String> names = new HashSet<>();
+    byte[] buffer = new byte[archiveProperties.getBufferSize()];
+    try {
+      ZipOutputStream zip = new ZipOutputStream(
+          new BufferedOutputStream(out, archiveProperties.getBufferSize()));
+      zip.setLevel(level);
+      while (pending.size() < archiveProperties.getPrefetch() && keys.hasNext()) {
+        pending.add(prefetch(keys.next()));
+      }
+      while (!pending.isEmpty()) {
+        Fetched fetched = await(pending.poll());
+        if (keys.hasNext()) {
+          pending.add(prefetch(keys.next()));
+        }
+        if (fetched == null) {
+          continue;
+        }
+        String name = entryName(fetched.objectKey);
+        if (name == null) {
+          log.warn("Skipping {} in archive, its key climbs out of the archive root",
+              fetched.objectKey);
+        }
+        if (name == null || name.isEmpty() || !names.add(name)) {
+          release(fetched);
+          continue;
+        }
+        write(zip, name, fetched, buffer);
+      }
+      zip.finish();
+      zip.flush();
+    } finally {
+      cancel(pending);
+    }
+  }
+
+  private Future<Fetched> prefetch(String objectKey) {
+    return executor.submit(CallOrigin.wrap(() -> fetch(objectKey)));
+  }
+
+  private Fetched fetch(String objectKey) throws IOException {
+    if (cancelled.get()) {
+      return null;
+    }
+    ResponseInputStream<GetObjectResponse> object;
+    try {
+      object = opener.apply(objectKey);
+    } catch (NoSuchKeyException e) {
+      log.warn("Skipping {} in archive, it no longer exists", objectKey);
+      return null;
+    }
+    open.add(object);
+    // Checked after registering, so either this task or cancel() sees the other and aborts.
+    if (cancelled.get()) {
+      abort(object);
+      return null;
+    }
+    Long length = object.response().contentLength();
+    if (length != null && length <= archiveProperties.getPrefetchBufferBytes()) {
+      try (object) {
+        byte[] content = object.readAllBytes();
+        open.remove(object);
+        return new Fetched(objectKey, object.response(), content, null);
+      } catch (IOException e) {
+        abort(object);
+        throw e;
+      }
+    }
+    return new Fetched(objectKey, object.response(), null, object);
+  }
+
+  private void write(ZipOutputStream zip, String name, Fetched fetched, byte[] buffer)
+      throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    if (fetched.response.lastModified() != null) {
+      entry.setTime(fetched.response.lastModified().toEpochMilli());
+    }
+    zip.putNextEntry(entry);
+    if (fetched.content != null) {
+      zip.write(fetched.content);
+    } else {
+      boolean finished = false;
+      try (InputStream in = fetched.stream) {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          zip.write(buffer, 0, read);
+        }
+        finished = true;
+      } finally {
+        if (!finished) {
+          abort(fetched.stream);
+        }
+        open.remove(fetched.stream);
+      }
+    }
+    zip.closeEntry();
+  }
+
+  private static Fetched await(Future<Fetched> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing archive", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw io;
+      }
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      throw new IOException("Failed to fetch object for archive", e.getCause());
+    }
+  }
+
+  private void cancel(Deque<Future<Fetched>> pending) {
+    cancelled.set(true);
+    pending.forEach(future -> future.cancel(true));
+    open.forEach(this::abort);
+  }
+
+  private void release(Fetched fetched) {
+    if (fetched.stream != null) {
+      abort(fetched.stream);
+    }
+  }
+
+  private void abort(ResponseInputStream<GetObjectResponse> object) {
+    open.remove(object);
+    object.abort();
+  }
+
+  /**
+   * The key with empty and {@code .} segments dropped, or {@code null} if it has a {@code ..}
+   * segment, which would let the entry be extracted outside the target directory. Backslashes
+   * count as separators too, as they do for extractors on Windows.
+   */
+  private static String entryName(String objectKey) {
+    StringJoiner name = new StringJoiner("/");
+    for (String segment : objectKey.split("[/\\\\]")) {
+      if (segment.equals("..")) {
+        return null;
+      }
+      if (!segment.isEmpty() && !segment.equals(".")) {
+        name.add(segment);
+      }
+    }
+    return name.length() > 0 && objectKey.endsWith("/") ? name + "/" : name.toString();
+  }
+
+  private static final class Fetched {
+
+    private final String objectKey;
+    private final GetObjectResponse response;
+    private final byte[] content;
+    private final ResponseInputStream<GetObjectResponse> stream;
+
+    private Fetched(String objectKey, GetObjectResponse response, byte[] content,
+        ResponseInputStream<GetObjectResponse> stream) {
+      this.objectKey = objectKey;
+      this.response = response;
+      this.content = content;
+      this.stream = stream;
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package callum.nightingale.api.service.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The content of one version of an object. The buffer is never written after construction, so
+ * readers share it through duplicates.
+ */
+public class CachedObject {
+
+  private final String eTag;
+  private final Instant lastModified;
+  private final ByteBuffer content;
+  private volatile long validatedAt;
+
+  CachedObject(String eTag, Instant lastModified, ByteBuffer content, long validatedAt) {
+    this.eTag = eTag;
+    this.lastModified = lastModified;
+    this.content = content;
+    this.validatedAt = validatedAt;
+  }
+
+  public String getETag() {
+    return eTag;
+  }
+
+  public Instant getLastModified() {
+    return lastModified;
+  }
+
+  public int size() {
+    return content.capacity();
+  }
+
+  /**
+   * Seconds since S3 last confirmed this version.
+   */
+  public long ageSeconds() {
+    return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - validatedAt);
+  }
+
+  long getValidatedAt() {
+    return validatedAt;
+  }
+
+  void setValidatedAt(long validatedAt) {
+    this.validatedAt = validatedAt;
+  }
+
+  public InputStream openInputStream() {
+    ByteBuffer buffer = content.duplicate();
+    return new InputStream() {
+      @Override
+      public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) {
+        if (!buffer.hasRemaining()) {
+          return length == 0 ? 0 : -1;
+        }
+        int read = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, read);
+        return read;
+      }
+
+      @Override
+      public int available() {
+        return buffer.remaining();
+      }
+    };
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    if (content.hasArray()) {
+      out.write(content.array(), content.arrayOffset(), content.capacity());
+    } else {
+      try (InputStream in = openInputStream()) {
+        in.transferTo(out);
+      }
+    }
+    out.flush();
+  }
+}
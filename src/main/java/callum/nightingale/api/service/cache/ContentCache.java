@@ -0,0 +1,181 @@
+package callum.nightingale.api.service.cache;
+
+import callum.nightingale.api.properties.CacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Least recently used contents of small objects, bounded by {@code cache.maxBytes} in total. An
+ * entry is trusted for {@code cache.revalidateAfter} after its GET started or it was last
+ * revalidated; after that callers revalidate it with a conditional GET on its ETag. Our own writes
+ * invalidate the key, and a GET that started before the invalidation is not cached. With
+ * {@code cache.offHeap} contents are held in direct buffers, outside the heap.
+ *
+ * <p>Publishes {@code content.cache.requests} tagged with {@code result} (hit, revalidated or
+ * miss), from which the hit ratio follows, plus the cached bytes, objects and evictions.
+ */
+@Component
+public class ContentCache {
+
+  private final CacheProperties cacheProperties;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, CachedObject> objects = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<String, Long> invalidatedAt = new LinkedHashMap<>();
+  private long bytes;
+  private final Counter hits;
+  private final Counter revalidations;
+  private final Counter misses;
+  private final Counter evictions;
+
+  public ContentCache(CacheProperties cacheProperties, MeterRegistry meterRegistry) {
+    this.cacheProperties = cacheProperties;
+    this.hits = requests(meterRegistry, "hit");
+    this.revalidations = requests(meterRegistry, "revalidated");
+    this.misses = requests(meterRegistry, "miss");
+    this.evictions = Counter.builder("content.cache.evictions").register(meterRegistry);
+    meterRegistry.gauge("content.cache.bytes", this, cache -> cache.withLock(() -> cache.bytes));
+    meterRegistry.gauge("content.cache.objects", this,
+        cache -> cache.withLock(() -> (long) cache.objects.size()));
+  }
+
+  /**
+   * Whether an object of this length may be cached; {@code null} lengths are unknown and are not.
+   */
+  public boolean accepts(Long contentLength) {
+    return cacheProperties.isEnabled() && contentLength != null
+        && contentLength <= cacheProperties.getMaxObjectBytes();
+  }
+
+  /**
+   * The cached version of the object, which may need revalidating, or {@code null}.
+   */
+  public CachedObject get(String bucketName, String objectKey) {
+    if (!cacheProperties.isEnabled()) {
+      return null;
+    }
+    return withLock(() -> objects.get(key(bucketName, objectKey)));
+  }
+
+  /**
+   * The cached version of the object with {@code eTag}, counted as a hit, or {@code null}.
+   */
+  public CachedObject get(String bucketName, String objectKey, String eTag) {
+    CachedObject cached = get(bucketName, objectKey);
+    if (cached != null && eTag != null && eTag.equals(cached.getETag())) {
+      hits.increment();
+      return cached;
+    }
+    return null;
+  }
+
+  /**
+   * Whether the entry can be served without asking S3; counts a hit if so.
+   */
+  public boolean isFresh(CachedObject cached) {
+    boolean fresh = System.nanoTime() - cached.getValidatedAt()
+        < cacheProperties.getRevalidateAfter().toNanos();
+    if (fresh) {
+      hits.increment();
+    }
+    return fresh;
+  }
+
+  /**
+   * Records that S3 confirmed the entry is still current.
+   */
+  public void revalidated(CachedObject cached) {
+    cached.setValidatedAt(System.nanoTime());
+    revalidations.increment();
+  }
+
+  /**
+   * Caches content just fetched from S3, counted as a miss, and returns it as a cached object
+   * whether or not it fitted. {@code fetchedSince} is the {@link System#nanoTime} taken before the
+   * GET was sent; if the key was invalidated since then the content may predate the write, so it
+   * is not cached.
+   */
+  public CachedObject put(String bucketName, String objectKey, String eTag,
+      Instant lastModified, byte[] content, long fetchedSince) {
+    misses.increment();
+    ByteBuffer buffer;
+    if (cacheProperties.isOffHeap()) {
+      buffer = ByteBuffer.allocateDirect(content.length).put(content).flip();
+    } else {
+      buffer = ByteBuffer.wrap(content);
+    }
+    CachedObject cached = new CachedObject(eTag, lastModified, buffer, fetchedSince);
+    if (!cacheProperties.isEnabled() || eTag == null
+        || content.length > cacheProperties.getMaxObjectBytes()) {
+      return cached;
+    }
+    String key = key(bucketName, objectKey);
+    lock.lock();
+    try {
+      Long invalidated = invalidatedAt.get(key);
+      if (invalidated != null && invalidated - fetchedSince >= 0) {
+        return cached;
+      }
+      CachedObject previous = objects.put(key, cached);
+      bytes += content.length - (previous == null ? 0 : previous.size());
+      Iterator<CachedObject> eldest = objects.values().iterator();
+      while (bytes > cacheProperties.getMaxBytes() && eldest.hasNext()) {
+        bytes -= eldest.next().size();
+        eldest.remove();
+        evictions.increment();
+      }
+    } finally {
+      lock.unlock();
+    }
+    return cached;
+  }
+
+  public void invalidate(String bucketName, String objectKey) {
+    String key = key(bucketName, objectKey);
+    long now = System.nanoTime();
+    lock.lock();
+    try {
+      CachedObject removed = objects.remove(key);
+      if (removed != null) {
+        bytes -= removed.size();
+      }
+      invalidatedAt.remove(key);
+      invalidatedAt.put(key, now);
+      // Entries are fresh for revalidateAfter from when their GET started, so a GET older than
+      // that could only cache an entry revalidated on its next read; older invalidations can go.
+      long expiry = now - cacheProperties.getRevalidateAfter().toNanos();
+      Iterator<Long> oldest = invalidatedAt.values().iterator();
+      while (oldest.hasNext() && oldest.next() - expiry < 0) {
+        oldest.remove();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static Counter requests(MeterRegistry meterRegistry, String result) {
+    return Counter.builder("content.cache.requests")
+        .tag("result", result)
+        .register(meterRegistry);
+  }
+
+  private <T> T withLock(Supplier<T> action) {
+    lock.lock();
+    try {
+      return action.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static String key(String bucketName, String objectKey) {
+    return bucketName + '/' + objectKey;
+  }
+}
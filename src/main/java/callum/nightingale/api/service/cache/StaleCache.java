@@ -0,0 +1,102 @@
+package callum.nightingale.api.service.cache;
+
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.service.client.CircuitBreakers;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * The last good result of each listing and audit read, kept for the {@code breaker.staleEntries}
+ * most recently used keys. When S3 is out, whether the breaker is open or the call itself failed,
+ * the last good result is served instead, marked with {@link #STALE_HEADER} giving its age in
+ * seconds. Other failures, and outages with nothing cached, are rethrown.
+ */
+@Component
+public class StaleCache {
+
+  public static final String STALE_HEADER = "X-Served-Stale";
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<List<Object>, Entry> entries;
+
+  public StaleCache(BreakerProperties breakerProperties) {
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+        return size() > breakerProperties.getStaleEntries();
+      }
+    };
+  }
+
+  /**
+   * Runs {@code call} and returns its result, remembering it, or the last good result if S3 is
+   * out.
+   */
+  public <T> CompletableFuture<ResponseEntity<T>> serve(String operationName, Object key,
+      Supplier<CompletableFuture<T>> call) {
+    CompletableFuture<T> result;
+    try {
+      result = call.get();
+    } catch (RuntimeException e) {
+      result = CompletableFuture.failedFuture(e);
+    }
+    return result.handle((value, failure) -> failure == null
+        ? fresh(operationName, key, value)
+        : stale(operationName, key, failure));
+  }
+
+  private <T> ResponseEntity<T> fresh(String operationName, Object key, T value) {
+    lock.lock();
+    try {
+      entries.put(List.of(operationName, key), new Entry(value, Instant.now()));
+    } finally {
+      lock.unlock();
+    }
+    return ResponseEntity.ok(value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> ResponseEntity<T> stale(String operationName, Object key, Throwable failure) {
+    Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+        ? failure.getCause() : failure;
+    Entry entry = null;
+    if (CircuitBreakers.isOutage(cause)) {
+      lock.lock();
+      try {
+        entry = entries.get(List.of(operationName, key));
+      } finally {
+        lock.unlock();
+      }
+    }
+    if (entry == null) {
+      if (cause instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      throw new CompletionException(cause);
+    }
+    return ResponseEntity.ok()
+        .header(STALE_HEADER, String.valueOf(
+            Duration.between(entry.storedAt, Instant.now()).toSeconds()))
+        .body((T) entry.value);
+  }
+
+  private static class Entry {
+
+    private final Object value;
+    private final Instant storedAt;
+
+    private Entry(Object value, Instant storedAt) {
+      this.value = value;
+      this.storedAt = storedAt;
+    }
+  }
+}
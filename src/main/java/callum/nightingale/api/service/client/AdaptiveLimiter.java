@@ -0,0 +1,141 @@
+package callum.nightingale.api.service.client;
+
+import callum.nightingale.api.properties.LimiterProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-lane, per-bucket AIMD limit on S3 calls in flight. Each lane keeps its own limit, so slow
+ * uploads cannot cut the limit interactive calls run under. A call that completes within
+ * {@code limiter.latencyThreshold} while the limit is at least half used raises the limit by one;
+ * a throttled or slow call cuts it by {@code limiter.backoffRatio}. Callers over the limit wait up
+ * to {@code limiter.maxWait} and are then shed, so excess load is refused here instead of being
+ * retried against S3.
+ */
+@Component
+public class AdaptiveLimiter {
+
+  private final LimiterProperties limiterProperties;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+  public AdaptiveLimiter(LimiterProperties limiterProperties, MeterRegistry meterRegistry) {
+    this.limiterProperties = limiterProperties;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Waits for a slot on the lane's limit for the bucket, returning false if none frees up in time.
+   */
+  public boolean acquire(String laneName, String bucketName) throws InterruptedException {
+    return limit(laneName, bucketName).acquire(limiterProperties.getMaxWait().toNanos());
+  }
+
+  /**
+   * Records an S3 throttle response straight away, so the limit drops before the SDK retries.
+   */
+  public void throttled(String laneName, String bucketName) {
+    limit(laneName, bucketName).throttled();
+  }
+
+  /**
+   * Frees the slot taken by {@link #acquire}. Calls already reported as throttled do not adjust the
+   * limit again.
+   */
+  public void release(String laneName, String bucketName, long latencyNanos, boolean throttled) {
+    limit(laneName, bucketName).release(latencyNanos, !throttled);
+  }
+
+  /**
+   * Frees the slot taken by {@link #acquire} without adjusting the limit, for calls whose duration
+   * is set by the size of their payload rather than by how busy S3 is.
+   */
+  public void release(String laneName, String bucketName) {
+    limit(laneName, bucketName).release(0, false);
+  }
+
+  public int getLimit(String laneName, String bucketName) {
+    return (int) limit(laneName, bucketName).limit;
+  }
+
+  private Limit limit(String laneName, String bucketName) {
+    return limits.computeIfAbsent(laneName + "/" + bucketName,
+        key -> new Limit(laneName, bucketName));
+  }
+
+  private class Limit {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Counter shed;
+    private final Counter throttles;
+    private volatile double limit = limiterProperties.getInitialLimit();
+    private volatile int inFlight;
+
+    private Limit(String laneName, String bucketName) {
+      Tags tags = Tags.of("lane", laneName, "bucket", bucketName);
+      meterRegistry.gauge("s3.limiter.limit", tags, this, limit -> limit.limit);
+      meterRegistry.gauge("s3.limiter.inflight", tags, this, limit -> limit.inFlight);
+      this.shed = meterRegistry.counter("s3.limiter.shed", tags);
+      this.throttles = meterRegistry.counter("s3.limiter.throttled", tags);
+    }
+
+    private boolean acquire(long maxWaitNanos) throws InterruptedException {
+      long remaining = maxWaitNanos;
+      lock.lock();
+      try {
+        while (inFlight >= (int) limit) {
+          if (remaining <= 0) {
+            shed.increment();
+            return false;
+          }
+          remaining = released.awaitNanos(remaining);
+        }
+        inFlight++;
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void throttled() {
+      throttles.increment();
+      lock.lock();
+      try {
+        decrease();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void release(long latencyNanos, boolean adjust) {
+      lock.lock();
+      try {
+        int wasInFlight = inFlight--;
+        if (adjust) {
+          if (latencyNanos > limiterProperties.getLatencyThreshold().toNanos()) {
+            decrease();
+          } else if (wasInFlight * 2 >= limit) {
+            limit = Math.min(limiterProperties.getMaxLimit(), limit + 1);
+            released.signalAll();
+            return;
+          }
+        }
+        released.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void decrease() {
+      limit = Math.max(limiterProperties.getMinLimit(),
+          limit * limiterProperties.getBackoffRatio());
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package callum.nightingale.api.service.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+
+/**
+ * Lets the interceptors that admit a call undo what they took when a later interceptor refuses
+ * it. The SDK only calls {@code onExecutionFailure} for calls that got past
+ * {@code beforeExecution}, so without this a refused call would keep the breaker trial slot,
+ * limiter slot or span already taken for it.
+ */
+final class Admission {
+
+  private static final ExecutionAttribute<List<Consumer<RuntimeException>>> ON_REFUSED =
+      new ExecutionAttribute<>("AdmissionOnRefused");
+
+  private Admission() {
+  }
+
+  /**
+   * Registers {@code undo} to run with the refusal if a later interceptor refuses the call.
+   */
+  static void onRefused(ExecutionAttributes executionAttributes,
+      Consumer<RuntimeException> undo) {
+    List<Consumer<RuntimeException>> undos = executionAttributes.getAttribute(ON_REFUSED);
+    if (undos == null) {
+      undos = new ArrayList<>();
+      executionAttributes.putAttribute(ON_REFUSED, undos);
+    }
+    undos.add(undo);
+  }
+
+  /**
+   * Undoes the admissions made so far, latest first, and returns {@code refusal} to be thrown.
+   */
+  static RuntimeException refuse(ExecutionAttributes executionAttributes,
+      RuntimeException refusal) {
+    List<Consumer<RuntimeException>> undos = executionAttributes.getAttribute(ON_REFUSED);
+    if (undos != null) {
+      for (int i = undos.size() - 1; i >= 0; i--) {
+        undos.get(i).accept(refusal);
+      }
+    }
+    return refusal;
+  }
+}
@@ -0,0 +1,68 @@
+package callum.nightingale.api.service.client;
+
+import callum.nightingale.api.exception.ServiceUnavailableException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+/**
+ * Puts every S3 call behind its operation's breaker in {@link CircuitBreakers}. While the breaker
+ * is open the call is refused before it takes a connection or a limiter slot; otherwise its
+ * outcome, after the SDK's retries, is recorded once it completes or fails, or is shed by a later
+ * interceptor.
+ */
+public class BreakerInterceptor implements ExecutionInterceptor {
+
+  private static final ExecutionAttribute<Permit> PERMIT = new ExecutionAttribute<>(
+      "BreakerPermit");
+
+  private final CircuitBreakers circuitBreakers;
+
+  public BreakerInterceptor(CircuitBreakers circuitBreakers) {
+    this.circuitBreakers = circuitBreakers;
+  }
+
+  @Override
+  public void beforeExecution(Context.BeforeExecution context,
+      ExecutionAttributes executionAttributes) {
+    String operationName = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+    if (!circuitBreakers.tryAcquire(operationName)) {
+      throw Admission.refuse(executionAttributes, new ServiceUnavailableException(String.format(
+          "S3 %s is failing, please retry shortly", operationName)));
+    }
+    executionAttributes.putAttribute(PERMIT, new Permit(operationName));
+    Admission.onRefused(executionAttributes, refusal -> record(executionAttributes, refusal));
+  }
+
+  @Override
+  public void afterExecution(Context.AfterExecution context,
+      ExecutionAttributes executionAttributes) {
+    record(executionAttributes, null);
+  }
+
+  @Override
+  public void onExecutionFailure(Context.FailedExecution context,
+      ExecutionAttributes executionAttributes) {
+    record(executionAttributes, context.exception());
+  }
+
+  private void record(ExecutionAttributes executionAttributes, Throwable failure) {
+    Permit permit = executionAttributes.getAttribute(PERMIT);
+    if (permit != null && permit.recorded.compareAndSet(false, true)) {
+      circuitBreakers.record(permit.operationName, failure);
+    }
+  }
+
+  private static class Permit {
+
+    private final String operationName;
+    private final AtomicBoolean recorded = new AtomicBoolean();
+
+    private Permit(String operationName) {
+      this.operationName = operationName;
+    }
+  }
+}
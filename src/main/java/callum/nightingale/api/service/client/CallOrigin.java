@@ -0,0 +1,99 @@
+package callum.nightingale.api.service.client;
+
+import callum.nightingale.api.service.timing.RequestTimings;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * The API endpoint, such as {@code GET /api/v1/s3/buckets/{bucketName}/contents}, whose request
+ * the current thread is serving, so S3 calls can be attributed to it, and the
+ * {@link RequestTimings} its spans are recorded in. Work handed to another thread carries both
+ * along when wrapped with {@link #wrap}.
+ */
+public final class CallOrigin {
+
+  public static final String NONE = "none";
+
+  private static final ThreadLocal<String> ORIGIN = new ThreadLocal<>();
+  private static final ThreadLocal<RequestTimings> TIMINGS = new ThreadLocal<>();
+
+  private CallOrigin() {
+  }
+
+  public static String current() {
+    String origin = ORIGIN.get();
+    return origin != null ? origin : NONE;
+  }
+
+  public static void set(String origin) {
+    ORIGIN.set(origin);
+  }
+
+  /**
+   * The timings of the request being served, or {@code null} outside a request.
+   */
+  public static RequestTimings timings() {
+    return TIMINGS.get();
+  }
+
+  public static void setTimings(RequestTimings timings) {
+    TIMINGS.set(timings);
+  }
+
+  public static void clear() {
+    ORIGIN.remove();
+    TIMINGS.remove();
+  }
+
+  public static <T> Callable<T> wrap(Callable<T> task) {
+    Snapshot origin = new Snapshot();
+    return () -> {
+      Snapshot previous = origin.restore();
+      try {
+        return task.call();
+      } finally {
+        previous.restore();
+      }
+    };
+  }
+
+  public static Runnable wrap(Runnable task) {
+    Snapshot origin = new Snapshot();
+    return () -> {
+      Snapshot previous = origin.restore();
+      try {
+        task.run();
+      } finally {
+        previous.restore();
+      }
+    };
+  }
+
+  public static <T> Supplier<T> wrapSupplier(Supplier<T> task) {
+    Snapshot origin = new Snapshot();
+    return () -> {
+      Snapshot previous = origin.restore();
+      try {
+        return task.get();
+      } finally {
+        previous.restore();
+      }
+    };
+  }
+
+  private static class Snapshot {
+
+    private final String origin = ORIGIN.get();
+    private final RequestTimings timings = TIMINGS.get();
+
+    /**
+     * Makes this the current thread's origin, returning the one it replaced.
+     */
+    private Snapshot restore() {
+      Snapshot previous = new Snapshot();
+      ORIGIN.set(origin);
+      TIMINGS.set(timings);
+      return previous;
+    }
+  }
+}
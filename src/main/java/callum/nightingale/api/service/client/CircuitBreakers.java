@@ -0,0 +1,228 @@
+package callum.nightingale.api.service.client;
+
+import callum.nightingale.api.exception.ServiceUnavailableException;
+import callum.nightingale.api.exception.ThrottledException;
+import callum.nightingale.api.properties.BreakerProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * One circuit breaker per S3 operation. A breaker opens once at least
+ * {@code breaker.failureRatePercent} of the last {@code breaker.windowSize} calls were outages
+ * (server errors, timeouts or connection failures), and calls then fail fast for
+ * {@code breaker.openFor}. After that {@code breaker.halfOpenCalls} trial calls are let through;
+ * if they all succeed the breaker closes, and any outage opens it again. Client errors such as a
+ * missing key mean S3 answered, so they count as successes. Throttling, such as a 503 SlowDown,
+ * and calls we aborted or interrupted ourselves say nothing about S3's health and are not
+ * counted.
+ *
+ * <p>Reported to actuator health as DEGRADED while any breaker is not closed, and published as
+ * {@code s3.breaker.state} (0 closed, 1 half-open, 2 open) and {@code s3.breaker.rejected}.
+ */
+@Component
+public class CircuitBreakers implements HealthIndicator {
+
+  public static final Status DEGRADED = new Status("DEGRADED",
+      "S3 calls are failing fast; cached results may be served stale");
+
+  private final BreakerProperties breakerProperties;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+  public CircuitBreakers(BreakerProperties breakerProperties, MeterRegistry meterRegistry) {
+    this.breakerProperties = breakerProperties;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Whether a call may go ahead. Every call allowed must later be passed to {@link #record}.
+   */
+  public boolean tryAcquire(String operationName) {
+    return breaker(operationName).tryAcquire();
+  }
+
+  /**
+   * Records how an allowed call ended; {@code failure} is {@code null} if it succeeded. Calls shed
+   * by our own limiter, throttled by S3 or cancelled by us only give back their trial slot.
+   */
+  public void record(String operationName, Throwable failure) {
+    Outcome outcome = failure == null ? Outcome.SUCCESS
+        : failure instanceof ThrottledException || isThrottling(failure) || isCancelled(failure)
+            ? Outcome.NEUTRAL
+        : isOutage(failure) ? Outcome.FAILURE
+        : Outcome.SUCCESS;
+    breaker(operationName).record(outcome);
+  }
+
+  public State getState(String operationName) {
+    return breaker(operationName).state;
+  }
+
+  @Override
+  public Health health() {
+    Map<String, Object> states = new TreeMap<>();
+    boolean degraded = false;
+    for (Map.Entry<String, Breaker> breaker : breakers.entrySet()) {
+      State state = breaker.getValue().state;
+      states.put(breaker.getKey(), state);
+      degraded |= state != State.CLOSED;
+    }
+    return Health.status(degraded ? DEGRADED : Status.UP)
+        .withDetails(states)
+        .build();
+  }
+
+  /**
+   * Whether the failure means S3 could not serve the call, rather than refusing it.
+   */
+  public static boolean isOutage(Throwable failure) {
+    if (failure instanceof ServiceUnavailableException) {
+      return true;
+    }
+    if (failure instanceof SdkServiceException serviceException) {
+      return serviceException.statusCode() >= 500 && !isThrottling(serviceException);
+    }
+    return failure instanceof SdkClientException && !isCancelled(failure);
+  }
+
+  /**
+   * Whether S3 asked us to slow down, e.g. 503 SlowDown: it is up, just busy.
+   */
+  private static boolean isThrottling(Throwable failure) {
+    return failure instanceof SdkServiceException serviceException
+        && serviceException.isThrottlingException();
+  }
+
+  /**
+   * Whether the call ended because we aborted or interrupted it, such as a cancelled fan-out or an
+   * abandoned download, rather than because S3 failed.
+   */
+  private static boolean isCancelled(Throwable failure) {
+    for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+      if (cause instanceof AbortedException || cause instanceof InterruptedException
+          || cause instanceof ClosedByInterruptException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Breaker breaker(String operationName) {
+    return breakers.computeIfAbsent(operationName,
+        name -> new Breaker(name, breakerProperties, meterRegistry));
+  }
+
+  public enum State {
+    CLOSED, HALF_OPEN, OPEN
+  }
+
+  private enum Outcome {
+    SUCCESS, FAILURE, NEUTRAL
+  }
+
+  private static class Breaker {
+
+    private final BreakerProperties breakerProperties;
+    private final Counter rejected;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final boolean[] window;
+    private volatile State state = State.CLOSED;
+    private int calls;
+    private int failures;
+    private int next;
+    private long openedAt;
+    private int trials;
+    private int trialSuccesses;
+
+    private Breaker(String operationName, BreakerProperties breakerProperties,
+        MeterRegistry meterRegistry) {
+      this.breakerProperties = breakerProperties;
+      this.window = new boolean[breakerProperties.getWindowSize()];
+      this.rejected = meterRegistry.counter("s3.breaker.rejected", "operation", operationName);
+      Gauge.builder("s3.breaker.state", this, breaker -> breaker.state.ordinal())
+          .tag("operation", operationName)
+          .register(meterRegistry);
+    }
+
+    private boolean tryAcquire() {
+      lock.lock();
+      try {
+        if (state == State.OPEN
+            && System.nanoTime() - openedAt >= breakerProperties.getOpenFor().toNanos()) {
+          state = State.HALF_OPEN;
+          trials = 0;
+          trialSuccesses = 0;
+        }
+        if (state == State.CLOSED) {
+          return true;
+        }
+        if (state == State.HALF_OPEN && trials < breakerProperties.getHalfOpenCalls()) {
+          trials++;
+          return true;
+        }
+        rejected.increment();
+        return false;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void record(Outcome outcome) {
+      lock.lock();
+      try {
+        if (state == State.HALF_OPEN) {
+          if (outcome == Outcome.FAILURE) {
+            open();
+          } else if (outcome == Outcome.NEUTRAL) {
+            trials--;
+          } else if (++trialSuccesses >= breakerProperties.getHalfOpenCalls()) {
+            close();
+          }
+        } else if (state == State.CLOSED && outcome != Outcome.NEUTRAL) {
+          boolean failed = outcome == Outcome.FAILURE;
+          if (calls == window.length) {
+            failures -= window[next] ? 1 : 0;
+          } else {
+            calls++;
+          }
+          window[next] = failed;
+          failures += failed ? 1 : 0;
+          next = (next + 1) % window.length;
+          if (calls >= breakerProperties.getMinimumCalls()
+              && failures * 100 >= breakerProperties.getFailureRatePercent() * calls) {
+            open();
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void open() {
+      state = State.OPEN;
+      openedAt = System.nanoTime();
+    }
+
+    private void close() {
+      state = State.CLOSED;
+      calls = 0;
+      failures = 0;
+      next = 0;
+      Arrays.fill(window, false);
+    }
+  }
+}
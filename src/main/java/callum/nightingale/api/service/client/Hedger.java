@@ -0,0 +1,176 @@
+package callum.nightingale.api.service.client;
+
+import callum.nightingale.api.properties.HedgeProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hedges idempotent S3 reads. If the request has not answered within the hedge delay (fixed, or
+ * the operation's observed p95) a duplicate is sent and whichever answers first is returned; the
+ * other is discarded when it arrives. Each request earns {@code hedge.budgetPercent} of a hedge,
+ * so hedges add at most that share of extra load.
+ */
+@Component
+public class Hedger {
+
+  private static final long ONE_HEDGE = 100_000;
+
+  private final HedgeProperties hedgeProperties;
+  private final ExecutorService hedgeExecutor;
+  private final MeterRegistry meterRegistry;
+  private final AtomicLong budget;
+  private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+  public Hedger(HedgeProperties hedgeProperties, ExecutorService hedgeExecutor,
+      MeterRegistry meterRegistry) {
+    this.hedgeProperties = hedgeProperties;
+    this.hedgeExecutor = hedgeExecutor;
+    this.meterRegistry = meterRegistry;
+    this.budget = new AtomicLong(ONE_HEDGE * hedgeProperties.getMaxBurst());
+  }
+
+  /**
+   * Runs {@code request}, hedging it when enabled. {@code discard} releases a response that lost
+   * the race, such as an unread object stream. Failures are rethrown as the request threw them.
+   */
+  public <T> T call(String operationName, Supplier<T> request, Consumer<T> discard) {
+    if (!hedgeProperties.isEnabled()) {
+      return request.get();
+    }
+    Operation operation = operations.computeIfAbsent(operationName, Operation::new);
+    operation.requests.increment();
+    deposit();
+
+    long startedAt = System.nanoTime();
+    CompletableFuture<T> primary;
+    try {
+      primary = CompletableFuture.supplyAsync(CallOrigin.wrapSupplier(request), hedgeExecutor);
+    } catch (RejectedExecutionException e) {
+      return request.get();
+    }
+    primary.whenComplete((response, failure) -> operation.latency.record(
+        System.nanoTime() - startedAt, TimeUnit.NANOSECONDS));
+
+    try {
+      return primary.get(operation.delayNanos(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      // Slow enough to hedge.
+    } catch (InterruptedException e) {
+      primary.thenAccept(discard);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for S3", e);
+    } catch (ExecutionException e) {
+      throw rethrow(e);
+    }
+
+    if (!withdraw()) {
+      operation.budgetExhausted.increment();
+      return await(primary, discard);
+    }
+    CompletableFuture<T> hedge;
+    try {
+      hedge = CompletableFuture.supplyAsync(CallOrigin.wrapSupplier(request), hedgeExecutor);
+    } catch (RejectedExecutionException e) {
+      budget.addAndGet(ONE_HEDGE);
+      return await(primary, discard);
+    }
+    operation.hedges.increment();
+
+    CompletableFuture<Boolean> hedgeFirst = new CompletableFuture<>();
+    primary.whenComplete((response, failure) -> hedgeFirst.complete(false));
+    hedge.whenComplete((response, failure) -> hedgeFirst.complete(true));
+    boolean hedgeWon = await(hedgeFirst, ignored -> {
+    });
+    if (hedgeWon) {
+      operation.wins.increment();
+    }
+    (hedgeWon ? primary : hedge).thenAccept(discard);
+    return await(hedgeWon ? hedge : primary, discard);
+  }
+
+  private void deposit() {
+    long earned = (long) (ONE_HEDGE * hedgeProperties.getBudgetPercent() / 100);
+    long cap = ONE_HEDGE * hedgeProperties.getMaxBurst();
+    budget.getAndUpdate(current -> Math.min(cap, current + earned));
+  }
+
+  private boolean withdraw() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < ONE_HEDGE) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - ONE_HEDGE));
+    return true;
+  }
+
+  private static <T> T await(CompletableFuture<T> future, Consumer<T> discard) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.thenAccept(discard);
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for S3", e);
+    } catch (ExecutionException e) {
+      throw rethrow(e);
+    }
+  }
+
+  private static RuntimeException rethrow(ExecutionException e) {
+    if (e.getCause() instanceof RuntimeException runtime) {
+      return runtime;
+    }
+    return new RuntimeException("Failed to read from S3", e.getCause());
+  }
+
+  private class Operation {
+
+    private final Counter requests;
+    private final Counter hedges;
+    private final Counter wins;
+    private final Counter budgetExhausted;
+    private final Timer latency;
+
+    private Operation(String operationName) {
+      Tags tags = Tags.of("operation", operationName);
+      this.requests = meterRegistry.counter("s3.hedge.requests", tags);
+      this.hedges = meterRegistry.counter("s3.hedge.issued", tags);
+      this.wins = meterRegistry.counter("s3.hedge.wins", tags);
+      this.budgetExhausted = meterRegistry.counter("s3.hedge.budget.exhausted", tags);
+      this.latency = Timer.builder("s3.hedge.latency")
+          .tags(tags)
+          .publishPercentiles(0.95)
+          .register(meterRegistry);
+    }
+
+    private long delayNanos() {
+      if (hedgeProperties.getDelay() != null) {
+        return hedgeProperties.getDelay().toNanos();
+      }
+      double p95 = 0;
+      for (ValueAtPercentile percentile : latency.takeSnapshot().percentileValues()) {
+        p95 = percentile.value(TimeUnit.NANOSECONDS);
+      }
+      if (p95 <= 0) {
+        return hedgeProperties.getInitialDelay().toNanos();
+      }
+      return Math.max(hedgeProperties.getMinDelay().toNanos(), (long) p95);
+    }
+  }
+}
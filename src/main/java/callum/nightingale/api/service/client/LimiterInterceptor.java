@@ -0,0 +1,114 @@
+package callum.nightingale.api.service.client;
+
+import callum.nightingale.api.exception.ThrottledException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Puts every S3 call that names a bucket behind the {@link AdaptiveLimiter}. The slot is taken
+ * before the call, held across the SDK's retries and released once the call completes or fails,
+ * so retries never add concurrency; each 503 attempt is reported as it arrives. Calls that send a
+ * body, such as uploads, only report 503s: their latency says more about the payload than about
+ * S3, so it does not adjust the limit.
+ */
+public class LimiterInterceptor implements ExecutionInterceptor {
+
+  private static final ExecutionAttribute<Permit> PERMIT = new ExecutionAttribute<>(
+      "LimiterPermit");
+  private static final int SLOW_DOWN = 503;
+
+  private final AdaptiveLimiter adaptiveLimiter;
+  private final String laneName;
+
+  public LimiterInterceptor(AdaptiveLimiter adaptiveLimiter, String laneName) {
+    this.adaptiveLimiter = adaptiveLimiter;
+    this.laneName = laneName;
+  }
+
+  @Override
+  public void beforeExecution(Context.BeforeExecution context,
+      ExecutionAttributes executionAttributes) {
+    Optional<String> bucketName = context.request().getValueForField("Bucket", String.class);
+    if (bucketName.isEmpty()) {
+      return;
+    }
+    try {
+      if (!adaptiveLimiter.acquire(laneName, bucketName.get())) {
+        throw Admission.refuse(executionAttributes, new ThrottledException(String.format(
+            "Bucket %s is busy, please retry shortly", bucketName.get())));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Admission.refuse(executionAttributes,
+          new RuntimeException("Interrupted while waiting for S3 capacity", e));
+    }
+    Permit permit = new Permit(bucketName.get());
+    executionAttributes.putAttribute(PERMIT, permit);
+    // A call refused after taking its slot never reached S3, so it leaves the limit as it was.
+    Admission.onRefused(executionAttributes, refusal -> {
+      permit.throttled = true;
+      release(executionAttributes);
+    });
+  }
+
+  @Override
+  public void afterMarshalling(Context.AfterMarshalling context,
+      ExecutionAttributes executionAttributes) {
+    Permit permit = executionAttributes.getAttribute(PERMIT);
+    if (permit != null && context.requestBody().isPresent()) {
+      permit.sendsBody = true;
+    }
+  }
+
+  @Override
+  public void afterTransmission(Context.AfterTransmission context,
+      ExecutionAttributes executionAttributes) {
+    Permit permit = executionAttributes.getAttribute(PERMIT);
+    if (permit != null && context.httpResponse().statusCode() == SLOW_DOWN) {
+      permit.throttled = true;
+      adaptiveLimiter.throttled(laneName, permit.bucketName);
+    }
+  }
+
+  @Override
+  public void afterExecution(Context.AfterExecution context,
+      ExecutionAttributes executionAttributes) {
+    release(executionAttributes);
+  }
+
+  @Override
+  public void onExecutionFailure(Context.FailedExecution context,
+      ExecutionAttributes executionAttributes) {
+    release(executionAttributes);
+  }
+
+  private void release(ExecutionAttributes executionAttributes) {
+    Permit permit = executionAttributes.getAttribute(PERMIT);
+    if (permit == null || !permit.released.compareAndSet(false, true)) {
+      return;
+    }
+    if (permit.sendsBody && !permit.throttled) {
+      adaptiveLimiter.release(laneName, permit.bucketName);
+    } else {
+      adaptiveLimiter.release(laneName, permit.bucketName, System.nanoTime() - permit.startedAt,
+          permit.throttled);
+    }
+  }
+
+  private static class Permit {
+
+    private final String bucketName;
+    private final long startedAt = System.nanoTime();
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile boolean throttled;
+    private volatile boolean sendsBody;
+
+    private Permit(String bucketName) {
+      this.bucketName = bucketName;
+    }
+  }
+}
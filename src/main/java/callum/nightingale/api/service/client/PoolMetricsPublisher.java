@@ -0,0 +1,54 @@
+package callum.nightingale.api.service.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.atomic.AtomicInteger;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+
+/**
+ * Turns the pool figures the SDK attaches to every request into Micrometer meters tagged with the
+ * client name: gauges of the latest max, leased, available and pending counts, and a timer of how
+ * long requests waited for a connection. Blocking clients publish on the calling thread, so the
+ * wait is also tagged with the API endpoint from {@link CallOrigin}.
+ */
+public class PoolMetricsPublisher implements MetricPublisher {
+
+  private final AtomicInteger max = new AtomicInteger();
+  private final AtomicInteger leased = new AtomicInteger();
+  private final AtomicInteger available = new AtomicInteger();
+  private final AtomicInteger pending = new AtomicInteger();
+  private final MeterRegistry meterRegistry;
+  private final Tags tags;
+
+  public PoolMetricsPublisher(MeterRegistry meterRegistry, String client) {
+    this.meterRegistry = meterRegistry;
+    this.tags = Tags.of("client", client);
+    meterRegistry.gauge("s3.http.pool.max", tags, max);
+    meterRegistry.gauge("s3.http.pool.leased", tags, leased);
+    meterRegistry.gauge("s3.http.pool.available", tags, available);
+    meterRegistry.gauge("s3.http.pool.pending", tags, pending);
+  }
+
+  @Override
+  public void publish(MetricCollection metricCollection) {
+    metricCollection.metricValues(HttpMetric.MAX_CONCURRENCY).forEach(max::set);
+    metricCollection.metricValues(HttpMetric.LEASED_CONCURRENCY).forEach(leased::set);
+    metricCollection.metricValues(HttpMetric.AVAILABLE_CONCURRENCY).forEach(available::set);
+    metricCollection.metricValues(HttpMetric.PENDING_CONCURRENCY_ACQUIRES).forEach(pending::set);
+    metricCollection.metricValues(HttpMetric.CONCURRENCY_ACQUIRE_DURATION)
+        .forEach(duration -> Timer.builder("s3.http.pool.acquire")
+            .tags(tags)
+            .tag("endpoint", CallOrigin.current())
+            .publishPercentiles(0.5, 0.99)
+            .register(meterRegistry)
+            .record(duration));
+    metricCollection.children().forEach(this::publish);
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,173 @@
+package callum.nightingale.api.service.client;
+
+import callum.nightingale.api.exception.ServiceUnavailableException;
+import callum.nightingale.api.exception.ThrottledException;
+import callum.nightingale.api.service.timing.RequestTimings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+/**
+ * Records every S3 call against the operation, the bucket and the API endpoint that made it (see
+ * {@link CallOrigin}), plus the client lane:
+ * <ul>
+ *   <li>{@code s3.calls}, a timer of the whole call including retries, tagged with
+ *   {@code outcome};</li>
+ *   <li>{@code s3.call.retries} and {@code s3.call.throttles}, attempts after the first and
+ *   attempts answered with 429 or 503;</li>
+ *   <li>{@code s3.call.bytes}, request and response body bytes tagged with
+ *   {@code direction}.</li>
+ * </ul>
+ * A streamed GetObject is timed until its headers arrive. Time spent waiting for a pooled
+ * connection is published by {@link PoolMetricsPublisher}. Each call is also observed as an
+ * {@code s3} span of the request that made it. Calls refused by the breaker or limiter are
+ * recorded with outcome {@code SHED} when they are refused.
+ */
+public class S3CallMetrics implements ExecutionInterceptor {
+
+  private static final ExecutionAttribute<Call> CALL = new ExecutionAttribute<>("S3CallMetrics");
+
+  private final MeterRegistry meterRegistry;
+  private final ObservationRegistry observationRegistry;
+  private final String client;
+
+  public S3CallMetrics(MeterRegistry meterRegistry, ObservationRegistry observationRegistry,
+      String client) {
+    this.meterRegistry = meterRegistry;
+    this.observationRegistry = observationRegistry;
+    this.client = client;
+  }
+
+  @Override
+  public void beforeExecution(Context.BeforeExecution context,
+      ExecutionAttributes executionAttributes) {
+    String operationName = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+    Observation span = RequestTimings.span("s3", observationRegistry)
+        .highCardinalityKeyValue("operation", operationName)
+        .start();
+    executionAttributes.putAttribute(CALL, new Call(Tags.of(
+        "client", client,
+        "operation", operationName,
+        "bucket", context.request().getValueForField("Bucket", String.class).orElse("none"),
+        "endpoint", CallOrigin.current()), span));
+    Admission.onRefused(executionAttributes, refusal -> fail(executionAttributes, refusal));
+  }
+
+  @Override
+  public void beforeTransmission(Context.BeforeTransmission context,
+      ExecutionAttributes executionAttributes) {
+    Call call = executionAttributes.getAttribute(CALL);
+    if (call != null) {
+      call.attempts.incrementAndGet();
+      context.httpRequest().firstMatchingHeader("Content-Length")
+          .ifPresent(addLength(call.bytesSent));
+    }
+  }
+
+  @Override
+  public void afterTransmission(Context.AfterTransmission context,
+      ExecutionAttributes executionAttributes) {
+    Call call = executionAttributes.getAttribute(CALL);
+    if (call != null) {
+      int statusCode = context.httpResponse().statusCode();
+      if (statusCode == 429 || statusCode == 503) {
+        call.throttles.incrementAndGet();
+      }
+      context.httpResponse().firstMatchingHeader("Content-Length")
+          .ifPresent(addLength(call.bytesReceived));
+    }
+  }
+
+  @Override
+  public void afterExecution(Context.AfterExecution context,
+      ExecutionAttributes executionAttributes) {
+    record(executionAttributes, "SUCCESS");
+  }
+
+  @Override
+  public void onExecutionFailure(Context.FailedExecution context,
+      ExecutionAttributes executionAttributes) {
+    fail(executionAttributes, context.exception());
+  }
+
+  private void fail(ExecutionAttributes executionAttributes, Throwable failure) {
+    Call call = executionAttributes.getAttribute(CALL);
+    if (call != null) {
+      call.span.error(failure);
+    }
+    record(executionAttributes, outcome(failure));
+  }
+
+  private void record(ExecutionAttributes executionAttributes, String outcome) {
+    Call call = executionAttributes.getAttribute(CALL);
+    if (call == null || !call.recorded.compareAndSet(false, true)) {
+      return;
+    }
+    call.span.stop();
+    meterRegistry.timer("s3.calls", call.tags.and("outcome", outcome))
+        .record(System.nanoTime() - call.startedAt, TimeUnit.NANOSECONDS);
+    long retries = call.attempts.get() - 1;
+    if (retries > 0) {
+      meterRegistry.counter("s3.call.retries", call.tags).increment(retries);
+    }
+    if (call.throttles.get() > 0) {
+      meterRegistry.counter("s3.call.throttles", call.tags).increment(call.throttles.get());
+    }
+    meterRegistry.counter("s3.call.bytes", call.tags.and("direction", "sent"))
+        .increment(call.bytesSent.get());
+    meterRegistry.counter("s3.call.bytes", call.tags.and("direction", "received"))
+        .increment(call.bytesReceived.get());
+  }
+
+  private static String outcome(Throwable failure) {
+    if (failure instanceof ThrottledException || failure instanceof ServiceUnavailableException) {
+      return "SHED";
+    }
+    if (failure instanceof SdkServiceException serviceException) {
+      int statusCode = serviceException.statusCode();
+      return statusCode >= 500 ? "SERVER_ERROR"
+          : statusCode >= 400 ? "CLIENT_ERROR"
+          : statusCode >= 300 ? "REDIRECTION"
+          : "UNKNOWN";
+    }
+    return "FAILED";
+  }
+
+  private static Consumer<String> addLength(AtomicLong bytes) {
+    return contentLength -> {
+      try {
+        bytes.addAndGet(Long.parseLong(contentLength));
+      } catch (NumberFormatException e) {
+        // Not counted.
+      }
+    };
+  }
+
+  private static class Call {
+
+    private final Tags tags;
+    private final Observation span;
+    private final long startedAt = System.nanoTime();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong throttles = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicBoolean recorded = new AtomicBoolean();
+
+    private Call(Tags tags, Observation span) {
+      this.tags = tags;
+      this.span = span;
+    }
+  }
+}
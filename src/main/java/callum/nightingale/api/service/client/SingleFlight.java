@@ -0,0 +1,107 @@
+package callum.nightingale.api.service.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coalesces identical concurrent reads. The first caller for an operation and key makes the S3
+ * call; callers arriving while it is in flight wait for and share its result, or its failure, so a
+ * burst of identical requests costs one call. Nothing is kept once the call completes.
+ *
+ * <p>Publishes {@code s3.singleflight.requests} tagged with {@code operation} and {@code result}
+ * (leader or shared).
+ */
+@Component
+public class SingleFlight {
+
+  private final MeterRegistry meterRegistry;
+  private final Map<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+  public SingleFlight(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Runs {@code call} unless an identical one is in flight, in which case its result is returned.
+   * The result is shared between callers, so it must not be mutated or hold a one-shot stream.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T run(String operationName, Object key, Supplier<T> call) {
+    List<Object> flightKey = List.of(operationName, key);
+    CompletableFuture<Object> flight = new CompletableFuture<>();
+    CompletableFuture<Object> leader = inFlight.putIfAbsent(flightKey, flight);
+    if (leader != null) {
+      count(operationName, "shared");
+      try {
+        return (T) leader.join();
+      } catch (CompletionException e) {
+        throw rethrow(e.getCause());
+      }
+    }
+
+    count(operationName, "leader");
+    try {
+      T result = call.get();
+      flight.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(flightKey, flight);
+    }
+  }
+
+  /**
+   * Non-blocking form of {@link #run}; callers share the future of the first identical call.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> CompletableFuture<T> runAsync(String operationName, Object key,
+      Supplier<CompletableFuture<T>> call) {
+    List<Object> flightKey = List.of(operationName, key);
+    CompletableFuture<Object> flight = new CompletableFuture<>();
+    CompletableFuture<Object> leader = inFlight.putIfAbsent(flightKey, flight);
+    if (leader != null) {
+      count(operationName, "shared");
+      return leader.thenApply(result -> (T) result);
+    }
+
+    count(operationName, "leader");
+    try {
+      call.get().whenComplete((result, failure) -> {
+        inFlight.remove(flightKey, flight);
+        if (failure != null) {
+          flight.completeExceptionally(failure instanceof CompletionException
+              && failure.getCause() != null ? failure.getCause() : failure);
+        } else {
+          flight.complete(result);
+        }
+      });
+    } catch (RuntimeException e) {
+      inFlight.remove(flightKey, flight);
+      flight.completeExceptionally(e);
+    }
+    return flight.thenApply(result -> (T) result);
+  }
+
+  private void count(String operationName, String result) {
+    meterRegistry.counter("s3.singleflight.requests", "operation", operationName, "result", result)
+        .increment();
+  }
+
+  private static RuntimeException rethrow(Throwable failure) {
+    if (failure instanceof RuntimeException runtime) {
+      return runtime;
+    }
+    if (failure instanceof Error error) {
+      throw error;
+    }
+    return new RuntimeException("Failed to read from S3", failure);
+  }
+}
@@ -0,0 +1,379 @@
+package callum.nightingale.api.service.diff;
+
+import callum.nightingale.api.dto.s3.model.ByteRange;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * rsync-style block delta for binary content.
+ *
+ * <p>The original is cut into fixed-size blocks, each with a rolling weak checksum and a 64-bit
+ * strong hash. The revision is then scanned one byte at a time with the rolling checksum; windows
+ * that match a block become copy instructions and everything else becomes literal bytes, so the
+ * cost is linear in the size of both sides. A trailing partial block of the original can only
+ * match the end of the revision, as in rsync.
+ *
+ * <p>Encoding: the magic {@code NDLT}, a version byte, then block size, original size and revised
+ * size as unsigned LEB128 varints, followed by {@code 'C' block count} copy and {@code 'L' length
+ * bytes} literal instructions and a closing {@code 'E'}. A copy covering the last block may be
+ * shorter than {@code count * blockSize} when the original ends in a partial block.
+ */
+public final class BlockDelta {
+
+  public static final String CONTENT_TYPE = "application/vnd.nightingale.block-delta";
+
+  private static final byte[] MAGIC = "NDLT".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  private static final int COPY = 'C';
+  private static final int LITERAL = 'L';
+  private static final int END = 'E';
+
+  private BlockDelta() {
+  }
+
+  /**
+   * Receives the instructions of an encoded delta. {@link #literal} must consume exactly
+   * {@code length} bytes from {@code data}.
+   */
+  public interface Visitor {
+
+    void header(int blockSize, long originalSize, long revisedSize);
+
+    void copy(long block, long count);
+
+    void literal(InputStream data, long length) throws IOException;
+  }
+
+  /**
+   * Upper bound, in bytes, of the memory needed to index the original's blocks.
+   */
+  public static long estimateWorkingBytes(long originalSize, int blockSize) {
+    long blocks = originalSize / blockSize;
+    return blocks * (2L * Integer.BYTES + Long.BYTES)
+        + (long) tableSize(blocks) * Integer.BYTES
+        + 4L * Math.max(blockSize, 16 * 1024);
+  }
+
+  /**
+   * Writes the delta turning {@code original} into {@code revised} and returns the ranges of the
+   * revision that were not found in the original.
+   */
+  public static List<ByteRange> write(InputStream original, long originalSize,
+      InputStream revised, long revisedSize, int blockSize, OutputStream out) throws IOException {
+    Signature signature = new Signature(original, originalSize, blockSize);
+
+    out.write(MAGIC);
+    out.write(VERSION);
+    writeVarLong(out, blockSize);
+    writeVarLong(out, originalSize);
+    writeVarLong(out, revisedSize);
+
+    Encoder encoder = new Encoder(out);
+    byte[] buffer = new byte[4 * Math.max(blockSize, 16 * 1024)];
+    long bufferOffset = 0;
+    int literalStart = 0;
+    int position = 0;
+    int limit = 0;
+    int weak = 0;
+    boolean weakValid = false;
+    long steps = 0;
+    while (true) {
+      if (limit - position < blockSize) {
+        // Flush the pending literal and slide the unread window to the front before refilling.
+        encoder.literal(buffer, literalStart, position - literalStart,
+            bufferOffset + literalStart);
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        bufferOffset += position;
+        limit -= position;
+        position = 0;
+        literalStart = 0;
+        limit += revised.readNBytes(buffer, limit, buffer.length - limit);
+        if (limit < blockSize) {
+          break;
+        }
+      }
+      if ((++steps & 0xFFFF) == 0) {
+        DiffCancelledException.throwIfInterrupted();
+      }
+      if (!weakValid) {
+        weak = weakChecksum(buffer, position, blockSize);
+        weakValid = true;
+      }
+      int block = signature.find(weak, buffer, position, encoder.nextBlock());
+      if (block >= 0) {
+        encoder.literal(buffer, literalStart, position - literalStart,
+            bufferOffset + literalStart);
+        encoder.copy(block);
+        position += blockSize;
+        literalStart = position;
+        weakValid = false;
+      } else {
+        if (position + blockSize < limit) {
+          weak = roll(weak, buffer[position], buffer[position + blockSize], blockSize);
+        } else {
+          weakValid = false;
+        }
+        position++;
+      }
+    }
+    int tailLength = signature.tail.length;
+    if (tailLength > 0 && limit - literalStart >= tailLength
+        && Arrays.equals(buffer, limit - tailLength, limit, signature.tail, 0, tailLength)) {
+      encoder.literal(buffer, literalStart, limit - tailLength - literalStart,
+          bufferOffset + literalStart);
+      encoder.copy(signature.weaks.length);
+    } else {
+      encoder.literal(buffer, literalStart, limit - literalStart, bufferOffset + literalStart);
+    }
+    encoder.finish();
+    return encoder.changedRanges;
+  }
+
+  public static void read(InputStream in, Visitor visitor) throws IOException {
+    byte[] magic = in.readNBytes(MAGIC.length);
+    if (!Arrays.equals(MAGIC, magic) || in.read() != VERSION) {
+      throw new IOException("Not a block delta");
+    }
+    visitor.header((int) readVarLong(in), readVarLong(in), readVarLong(in));
+    while (true) {
+      int instruction = in.read();
+      switch (instruction) {
+        case COPY -> visitor.copy(readVarLong(in), readVarLong(in));
+        case LITERAL -> visitor.literal(in, readVarLong(in));
+        case END -> {
+          return;
+        }
+        case -1 -> throw new EOFException("Truncated block delta");
+        default -> throw new IOException("Unknown block delta instruction " + instruction);
+      }
+    }
+  }
+
+  /**
+   * Decodes the ranges of the revision that were not found in the original, skipping over the
+   * literal bytes themselves.
+   */
+  public static List<ByteRange> changedRanges(InputStream in) throws IOException {
+    List<ByteRange> ranges = new ArrayList<>();
+    read(in, new Visitor() {
+      private int blockSize;
+      private long originalSize;
+      private long offset;
+
+      @Override
+      public void header(int blockSize, long originalSize, long revisedSize) {
+        this.blockSize = blockSize;
+        this.originalSize = originalSize;
+      }
+
+      @Override
+      public void copy(long block, long count) {
+        offset += Math.min((block + count) * blockSize, originalSize) - block * blockSize;
+      }
+
+      @Override
+      public void literal(InputStream data, long length) throws IOException {
+        data.skipNBytes(length);
+        addRange(ranges, offset, length);
+        offset += length;
+      }
+    });
+    return ranges;
+  }
+
+  private static void addRange(List<ByteRange> ranges, long offset, long length) {
+    ByteRange last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+    if (last != null && last.getOffset() + last.getLength() == offset) {
+      last.setLength(last.getLength() + length);
+    } else {
+      ranges.add(ByteRange.builder()
+          .offset(offset)
+          .length(length)
+          .build());
+    }
+  }
+
+  // The rsync weak checksum: a is the byte sum and b the position-weighted sum, both mod 2^16,
+  // so sliding the window one byte only needs the byte leaving and the byte entering.
+  private static int weakChecksum(byte[] buffer, int offset, int length) {
+    int a = 0;
+    int b = 0;
+    for (int i = 0; i < length; i++) {
+      a += buffer[offset + i] & 0xff;
+      b += (length - i) * (buffer[offset + i] & 0xff);
+    }
+    return ((b & 0xffff) << 16) | (a & 0xffff);
+  }
+
+  private static int roll(int weak, byte leaving, byte entering, int length) {
+    int a = ((weak & 0xffff) - (leaving & 0xff) + (entering & 0xff)) & 0xffff;
+    int b = ((weak >>> 16) - length * (leaving & 0xff) + a) & 0xffff;
+    return (b << 16) | a;
+  }
+
+  private static long strongHash(byte[] buffer, int offset, int length) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = offset; i < offset + length; i++) {
+      h = (h ^ (buffer[i] & 0xff)) * 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static int tableSize(long entries) {
+    return Integer.highestOneBit((int) Math.max(entries, 1) * 2 - 1) << 1;
+  }
+
+  private static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarLong(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException("Truncated block delta");
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed block delta varint");
+  }
+
+  /**
+   * Block checksums of the original, indexed by weak checksum. Block indexes are stored one-based
+   * in the table so zero means "empty"; blocks sharing a weak checksum are chained in order.
+   */
+  private static final class Signature {
+
+    private final int blockSize;
+    private final int[] weaks;
+    private final long[] strongs;
+    private final byte[] tail;
+    private final int[] table;
+    private final int[] next;
+    private final int mask;
+
+    private Signature(InputStream original, long originalSize, int blockSize) throws IOException {
+      this.blockSize = blockSize;
+      int blocks = (int) (originalSize / blockSize);
+      this.weaks = new int[blocks];
+      this.strongs = new long[blocks];
+      byte[] block = new byte[blockSize];
+      for (int i = 0; i < blocks; i++) {
+        if (original.readNBytes(block, 0, blockSize) < blockSize) {
+          throw new EOFException("Original content is shorter than its recorded size");
+        }
+        weaks[i] = weakChecksum(block, 0, blockSize);
+        strongs[i] = strongHash(block, 0, blockSize);
+      }
+      this.tail = original.readNBytes((int) (originalSize % blockSize));
+      this.table = new int[tableSize(blocks)];
+      this.next = new int[blocks];
+      this.mask = table.length - 1;
+      for (int i = blocks - 1; i >= 0; i--) {
+        int slot = slotFor(weaks[i]);
+        next[i] = table[slot];
+        table[slot] = i + 1;
+      }
+    }
+
+    /**
+     * Returns the block matching the window at {@code offset}, trying {@code preferred} first so
+     * runs of consecutive blocks extend a single copy, or {@code -1}.
+     */
+    private int find(int weak, byte[] buffer, int offset, long preferred) {
+      int head = table[slotFor(weak)];
+      if (head == 0) {
+        return -1;
+      }
+      long strong = strongHash(buffer, offset, blockSize);
+      if (preferred >= 0 && preferred < weaks.length && weaks[(int) preferred] == weak
+          && strongs[(int) preferred] == strong) {
+        return (int) preferred;
+      }
+      for (int block = head - 1; block >= 0; block = next[block] - 1) {
+        if (strongs[block] == strong) {
+          return block;
+        }
+      }
+      return -1;
+    }
+
+    private int slotFor(int weak) {
+      int slot = (weak * 0x9E3779B9) >>> 1 & mask;
+      while (table[slot] != 0 && weaks[table[slot] - 1] != weak) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+
+  private static final class Encoder {
+
+    private final OutputStream out;
+    private final List<ByteRange> changedRanges = new ArrayList<>();
+    private long copyStart = -1;
+    private long copyCount;
+
+    private Encoder(OutputStream out) {
+      this.out = out;
+    }
+
+    private long nextBlock() {
+      return copyStart < 0 ? -1 : copyStart + copyCount;
+    }
+
+    private void copy(int block) throws IOException {
+      if (block == nextBlock()) {
+        copyCount++;
+        return;
+      }
+      flushCopy();
+      copyStart = block;
+      copyCount = 1;
+    }
+
+    private void literal(byte[] buffer, int offset, int length, long revisedOffset)
+        throws IOException {
+      if (length == 0) {
+        return;
+      }
+      flushCopy();
+      out.write(LITERAL);
+      writeVarLong(out, length);
+      out.write(buffer, offset, length);
+      addRange(changedRanges, revisedOffset, length);
+    }
+
+    private void finish() throws IOException {
+      flushCopy();
+      out.write(END);
+    }
+
+    private void flushCopy() throws IOException {
+      if (copyStart >= 0) {
+        out.write(COPY);
+        writeVarLong(out, copyStart);
+        writeVarLong(out, copyCount);
+        copyStart = -1;
+        copyCount = 0;
+      }
+    }
+  }
+}
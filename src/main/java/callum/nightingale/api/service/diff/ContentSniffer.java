@@ -0,0 +1,77 @@
+package callum.nightingale.api.service.diff;
+
+import java.io.OutputStream;
+
+/**
+ * Watches a byte stream for NUL bytes and for byte sequences that are not well-formed UTF-8
+ * (overlong forms, surrogates and code points past U+10FFFF included), so binary content can be
+ * routed away from the line diff.
+ */
+public class ContentSniffer extends OutputStream {
+
+  private boolean containsNul;
+  private boolean validUtf8 = true;
+  private int remaining;
+  private int lower = 0x80;
+  private int upper = 0xBF;
+
+  @Override
+  public void write(int b) {
+    if (b == 0) {
+      containsNul = true;
+    }
+    if (validUtf8) {
+      validate(b & 0xff);
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    for (int i = off; i < off + len && !(containsNul && !validUtf8); i++) {
+      write(b[i]);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (remaining > 0) {
+      validUtf8 = false;
+    }
+  }
+
+  public boolean containsNul() {
+    return containsNul;
+  }
+
+  public boolean isValidUtf8() {
+    return validUtf8 && remaining == 0;
+  }
+
+  private void validate(int b) {
+    if (remaining > 0) {
+      if (b < lower || b > upper) {
+        validUtf8 = false;
+      }
+      lower = 0x80;
+      upper = 0xBF;
+      remaining--;
+      return;
+    }
+    if (b < 0x80) {
+      return;
+    }
+    if (b >= 0xC2 && b <= 0xDF) {
+      remaining = 1;
+    } else if (b >= 0xE0 && b <= 0xEF) {
+      remaining = 2;
+      lower = b == 0xE0 ? 0xA0 : 0x80;
+      upper = b == 0xED ? 0x9F : 0xBF;
+    } else if (b >= 0xF0 && b <= 0xF4) {
+      remaining = 3;
+      lower = b == 0xF0 ? 0x90 : 0x80;
+      upper = b == 0xF4 ? 0x8F : 0xBF;
+    } else {
+      validUtf8 = false;
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package callum.nightingale.api.service.diff;
+
+public class DiffCancelledException extends RuntimeException {
+
+  public DiffCancelledException() {
+    super("Diff cancelled");
+  }
+
+  /**
+   * Diffs run on a pool thread that is interrupted when the caller's deadline passes; long loops
+   * call this so they stop promptly rather than finishing work nobody is waiting for.
+   */
+  public static void throwIfInterrupted() {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new DiffCancelledException();
+    }
+  }
+}
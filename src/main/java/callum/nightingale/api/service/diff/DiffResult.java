@@ -0,0 +1,26 @@
+package callum.nightingale.api.service.diff;
+
+import callum.nightingale.api.dto.s3.model.ByteRange;
+import callum.nightingale.api.service.upload.Spool;
+import java.io.Closeable;
+import java.util.List;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class DiffResult implements Closeable {
+
+  List<String> unifiedDiff;
+  boolean tooLarge;
+  boolean binary;
+  List<ByteRange> changedRanges;
+  Spool delta;
+
+  @Override
+  public void close() {
+    if (delta != null) {
+      delta.release();
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package callum.nightingale.api.service.diff;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Replaces lines {@code [beginA, endA)} of the original with {@code [beginB, endB)} of the
+ * revision. Either range may be empty for a pure insert or delete.
+ */
+@Getter
+@AllArgsConstructor
+public class Edit {
+
+  private final int beginA;
+  private final int endA;
+  private final int beginB;
+  private final int endB;
+}
@@ -0,0 +1,278 @@
+package callum.nightingale.api.service.diff;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Histogram diff over line hashes, in the style of JGit's HistogramDiff.
+ *
+ * <p>Each region is trimmed of its common prefix and suffix, then split around the longest common
+ * run containing the rarest lines of the original, and both sides are processed the same way.
+ * Regions without a usable anchor (every shared line repeats more than {@link #MAX_CHAIN_LENGTH}
+ * times) fall back to Myers' algorithm capped at {@code maxEditDistance}; beyond that cap the
+ * region is reported as a single replacement so run time stays predictable.
+ */
+public class HistogramDiff {
+
+  static final int MAX_CHAIN_LENGTH = 64;
+
+  private final long[] a;
+  private final long[] b;
+  private final int maxEditDistance;
+  private final List<Edit> edits = new ArrayList<>();
+
+  private HistogramDiff(LineHashes a, LineHashes b, int maxEditDistance) {
+    this.a = a.getHashes();
+    this.b = b.getHashes();
+    this.maxEditDistance = maxEditDistance;
+  }
+
+  public static List<Edit> diff(LineHashes original, LineHashes revised, int maxEditDistance) {
+    HistogramDiff diff = new HistogramDiff(original, revised, maxEditDistance);
+    diff.run(original.getSize(), revised.getSize());
+    return diff.edits;
+  }
+
+  /**
+   * Upper bound, in bytes, of the working memory needed on top of the two hash arrays.
+   */
+  public static long estimateWorkingBytes(int originalSize, int maxEditDistance) {
+    long histogram = (long) tableSize(originalSize) * (Long.BYTES + 2 * Integer.BYTES)
+        + (long) originalSize * Integer.BYTES;
+    long myers = (long) maxEditDistance * (2L * maxEditDistance + 2) * Integer.BYTES;
+    return histogram + myers;
+  }
+
+  private void run(int sizeA, int sizeB) {
+    // Regions are processed from an explicit stack so deeply nested splits cannot overflow the
+    // call stack; edits are sorted once at the end.
+    Deque<int[]> regions = new ArrayDeque<>();
+    regions.push(new int[]{0, sizeA, 0, sizeB});
+    while (!regions.isEmpty()) {
+      DiffCancelledException.throwIfInterrupted();
+      int[] region = regions.pop();
+      diffRegion(region[0], region[1], region[2], region[3], regions);
+    }
+    edits.sort(Comparator.comparingInt(Edit::getBeginA).thenComparingInt(Edit::getBeginB));
+    mergeAdjacentEdits();
+  }
+
+  private void diffRegion(int beginA, int endA, int beginB, int endB, Deque<int[]> regions) {
+    while (beginA < endA && beginB < endB && a[beginA] == b[beginB]) {
+      beginA++;
+      beginB++;
+    }
+    while (beginA < endA && beginB < endB && a[endA - 1] == b[endB - 1]) {
+      endA--;
+      endB--;
+    }
+    if (beginA == endA && beginB == endB) {
+      return;
+    }
+    if (beginA == endA || beginB == endB) {
+      edits.add(new Edit(beginA, endA, beginB, endB));
+      return;
+    }
+
+    int[] anchor = findAnchor(beginA, endA, beginB, endB);
+    if (anchor == null) {
+      myers(beginA, endA, beginB, endB);
+      return;
+    }
+    regions.push(new int[]{anchor[1], endA, anchor[3], endB});
+    regions.push(new int[]{beginA, anchor[0], beginB, anchor[2]});
+  }
+
+  /**
+   * Returns {@code {beginA, endA, beginB, endB}} of the longest common run with the lowest
+   * occurrence count in the original, or {@code null} when no line is rare enough to anchor on.
+   */
+  private int[] findAnchor(int beginA, int endA, int beginB, int endB) {
+    Histogram histogram = new Histogram(beginA, endA);
+
+    int[] best = null;
+    int bestCount = MAX_CHAIN_LENGTH;
+    int bestLength = 0;
+    int indexB = beginB;
+    int scanned = 0;
+    while (indexB < endB) {
+      if ((++scanned & 0xFFFF) == 0) {
+        DiffCancelledException.throwIfInterrupted();
+      }
+      int slot = histogram.find(b[indexB]);
+      if (slot < 0 || histogram.counts[slot] > bestCount) {
+        indexB++;
+        continue;
+      }
+      int nextB = indexB + 1;
+      for (int indexA = histogram.heads[slot] - 1; indexA >= 0;
+          indexA = histogram.next[indexA - beginA] - 1) {
+        int matchBeginA = indexA;
+        int matchBeginB = indexB;
+        int matchEndA = indexA + 1;
+        int matchEndB = indexB + 1;
+        int count = histogram.counts[slot];
+        while (matchBeginA > beginA && matchBeginB > beginB
+            && a[matchBeginA - 1] == b[matchBeginB - 1]) {
+          matchBeginA--;
+          matchBeginB--;
+          count = Math.min(count, histogram.count(a[matchBeginA]));
+        }
+        while (matchEndA < endA && matchEndB < endB && a[matchEndA] == b[matchEndB]) {
+          count = Math.min(count, histogram.count(a[matchEndA]));
+          matchEndA++;
+          matchEndB++;
+        }
+        nextB = Math.max(nextB, matchEndB);
+        int length = matchEndA - matchBeginA;
+        if (count < bestCount || (count == bestCount && length > bestLength)) {
+          best = new int[]{matchBeginA, matchEndA, matchBeginB, matchEndB};
+          bestCount = count;
+          bestLength = length;
+        }
+      }
+      indexB = nextB;
+    }
+    return best;
+  }
+
+  /**
+   * Greedy Myers diff bounded by {@code maxEditDistance}; regions needing more edits than that
+   * are reported as one replacement.
+   */
+  private void myers(int beginA, int endA, int beginB, int endB) {
+    int n = endA - beginA;
+    int m = endB - beginB;
+    int max = Math.min(n + m, maxEditDistance);
+    int offset = max + 1;
+    int[] v = new int[2 * max + 3];
+    List<int[]> trace = new ArrayList<>();
+
+    for (int d = 0; d <= max; d++) {
+      DiffCancelledException.throwIfInterrupted();
+      trace.add(v.clone());
+      for (int k = -d; k <= d; k += 2) {
+        int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+            ? v[offset + k + 1]
+            : v[offset + k - 1] + 1;
+        int y = x - k;
+        while (x < n && y < m && a[beginA + x] == b[beginB + y]) {
+          x++;
+          y++;
+        }
+        v[offset + k] = x;
+        if (x >= n && y >= m) {
+          backtrack(trace, offset, n, m, beginA, beginB);
+          return;
+        }
+      }
+    }
+    edits.add(new Edit(beginA, endA, beginB, endB));
+  }
+
+  private void backtrack(List<int[]> trace, int offset, int n, int m, int beginA, int beginB) {
+    int x = n;
+    int y = m;
+    for (int d = trace.size() - 1; d > 0; d--) {
+      int[] v = trace.get(d);
+      int k = x - y;
+      int previousK = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+          ? k + 1
+          : k - 1;
+      int previousX = v[offset + previousK];
+      int previousY = previousX - previousK;
+      while (x > previousX && y > previousY) {
+        x--;
+        y--;
+      }
+      if (x == previousX) {
+        edits.add(new Edit(beginA + x, beginA + x, beginB + y - 1, beginB + y));
+      } else {
+        edits.add(new Edit(beginA + x - 1, beginA + x, beginB + y, beginB + y));
+      }
+      x = previousX;
+      y = previousY;
+    }
+  }
+
+  private void mergeAdjacentEdits() {
+    if (edits.size() < 2) {
+      return;
+    }
+    List<Edit> merged = new ArrayList<>(edits.size());
+    Edit current = edits.get(0);
+    for (int i = 1; i < edits.size(); i++) {
+      Edit next = edits.get(i);
+      if (current.getEndA() == next.getBeginA() && current.getEndB() == next.getBeginB()) {
+        current = new Edit(current.getBeginA(), next.getEndA(), current.getBeginB(),
+            next.getEndB());
+      } else {
+        merged.add(current);
+        current = next;
+      }
+    }
+    merged.add(current);
+    edits.clear();
+    edits.addAll(merged);
+  }
+
+  private static int tableSize(int entries) {
+    return Integer.highestOneBit(Math.max(entries, 1) * 2 - 1) << 1;
+  }
+
+  /**
+   * Open-addressing map from line hash to the chain of positions in the original region, in
+   * ascending order. Positions are stored one-based so zero means "empty".
+   */
+  private final class Histogram {
+
+    private final int beginA;
+    private final long[] keys;
+    private final int[] heads;
+    private final int[] counts;
+    private final int[] next;
+    private final int mask;
+
+    private Histogram(int beginA, int endA) {
+      this.beginA = beginA;
+      int size = tableSize(endA - beginA);
+      this.keys = new long[size];
+      this.heads = new int[size];
+      this.counts = new int[size];
+      this.next = new int[endA - beginA];
+      this.mask = size - 1;
+      for (int indexA = endA - 1; indexA >= beginA; indexA--) {
+        int slot = slotFor(a[indexA]);
+        if (heads[slot] == 0) {
+          keys[slot] = a[indexA];
+        }
+        // Over-long chains are still counted so they are never chosen as anchors.
+        if (++counts[slot] <= MAX_CHAIN_LENGTH) {
+          next[indexA - beginA] = heads[slot];
+          heads[slot] = indexA + 1;
+        }
+      }
+    }
+
+    private int find(long key) {
+      int slot = slotFor(key);
+      return heads[slot] == 0 ? -1 : slot;
+    }
+
+    private int count(long key) {
+      int slot = find(key);
+      return slot < 0 ? 0 : counts[slot];
+    }
+
+    private int slotFor(long key) {
+      int slot = (int) key & mask;
+      while (heads[slot] != 0 && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package callum.nightingale.api.service.diff;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Hashes each line of a byte stream as it is written. Lines end at {@code \n}, {@code \r} or
+ * {@code \r\n}, matching {@link LineReader}. Stops recording once {@code maxLines} is reached so a
+ * huge upload cannot grow the hash array past the diff memory budget.
+ */
+public class LineHasher extends OutputStream {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final int maxLines;
+  private long[] hashes = new long[1024];
+  private int size;
+  private long current = FNV_OFFSET_BASIS;
+  private boolean inLine;
+  private boolean pendingCarriageReturn;
+  private boolean overflowed;
+  private boolean closed;
+
+  public LineHasher(int maxLines) {
+    this.maxLines = maxLines;
+  }
+
+  @Override
+  public void write(int b) {
+    if (pendingCarriageReturn) {
+      pendingCarriageReturn = false;
+      if (b == '\n') {
+        return;
+      }
+    }
+    if (b == '\n') {
+      endLine();
+    } else if (b == '\r') {
+      endLine();
+      pendingCarriageReturn = true;
+    } else {
+      current = (current ^ (b & 0xff)) * FNV_PRIME;
+      inLine = true;
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    for (int i = off; i < off + len; i++) {
+      write(b[i]);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (!closed && inLine) {
+      endLine();
+    }
+    closed = true;
+  }
+
+  /**
+   * Returns the hashes, or {@code null} when the stream had more than {@code maxLines} lines.
+   */
+  public LineHashes getLineHashes() {
+    close();
+    return overflowed ? null : new LineHashes(hashes, size);
+  }
+
+  private void endLine() {
+    if (size == maxLines) {
+      overflowed = true;
+    } else if (!overflowed) {
+      if (size == hashes.length) {
+        hashes = Arrays.copyOf(hashes, (int) Math.min((long) size * 2, maxLines));
+      }
+      hashes[size++] = mix(current);
+    }
+    current = FNV_OFFSET_BASIS;
+    inLine = false;
+  }
+
+  // FNV-1a distributes poorly in the low bits used by the histogram table, so finish with the
+  // MurmurHash3 64-bit mixer.
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
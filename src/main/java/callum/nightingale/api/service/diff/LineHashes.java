@@ -0,0 +1,16 @@
+package callum.nightingale.api.service.diff;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * One 64-bit hash per line. Only the first {@link #getSize()} entries of {@link #getHashes()} are
+ * valid; lines are compared by hash alone, so text is never held in memory while diffing.
+ */
+@Getter
+@RequiredArgsConstructor
+public class LineHashes {
+
+  private final long[] hashes;
+  private final int size;
+}
@@ -0,0 +1,83 @@
+package callum.nightingale.api.service.diff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads lines sequentially using the same terminators as {@link LineHasher}, so line {@code i}
+ * here is the line whose hash is at index {@code i}. Skipped lines are scanned in place and never
+ * decoded.
+ */
+public class LineReader implements Closeable {
+
+  private final InputStream in;
+  private final Charset charset;
+  private final byte[] buffer = new byte[64 * 1024];
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+  private int position;
+  private int limit;
+  private boolean skipLineFeed;
+
+  public LineReader(InputStream in, Charset charset) {
+    this.in = in;
+    this.charset = charset;
+  }
+
+  public String readLine() throws IOException {
+    line.reset();
+    return readInto(line) ? line.toString(charset) : null;
+  }
+
+  public void skipLines(int count) throws IOException {
+    for (int i = 0; i < count && readInto(null); i++) {
+      // skipped
+    }
+  }
+
+  private boolean readInto(ByteArrayOutputStream target) throws IOException {
+    boolean read = false;
+    while (fill()) {
+      if (skipLineFeed) {
+        skipLineFeed = false;
+        if (buffer[position] == '\n') {
+          position++;
+          continue;
+        }
+      }
+      read = true;
+      int start = position;
+      while (position < limit && buffer[position] != '\n' && buffer[position] != '\r') {
+        position++;
+      }
+      if (target != null) {
+        target.write(buffer, start, position - start);
+      }
+      if (position < limit) {
+        skipLineFeed = buffer[position++] == '\r';
+        return true;
+      }
+    }
+    return read;
+  }
+
+  private boolean fill() throws IOException {
+    if (position < limit) {
+      return true;
+    }
+    limit = in.read(buffer, 0, buffer.length);
+    position = 0;
+    if (limit <= 0) {
+      limit = 0;
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,76 @@
+package callum.nightingale.api.service.diff;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writes edits as unified diff hunks, reading both sides sequentially so only the lines of the
+ * current hunk are ever decoded. Edits must be sorted and non-overlapping.
+ */
+public final class UnifiedDiffWriter {
+
+  private UnifiedDiffWriter() {
+  }
+
+  public static void write(String objectKey, List<Edit> edits, int originalSize,
+      LineReader original, LineReader revised, int contextLines, Consumer<String> out)
+      throws IOException {
+    if (edits.isEmpty()) {
+      return;
+    }
+    out.accept("--- " + objectKey);
+    out.accept("+++ " + objectKey);
+
+    int positionA = 0;
+    int positionB = 0;
+    int first = 0;
+    while (first < edits.size()) {
+      DiffCancelledException.throwIfInterrupted();
+      int last = first;
+      while (last + 1 < edits.size()
+          && edits.get(last + 1).getBeginA() - edits.get(last).getEndA() <= 2 * contextLines) {
+        last++;
+      }
+      Edit firstEdit = edits.get(first);
+      Edit lastEdit = edits.get(last);
+      int leading = Math.min(contextLines, firstEdit.getBeginA() - positionA);
+      int trailing = Math.min(contextLines, originalSize - lastEdit.getEndA());
+      int hunkBeginA = firstEdit.getBeginA() - leading;
+      int hunkBeginB = firstEdit.getBeginB() - leading;
+      int hunkEndA = lastEdit.getEndA() + trailing;
+      int hunkEndB = lastEdit.getEndB() + trailing;
+
+      out.accept(String.format("@@ -%d,%d +%d,%d @@", hunkBeginA + 1, hunkEndA - hunkBeginA,
+          hunkBeginB + 1, hunkEndB - hunkBeginB));
+      original.skipLines(hunkBeginA - positionA);
+      revised.skipLines(hunkBeginB - positionB);
+      positionA = hunkBeginA;
+      positionB = hunkBeginB;
+
+      for (int i = first; i <= last; i++) {
+        Edit edit = edits.get(i);
+        positionA = writeContext(original, revised, positionA, edit.getBeginA(), out);
+        positionB = edit.getBeginB();
+        for (; positionA < edit.getEndA(); positionA++) {
+          out.accept("-" + original.readLine());
+        }
+        for (; positionB < edit.getEndB(); positionB++) {
+          out.accept("+" + revised.readLine());
+        }
+      }
+      positionA = writeContext(original, revised, positionA, hunkEndA, out);
+      positionB = hunkEndB;
+      first = last + 1;
+    }
+  }
+
+  private static int writeContext(LineReader original, LineReader revised, int from, int to,
+      Consumer<String> out) throws IOException {
+    for (int position = from; position < to; position++) {
+      out.accept(" " + original.readLine());
+    }
+    revised.skipLines(to - from);
+    return to;
+  }
+}
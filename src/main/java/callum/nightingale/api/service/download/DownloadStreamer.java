@@ -0,0 +1,139 @@
+package callum.nightingale.api.service.download;
+
+import callum.nightingale.api.properties.DownloadProperties;
+import callum.nightingale.api.service.storage.FileRegion;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import software.amazon.awssdk.core.ResponseInputStream;
+
+/**
+ * Copies S3 objects to the response in large pooled buffers, or objects on local disk with
+ * {@link FileRegion#transferTo}. A stream that does not finish, because the client went away or
+ * S3 failed mid-body, is aborted rather than closed, so its pooled S3 connection is discarded
+ * instead of being drained or left checked out.
+ *
+ * <p>A body that never runs, because the download pool rejected it, the request timed out while
+ * it was queued or the request failed first, is aborted when the async request completes.
+ */
+@Component
+public class DownloadStreamer implements CallableProcessingInterceptor {
+
+  private static final String PENDING = DownloadStreamer.class.getName() + ".PENDING";
+
+  private final int bufferSize;
+  private final BlockingQueue<byte[]> buffers;
+  private final AtomicInteger activeStreams = new AtomicInteger();
+  private final Counter bytesSent;
+  private final Counter completed;
+  private final Counter aborted;
+
+  public DownloadStreamer(DownloadProperties downloadProperties, MeterRegistry meterRegistry) {
+    this.bufferSize = downloadProperties.getBufferSize();
+    this.buffers = new ArrayBlockingQueue<>(downloadProperties.getMaxConcurrentStreams());
+    this.bytesSent = Counter.builder("download.bytes")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    this.completed = Counter.builder("download.streams")
+        .tag("outcome", "completed")
+        .register(meterRegistry);
+    this.aborted = Counter.builder("download.streams")
+        .tag("outcome", "aborted")
+        .register(meterRegistry);
+    meterRegistry.gauge("download.active", activeStreams);
+  }
+
+  public StreamingResponseBody stream(ResponseInputStream<?> object) {
+    Download download = new Download(object);
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if (attributes != null) {
+      attributes.setAttribute(PENDING, download, RequestAttributes.SCOPE_REQUEST);
+    }
+    return download;
+  }
+
+  @Override
+  public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+    if (request.getAttribute(PENDING, RequestAttributes.SCOPE_REQUEST)
+        instanceof Download download) {
+      download.release();
+    }
+  }
+
+  private void copy(ResponseInputStream<?> object, OutputStream out) throws IOException {
+    FileRegion region = FileRegion.of(object);
+    byte[] buffer = region == null ? acquire() : null;
+    activeStreams.incrementAndGet();
+    boolean finished = false;
+    try {
+      if (region != null) {
+        // Objects on local disk are sent by the kernel without passing through a buffer.
+        bytesSent.increment(region.transferTo(out));
+      } else {
+        int read;
+        while ((read = object.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+          bytesSent.increment(read);
+        }
+      }
+      out.flush();
+      finished = true;
+    } finally {
+      activeStreams.decrementAndGet();
+      if (buffer != null) {
+        buffers.offer(buffer);
+      }
+      if (finished) {
+        completed.increment();
+        object.close();
+      } else {
+        aborted.increment();
+        object.abort();
+      }
+    }
+  }
+
+  private byte[] acquire() {
+    byte[] buffer = buffers.poll();
+    return buffer != null ? buffer : new byte[bufferSize];
+  }
+
+  /**
+   * A body whose stream is owned by whichever of {@link #writeTo} and {@link #release} runs first.
+   */
+  private class Download implements StreamingResponseBody {
+
+    private final ResponseInputStream<?> object;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    private Download(ResponseInputStream<?> object) {
+      this.object = object;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      if (claimed.compareAndSet(false, true)) {
+        copy(object, out);
+      }
+    }
+
+    private void release() {
+      if (claimed.compareAndSet(false, true)) {
+        aborted.increment();
+        object.abort();
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package callum.nightingale.api.service.fanout;
+
+import callum.nightingale.api.properties.FanOutProperties;
+import callum.nightingale.api.service.client.CallOrigin;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs one blocking call per item on the fan-out executor, or starts one asynchronous call per
+ * item. A shared semaphore caps the calls in flight across all requests, blocking or not, at
+ * {@code fanout.maxConcurrency}, so neither virtual threads nor async calls can queue more work on
+ * the S3 connection pool than it can serve.
+ */
+@Component
+public class FanOut {
+
+  private final ExecutorService fanOutExecutor;
+  private final Semaphore permits;
+  private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger drainRequests = new AtomicInteger();
+
+  public FanOut(ExecutorService fanOutExecutor, FanOutProperties fanOutProperties) {
+    this.fanOutExecutor = fanOutExecutor;
+    this.permits = new Semaphore(fanOutProperties.getMaxConcurrency());
+  }
+
+  /**
+   * Applies {@code task} to every item and returns the results in item order. The first failure
+   * cancels the calls still running and is rethrown. Each call's permit is given back once it has
+   * run, or once it is cancelled if it never started.
+   */
+  public <T, R> List<R> map(List<T> items, Function<T, R> task) {
+    if (items.size() <= 1) {
+      return items.stream().map(task).toList();
+    }
+
+    List<Future<R>> futures = new ArrayList<>(items.size());
+    try {
+      for (T item : items) {
+        permits.acquire();
+        AtomicBoolean claimed = new AtomicBoolean();
+        FutureTask<R> call = new FutureTask<>(CallOrigin.wrap(() -> {
+          if (!claimed.compareAndSet(false, true)) {
+            return null;
+          }
+          try {
+            return task.apply(item);
+          } finally {
+            release();
+          }
+        })) {
+          @Override
+          protected void done() {
+            // A call cancelled before it started never runs, so its permit is given back here.
+            if (claimed.compareAndSet(false, true)) {
+              release();
+            }
+          }
+        };
+        try {
+          fanOutExecutor.execute(call);
+        } catch (RejectedExecutionException e) {
+          release();
+          throw e;
+        }
+        futures.add(call);
+      }
+
+      List<R> results = new ArrayList<>(items.size());
+      for (Future<R> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while fanning out", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtime) {
+        throw runtime;
+      }
+      throw new RuntimeException("Failed to fan out", e.getCause());
+    } finally {
+      futures.forEach(future -> future.cancel(true));
+    }
+  }
+
+  /**
+   * Starts {@code task} for every item once a permit is free, without blocking the caller, and
+   * completes with the results in item order, or with the first failure once every call is done.
+   */
+  public <T, R> CompletableFuture<List<R>> mapAsync(List<T> items,
+      Function<T, CompletableFuture<R>> task) {
+    List<CompletableFuture<R>> results = new ArrayList<>(items.size());
+    for (T item : items) {
+      CompletableFuture<R> result = new CompletableFuture<>();
+      results.add(result);
+      waiting.add(() -> {
+        CompletableFuture<R> call;
+        try {
+          call = task.apply(item);
+        } catch (RuntimeException e) {
+          call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((value, failure) -> {
+          try {
+            release();
+          } finally {
+            if (failure != null) {
+              result.completeExceptionally(failure);
+            } else {
+              result.complete(value);
+            }
+          }
+        });
+      });
+    }
+    drain();
+    return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+        .thenApply(ignored -> results.stream().map(CompletableFuture::join).toList());
+  }
+
+  private void release() {
+    permits.release();
+    drain();
+  }
+
+  /**
+   * Starts waiting async calls while permits are free. A call is queued before a permit is tried
+   * and a permit released before the queue is checked, so neither side can miss the other.
+   *
+   * <p>Only one thread drains at a time. A call that completes as it starts, as one refused by an
+   * open breaker does, releases its permit from inside the loop; that drain request, or one from
+   * another thread, is counted and picked up by another pass of the running loop instead of
+   * recursing.
+   */
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int requests = 1;
+    do {
+      while (!waiting.isEmpty() && permits.tryAcquire()) {
+        Runnable next = waiting.poll();
+        if (next == null) {
+          permits.release();
+        } else {
+          next.run();
+        }
+      }
+      requests = drainRequests.addAndGet(-requests);
+    } while (requests != 0);
+  }
+}
@@ -0,0 +1,107 @@
+package callum.nightingale.api.service.preview;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sparse line index of one version of an object: the byte offset of every {@code interval}th
+ * line, recorded by scans as they pass it, so any line can be reached by reading from the nearest
+ * checkpoint at or before it. Once a scan reaches the end of the object the line count is known.
+ */
+public class LineIndex {
+
+  private final String eTag;
+  private final int interval;
+  private final ReentrantLock lock = new ReentrantLock();
+  private long[] offsets = new long[16];
+  private int checkpoints = 1;
+  private Long totalLines;
+  private long size;
+
+  public LineIndex(String eTag, int interval) {
+    this.eTag = eTag;
+    this.interval = interval;
+  }
+
+  public String getETag() {
+    return eTag;
+  }
+
+  /**
+   * The last checkpoint at or before {@code line}, as {@code {line, offset}}.
+   */
+  public long[] floor(long line) {
+    lock.lock();
+    try {
+      int checkpoint = (int) Math.min(line / interval, checkpoints - 1);
+      return new long[]{(long) checkpoint * interval, offsets[checkpoint]};
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The offset of the first checkpoint at or after {@code line}, the object size if the index is
+   * complete and there is none, or {@code -1} if the scans have not got that far yet.
+   */
+  public long ceilingOffset(long line) {
+    lock.lock();
+    try {
+      long checkpoint = (line + interval - 1) / interval;
+      if (checkpoint < checkpoints) {
+        return offsets[(int) checkpoint];
+      }
+      return totalLines != null ? size : -1;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The furthest checkpoint recorded so far, as {@code {line, offset}}.
+   */
+  public long[] last() {
+    return floor(Long.MAX_VALUE);
+  }
+
+  /**
+   * Records the offset of {@code line} if it is the next checkpoint; scans are sequential, so
+   * checkpoints are always appended in order.
+   */
+  public void record(long line, long offset) {
+    if (line % interval != 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      if (line / interval != checkpoints) {
+        return;
+      }
+      if (checkpoints == offsets.length) {
+        offsets = Arrays.copyOf(offsets, checkpoints * 2);
+      }
+      offsets[checkpoints++] = offset;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void complete(long totalLines, long size) {
+    lock.lock();
+    try {
+      this.totalLines = totalLines;
+      this.size = size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public Long getTotalLines() {
+    lock.lock();
+    try {
+      return totalLines;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package callum.nightingale.api.service.preview;
+
+import callum.nightingale.api.properties.PreviewProperties;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Least recently used line indexes, at most {@code preview.indexCacheSize} of them, one per
+ * object. An index only describes the version with its ETag, so callers must drop it when the
+ * object they read has a different one.
+ */
+@Component
+@RequiredArgsConstructor
+public class LineIndexCache {
+
+  private final PreviewProperties previewProperties;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, LineIndex> indexes = new LinkedHashMap<>(16, 0.75f, true);
+
+  public LineIndex get(String bucketName, String objectKey) {
+    lock.lock();
+    try {
+      return indexes.get(key(bucketName, objectKey));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the index of the object's version with {@code eTag}, replacing an index of any other
+   * version.
+   */
+  public LineIndex getOrCreate(String bucketName, String objectKey, String eTag) {
+    String key = key(bucketName, objectKey);
+    lock.lock();
+    try {
+      LineIndex index = indexes.get(key);
+      if (index == null || !index.getETag().equals(eTag)) {
+        index = new LineIndex(eTag, previewProperties.getIndexInterval());
+        indexes.put(key, index);
+        while (indexes.size() > previewProperties.getIndexCacheSize()) {
+          indexes.remove(indexes.keySet().iterator().next());
+        }
+      }
+      return index;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static String key(String bucketName, String objectKey) {
+    return bucketName + '/' + objectKey;
+  }
+}
@@ -0,0 +1,137 @@
+package callum.nightingale.api.service.preview;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits bytes fed in order into lines, with the same terminators as
+ * {@link callum.nightingale.api.service.diff.LineReader}, keeping the text of the lines inside a
+ * window. The scan can start at any line whose number and offset are known, such as a
+ * {@link LineIndex} checkpoint.
+ */
+public class LineScanner {
+
+  /**
+   * Notified of the number and offset of each line as its first byte is seen.
+   */
+  public interface Listener {
+
+    void lineStart(long line, long offset);
+  }
+
+  private final long windowStart;
+  private final long windowEnd;
+  private final Charset charset;
+  private final int maxLineBytes;
+  private final Listener listener;
+  private final List<String> lines = new ArrayList<>();
+  private final ByteArrayOutputStream current = new ByteArrayOutputStream();
+  private long line;
+  private long offset;
+  private boolean inLine;
+  private boolean skipLineFeed;
+  private boolean endOfObject;
+
+  public LineScanner(long firstLine, long firstOffset, long windowStart, int windowLines,
+      Charset charset, int maxLineBytes, Listener listener) {
+    this.line = firstLine;
+    this.offset = firstOffset;
+    this.windowStart = windowStart;
+    this.windowEnd = windowStart + windowLines;
+    this.charset = charset;
+    this.maxLineBytes = maxLineBytes;
+    this.listener = listener;
+  }
+
+  /**
+   * A scanner that keeps no lines, for counting and indexing.
+   */
+  public static LineScanner counter(long firstLine, long firstOffset, Charset charset,
+      Listener listener) {
+    return new LineScanner(firstLine, firstOffset, Long.MAX_VALUE, 0, charset, 0, listener);
+  }
+
+  /**
+   * Scans {@code length} bytes and returns {@code true} once the window is complete, after which
+   * the rest of the bytes are ignored.
+   */
+  public boolean feed(byte[] bytes, int start, int length) {
+    int end = start + length;
+    int i = start;
+    while (i < end && !isComplete()) {
+      if (skipLineFeed) {
+        skipLineFeed = false;
+        if (bytes[i] == '\n') {
+          i++;
+          offset++;
+          continue;
+        }
+      }
+      if (!inLine) {
+        inLine = true;
+        listener.lineStart(line, offset);
+      }
+      int from = i;
+      while (i < end && bytes[i] != '\n' && bytes[i] != '\r') {
+        i++;
+      }
+      if (line >= windowStart) {
+        current.write(bytes, from, Math.min(i - from, maxLineBytes - current.size()));
+      }
+      offset += i - from;
+      if (i < end) {
+        skipLineFeed = bytes[i++] == '\r';
+        offset++;
+        endLine();
+      }
+    }
+    return isComplete();
+  }
+
+  /**
+   * Ends the scan at the end of the object, counting a final line that has no terminator.
+   */
+  public void finish() {
+    if (inLine) {
+      endLine();
+    }
+    endOfObject = true;
+  }
+
+  public boolean isComplete() {
+    return line >= windowEnd;
+  }
+
+  public boolean isEndOfObject() {
+    return endOfObject;
+  }
+
+  /**
+   * The number of the next line to be read, which after {@link #finish} is the line count.
+   */
+  public long nextLine() {
+    return line;
+  }
+
+  /**
+   * The offset of the next byte to be scanned.
+   */
+  public long offset() {
+    return offset;
+  }
+
+  public List<String> lines() {
+    return lines;
+  }
+
+  private void endLine() {
+    if (line >= windowStart) {
+      lines.add(current.toString(charset));
+      current.reset();
+    }
+    line++;
+    inLine = false;
+  }
+}
@@ -0,0 +1,134 @@
+package callum.nightingale.api.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import software.amazon.awssdk.core.ResponseInputStream;
+
+/**
+ * A byte range of a local file, read through memory-mapped windows, or sent with
+ * {@link FileChannel#transferTo} so the kernel copies it straight to the target without passing
+ * through a heap buffer.
+ *
+ * <p>The SDK's {@link ResponseInputStream} hides its delegate, so regions are looked up by the
+ * stream wrapping them with {@link #of} until they are closed.
+ */
+public class FileRegion extends InputStream {
+
+  private static final long WINDOW_BYTES = 64L * 1024 * 1024;
+  private static final Map<InputStream, FileRegion> OPEN = new ConcurrentHashMap<>();
+
+  private final FileChannel channel;
+  private final long start;
+  private final long length;
+  private long position;
+  private ByteBuffer window;
+  private InputStream owner;
+
+  private FileRegion(FileChannel channel, long start, long length) {
+    this.channel = channel;
+    this.start = start;
+    this.length = length;
+  }
+
+  static <T> ResponseInputStream<T> open(T response, FileChannel channel, long start,
+      long length) {
+    FileRegion region = new FileRegion(channel, start, length);
+    ResponseInputStream<T> stream = new ResponseInputStream<>(response, region);
+    region.owner = stream;
+    OPEN.put(stream, region);
+    return stream;
+  }
+
+  /**
+   * The region behind a stream returned by the filesystem backend, or {@code null} for any other
+   * stream.
+   */
+  public static FileRegion of(InputStream stream) {
+    return OPEN.get(stream);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int count) throws IOException {
+    if (count == 0) {
+      return 0;
+    }
+    if (position >= length) {
+      return -1;
+    }
+    ByteBuffer mapped = window();
+    int read = Math.min(count, mapped.remaining());
+    mapped.get(buffer, offset, read);
+    position += read;
+    return read;
+  }
+
+  /**
+   * Maps the next window once the current one is used up. Windows keep a large object from
+   * needing one mapping of its whole length.
+   */
+  private ByteBuffer window() throws IOException {
+    if (window == null || !window.hasRemaining()) {
+      window = channel.map(FileChannel.MapMode.READ_ONLY, start + position,
+          Math.min(WINDOW_BYTES, length - position));
+    }
+    return window;
+  }
+
+  @Override
+  public long skip(long count) {
+    long skipped = Math.max(0, Math.min(count, length - position));
+    if (window != null && skipped <= window.remaining()) {
+      window.position(window.position() + (int) skipped);
+    } else {
+      window = null;
+    }
+    position += skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return (int) Math.min(Integer.MAX_VALUE, length - position);
+  }
+
+  @Override
+  public long transferTo(OutputStream out) throws IOException {
+    return transferTo(Channels.newChannel(out));
+  }
+
+  /**
+   * Sends the rest of the region to {@code target}, returning the number of bytes sent.
+   */
+  public long transferTo(WritableByteChannel target) throws IOException {
+    long sent = 0;
+    while (position < length) {
+      long transferred = channel.transferTo(start + position, length - position, target);
+      if (transferred <= 0 && start + position >= channel.size()) {
+        throw new IOException("File was truncated while it was being sent");
+      }
+      position += transferred;
+      sent += transferred;
+    }
+    window = null;
+    return sent;
+  }
+
+  @Override
+  public void close() throws IOException {
+    OPEN.remove(owner);
+    channel.close();
+  }
+}
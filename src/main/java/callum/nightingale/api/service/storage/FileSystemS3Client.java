@@ -0,0 +1,601 @@
+package callum.nightingale.api.service.storage;
+
+import callum.nightingale.api.service.storage.MetadataStore.ObjectMetadata;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.StreamSupport;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+/**
+ * Serves the S3 calls the services make from local disk, so the same API can run without S3.
+ * Each bucket is a directory under the root and each object a file at its key; the ETag, SHA-256
+ * checksum, content type and tags live in a {@link MetadataStore}. Objects are written to a
+ * temporary file and moved into place, so readers see either the old or the new version. Range,
+ * conditional and checksum semantics follow S3's, including the errors it answers with.
+ *
+ * <p>Object bodies are {@link FileRegion}s: downloads are sent with
+ * {@link FileChannel#transferTo}, and everything else (diffs, previews, archives) reads them
+ * through memory-mapped windows.
+ *
+ * <p>Keys map onto paths, so a key cannot also be a "folder" of other keys. Files copied into a
+ * bucket by hand are served with an ETag derived from their size and modification time.
+ */
+public class FileSystemS3Client implements S3Client {
+
+  private static final String DEFAULT_CONTENT_TYPE = "binary/octet-stream";
+  private static final int MAX_KEYS = 1000;
+  private static final int LOCK_STRIPES = 64;
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+  private final Path root;
+  private final Path tempDirectory;
+  private final MetadataStore metadataStore;
+  private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+  public FileSystemS3Client(Path root, Collection<String> bucketNames) {
+    this.root = root.toAbsolutePath().normalize();
+    this.tempDirectory = this.root.resolve(".tmp");
+    this.metadataStore = new MetadataStore(this.root.resolve(".metadata"), tempDirectory);
+    Arrays.setAll(locks, i -> new ReentrantLock());
+    try {
+      Files.createDirectories(tempDirectory);
+      for (String bucketName : bucketNames) {
+        Files.createDirectories(bucketPath(bucketName));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to create storage directories under " + root, e);
+    }
+  }
+
+  @Override
+  public String serviceName() {
+    return SERVICE_NAME;
+  }
+
+  @Override
+  public void close() {
+    // Nothing is held open between calls.
+  }
+
+  @Override
+  public HeadBucketResponse headBucket(HeadBucketRequest headBucketRequest) {
+    existingBucket(headBucketRequest.bucket());
+    return HeadBucketResponse.builder().build();
+  }
+
+  /**
+   * Lists keys in order, a page of at most 1000 at a time. The continuation token is the last key
+   * of the previous page. The bucket is walked in key order, skipping directories wholly before
+   * the token or outside the prefix, and the walk stops once the page is full.
+   */
+  @Override
+  public ListObjectsV2Response listObjectsV2(ListObjectsV2Request listObjectsV2Request) {
+    Path bucket = existingBucket(listObjectsV2Request.bucket());
+    String prefix = listObjectsV2Request.prefix() == null ? "" : listObjectsV2Request.prefix();
+    String after = listObjectsV2Request.continuationToken() != null
+        ? new String(Base64.getUrlDecoder().decode(listObjectsV2Request.continuationToken()),
+            StandardCharsets.UTF_8)
+        : listObjectsV2Request.startAfter();
+    int maxKeys = listObjectsV2Request.maxKeys() == null ? MAX_KEYS
+        : Math.max(1, Math.min(listObjectsV2Request.maxKeys(), MAX_KEYS));
+
+    List<String> page = new ArrayList<>();
+    try {
+      listKeys(bucket, "", prefix, after, maxKeys + 1, page);
+    } catch (IOException e) {
+      throw SdkClientException.create("Failed to list bucket " + listObjectsV2Request.bucket(), e);
+    }
+
+    boolean truncated = page.size() > maxKeys;
+    List<S3Object> contents = new ArrayList<>();
+    for (String key : truncated ? page.subList(0, maxKeys) : page) {
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(bucket.resolve(key),
+            BasicFileAttributes.class);
+        contents.add(S3Object.builder()
+            .key(key)
+            .size(attributes.size())
+            .lastModified(attributes.lastModifiedTime().toInstant())
+            .build());
+      } catch (NoSuchFileException e) {
+        // Deleted since the walk.
+      } catch (IOException e) {
+        throw SdkClientException.create("Failed to list bucket " + listObjectsV2Request.bucket(),
+            e);
+      }
+    }
+    String lastKey = truncated ? page.get(maxKeys - 1) : null;
+    return ListObjectsV2Response.builder()
+        .name(listObjectsV2Request.bucket())
+        .prefix(listObjectsV2Request.prefix())
+        .keyCount(contents.size())
+        .maxKeys(maxKeys)
+        .isTruncated(truncated)
+        .continuationToken(listObjectsV2Request.continuationToken())
+        .nextContinuationToken(lastKey != null
+            ? Base64.getUrlEncoder().encodeToString(lastKey.getBytes(StandardCharsets.UTF_8))
+            : null)
+        .contents(contents)
+        .build();
+  }
+
+  @Override
+  public HeadObjectResponse headObject(HeadObjectRequest headObjectRequest) {
+    Stored stored = stat(headObjectRequest.bucket(), headObjectRequest.key());
+    return HeadObjectResponse.builder()
+        .contentLength(stored.size)
+        .eTag(stored.eTag)
+        .lastModified(stored.lastModified)
+        .contentType(stored.contentType)
+        .acceptRanges("bytes")
+        .checksumSHA256(headObjectRequest.checksumMode() == ChecksumMode.ENABLED
+            ? stored.checksumSHA256 : null)
+        .build();
+  }
+
+  /**
+   * Evaluates {@code If-Match}, {@code If-None-Match} and {@code If-Modified-Since} as S3 does,
+   * then opens a {@link FileRegion} of the requested range. An unsatisfiable range fails with 416;
+   * a malformed one is ignored and the whole object returned.
+   */
+  @Override
+  public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest getObjectRequest) {
+    String bucketName = getObjectRequest.bucket();
+    String key = getObjectRequest.key();
+    FileChannel channel;
+    Stored stored;
+    ReentrantLock lock = lock(bucketName, key);
+    lock.lock();
+    try {
+      // Opened under the lock, so the channel and the metadata describe the same version.
+      Path path = objectPath(bucketName, key);
+      channel = open(path, bucketName, key);
+      try {
+        stored = stat(bucketName, key);
+      } catch (RuntimeException e) {
+        closeQuietly(channel);
+        throw e;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      checkConditions(getObjectRequest, stored);
+      long start = 0;
+      long length = stored.size;
+      String contentRange = null;
+      long[] range = range(getObjectRequest.range(), stored.size);
+      if (range != null) {
+        start = range[0];
+        length = range[1] - range[0] + 1;
+        contentRange = "bytes " + range[0] + "-" + range[1] + "/" + stored.size;
+      }
+      GetObjectResponse response = GetObjectResponse.builder()
+          .contentLength(length)
+          .contentRange(contentRange)
+          .eTag(stored.eTag)
+          .lastModified(stored.lastModified)
+          .contentType(stored.contentType)
+          .acceptRanges("bytes")
+          .checksumSHA256(getObjectRequest.checksumMode() == ChecksumMode.ENABLED
+              && contentRange == null ? stored.checksumSHA256 : null)
+          .build();
+      return FileRegion.open(response, channel, start, length);
+    } catch (RuntimeException e) {
+      closeQuietly(channel);
+      throw e;
+    }
+  }
+
+  /**
+   * Writes the body to a temporary file while hashing it, checks any {@code x-amz-checksum-sha256}
+   * sent with it, then moves it into place under the key's lock once {@code If-Match} or
+   * {@code If-None-Match} has been checked against the current version.
+   */
+  @Override
+  public PutObjectResponse putObject(PutObjectRequest putObjectRequest, RequestBody requestBody) {
+    String bucketName = putObjectRequest.bucket();
+    String key = putObjectRequest.key();
+    existingBucket(bucketName);
+    Path path = objectPath(bucketName, key);
+    Path content = null;
+    Path metadata = null;
+    try {
+      content = Files.createTempFile(tempDirectory, "object-", null);
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      try (InputStream in = requestBody.contentStreamProvider().newStream();
+          OutputStream out = new DigestOutputStream(new DigestOutputStream(
+              Files.newOutputStream(content), md5), sha256)) {
+        in.transferTo(out);
+      }
+      String checksum = Base64.getEncoder().encodeToString(sha256.digest());
+      if (putObjectRequest.checksumSHA256() != null
+          && !putObjectRequest.checksumSHA256().equals(checksum)) {
+        throw error(400, "BadDigest",
+            "The SHA256 you specified did not match the calculated checksum.", null);
+      }
+      String eTag = "\"" + HexFormat.of().formatHex(md5.digest()) + "\"";
+      metadata = metadataStore.prepare(new ObjectMetadata(eTag, checksum,
+          putObjectRequest.contentType() != null ? putObjectRequest.contentType()
+              : DEFAULT_CONTENT_TYPE,
+          tags(putObjectRequest.tagging())));
+
+      ReentrantLock lock = lock(bucketName, key);
+      lock.lock();
+      try {
+        checkWriteConditions(putObjectRequest, bucketName, key);
+        Files.createDirectories(path.getParent());
+        Files.move(content, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        metadataStore.commit(metadata, bucketName, key);
+      } finally {
+        lock.unlock();
+      }
+      return PutObjectResponse.builder()
+          .eTag(eTag)
+          .checksumSHA256(checksum)
+          .build();
+    } catch (IOException e) {
+      throw SdkClientException.create("Failed to write object " + key, e);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      deleteQuietly(content);
+      deleteQuietly(metadata);
+    }
+  }
+
+  @Override
+  public GetObjectTaggingResponse getObjectTagging(
+      GetObjectTaggingRequest getObjectTaggingRequest) {
+    Stored stored = stat(getObjectTaggingRequest.bucket(), getObjectTaggingRequest.key());
+    return GetObjectTaggingResponse.builder()
+        .tagSet(stored.tags.entrySet().stream()
+            .map(tag -> Tag.builder()
+                .key(tag.getKey())
+                .value(tag.getValue())
+                .build())
+            .toList())
+        .build();
+  }
+
+  private void checkConditions(GetObjectRequest getObjectRequest, Stored stored) {
+    if (getObjectRequest.ifMatch() != null && !matches(getObjectRequest.ifMatch(), stored.eTag)) {
+      throw error(412, "PreconditionFailed",
+          "At least one of the pre-conditions you specified did not hold", null);
+    }
+    // As in RFC 9110, If-Modified-Since is only considered without If-None-Match.
+    if (getObjectRequest.ifNoneMatch() != null) {
+      if (matches(getObjectRequest.ifNoneMatch(), stored.eTag)) {
+        throw error(304, "NotModified", "Not Modified", stored.eTag);
+      }
+    } else if (getObjectRequest.ifModifiedSince() != null
+        && !stored.lastModified.truncatedTo(ChronoUnit.SECONDS)
+        .isAfter(getObjectRequest.ifModifiedSince())) {
+      throw error(304, "NotModified", "Not Modified", stored.eTag);
+    }
+  }
+
+  private void checkWriteConditions(PutObjectRequest putObjectRequest, String bucketName,
+      String key) {
+    if (putObjectRequest.ifMatch() == null && putObjectRequest.ifNoneMatch() == null) {
+      return;
+    }
+    Stored current;
+    try {
+      current = stat(bucketName, key);
+    } catch (NoSuchKeyException e) {
+      current = null;
+    }
+    if (putObjectRequest.ifMatch() != null && current == null) {
+      throw NoSuchKeyException.builder()
+          .statusCode(404)
+          .message("The specified key does not exist.")
+          .build();
+    }
+    if (putObjectRequest.ifMatch() != null && !matches(putObjectRequest.ifMatch(), current.eTag)
+        || putObjectRequest.ifNoneMatch() != null && current != null
+        && matches(putObjectRequest.ifNoneMatch(), current.eTag)) {
+      throw error(412, "PreconditionFailed",
+          "At least one of the pre-conditions you specified did not hold", null);
+    }
+  }
+
+  private static boolean matches(String condition, String eTag) {
+    return Arrays.stream(condition.split(","))
+        .map(String::trim)
+        .anyMatch(candidate -> candidate.equals("*")
+            || unquote(candidate).equals(unquote(eTag)));
+  }
+
+  private static String unquote(String eTag) {
+    return eTag.replace("\"", "");
+  }
+
+  /**
+   * The first and last byte of a satisfiable {@code Range}, or {@code null} to send the whole
+   * object.
+   */
+  private static long[] range(String range, long size) {
+    Matcher matcher = range == null ? null : RANGE.matcher(range.trim());
+    if (matcher == null || !matcher.matches()
+        || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+      return null;
+    }
+    long first;
+    long last;
+    if (matcher.group(1).isEmpty()) {
+      long suffix = Long.parseLong(matcher.group(2));
+      first = Math.max(0, size - suffix);
+      last = size - 1;
+      if (suffix == 0) {
+        first = size;
+      }
+    } else {
+      first = Long.parseLong(matcher.group(1));
+      last = matcher.group(2).isEmpty() ? size - 1
+          : Math.min(Long.parseLong(matcher.group(2)), size - 1);
+      if (last < first && first < size) {
+        return null;
+      }
+    }
+    if (first >= size) {
+      throw error(416, "InvalidRange", "The requested range is not satisfiable", null);
+    }
+    return new long[]{first, last};
+  }
+
+  private static Map<String, String> tags(String tagging) {
+    Map<String, String> tags = new LinkedHashMap<>();
+    if (tagging == null || tagging.isEmpty()) {
+      return tags;
+    }
+    for (String pair : tagging.split("&")) {
+      int equals = pair.indexOf('=');
+      String name = equals < 0 ? pair : pair.substring(0, equals);
+      String value = equals < 0 ? "" : pair.substring(equals + 1);
+      tags.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+          URLDecoder.decode(value, StandardCharsets.UTF_8));
+    }
+    return tags;
+  }
+
+  private Stored stat(String bucketName, String key) {
+    existingBucket(bucketName);
+    Path path = objectPath(bucketName, key);
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      if (!attributes.isRegularFile()) {
+        throw noSuchKey(key);
+      }
+      ObjectMetadata metadata = metadataStore.read(bucketName, key);
+      Instant lastModified = attributes.lastModifiedTime().toInstant();
+      if (metadata == null) {
+        metadata = new ObjectMetadata("\"" + Long.toHexString(lastModified.toEpochMilli()) + "-"
+            + Long.toHexString(attributes.size()) + "\"", null, DEFAULT_CONTENT_TYPE, Map.of());
+      }
+      return new Stored(attributes.size(), lastModified, metadata);
+    } catch (NoSuchFileException e) {
+      throw noSuchKey(key);
+    } catch (IOException e) {
+      throw SdkClientException.create("Failed to read object " + key, e);
+    }
+  }
+
+  private static FileChannel open(Path path, String bucketName, String key) {
+    try {
+      return FileChannel.open(path, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      throw noSuchKey(key);
+    } catch (IOException e) {
+      if (Files.isDirectory(path)) {
+        throw noSuchKey(key);
+      }
+      throw SdkClientException.create("Failed to open object " + bucketName + "/" + key, e);
+    }
+  }
+
+  private Path existingBucket(String bucketName) {
+    Path bucket = bucketPath(bucketName);
+    if (!Files.isDirectory(bucket)) {
+      throw NoSuchBucketException.builder()
+          .statusCode(404)
+          .message("The specified bucket does not exist")
+          .build();
+    }
+    return bucket;
+  }
+
+  /**
+   * Bucket names cannot start with a dot, which keeps the metadata and temporary directories out
+   * of reach.
+   */
+  private Path bucketPath(String bucketName) {
+    if (bucketName == null || bucketName.isEmpty() || bucketName.startsWith(".")
+        || bucketName.contains("/") || bucketName.contains("\\")) {
+      throw NoSuchBucketException.builder()
+          .statusCode(404)
+          .message("The specified bucket does not exist")
+          .build();
+    }
+    return root.resolve(bucketName);
+  }
+
+  /**
+   * Adds the keys under {@code directory} that start with {@code prefix} and sort after
+   * {@code after} to {@code page}, in key order, until it holds {@code limit}. A directory sorts
+   * as its name plus "/", which is where its keys fall among its siblings'.
+   */
+  private static void listKeys(Path directory, String directoryKey, String prefix, String after,
+      int limit, List<String> page) throws IOException {
+    TreeMap<String, Path> children = new TreeMap<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (Path child : entries) {
+        String key = directoryKey + child.getFileName();
+        children.put(Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS) ? key + "/" : key, child);
+      }
+    } catch (NoSuchFileException e) {
+      // Deleted since its parent was read.
+      return;
+    }
+    for (Map.Entry<String, Path> child : children.entrySet()) {
+      String key = child.getKey();
+      if (page.size() >= limit || key.compareTo(prefix) > 0 && !key.startsWith(prefix)
+          && !prefix.startsWith(key)) {
+        return;
+      }
+      boolean afterToken = after == null || key.compareTo(after) > 0;
+      if (key.endsWith("/")) {
+        if ((key.startsWith(prefix) || prefix.startsWith(key))
+            && (afterToken || after.startsWith(key))) {
+          listKeys(child.getValue(), key, prefix, after, limit, page);
+        }
+      } else if (key.startsWith(prefix) && afterToken && Files.isRegularFile(child.getValue())) {
+        page.add(key);
+      }
+    }
+  }
+
+  /**
+   * Keys must already be normal relative paths, so each names exactly one file and its metadata
+   * is stored under the same key.
+   */
+  private Path objectPath(String bucketName, String key) {
+    Path bucket = bucketPath(bucketName);
+    Path path = key == null ? bucket : bucket.resolve(key).normalize();
+    if (!path.startsWith(bucket) || path.equals(bucket) || !key(bucket, path).equals(key)) {
+      throw error(400, "InvalidArgument", "Object key is not supported by this backend", null);
+    }
+    return path;
+  }
+
+  private static String key(Path bucket, Path path) {
+    return String.join("/", StreamSupport.stream(bucket.relativize(path).spliterator(), false)
+        .map(Path::toString)
+        .toList());
+  }
+
+  private ReentrantLock lock(String bucketName, String key) {
+    return locks[Math.floorMod((bucketName + "/" + key).hashCode(), LOCK_STRIPES)];
+  }
+
+  private static NoSuchKeyException noSuchKey(String key) {
+    return NoSuchKeyException.builder()
+        .statusCode(404)
+        .message("The specified key does not exist: " + key)
+        .build();
+  }
+
+  private static S3Exception error(int statusCode, String errorCode, String message,
+      String eTag) {
+    SdkHttpResponse.Builder httpResponse = SdkHttpResponse.builder().statusCode(statusCode);
+    if (eTag != null) {
+      httpResponse.putHeader("ETag", eTag);
+    }
+    return (S3Exception) S3Exception.builder()
+        .statusCode(statusCode)
+        .message(message)
+        .awsErrorDetails(AwsErrorDetails.builder()
+            .errorCode(errorCode)
+            .errorMessage(message)
+            .serviceName(SERVICE_NAME)
+            .sdkHttpResponse(httpResponse.build())
+            .build())
+        .build();
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Nothing was read from it.
+    }
+  }
+
+  private static void deleteQuietly(Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      // Left for the operator; temporary files are never read back.
+    }
+  }
+
+  /**
+   * One version of an object: its size and modification time with its metadata.
+   */
+  private static class Stored {
+
+    private final long size;
+    private final Instant lastModified;
+    private final String eTag;
+    private final String checksumSHA256;
+    private final String contentType;
+    private final Map<String, String> tags;
+
+    private Stored(long size, Instant lastModified, ObjectMetadata metadata) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.eTag = metadata.getETag();
+      this.checksumSHA256 = metadata.getChecksumSHA256();
+      this.contentType = metadata.getContentType();
+      this.tags = metadata.getTags();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package callum.nightingale.api.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import lombok.Getter;
+
+/**
+ * Keeps what S3 holds alongside an object's bytes, its ETag, SHA-256 checksum, content type and
+ * tags, as a properties file per object under {@code .metadata/<bucket>/}. Files are replaced
+ * atomically, so a reader sees either the old or the new metadata.
+ */
+class MetadataStore {
+
+  private static final String TAG_PREFIX = "tag.";
+  private static final String SUFFIX = ".properties";
+
+  private final Path metadataRoot;
+  private final Path tempDirectory;
+
+  MetadataStore(Path metadataRoot, Path tempDirectory) {
+    this.metadataRoot = metadataRoot;
+    this.tempDirectory = tempDirectory;
+  }
+
+  /**
+   * The object's metadata, or {@code null} if it has none, as for a file copied in by hand.
+   */
+  ObjectMetadata read(String bucketName, String key) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = Files.newInputStream(path(bucketName, key))) {
+      properties.load(in);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    Map<String, String> tags = new LinkedHashMap<>();
+    properties.stringPropertyNames().stream()
+        .filter(name -> name.startsWith(TAG_PREFIX))
+        .sorted()
+        .forEach(name -> tags.put(name.substring(TAG_PREFIX.length()),
+            properties.getProperty(name)));
+    return new ObjectMetadata(properties.getProperty("eTag"),
+        properties.getProperty("checksumSHA256"), properties.getProperty("contentType"), tags);
+  }
+
+  /**
+   * Writes the metadata to a temporary file, to be moved into place by {@link #commit}.
+   */
+  Path prepare(ObjectMetadata metadata) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("eTag", metadata.getETag());
+    properties.setProperty("checksumSHA256", metadata.getChecksumSHA256());
+    properties.setProperty("contentType", metadata.getContentType());
+    metadata.getTags().forEach((name, value) -> properties.setProperty(TAG_PREFIX + name, value));
+    Path temp = Files.createTempFile(tempDirectory, "metadata-", SUFFIX);
+    try (OutputStream out = Files.newOutputStream(temp)) {
+      properties.store(out, null);
+    }
+    return temp;
+  }
+
+  void commit(Path prepared, String bucketName, String key) throws IOException {
+    Path path = path(bucketName, key);
+    Files.createDirectories(path.getParent());
+    Files.move(prepared, path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Path path(String bucketName, String key) {
+    return metadataRoot.resolve(bucketName).resolve(key + SUFFIX);
+  }
+
+  /**
+   * Metadata of one object version. The ETag is quoted, as S3 returns it.
+   */
+  @Getter
+  static class ObjectMetadata {
+
+    private final String eTag;
+    private final String checksumSHA256;
+    private final String contentType;
+    private final Map<String, String> tags;
+
+    ObjectMetadata(String eTag, String checksumSHA256, String contentType,
+        Map<String, String> tags) {
+      this.eTag = eTag;
+      this.checksumSHA256 = checksumSHA256;
+      this.contentType = contentType;
+      this.tags = tags;
+    }
+  }
+}
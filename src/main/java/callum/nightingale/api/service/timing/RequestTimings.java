@@ -0,0 +1,69 @@
+package callum.nightingale.api.service.timing;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Where the time of one request went: the summed duration of each kind of span (S3 calls, diffs,
+ * audit writes, serialization) observed while serving it, in the order each kind first finished.
+ * Spans run in parallel, such as concurrent S3 calls, can add up to more than the request took.
+ */
+public class RequestTimings {
+
+  public static final String SPAN = "api.span";
+  public static final String SPAN_KEY = "span";
+
+  private final long startedAt = System.nanoTime();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, Long> spans = new LinkedHashMap<>();
+
+  /**
+   * An observation of one span of work, timed into the request being served when started on its
+   * thread and published as the {@code api.span} timer tagged with {@code span}.
+   */
+  public static Observation span(String name, ObservationRegistry observationRegistry) {
+    return Observation.createNotStarted(SPAN, observationRegistry)
+        .lowCardinalityKeyValue(SPAN_KEY, name);
+  }
+
+  public void record(String name, long nanos) {
+    lock.lock();
+    try {
+      spans.merge(name, nanos, Long::sum);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long elapsedNanos() {
+    return System.nanoTime() - startedAt;
+  }
+
+  public Map<String, Long> getSpans() {
+    lock.lock();
+    try {
+      return new LinkedHashMap<>(spans);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * The spans so far and the total elapsed time as a {@code Server-Timing} header value.
+   */
+  public String toServerTiming() {
+    StringJoiner header = new StringJoiner(", ");
+    getSpans().forEach((name, nanos) -> header.add(name + ";dur=" + millis(nanos)));
+    header.add("total;dur=" + millis(elapsedNanos()));
+    return header.toString();
+  }
+
+  public static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0);
+  }
+}
@@ -0,0 +1,147 @@
+package callum.nightingale.api.service.timing;
+
+import callum.nightingale.api.properties.TimingProperties;
+import callum.nightingale.api.service.client.CallOrigin;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ThreadLocalRandom;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Times every request into a {@link RequestTimings}, carried by {@link CallOrigin} so the spans
+ * observed while serving it are added to it. The breakdown is sent as a {@code Server-Timing}
+ * header just before the response is committed, and each span's total in milliseconds is left in
+ * the request attribute {@code timing.<span>} for the access log, alongside the
+ * {@code CorrelationId} header. A sample of {@code timing.slowSampleRate} of the requests taking
+ * longer than {@code timing.slowThreshold} are logged to {@code slow-requests}.
+ *
+ * <p>Asynchronous requests keep their timings across the dispatch that writes the result.
+ */
+@Slf4j(topic = "slow-requests")
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+  public static final String SERVER_TIMING_HEADER = "Server-Timing";
+  public static final String CORRELATION_ID_HEADER = "CorrelationId";
+
+  private static final String TIMINGS_ATTRIBUTE = RequestTimings.class.getName();
+
+  private final TimingProperties timingProperties;
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !timingProperties.isEnabled();
+  }
+
+  @Override
+  protected boolean shouldNotFilterAsyncDispatch() {
+    return false;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+      FilterChain filterChain) throws ServletException, IOException {
+    RequestTimings timings = (RequestTimings) request.getAttribute(TIMINGS_ATTRIBUTE);
+    HttpServletResponse timedResponse = response;
+    if (timings == null) {
+      timings = new RequestTimings();
+      request.setAttribute(TIMINGS_ATTRIBUTE, timings);
+      timedResponse = new TimedResponse(response, timings);
+    }
+
+    CallOrigin.setTimings(timings);
+    try {
+      filterChain.doFilter(request, timedResponse);
+    } finally {
+      CallOrigin.clear();
+      if (!request.isAsyncStarted()) {
+        complete(request, response, timings);
+      }
+    }
+  }
+
+  private void complete(HttpServletRequest request, HttpServletResponse response,
+      RequestTimings timings) {
+    if (!response.isCommitted()) {
+      response.setHeader(SERVER_TIMING_HEADER, timings.toServerTiming());
+    }
+    timings.getSpans().forEach((name, nanos) ->
+        request.setAttribute("timing." + name, RequestTimings.millis(nanos)));
+
+    long elapsedNanos = timings.elapsedNanos();
+    if (elapsedNanos > timingProperties.getSlowThreshold().toNanos()
+        && ThreadLocalRandom.current().nextDouble() < timingProperties.getSlowSampleRate()) {
+      Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+      log.warn("{} {} took {} ms, status {}, correlation id {}, spans {}", request.getMethod(),
+          pattern != null ? pattern : request.getRequestURI(), RequestTimings.millis(elapsedNanos),
+          response.getStatus(), request.getHeader(CORRELATION_ID_HEADER), timings.getSpans()
+              .entrySet().stream()
+              .map(span -> span.getKey() + "=" + RequestTimings.millis(span.getValue()) + "ms")
+              .toList());
+    }
+  }
+
+  /**
+   * Sets the {@code Server-Timing} header with the spans so far whenever the body is about to be
+   * written, the last point at which headers can still be sent.
+   */
+  private static class TimedResponse extends HttpServletResponseWrapper {
+
+    private final RequestTimings timings;
+
+    private TimedResponse(HttpServletResponse response, RequestTimings timings) {
+      super(response);
+      this.timings = timings;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      setServerTiming();
+      return super.getOutputStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      setServerTiming();
+      return super.getWriter();
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      setServerTiming();
+      super.flushBuffer();
+    }
+
+    @Override
+    public void sendError(int statusCode) throws IOException {
+      setServerTiming();
+      super.sendError(statusCode);
+    }
+
+    @Override
+    public void sendError(int statusCode, String message) throws IOException {
+      setServerTiming();
+      super.sendError(statusCode, message);
+    }
+
+    private void setServerTiming() {
+      if (!isCommitted()) {
+        setHeader(SERVER_TIMING_HEADER, timings.toServerTiming());
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package callum.nightingale.api.service.timing;
+
+import callum.nightingale.api.service.client.CallOrigin;
+import io.micrometer.common.KeyValue;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adds each {@code api.span} observation to the {@link RequestTimings} of the request whose thread
+ * started it. The span may be stopped on another thread, as asynchronous S3 calls are.
+ */
+@Component
+public class ServerTimingHandler implements ObservationHandler<Observation.Context> {
+
+  private static final String STARTED_AT = ServerTimingHandler.class.getName() + ".startedAt";
+
+  @Override
+  public void onStart(Observation.Context context) {
+    RequestTimings timings = CallOrigin.timings();
+    if (timings != null) {
+      context.put(RequestTimings.class, timings);
+      context.put(STARTED_AT, System.nanoTime());
+    }
+  }
+
+  @Override
+  public void onStop(Observation.Context context) {
+    RequestTimings timings = context.get(RequestTimings.class);
+    KeyValue span = context.getLowCardinalityKeyValue(RequestTimings.SPAN_KEY);
+    if (timings != null && span != null) {
+      timings.record(span.getValue(), System.nanoTime() - context.<Long>get(STARTED_AT));
+    }
+  }
+
+  @Override
+  public boolean supportsContext(Observation.Context context) {
+    return RequestTimings.SPAN.equals(context.getName());
+  }
+}
@@ -0,0 +1,116 @@
+package callum.nightingale.api.service.timing;
+
+import callum.nightingale.api.service.client.CallOrigin;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+/**
+ * The JSON converter, timing serialization as the request's {@code serialize} span. Bodies up to
+ * {@code timing.serializeBufferBytes} are serialized into a buffer before anything is written, so
+ * the span can still be reported in the {@code Server-Timing} header, and are then sent with a
+ * {@code Content-Length}. Larger bodies are streamed once they outgrow the buffer; their span only
+ * reaches the access log and the slow request log.
+ */
+public class TimedJsonConverter extends MappingJackson2HttpMessageConverter {
+
+  private final ObservationRegistry observationRegistry;
+  private final int bufferBytes;
+
+  public TimedJsonConverter(ObjectMapper objectMapper, ObservationRegistry observationRegistry,
+      int bufferBytes) {
+    super(objectMapper);
+    this.observationRegistry = observationRegistry;
+    this.bufferBytes = bufferBytes;
+  }
+
+  @Override
+  protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+      throws IOException {
+    if (CallOrigin.timings() == null) {
+      super.writeInternal(object, type, outputMessage);
+      return;
+    }
+
+    SpillingOutputStream body = new SpillingOutputStream(outputMessage, bufferBytes);
+    Observation span = RequestTimings.span("serialize", observationRegistry).start();
+    try {
+      super.writeInternal(object, type, new HttpOutputMessage() {
+        @Override
+        public OutputStream getBody() {
+          return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+          return outputMessage.getHeaders();
+        }
+      });
+    } catch (IOException | RuntimeException e) {
+      span.error(e);
+      throw e;
+    } finally {
+      span.stop();
+    }
+    body.finish();
+  }
+
+  /**
+   * Holds the body until it outgrows the buffer, then writes what it has and streams the rest.
+   */
+  private static class SpillingOutputStream extends OutputStream {
+
+    private final HttpOutputMessage outputMessage;
+    private final int bufferBytes;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private OutputStream body;
+
+    private SpillingOutputStream(HttpOutputMessage outputMessage, int bufferBytes) {
+      this.outputMessage = outputMessage;
+      this.bufferBytes = bufferBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (body == null && buffer.size() + len > bufferBytes) {
+        body = outputMessage.getBody();
+        buffer.writeTo(body);
+        buffer = null;
+      }
+      if (body != null) {
+        body.write(b, off, len);
+      } else {
+        buffer.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (body != null) {
+        body.flush();
+      }
+    }
+
+    /**
+     * Sends a body that stayed within the buffer, now that the span can go in the headers.
+     */
+    private void finish() throws IOException {
+      if (body == null) {
+        outputMessage.getHeaders().setContentLength(buffer.size());
+        buffer.writeTo(outputMessage.getBody());
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package callum.nightingale.api.service.upload;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Keeps a copy of streamed content so it can be re-read later, in memory up to a threshold and in
+ * a temporary file beyond it. {@link #release()} deletes the file.
+ */
+public class Spool extends OutputStream {
+
+  private static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+  private MemoryBuffer memory = new MemoryBuffer();
+  private Path file;
+  private OutputStream fileOut;
+  private long size;
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[]{(byte) b}, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (memory != null && memory.size() + len > MEMORY_THRESHOLD) {
+      file = Files.createTempFile("spool-", ".tmp");
+      fileOut = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+      memory.writeTo(fileOut);
+      memory = null;
+    }
+    size += len;
+    if (memory != null) {
+      memory.write(b, off, len);
+    } else {
+      fileOut.write(b, off, len);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (fileOut != null) {
+      fileOut.close();
+    }
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public InputStream openInputStream() throws IOException {
+    if (memory != null) {
+      return memory.toInputStream();
+    }
+    return Files.newInputStream(file);
+  }
+
+  public void release() {
+    memory = null;
+    if (file != null) {
+      try {
+        close();
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        file.toFile().deleteOnExit();
+      }
+    }
+  }
+
+  private static class MemoryBuffer extends ByteArrayOutputStream {
+
+    private InputStream toInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+}
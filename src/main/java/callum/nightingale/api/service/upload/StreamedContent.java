@@ -0,0 +1,30 @@
+package callum.nightingale.api.service.upload;
+
+import callum.nightingale.api.service.diff.LineHashes;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class StreamedContent implements Closeable {
+
+  String sha256;
+  String md5;
+  long size;
+  LineHashes lineHashes;
+  boolean containsNul;
+  boolean validUtf8;
+  Spool spool;
+
+  public InputStream openInputStream() throws IOException {
+    return spool.openInputStream();
+  }
+
+  @Override
+  public void close() {
+    spool.release();
+  }
+}
@@ -0,0 +1,71 @@
+package callum.nightingale.api.service.upload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Copies every byte read from the wrapped stream into each sink. Reads are pulled by the consumer,
+ * so the sinks only ever see one read buffer at a time and backpressure is left to the reader.
+ */
+public class TeeInputStream extends FilterInputStream {
+
+  private final List<OutputStream> sinks;
+
+  public TeeInputStream(InputStream in, List<OutputStream> sinks) {
+    super(in);
+    this.sinks = sinks;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      for (OutputStream sink : sinks) {
+        sink.write(b);
+      }
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = super.read(b, off, len);
+    if (read > 0) {
+      for (OutputStream sink : sinks) {
+        sink.write(b, off, read);
+      }
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    // Skipped bytes would never reach the sinks, so read through them instead.
+    byte[] buffer = new byte[(int) Math.min(n, 8192)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+      if (read == -1) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    for (OutputStream sink : sinks) {
+      sink.close();
+    }
+  }
+}
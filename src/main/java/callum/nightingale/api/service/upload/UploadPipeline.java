@@ -0,0 +1,106 @@
+package callum.nightingale.api.service.upload;
+
+import callum.nightingale.api.service.diff.ContentSniffer;
+import callum.nightingale.api.service.diff.LineHasher;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Reads a stream exactly once while hashing it (SHA-256 and MD5), hashing each line for diffing,
+ * sniffing for binary content and spooling it so hunk text can be re-read. The tee'd
+ * {@link #body()} can be handed to another consumer (e.g. an S3 put), and {@link #finish()}
+ * drains whatever that consumer left unread.
+ */
+public class UploadPipeline implements Closeable {
+
+  private final MessageDigest sha256Digest;
+  private final MessageDigest md5Digest;
+  private final LineHasher lineHasher;
+  private final ContentSniffer contentSniffer = new ContentSniffer();
+  private final Spool spool = new Spool();
+  private final TeeInputStream body;
+  private long size;
+  private boolean finished;
+
+  private UploadPipeline(InputStream source, int maxLines) {
+    try {
+      this.sha256Digest = MessageDigest.getInstance("SHA-256");
+      this.md5Digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Content digests are not available", e);
+    }
+    this.lineHasher = new LineHasher(maxLines);
+    OutputStream sizeCounter = new OutputStream() {
+      @Override
+      public void write(int b) {
+        size++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        size += len;
+      }
+    };
+    this.body = new TeeInputStream(source, List.of(
+        new DigestOutputStream(OutputStream.nullOutputStream(), sha256Digest),
+        new DigestOutputStream(OutputStream.nullOutputStream(), md5Digest),
+        lineHasher,
+        contentSniffer,
+        spool,
+        sizeCounter));
+  }
+
+  public static UploadPipeline open(InputStream source, int maxLines) {
+    return new UploadPipeline(source, maxLines);
+  }
+
+  public static StreamedContent read(InputStream source, int maxLines) {
+    try (UploadPipeline pipeline = open(source, maxLines)) {
+      return pipeline.finish();
+    }
+  }
+
+  public InputStream body() {
+    return body;
+  }
+
+  public StreamedContent finish() {
+    try {
+      body.transferTo(OutputStream.nullOutputStream());
+      spool.close();
+      contentSniffer.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read content", e);
+    }
+    finished = true;
+    return StreamedContent.builder()
+        .sha256(HexFormat.of().formatHex(sha256Digest.digest()))
+        .md5(HexFormat.of().formatHex(md5Digest.digest()))
+        .size(size)
+        .lineHashes(lineHasher.getLineHashes())
+        .containsNul(contentSniffer.containsNul())
+        .validUtf8(contentSniffer.isValidUtf8())
+        .spool(spool)
+        .build();
+  }
+
+  @Override
+  public void close() {
+    try {
+      body.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to close content stream", e);
+    } finally {
+      if (!finished) {
+        spool.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package callum.nightingale.api.service.upload;
+
+import callum.nightingale.api.service.diff.DiffResult;
+import java.io.Closeable;
+import java.time.Instant;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * What a pre-upload learned about an upload: the spooled content, its diff against the original
+ * and the ETag of the original it was diffed against.
+ */
+@Data
+@Builder
+public class UploadSession implements Closeable {
+
+  String bucketName;
+  String objectKey;
+  String eTag;
+  StreamedContent uploaded;
+  DiffResult diff;
+  Instant expiresAt;
+
+  @Override
+  public void close() {
+    uploaded.close();
+    if (diff != null) {
+      diff.close();
+    }
+  }
+}
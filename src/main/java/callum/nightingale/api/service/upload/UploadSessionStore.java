@@ -0,0 +1,74 @@
+package callum.nightingale.api.service.upload;
+
+import callum.nightingale.api.properties.UploadProperties;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds pre-upload sessions for {@code upload.sessionTtl}, keyed by a random token. Sessions are
+ * single use, and at most {@code upload.maxSessions} (at least one) are kept, the oldest being
+ * evicted first, since each one pins a spool.
+ */
+@Component
+@RequiredArgsConstructor
+public class UploadSessionStore {
+
+  private final UploadProperties uploadProperties;
+  private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+  public String save(UploadSession session) {
+    evictExpired();
+    int maxSessions = Math.max(1, uploadProperties.getMaxSessions());
+    while (sessions.size() >= maxSessions) {
+      sessions.entrySet().stream()
+          .min(Comparator.comparing(entry -> entry.getValue().getExpiresAt()))
+          .ifPresent(entry -> evict(entry.getKey(), entry.getValue()));
+    }
+    String token = UUID.randomUUID().toString();
+    session.setExpiresAt(Instant.now().plus(uploadProperties.getSessionTtl()));
+    sessions.put(token, session);
+    return token;
+  }
+
+  /**
+   * Removes and returns the session for {@code token}, or {@code null} when it has expired or was
+   * opened for a different object, in which case it is left for the right caller. The caller owns,
+   * and must close, the returned session.
+   */
+  public UploadSession take(String token, String bucketName, String objectKey) {
+    evictExpired();
+    UploadSession session = sessions.get(token);
+    if (session == null || !session.getBucketName().equals(bucketName)
+        || !session.getObjectKey().equals(objectKey)) {
+      return null;
+    }
+    return sessions.remove(token, session) ? session : null;
+  }
+
+  @PreDestroy
+  public void close() {
+    sessions.forEach(this::evict);
+  }
+
+  private void evictExpired() {
+    Instant now = Instant.now();
+    sessions.forEach((token, session) -> {
+      if (session.getExpiresAt().isBefore(now)) {
+        evict(token, session);
+      }
+    });
+  }
+
+  private void evict(String token, UploadSession session) {
+    // Only the caller that actually removes the session closes it.
+    if (sessions.remove(token, session)) {
+      session.close();
+    }
+  }
+}
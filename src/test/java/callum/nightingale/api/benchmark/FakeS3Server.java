@@ -0,0 +1,504 @@
+package callum.nightingale.api.benchmark;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * An in-process stand-in for S3, keeping objects in memory and speaking the part of the REST API
+ * the service uses: HeadBucket, ListObjectsV2, GetObject (with {@code Range}, {@code If-Match},
+ * {@code If-None-Match} and {@code If-Modified-Since}), HeadObject, PutObject (with
+ * {@code If-Match}, tags and SHA-256 checksums, plain or aws-chunked) and GetObjectTagging.
+ * Clients must use path-style addressing.
+ *
+ * <p>Each operation can be given a {@link Fault}: a latency with jitter, and a share of calls
+ * answered with 503 SlowDown or 500 InternalError.
+ */
+class FakeS3Server implements Closeable {
+
+  private static final DateTimeFormatter ISO_MILLIS = DateTimeFormatter
+      .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+  private static final int MAX_KEYS = 1000;
+  private static final String S3_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+
+  static {
+    // Without TCP_NODELAY small responses stall on delayed ACKs for ~40 ms each.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final Function<String, Fault> faults;
+  private final Map<String, NavigableMap<String, StoredObject>> buckets =
+      new ConcurrentHashMap<>();
+  private final Map<String, Counts> counts = new ConcurrentHashMap<>();
+
+  FakeS3Server(Function<String, Fault> faults) throws IOException {
+    this.faults = faults;
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        1024);
+    server.setExecutor(executor);
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  URI endpoint() {
+    return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+  }
+
+  void createBucket(String bucketName) {
+    buckets.putIfAbsent(bucketName, new ConcurrentSkipListMap<>());
+  }
+
+  void putObject(String bucketName, String key, byte[] content, Map<String, String> tags,
+      Instant lastModified) {
+    buckets.get(bucketName).put(key, new StoredObject(content, "text/plain", tags, lastModified));
+  }
+
+  /**
+   * Calls served per operation, and how many of them were throttled or failed on purpose.
+   */
+  void printCounts(PrintStream out) {
+    out.printf("%-18s %10s %10s %10s%n", "s3 operation", "calls", "throttled", "failed");
+    new TreeMap<>(counts).forEach((operation, count) -> out.printf("%-18s %10d %10d %10d%n",
+        operation, count.calls.sum(), count.throttled.sum(), count.failed.sum()));
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      String path = exchange.getRequestURI().getPath().substring(1);
+      int slash = path.indexOf('/');
+      String bucketName = slash < 0 ? path : path.substring(0, slash);
+      String key = slash < 0 ? "" : path.substring(slash + 1);
+      Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+      String operation = operation(exchange.getRequestMethod(), key, query);
+
+      Counts count = counts.computeIfAbsent(operation, ignored -> new Counts());
+      count.calls.increment();
+      Fault fault = faults.apply(operation);
+      fault.delay();
+      if (fault.throttles()) {
+        count.throttled.increment();
+        error(exchange, 503, "SlowDown", "Please reduce your request rate.");
+        return;
+      }
+      if (fault.fails()) {
+        count.failed.increment();
+        error(exchange, 500, "InternalError", "We encountered an internal error.");
+        return;
+      }
+
+      NavigableMap<String, StoredObject> bucket = buckets.get(bucketName);
+      if (bucket == null) {
+        error(exchange, 404, "NoSuchBucket", "The specified bucket does not exist.");
+        return;
+      }
+      switch (operation) {
+        case "HeadBucket" -> exchange.sendResponseHeaders(200, -1);
+        case "ListObjectsV2" -> listObjects(exchange, bucketName, bucket, query);
+        case "GetObjectTagging" -> getObjectTagging(exchange, bucket.get(key));
+        case "GetObject", "HeadObject" -> getObject(exchange, bucket.get(key));
+        case "PutObject" -> putObject(exchange, bucket, key);
+        default -> error(exchange, 501, "NotImplemented", operation + " is not supported.");
+      }
+    }
+  }
+
+  private static String operation(String method, String key, Map<String, String> query) {
+    return switch (method) {
+      case "HEAD" -> key.isEmpty() ? "HeadBucket" : "HeadObject";
+      case "GET" -> key.isEmpty()
+          ? (query.containsKey("list-type") ? "ListObjectsV2" : "ListObjects")
+          : (query.containsKey("tagging") ? "GetObjectTagging" : "GetObject");
+      case "PUT" -> key.isEmpty() ? "CreateBucket" : "PutObject";
+      default -> method;
+    };
+  }
+
+  private void listObjects(HttpExchange exchange, String bucketName,
+      NavigableMap<String, StoredObject> bucket, Map<String, String> query) throws IOException {
+    String prefix = query.getOrDefault("prefix", "");
+    String token = query.get("continuation-token");
+    int maxKeys = Math.min(MAX_KEYS, Integer.parseInt(query.getOrDefault("max-keys", "1000")));
+
+    StringBuilder contents = new StringBuilder();
+    int keyCount = 0;
+    String nextToken = null;
+    for (Map.Entry<String, StoredObject> entry
+        : (token != null ? bucket.tailMap(token, true) : bucket).entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) {
+        continue;
+      }
+      if (keyCount == maxKeys) {
+        nextToken = entry.getKey();
+        break;
+      }
+      StoredObject object = entry.getValue();
+      contents.append("<Contents><Key>").append(xml(entry.getKey())).append("</Key>")
+          .append("<LastModified>").append(ISO_MILLIS.format(object.lastModified))
+          .append("</LastModified><ETag>").append(xml(object.eTag)).append("</ETag>")
+          .append("<Size>").append(object.content.length).append("</Size>")
+          .append("<StorageClass>STANDARD</StorageClass></Contents>");
+      keyCount++;
+    }
+
+    xmlResponse(exchange, 200, "<ListBucketResult xmlns=\"" + S3_NAMESPACE + "\">"
+        + "<Name>" + xml(bucketName) + "</Name><Prefix>" + xml(prefix) + "</Prefix>"
+        + "<KeyCount>" + keyCount + "</KeyCount><MaxKeys>" + maxKeys + "</MaxKeys>"
+        + "<IsTruncated>" + (nextToken != null) + "</IsTruncated>"
+        + (token != null ? "<ContinuationToken>" + xml(token) + "</ContinuationToken>" : "")
+        + (nextToken != null
+        ? "<NextContinuationToken>" + xml(nextToken) + "</NextContinuationToken>" : "")
+        + contents + "</ListBucketResult>");
+  }
+
+  private void getObjectTagging(HttpExchange exchange, StoredObject object) throws IOException {
+    if (object == null) {
+      error(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+      return;
+    }
+    StringBuilder tagSet = new StringBuilder();
+    object.tags.forEach((key, value) -> tagSet.append("<Tag><Key>").append(xml(key))
+        .append("</Key><Value>").append(xml(value)).append("</Value></Tag>"));
+    xmlResponse(exchange, 200, "<Tagging><TagSet>" + tagSet + "</TagSet></Tagging>");
+  }
+
+  private void getObject(HttpExchange exchange, StoredObject object) throws IOException {
+    boolean head = exchange.getRequestMethod().equals("HEAD");
+    Headers request = exchange.getRequestHeaders();
+    if (object == null) {
+      if (head) {
+        exchange.sendResponseHeaders(404, -1);
+      } else {
+        error(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+      }
+      return;
+    }
+    String ifMatch = request.getFirst("If-Match");
+    if (ifMatch != null && !ifMatch.equals(object.eTag)) {
+      error(exchange, 412, "PreconditionFailed", "At least one precondition failed.");
+      return;
+    }
+
+    Headers response = exchange.getResponseHeaders();
+    response.set("ETag", object.eTag);
+    response.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME
+        .format(object.lastModified.atOffset(ZoneOffset.UTC)));
+    response.set("Content-Type", object.contentType);
+    response.set("Accept-Ranges", "bytes");
+    if (object.eTag.equals(request.getFirst("If-None-Match"))
+        || notModifiedSince(object, request.getFirst("If-Modified-Since"))) {
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+
+    int from = 0;
+    int to = object.content.length - 1;
+    int status = 200;
+    String range = request.getFirst("Range");
+    if (range != null && range.startsWith("bytes=") && !head) {
+      String[] bounds = range.substring("bytes=".length()).split("-", -1);
+      if (bounds[0].isEmpty()) {
+        from = Math.max(0, object.content.length - Integer.parseInt(bounds[1]));
+      } else {
+        from = Integer.parseInt(bounds[0]);
+        to = bounds[1].isEmpty() ? to : Math.min(to, Integer.parseInt(bounds[1]));
+      }
+      if (from > to) {
+        error(exchange, 416, "InvalidRange", "The requested range is not satisfiable.");
+        return;
+      }
+      status = 206;
+      response.set("Content-Range", "bytes " + from + "-" + to + "/" + object.content.length);
+    } else if ("ENABLED".equalsIgnoreCase(request.getFirst("x-amz-checksum-mode"))) {
+      response.set("x-amz-checksum-sha256", object.sha256);
+    }
+
+    if (head) {
+      response.set("Content-Length", String.valueOf(object.content.length));
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    int length = to - from + 1;
+    exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(object.content, from, length);
+    }
+  }
+
+  private void putObject(HttpExchange exchange, NavigableMap<String, StoredObject> bucket,
+      String key) throws IOException {
+    Headers request = exchange.getRequestHeaders();
+    Map<String, String> trailers = new HashMap<>();
+    byte[] content = isAwsChunked(request)
+        ? decodeAwsChunked(exchange.getRequestBody(), trailers)
+        : exchange.getRequestBody().readAllBytes();
+    StoredObject object = new StoredObject(content,
+        request.getFirst("Content-Type") != null
+            ? request.getFirst("Content-Type") : "binary/octet-stream",
+        tags(request.getFirst("x-amz-tagging")), Instant.now());
+
+    String checksum = request.getFirst("x-amz-checksum-sha256") != null
+        ? request.getFirst("x-amz-checksum-sha256") : trailers.get("x-amz-checksum-sha256");
+    if (checksum != null && !checksum.equals(object.sha256)) {
+      error(exchange, 400, "BadDigest", "The SHA256 you specified did not match the calculated "
+          + "checksum.");
+      return;
+    }
+    String ifMatch = request.getFirst("If-Match");
+    if (ifMatch != null) {
+      // Checked and replaced as one step, as S3 does.
+      boolean[] matched = new boolean[1];
+      bucket.computeIfPresent(key, (ignored, existing) -> {
+        matched[0] = existing.eTag.equals(ifMatch);
+        return matched[0] ? object : existing;
+      });
+      if (!matched[0]) {
+        error(exchange, 412, "PreconditionFailed", "At least one precondition failed.");
+        return;
+      }
+    } else {
+      bucket.put(key, object);
+    }
+
+    exchange.getResponseHeaders().set("ETag", object.eTag);
+    if (checksum != null) {
+      exchange.getResponseHeaders().set("x-amz-checksum-sha256", object.sha256);
+    }
+    exchange.sendResponseHeaders(200, -1);
+  }
+
+  private static boolean notModifiedSince(StoredObject object, String ifModifiedSince) {
+    if (ifModifiedSince == null) {
+      return false;
+    }
+    try {
+      return !object.lastModified.truncatedTo(ChronoUnit.SECONDS).isAfter(
+          Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(ifModifiedSince)));
+    } catch (DateTimeParseException e) {
+      return false;
+    }
+  }
+
+  private static boolean isAwsChunked(Headers request) {
+    String contentSha256 = request.getFirst("x-amz-content-sha256");
+    String contentEncoding = request.getFirst("Content-Encoding");
+    return (contentSha256 != null && contentSha256.startsWith("STREAMING-"))
+        || (contentEncoding != null && contentEncoding.contains("aws-chunked"));
+  }
+
+  /**
+   * Reads an aws-chunked body: chunks of {@code <hex size>[;chunk-signature=...]}, a CRLF, the
+   * data and a CRLF, ending with a zero-sized chunk followed by trailer headers.
+   */
+  private static byte[] decodeAwsChunked(InputStream body, Map<String, String> trailers)
+      throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    String header;
+    while (!(header = readLine(body)).isEmpty()) {
+      int size = Integer.parseInt(header.split(";", 2)[0].trim(), 16);
+      if (size == 0) {
+        String trailer;
+        while (!(trailer = readLine(body)).isEmpty()) {
+          int colon = trailer.indexOf(':');
+          trailers.put(trailer.substring(0, colon).trim().toLowerCase(),
+              trailer.substring(colon + 1).trim());
+        }
+        break;
+      }
+      content.write(body.readNBytes(size));
+      readLine(body);
+    }
+    return content.toByteArray();
+  }
+
+  private static String readLine(InputStream body) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = body.read()) != -1 && b != '\n') {
+      if (b != '\r') {
+        line.write(b);
+      }
+    }
+    return line.toString(StandardCharsets.US_ASCII);
+  }
+
+  private static Map<String, String> query(String rawQuery) {
+    Map<String, String> query = new HashMap<>();
+    if (rawQuery != null) {
+      for (String parameter : rawQuery.split("&")) {
+        int equals = parameter.indexOf('=');
+        query.put(decode(equals < 0 ? parameter : parameter.substring(0, equals)),
+            equals < 0 ? "" : decode(parameter.substring(equals + 1)));
+      }
+    }
+    return query;
+  }
+
+  private static Map<String, String> tags(String tagging) {
+    Map<String, String> tags = new LinkedHashMap<>(query(tagging));
+    tags.remove("");
+    return tags;
+  }
+
+  private static String decode(String value) {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8);
+  }
+
+  private static void error(HttpExchange exchange, int status, String code, String message)
+      throws IOException {
+    if (exchange.getRequestMethod().equals("HEAD")) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    xmlResponse(exchange, status, "<Error><Code>" + code + "</Code><Message>" + xml(message)
+        + "</Message></Error>");
+  }
+
+  private static void xmlResponse(HttpExchange exchange, int status, String xml)
+      throws IOException {
+    byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml)
+        .getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static String xml(String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+        .replace("\"", "&quot;");
+  }
+
+  /**
+   * What an operation suffers: every call waits {@code latency} plus up to {@code jitter}, then
+   * {@code throttleRate} of calls are answered 503 SlowDown and {@code errorRate} 500
+   * InternalError.
+   */
+  static class Fault {
+
+    private final Duration latency;
+    private final Duration jitter;
+    private final double throttleRate;
+    private final double errorRate;
+
+    Fault(Duration latency, Duration jitter, double throttleRate, double errorRate) {
+      this.latency = latency;
+      this.jitter = jitter;
+      this.throttleRate = throttleRate;
+      this.errorRate = errorRate;
+    }
+
+    /**
+     * The fault given by the system properties {@code fakes3.<operation>.latencyMs},
+     * {@code .jitterMs}, {@code .throttleRate} and {@code .errorRate}, each falling back to
+     * {@code fakes3.<property>} and then to none.
+     */
+    static Fault fromSystemProperties(String operation) {
+      return new Fault(Duration.ofMillis(Long.parseLong(property(operation, "latencyMs"))),
+          Duration.ofMillis(Long.parseLong(property(operation, "jitterMs"))),
+          Double.parseDouble(property(operation, "throttleRate")),
+          Double.parseDouble(property(operation, "errorRate")));
+    }
+
+    private static String property(String operation, String name) {
+      return System.getProperty("fakes3." + operation + "." + name,
+          System.getProperty("fakes3." + name, "0"));
+    }
+
+    private void delay() {
+      long nanos = latency.toNanos() + (jitter.isZero() ? 0
+          : ThreadLocalRandom.current().nextLong(jitter.toNanos() + 1));
+      if (nanos > 0) {
+        try {
+          Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private boolean throttles() {
+      return throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate;
+    }
+
+    private boolean fails() {
+      return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+  }
+
+  private static class StoredObject {
+
+    private final byte[] content;
+    private final String contentType;
+    private final Map<String, String> tags;
+    private final Instant lastModified;
+    private final String eTag;
+    private final String sha256;
+
+    private StoredObject(byte[] content, String contentType, Map<String, String> tags,
+        Instant lastModified) {
+      this.content = content;
+      this.contentType = contentType;
+      this.tags = tags;
+      this.lastModified = lastModified;
+      this.eTag = "\"" + HexFormat.of().formatHex(digest("MD5", content)) + "\"";
+      this.sha256 = Base64.getEncoder().encodeToString(digest("SHA-256", content));
+    }
+
+    private static byte[] digest(String algorithm, byte[] content) {
+      try {
+        return MessageDigest.getInstance(algorithm).digest(content);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(algorithm + " is not available", e);
+      }
+    }
+  }
+
+  private static class Counts {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+  }
+}
@@ -0,0 +1,303 @@
+package callum.nightingale.api.benchmark;
+
+import callum.nightingale.api.IndividualProjectApiApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+/**
+ * Load-tests the service end to end without AWS. The app is booted against a {@link FakeS3Server}
+ * seeded with files and audit records, then {@code concurrency} clients, each on its own virtual
+ * thread, repeatedly list a bucket, download a file, pre-upload and upload a changed copy of
+ * their own file, and search the audit log. After a warm-up, throughput and latency percentiles
+ * are reported per scenario, with the calls the fake served.
+ *
+ * <p>Arguments: {@code [seconds] [concurrency] [warmupSeconds]}, defaulting to {@code 30 32 5};
+ * any {@code --name=value} arguments are passed on to the app. S3 faults are set with the
+ * {@code fakes3.*} system properties described on {@link FakeS3Server.Fault}, for example
+ * {@code -Dfakes3.latencyMs=20 -Dfakes3.jitterMs=30 -Dfakes3.GetObject.throttleRate=0.05}.
+ */
+public class LoadHarness {
+
+  private static final List<String> BUCKETS = List.of("load-bucket-1", "load-bucket-2");
+  private static final String AUDIT_BUCKET = "load-audit";
+  private static final int FILES_PER_BUCKET = 100;
+  private static final int LINES_PER_FILE = 1000;
+  private static final int AUDIT_RECORDS = 500;
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final HttpClient httpClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(5))
+      .build();
+  private final URI baseUri;
+  private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+  private LoadHarness(URI baseUri) {
+    this.baseUri = baseUri;
+  }
+
+  public static void main(String[] args) throws Exception {
+    List<String> settings = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toList();
+    Duration duration = Duration.ofSeconds(
+        settings.size() > 0 ? Long.parseLong(settings.get(0)) : 30);
+    int concurrency = settings.size() > 1 ? Integer.parseInt(settings.get(1)) : 32;
+    Duration warmup = Duration.ofSeconds(
+        settings.size() > 2 ? Long.parseLong(settings.get(2)) : 5);
+
+    try (FakeS3Server s3 = new FakeS3Server(FakeS3Server.Fault::fromSystemProperties)) {
+      seed(s3, concurrency);
+      System.setProperty("aws.accessKeyId", "load-test");
+      System.setProperty("aws.secretAccessKey", "load-test");
+      System.setProperty("spring.devtools.restart.enabled", "false");
+      String[] appArgs = Stream.concat(Stream.of(
+              "--server.port=0",
+              "--server.tomcat.accesslog.enabled=false",
+              "--logging.level.root=WARN",
+              "--s3.endpoint=" + s3.endpoint(),
+              "--s3.client.pathStyleAccess=true",
+              "--s3.buckets=" + String.join(",", BUCKETS),
+              "--s3.audit.bucketName=" + AUDIT_BUCKET),
+          Arrays.stream(args).filter(arg -> arg.startsWith("--")))
+          .toArray(String[]::new);
+
+      try (ServletWebServerApplicationContext context = (ServletWebServerApplicationContext)
+          SpringApplication.run(IndividualProjectApiApplication.class, appArgs)) {
+        LoadHarness harness = new LoadHarness(
+            URI.create("http://127.0.0.1:" + context.getWebServer().getPort()));
+        harness.run(concurrency, warmup);
+        harness.recorders.clear();
+        long start = System.nanoTime();
+        harness.run(concurrency, duration);
+        harness.print(Duration.ofNanos(System.nanoTime() - start), concurrency);
+        s3.printCounts(System.out);
+      }
+    }
+  }
+
+  /**
+   * Seeds each bucket with text files, one per client for it to upload over, and the audit bucket
+   * with records spread over the last year across twenty users.
+   */
+  private static void seed(FakeS3Server s3, int concurrency) {
+    Random random = new Random(42);
+    Instant now = Instant.now();
+    for (String bucketName : BUCKETS) {
+      s3.createBucket(bucketName);
+      for (int i = 0; i < FILES_PER_BUCKET; i++) {
+        s3.putObject(bucketName, fileKey(i), textFile(random), Map.of(), now);
+      }
+      for (int client = 0; client < concurrency; client++) {
+        s3.putObject(bucketName, uploadKey(client), textFile(random), Map.of(), now);
+      }
+    }
+    s3.createBucket(AUDIT_BUCKET);
+    for (int i = 0; i < AUDIT_RECORDS; i++) {
+      s3.putObject(AUDIT_BUCKET, "UPLOAD/seed-" + i, new byte[0], Map.of(
+              "bucketName", BUCKETS.get(i % BUCKETS.size()),
+              "objectKey", fileKey(i % FILES_PER_BUCKET),
+              "userName", "user-" + i % 20),
+          now.minus(Duration.ofMinutes(random.nextInt(365 * 24 * 60))));
+    }
+  }
+
+  private void run(int concurrency, Duration duration) throws InterruptedException {
+    long deadline = System.nanoTime() + duration.toNanos();
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int client = 0; client < concurrency; client++) {
+        int id = client;
+        clients.submit(() -> {
+          Random random = new Random(id);
+          while (System.nanoTime() < deadline) {
+            step(id, random);
+          }
+          return null;
+        });
+      }
+    }
+  }
+
+  /**
+   * One step of a client's mix: 30% listings, 35% downloads, 20% pre-upload and upload pairs and
+   * 15% audit searches.
+   */
+  private void step(int client, Random random) {
+    String bucketName = BUCKETS.get(random.nextInt(BUCKETS.size()));
+    int roll = random.nextInt(100);
+    if (roll < 30) {
+      send("list", HttpRequest.newBuilder(uri("/api/v1/s3/buckets/" + bucketName + "/contents"))
+          .GET());
+    } else if (roll < 65) {
+      send("download", HttpRequest.newBuilder(uri("/api/v1/s3/buckets/" + bucketName
+              + "/file?objectKey=" + encode(fileKey(random.nextInt(FILES_PER_BUCKET)))))
+          .GET());
+    } else if (roll < 85) {
+      upload(bucketName, uploadKey(client), random);
+    } else {
+      send("audit-search", HttpRequest.newBuilder(uri("/api/v1/audit/search"))
+          .header("Content-Type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofString(
+              "{\"userName\":\"user-" + random.nextInt(20) + "\"}")));
+    }
+  }
+
+  /**
+   * Pre-uploads a new version of the client's file, then uploads it with the token from the
+   * pre-upload, or as a new upload if there was none.
+   */
+  private void upload(String bucketName, String objectKey, Random random) {
+    byte[] content = textFile(random);
+    String boundary = "load-" + random.nextLong();
+    byte[] form = multipart(boundary, content);
+    String query = "?objectKey=" + encode(objectKey);
+
+    HttpResponse<byte[]> preUpload = send("pre-upload", HttpRequest.newBuilder(
+            uri("/api/v1/s3/buckets/" + bucketName + "/pre-upload" + query))
+        .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+        .POST(HttpRequest.BodyPublishers.ofByteArray(form)));
+    if (preUpload == null || preUpload.statusCode() != 200) {
+      return;
+    }
+    String uploadToken = null;
+    try {
+      JsonNode token = OBJECT_MAPPER.readTree(preUpload.body()).get("uploadToken");
+      uploadToken = token == null || token.isNull() ? null : token.asText();
+    } catch (Exception e) {
+      // Uploaded as a new file instead.
+    }
+    send("upload", uploadToken != null
+        ? HttpRequest.newBuilder(uri("/api/v1/s3/buckets/" + bucketName + "/upload" + query
+            + "&uploadToken=" + encode(uploadToken)))
+        .POST(HttpRequest.BodyPublishers.noBody())
+        : HttpRequest.newBuilder(uri("/api/v1/s3/buckets/" + bucketName + "/upload" + query))
+            .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+            .POST(HttpRequest.BodyPublishers.ofByteArray(form)));
+  }
+
+  private HttpResponse<byte[]> send(String scenario, HttpRequest.Builder request) {
+    Recorder recorder = recorders.computeIfAbsent(scenario, ignored -> new Recorder());
+    long start = System.nanoTime();
+    try {
+      HttpResponse<byte[]> response = httpClient.send(request.timeout(Duration.ofSeconds(60))
+          .build(), HttpResponse.BodyHandlers.ofByteArray());
+      recorder.record(System.nanoTime() - start, response.statusCode() >= 400);
+      return response;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (Exception e) {
+      recorder.record(System.nanoTime() - start, true);
+      return null;
+    }
+  }
+
+  private void print(Duration elapsed, int concurrency) {
+    System.out.printf("%nconcurrency=%d duration=%ds%n", concurrency, elapsed.toSeconds());
+    System.out.printf("%-14s %10s %8s %12s %9s %9s %9s %9s%n", "scenario", "requests", "errors",
+        "throughput/s", "p50 ms", "p90 ms", "p99 ms", "max ms");
+    recorders.entrySet().stream()
+        .sorted(Map.Entry.comparingByKey())
+        .forEach(entry -> entry.getValue().print(entry.getKey(), elapsed));
+    System.out.println();
+  }
+
+  private URI uri(String path) {
+    return baseUri.resolve(path);
+  }
+
+  private static String fileKey(int i) {
+    return String.format("files/file-%03d.txt", i);
+  }
+
+  private static String uploadKey(int client) {
+    return String.format("uploads/client-%03d.txt", client);
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A CSV-like text file of {@link #LINES_PER_FILE} lines, about 1% of them random, so any two
+   * differ in a few percent of their lines and each upload diffs against its predecessor.
+   */
+  private static byte[] textFile(Random random) {
+    StringBuilder file = new StringBuilder();
+    IntStream.range(0, LINES_PER_FILE).forEach(line -> file.append(String.format(
+        "%06d,account-%d,%d%n", line, line % 97,
+        random.nextInt(100) == 0 ? random.nextInt(1_000_000) : line * 31)));
+    return file.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] multipart(String boundary, byte[] content) {
+    ByteArrayOutputStream form = new ByteArrayOutputStream();
+    form.writeBytes(("--" + boundary + "\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"upload.txt\"\r\n"
+        + "Content-Type: text/plain\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    form.writeBytes(content);
+    form.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+    return form.toByteArray();
+  }
+
+  private static class Recorder {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private long[] latencies = new long[1024];
+    private int count;
+    private int errors;
+
+    private void record(long nanos, boolean error) {
+      lock.lock();
+      try {
+        if (count == latencies.length) {
+          latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+        errors += error ? 1 : 0;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void print(String scenario, Duration elapsed) {
+      lock.lock();
+      try {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.printf("%-14s %10d %8d %12.1f %9.1f %9.1f %9.1f %9.1f%n", scenario, count,
+            errors, count / (elapsed.toNanos() / 1e9), percentile(sorted, 0.50),
+            percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 1.0));
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(sorted.length * percentile) - 1;
+      return sorted[Math.max(0, index)] / 1e6;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package callum.nightingale.api.benchmark;
+
+import callum.nightingale.api.config.FanOutConfig;
+import callum.nightingale.api.dto.audit.request.AuditSearchRequest;
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.properties.FanOutProperties;
+import callum.nightingale.api.properties.HedgeProperties;
+import callum.nightingale.api.service.AuditService;
+import callum.nightingale.api.service.cache.StaleCache;
+import callum.nightingale.api.service.client.Hedger;
+import callum.nightingale.api.service.client.SingleFlight;
+import callum.nightingale.api.service.fanout.FanOut;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectTaggingResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.Tag;
+
+/**
+ * Compares audit search, which fans out one tag fetch per record, on platform and virtual
+ * threads. S3 is replaced by a client that sleeps for a fixed latency per call. All requests
+ * arrive at once; platform mode serves them from a pool the size of Tomcat's default, virtual
+ * mode gives each its own thread. Pinned virtual threads are counted from a JFR recording.
+ *
+ * <p>Arguments: {@code [requests] [latencyMillis] [objectsPerSearch] [fanout.maxConcurrency]},
+ * defaulting to {@code 2000 20 20 512}.
+ */
+public class VirtualThreadBenchmark {
+
+  private static final int TOMCAT_MAX_THREADS = 200;
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    Duration latency = Duration.ofMillis(args.length > 1 ? Long.parseLong(args[1]) : 20);
+    int objects = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    FanOutProperties fanOutProperties = new FanOutProperties();
+    fanOutProperties.setMaxConcurrency(args.length > 3 ? Integer.parseInt(args[3]) : 512);
+
+    S3Client s3Client = new SlowS3Client(latency, objects);
+    for (boolean virtual : new boolean[]{false, true}) {
+      run(s3Client, fanOutProperties, virtual, Math.max(1, requests / 10));
+      run(s3Client, fanOutProperties, virtual, requests).print(virtual ? "virtual" : "platform");
+    }
+  }
+
+  private static Result run(S3Client s3Client, FanOutProperties fanOutProperties, boolean virtual,
+      int requests) throws Exception {
+    FanOutConfig fanOutConfig = new FanOutConfig(fanOutProperties);
+    ReflectionTestUtils.setField(fanOutConfig, "virtualThreads", virtual);
+    ExecutorService fanOutExecutor = fanOutConfig.fanOutExecutor(new SimpleMeterRegistry());
+    AuditService auditService = new AuditService(s3Client, Optional.empty(),
+        new FanOut(fanOutExecutor, fanOutProperties),
+        new Hedger(new HedgeProperties(), fanOutExecutor, new SimpleMeterRegistry()),
+        new SingleFlight(new SimpleMeterRegistry()), new StaleCache(new BreakerProperties()),
+        ObservationRegistry.NOOP);
+    ReflectionTestUtils.setField(auditService, "auditBucketName", "audit");
+    ReflectionTestUtils.setField(auditService, "maxAuditRecords", 200);
+    AuditSearchRequest searchRequest = AuditSearchRequest.builder()
+        .bucketName("bucket")
+        .build();
+
+    Path recordingFile = Files.createTempFile("pinned", ".jfr");
+    try (Recording recording = new Recording();
+        ExecutorService requestExecutor = virtual
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newFixedThreadPool(TOMCAT_MAX_THREADS)) {
+      recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO);
+      recording.start();
+
+      long start = System.nanoTime();
+      List<Future<Long>> latencies = new ArrayList<>(requests);
+      for (int i = 0; i < requests; i++) {
+        latencies.add(requestExecutor.submit(() -> {
+          auditService.searchObjectsByMetadata(searchRequest);
+          return System.nanoTime() - start;
+        }));
+      }
+      long[] sorted = new long[requests];
+      for (int i = 0; i < requests; i++) {
+        sorted[i] = latencies.get(i).get();
+      }
+      long elapsed = System.nanoTime() - start;
+
+      recording.stop();
+      recording.dump(recordingFile);
+      Arrays.sort(sorted);
+      return new Result(requests, elapsed, sorted[(int) Math.ceil(requests * 0.99) - 1],
+          RecordingFile.readAllEvents(recordingFile).size());
+    } finally {
+      fanOutExecutor.shutdownNow();
+      Files.deleteIfExists(recordingFile);
+    }
+  }
+
+  private static class Result {
+
+    private final int requests;
+    private final long elapsedNanos;
+    private final long p99Nanos;
+    private final int pinnedEvents;
+
+    private Result(int requests, long elapsedNanos, long p99Nanos, int pinnedEvents) {
+      this.requests = requests;
+      this.elapsedNanos = elapsedNanos;
+      this.p99Nanos = p99Nanos;
+      this.pinnedEvents = pinnedEvents;
+    }
+
+    private void print(String mode) {
+      System.out.printf("%-8s requests=%d throughput=%.1f/s p99=%dms pinned=%d%n", mode, requests,
+          requests / (elapsedNanos / 1e9), p99Nanos / 1_000_000, pinnedEvents);
+    }
+  }
+
+  private static class SlowS3Client implements S3Client {
+
+    private final Duration latency;
+    private final List<S3Object> objects;
+
+    private SlowS3Client(Duration latency, int objects) {
+      this.latency = latency;
+      this.objects = IntStream.range(0, objects)
+          .mapToObj(i -> S3Object.builder()
+              .key("UPLOAD/" + i)
+              .lastModified(Instant.now())
+              .build())
+          .toList();
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+      sleep();
+      return ListObjectsV2Response.builder()
+          .contents(objects)
+          .build();
+    }
+
+    @Override
+    public GetObjectTaggingResponse getObjectTagging(GetObjectTaggingRequest request) {
+      sleep();
+      return GetObjectTaggingResponse.builder()
+          .tagSet(Tag.builder().key("bucketName").value("bucket").build(),
+              Tag.builder().key("objectKey").value(request.key()).build(),
+              Tag.builder().key("userName").value("admin").build())
+          .build();
+    }
+
+    private void sleep() {
+      try {
+        Thread.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while simulating S3", e);
+      }
+    }
+
+    @Override
+    public String serviceName() {
+      return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
@@ -1,8 +1,11 @@
 package callum.nightingale.api.controller;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import callum.nightingale.api.dto.audit.model.AuditDiff;
@@ -22,8 +25,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 @SpringBootTest
 @ExtendWith(MockitoExtension.class)
@@ -52,7 +57,9 @@ public class AuditControllerIT {
           .toDate(LocalDateTime.of(2024, 12, 31, 23, 59, 59))
           .eventType(AuditEventType.MODIFY)
           .build();
-      when(auditService.searchObjectsByMetadata(request)).thenReturn(AuditSearchResponse.builder()
+      when(auditService.searchObjectsByMetadataAsync(request))
+          .thenReturn(completedFuture(ResponseEntity.ok(
+          AuditSearchResponse.builder()
           .auditRecords(List.of(
               AuditInfo.builder()
                   .auditDate(LocalDateTime.MIN)
@@ -65,9 +72,9 @@ public class AuditControllerIT {
                   .bucketName("bucketName")
                   .build()
           ))
-          .build());
+          .build())));
 
-      mvc.perform(post("/api/v1/audit/search")
+      MvcResult result = mvc.perform(post("/api/v1/audit/search")
               .content("""
                   {
                     "bucketName": "bucketName",
@@ -79,6 +86,10 @@ public class AuditControllerIT {
                   }
                   """)
               .contentType(MediaType.APPLICATION_JSON))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
           .andExpect(status().isOk());
     }
   }
@@ -90,20 +101,26 @@ public class AuditControllerIT {
     @Test
     @DisplayName("When audit diff is found then a response containing the audit diff is returned")
     void auditDiffFound() throws Exception {
-      when(auditService.getAuditDiff("auditObjectKey")).thenReturn(AuditDiff.builder()
+      when(auditService.getAuditDiffAsync("auditObjectKey"))
+          .thenReturn(completedFuture(ResponseEntity.ok(
+          AuditDiff.builder()
           .unifiedDiff(List.of(
               "diff1",
               "diff2"
           ))
-          .build());
+          .build())));
 
-      mvc.perform(post("/api/v1/audit/diff")
+      MvcResult result = mvc.perform(post("/api/v1/audit/diff")
               .content("""
                   {
                     "auditObjectKey": "auditObjectKey"
                   }
                   """)
               .contentType(MediaType.APPLICATION_JSON))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
           .andExpect(status().isOk())
           .andExpect(content().json("""
               {
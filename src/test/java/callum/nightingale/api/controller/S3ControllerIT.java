@@ -1,20 +1,45 @@
 package callum.nightingale.api.controller;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import callum.nightingale.api.dto.s3.model.Bucket;
 import callum.nightingale.api.dto.s3.model.BucketObject;
+import callum.nightingale.api.dto.s3.model.PreviewMode;
+import callum.nightingale.api.dto.s3.model.UploadResult;
+import callum.nightingale.api.dto.s3.model.UploadStatus;
+import callum.nightingale.api.dto.s3.response.BatchUploadResponse;
 import callum.nightingale.api.dto.s3.response.ListBucketsResponse;
 import callum.nightingale.api.dto.s3.response.ListContentsResponse;
 import callum.nightingale.api.dto.s3.response.PreUploadObjectResponse;
+import callum.nightingale.api.dto.s3.response.PreviewObjectResponse;
+import callum.nightingale.api.dto.s3.request.ArchiveRequest;
+import callum.nightingale.api.exception.BadRequestException;
+import callum.nightingale.api.exception.ConflictException;
+import callum.nightingale.api.exception.ServiceUnavailableException;
+import callum.nightingale.api.exception.ThrottledException;
+import callum.nightingale.api.service.ArchiveService;
+import callum.nightingale.api.service.PreviewService;
 import callum.nightingale.api.service.S3Service;
-import java.io.ByteArrayInputStream;
+import callum.nightingale.api.service.cache.StaleCache;
+import callum.nightingale.api.service.timing.ServerTimingFilter;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -23,13 +48,16 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @SpringBootTest
 @ExtendWith(MockitoExtension.class)
@@ -43,6 +71,12 @@ public class S3ControllerIT {
   @MockitoBean
   private S3Service s3Service;
 
+  @MockitoBean
+  private PreviewService previewService;
+
+  @MockitoBean
+  private ArchiveService archiveService;
+
   @Nested
   @DisplayName("GET /api/v1/s3/buckets")
   class GetBuckets {
@@ -78,6 +112,23 @@ public class S3ControllerIT {
               """));
     }
 
+    @Test
+    @DisplayName("When buckets are listed then the serialization time is sent as Server-Timing")
+    void bucketsServerTiming() throws Exception {
+
+      when(s3Service.listBuckets()).thenReturn(ListBucketsResponse.builder()
+          .buckets(List.of(Bucket.builder()
+              .name("bucket1")
+              .build()))
+          .build());
+
+      mvc.perform(MockMvcRequestBuilders
+              .get("/api/v1/s3/buckets"))
+          .andExpect(status().isOk())
+          .andExpect(header().string(ServerTimingFilter.SERVER_TIMING_HEADER,
+              matchesPattern("serialize;dur=[0-9.]+, total;dur=[0-9.]+")));
+    }
+
     @Test
     @DisplayName("When buckets are not found then a response containing no buckets is returned")
     void bucketsNotFound() throws Exception {
@@ -105,7 +156,9 @@ public class S3ControllerIT {
     @DisplayName("When contents are found then a response containing the contents is returned")
     void contentsFound() throws Exception {
 
-      when(s3Service.listContents("bucket1")).thenReturn(ListContentsResponse.builder()
+      when(s3Service.listContentsAsync("bucket1"))
+          .thenReturn(completedFuture(ResponseEntity.ok(
+          ListContentsResponse.builder()
           .objects(List.of(
               BucketObject.builder()
                   .objectKey("file1.txt")
@@ -118,10 +171,14 @@ public class S3ControllerIT {
                   .lastModifiedTimestamp(LocalDateTime.of(2021, 1, 1, 12, 0, 14))
                   .build()
           ))
-          .build());
+          .build())));
 
-      mvc.perform(MockMvcRequestBuilders
+      MvcResult result = mvc.perform(MockMvcRequestBuilders
               .get("/api/v1/s3/buckets/bucket1/contents"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
           .andExpect(status().isOk())
           .andExpect(content().json("""
               {
@@ -145,12 +202,18 @@ public class S3ControllerIT {
     @DisplayName("When contents are not found then a response containing no contents is returned")
     void contentsNotFound() throws Exception {
 
-      when(s3Service.listContents("bucket1")).thenReturn(ListContentsResponse.builder()
+      when(s3Service.listContentsAsync("bucket1"))
+          .thenReturn(completedFuture(ResponseEntity.ok(
+          ListContentsResponse.builder()
           .objects(Collections.emptyList())
-          .build());
+          .build())));
 
-      mvc.perform(MockMvcRequestBuilders
+      MvcResult result = mvc.perform(MockMvcRequestBuilders
               .get("/api/v1/s3/buckets/bucket1/contents"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
           .andExpect(status().isOk())
           .andExpect(content().json("""
               {
@@ -158,6 +221,66 @@ public class S3ControllerIT {
               }
               """));
     }
+
+    @Test
+    @DisplayName("When a stale listing is served then it is marked with a response header")
+    void contentsStale() throws Exception {
+      when(s3Service.listContentsAsync("bucket1"))
+          .thenReturn(completedFuture(ResponseEntity.ok()
+              .header(StaleCache.STALE_HEADER, "42")
+              .body(ListContentsResponse.builder()
+                  .objects(Collections.emptyList())
+                  .build())));
+
+      MvcResult result = mvc.perform(MockMvcRequestBuilders
+              .get("/api/v1/s3/buckets/bucket1/contents"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk())
+          .andExpect(header().string(StaleCache.STALE_HEADER, "42"));
+    }
+
+    @Test
+    @DisplayName("When a listing completes asynchronously then Server-Timing is still sent")
+    void contentsServerTiming() throws Exception {
+      when(s3Service.listContentsAsync("bucket1"))
+          .thenReturn(completedFuture(ResponseEntity.ok(ListContentsResponse.builder()
+              .objects(Collections.emptyList())
+              .build())));
+
+      MvcResult result = mvc.perform(MockMvcRequestBuilders
+              .get("/api/v1/s3/buckets/bucket1/contents"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk())
+          .andExpect(header().string(ServerTimingFilter.SERVER_TIMING_HEADER,
+              containsString("serialize;dur=")));
+    }
+
+    @Test
+    @DisplayName("When S3 is failing and no listing is cached then a 503 status is returned")
+    void contentsUnavailable() throws Exception {
+      when(s3Service.listContentsAsync("bucket1")).thenReturn(failedFuture(new CompletionException(
+          new ServiceUnavailableException("S3 ListObjectsV2 is failing, please retry shortly"))));
+
+      MvcResult result = mvc.perform(MockMvcRequestBuilders
+              .get("/api/v1/s3/buckets/bucket1/contents"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
+          .andExpect(status().isServiceUnavailable())
+          .andExpect(content().json("""
+              {
+                "code": "UNAVAILABLE",
+                "reason": "S3 ListObjectsV2 is failing, please retry shortly"
+              }
+              """));
+    }
   }
 
   @Nested
@@ -167,12 +290,12 @@ public class S3ControllerIT {
     @Test
     @DisplayName("When file is found then a response containing the file is returned")
     void fileFound() throws Exception {
-      InputStreamResource resource = new InputStreamResource(
-          new ByteArrayInputStream("file content".getBytes()));
+      StreamingResponseBody body = out -> out.write("file content".getBytes());
 
-      when(s3Service.getFile("bucket1", "file1.txt")).thenReturn(ResponseEntity.ok(resource));
+      when(s3Service.getFile(eq("bucket1"), eq("file1.txt"), any(HttpHeaders.class)))
+          .thenReturn(ResponseEntity.ok(body));
 
-      mvc.perform(MockMvcRequestBuilders
+      MvcResult result = mvc.perform(MockMvcRequestBuilders
               .post("/api/v1/s3/buckets/bucket1/file")
               .contentType(MediaType.APPLICATION_JSON)
               .content("""
@@ -180,6 +303,10 @@ public class S3ControllerIT {
                     "objectKey": "file1.txt"
                   }
                   """))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
           .andExpect(status().isOk())
           .andExpect(content().string("file content"));
     }
@@ -188,7 +315,8 @@ public class S3ControllerIT {
     @DisplayName("When file is not found then a 404 status is returned")
     void fileNotFound() throws Exception {
 
-      when(s3Service.getFile("bucket1", "file1.txt")).thenReturn(ResponseEntity.notFound().build());
+      when(s3Service.getFile(eq("bucket1"), eq("file1.txt"), any(HttpHeaders.class)))
+          .thenReturn(ResponseEntity.notFound().build());
 
       mvc.perform(MockMvcRequestBuilders
               .post("/api/v1/s3/buckets/bucket1/file")
@@ -200,6 +328,134 @@ public class S3ControllerIT {
                   """))
           .andExpect(status().isNotFound());
     }
+
+    @Test
+    @DisplayName("When a range is requested with GET then the request headers are passed through")
+    void rangeRequested() throws Exception {
+      StreamingResponseBody body = out -> out.write("file".getBytes());
+      when(s3Service.getFile(eq("bucket1"), eq("file1.txt"),
+          argThat(headers -> "bytes=0-3".equals(headers.getFirst(HttpHeaders.RANGE)))))
+          .thenReturn(ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+              .header(HttpHeaders.CONTENT_RANGE, "bytes 0-3/12")
+              .body(body));
+
+      MvcResult result = mvc.perform(MockMvcRequestBuilders
+              .get("/api/v1/s3/buckets/bucket1/file")
+              .param("objectKey", "file1.txt")
+              .header(HttpHeaders.RANGE, "bytes=0-3"))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
+          .andExpect(status().isPartialContent())
+          .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-3/12"))
+          .andExpect(content().string("file"));
+    }
+
+    @Test
+    @DisplayName("When the bucket is at its S3 concurrency limit then a 503 status is returned")
+    void fileThrottled() throws Exception {
+      when(s3Service.getFile(eq("bucket1"), eq("file1.txt"), any(HttpHeaders.class)))
+          .thenThrow(new ThrottledException("Bucket bucket1 is busy, please retry shortly"));
+
+      mvc.perform(MockMvcRequestBuilders
+              .get("/api/v1/s3/buckets/bucket1/file")
+              .param("objectKey", "file1.txt"))
+          .andExpect(status().isServiceUnavailable())
+          .andExpect(content().json("""
+              {
+                "code": "THROTTLED",
+                "reason": "Bucket bucket1 is busy, please retry shortly"
+              }
+              """));
+    }
+  }
+
+  @Nested
+  @DisplayName("POST /api/v1/s3/buckets/{bucketName}/archive")
+  class DownloadArchive {
+
+    @Test
+    @DisplayName("When keys are given then the archive is streamed")
+    void archiveStreamed() throws Exception {
+      StreamingResponseBody body = out -> out.write("PK".getBytes());
+      when(archiveService.archive("bucket1", ArchiveRequest.builder()
+          .objectKeys(List.of("a.txt", "b.txt"))
+          .build()))
+          .thenReturn(ResponseEntity.ok()
+              .contentType(MediaType.parseMediaType("application/zip"))
+              .body(body));
+
+      MvcResult result = mvc.perform(MockMvcRequestBuilders
+              .post("/api/v1/s3/buckets/bucket1/archive")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("""
+                  {
+                    "objectKeys": ["a.txt", "b.txt"]
+                  }
+                  """))
+          .andExpect(request().asyncStarted())
+          .andReturn();
+
+      mvc.perform(asyncDispatch(result))
+          .andExpect(status().isOk())
+          .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip"))
+          .andExpect(content().string("PK"));
+    }
+
+    @Test
+    @DisplayName("When neither keys nor a prefix are given then a 400 status is returned")
+    void archiveWithoutKeys() throws Exception {
+      when(archiveService.archive(eq("bucket1"), any(ArchiveRequest.class)))
+          .thenThrow(new BadRequestException("Either objectKeys or prefix is required"));
+
+      mvc.perform(MockMvcRequestBuilders
+              .post("/api/v1/s3/buckets/bucket1/archive")
+              .contentType(MediaType.APPLICATION_JSON)
+              .content("{}"))
+          .andExpect(status().isBadRequest())
+          .andExpect(content().json("""
+              {
+                "code": "INVALID_PAYLOAD",
+                "reason": "Either objectKeys or prefix is required"
+              }
+              """));
+    }
+  }
+
+  @Nested
+  @DisplayName("GET /api/v1/s3/buckets/{bucketName}/preview")
+  class PreviewObject {
+
+    @Test
+    @DisplayName("When a tail preview is requested then the last lines are returned")
+    void tailPreview() throws Exception {
+      when(previewService.preview("bucket1", "app.log", PreviewMode.TAIL, 0, 2, false))
+          .thenReturn(PreviewObjectResponse.builder()
+              .objectKey("app.log")
+              .objectSize(42)
+              .lines(List.of("line 9", "line 10"))
+              .endOfObject(true)
+              .build());
+
+      mvc.perform(MockMvcRequestBuilders
+              .get("/api/v1/s3/buckets/bucket1/preview")
+              .param("objectKey", "app.log")
+              .param("mode", "TAIL")
+              .param("lines", "2"))
+          .andExpect(status().isOk())
+          .andExpect(content().json("""
+              {
+                "objectKey": "app.log",
+                "objectSize": 42,
+                "lines": [
+                  "line 9",
+                  "line 10"
+                ],
+                "endOfObject": true
+              }
+              """));
+    }
   }
 
   @Nested
@@ -247,7 +503,7 @@ public class S3ControllerIT {
       MockMultipartFile file = new MockMultipartFile("file", "test.txt", "text/plain",
           "test content".getBytes());
 
-      doNothing().when(s3Service).uploadFile("bucket1", file, "test.txt");
+      doNothing().when(s3Service).uploadFile("bucket1", file, "test.txt", null);
 
       mvc.perform(MockMvcRequestBuilders.multipart("/api/v1/s3/buckets/bucket1/upload")
               .file(file)
@@ -255,5 +511,72 @@ public class S3ControllerIT {
           .andExpect(status().isOk());
 
     }
+
+    @Test
+    @DisplayName("When the object changed since the pre-upload then a 409 status is returned")
+    void uploadConflict() throws Exception {
+      doThrow(new ConflictException("Object test.txt has changed since it was diffed"))
+          .when(s3Service).uploadFile("bucket1", null, "test.txt", "token");
+
+      mvc.perform(MockMvcRequestBuilders.multipart("/api/v1/s3/buckets/bucket1/upload")
+              .param("objectKey", "test.txt")
+              .param("uploadToken", "token"))
+          .andExpect(status().isConflict())
+          .andExpect(content().json("""
+              {
+                "code": "CONFLICT",
+                "reason": "Object test.txt has changed since it was diffed"
+              }
+              """));
+    }
+  }
+
+  @Nested
+  @DisplayName("POST /api/v1/s3/buckets/{bucketName}/uploads")
+  class UploadObjects {
+
+    @Test
+    @DisplayName("When files are uploaded then a result is returned for each one")
+    void uploadsSuccessful() throws Exception {
+      MockMultipartFile first = new MockMultipartFile("files", "a.yaml", "text/plain",
+          "a: 1".getBytes());
+      MockMultipartFile second = new MockMultipartFile("files", "b.yaml", "text/plain",
+          "b: 2".getBytes());
+      when(s3Service.uploadFiles(eq("bucket1"), any(), eq(List.of("conf/a.yaml",
+          "conf/b.yaml"))))
+          .thenReturn(BatchUploadResponse.builder()
+              .results(List.of(
+                  UploadResult.builder()
+                      .objectKey("conf/a.yaml")
+                      .status(UploadStatus.MODIFIED)
+                      .build(),
+                  UploadResult.builder()
+                      .objectKey("conf/b.yaml")
+                      .status(UploadStatus.FAILED)
+                      .error("S3 is down")
+                      .build()))
+              .build());
+
+      mvc.perform(MockMvcRequestBuilders.multipart("/api/v1/s3/buckets/bucket1/uploads")
+              .file(first)
+              .file(second)
+              .param("objectKeys", "conf/a.yaml", "conf/b.yaml"))
+          .andExpect(status().isOk())
+          .andExpect(content().json("""
+              {
+                "results": [
+                  {
+                    "objectKey": "conf/a.yaml",
+                    "status": "MODIFIED"
+                  },
+                  {
+                    "objectKey": "conf/b.yaml",
+                    "status": "FAILED",
+                    "error": "S3 is down"
+                  }
+                ]
+              }
+              """));
+    }
   }
 }
@@ -0,0 +1,222 @@
+package callum.nightingale.api.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import callum.nightingale.api.dto.audit.model.AuditEventType;
+import callum.nightingale.api.dto.s3.request.ArchiveRequest;
+import callum.nightingale.api.exception.BadRequestException;
+import callum.nightingale.api.exception.ForbiddenException;
+import callum.nightingale.api.properties.ArchiveProperties;
+import callum.nightingale.api.properties.S3Properties;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.Abortable;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+@DisplayName("Testing ArchiveService")
+class ArchiveServiceTest {
+
+  private S3Client s3Client;
+  private AuditService auditService;
+  private ArchiveProperties archiveProperties;
+  private ExecutorService archiveExecutor;
+  private ArchiveService archiveService;
+  private Map<String, byte[]> objects;
+  private Abortable abortable;
+
+  @BeforeEach
+  void setUp() {
+    s3Client = mock(S3Client.class);
+    auditService = mock(AuditService.class);
+    S3Properties s3Properties = mock(S3Properties.class);
+    when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+    archiveProperties = new ArchiveProperties();
+    archiveProperties.setPrefetch(2);
+    archiveProperties.setPrefetchBufferBytes(1024);
+    archiveExecutor = Executors.newFixedThreadPool(2);
+    archiveService = new ArchiveService(s3Client, s3Client, auditService, s3Properties,
+        archiveProperties, archiveExecutor);
+    objects = new LinkedHashMap<>();
+    abortable = mock(Abortable.class);
+    when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+      String key = invocation.<GetObjectRequest>getArgument(0).key();
+      byte[] content = objects.get(key);
+      if (content == null) {
+        throw NoSuchKeyException.builder().build();
+      }
+      return new ResponseInputStream<>(
+          GetObjectResponse.builder().contentLength((long) content.length).build(),
+          AbortableInputStream.create(new ByteArrayInputStream(content), abortable));
+    });
+  }
+
+  @AfterEach
+  void tearDown() {
+    archiveExecutor.shutdownNow();
+  }
+
+  @Nested
+  @DisplayName("archive")
+  class Archive {
+
+    @Test
+    @DisplayName("When bucket is not in list, then throw ForbiddenException")
+    void shouldThrowForbiddenExceptionWhenBucketNotInList() {
+      assertThrows(ForbiddenException.class, () -> archiveService.archive("bucket2",
+          ArchiveRequest.builder().prefix("logs/").build()));
+    }
+
+    @Test
+    @DisplayName("When neither keys nor a prefix are given, then throw BadRequestException")
+    void shouldThrowBadRequestExceptionWithoutKeys() {
+      assertThrows(BadRequestException.class, () -> archiveService.archive("bucket1",
+          ArchiveRequest.builder().build()));
+    }
+
+    @Test
+    @DisplayName("When keys are given, then every object is zipped in order and audited once")
+    void shouldZipListedObjects() throws IOException {
+      byte[] large = new byte[10_000];
+      new Random(1).nextBytes(large);
+      objects.put("a.txt", "alpha".getBytes());
+      objects.put("dir/large.bin", large);
+      objects.put("c.txt", "charlie".getBytes());
+
+      ResponseEntity<StreamingResponseBody> response = archiveService.archive("bucket1",
+          ArchiveRequest.builder()
+              .objectKeys(List.of("a.txt", "dir/large.bin", "missing.txt", "c.txt", "a.txt"))
+              .compress(true)
+              .build());
+      Map<String, byte[]> entries = unzip(response);
+
+      assertAll(
+          () -> assertEquals(List.of("a.txt", "dir/large.bin", "c.txt"),
+              List.copyOf(entries.keySet())),
+          () -> assertArrayEquals(large, entries.get("dir/large.bin")),
+          () -> assertArrayEquals("charlie".getBytes(), entries.get("c.txt")),
+          () -> assertEquals("attachment; filename=\"bucket1.zip\"",
+              response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION))
+      );
+      verify(auditService, times(1)).writeAuditDiff(eq(AuditEventType.VIEW), eq("bucket1"),
+          eq("archive of 4 objects"), eq("admin"), anyList());
+    }
+
+    @Test
+    @DisplayName("When keys climb out of the archive root, then they are skipped")
+    void shouldSkipKeysClimbingOutOfRoot() throws IOException {
+      objects.put("../../etc/cron.d/job", "evil".getBytes());
+      objects.put("logs/..\\..\\job", "evil".getBytes());
+      objects.put("/logs/./1.log", "one".getBytes());
+
+      Map<String, byte[]> entries = unzip(archiveService.archive("bucket1",
+          ArchiveRequest.builder()
+              .objectKeys(List.of("../../etc/cron.d/job", "logs/..\\..\\job", "/logs/./1.log"))
+              .build()));
+
+      assertEquals(List.of("logs/1.log"), List.copyOf(entries.keySet()));
+    }
+
+    @Test
+    @DisplayName("When a prefix is given, then every page is listed and folder markers skipped")
+    void shouldZipPrefix() throws IOException {
+      objects.put("logs/1.log", "one".getBytes());
+      objects.put("logs/2.log", "two".getBytes());
+      when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+          .thenReturn(ListObjectsV2Response.builder()
+              .contents(S3Object.builder().key("logs/").build(),
+                  S3Object.builder().key("logs/1.log").build())
+              .nextContinuationToken("next")
+              .build())
+          .thenReturn(ListObjectsV2Response.builder()
+              .contents(S3Object.builder().key("logs/2.log").build())
+              .build());
+
+      Map<String, byte[]> entries = unzip(archiveService.archive("bucket1",
+          ArchiveRequest.builder().prefix("logs/").build()));
+
+      assertEquals(List.of("logs/1.log", "logs/2.log"), List.copyOf(entries.keySet()));
+      verify(auditService).writeAuditDiff(AuditEventType.VIEW, "bucket1", "logs/", "admin",
+          List.of("logs/1.log", "logs/2.log"));
+    }
+
+    @Test
+    @DisplayName("When the client disconnects, then the streamed and prefetched objects are aborted")
+    void shouldAbortOnDisconnect() {
+      archiveProperties.setBufferSize(512);
+      byte[] large = new byte[1_000_000];
+      new Random(1).nextBytes(large);
+      objects.put("1.bin", large);
+      objects.put("2.bin", large);
+      objects.put("3.bin", large);
+      ResponseEntity<StreamingResponseBody> response = archiveService.archive("bucket1",
+          ArchiveRequest.builder()
+              .objectKeys(List.of("1.bin", "2.bin", "3.bin"))
+              .compress(true)
+              .build());
+
+      assertThrows(IOException.class, () -> response.getBody().writeTo(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          throw new IOException("Broken pipe");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          throw new IOException("Broken pipe");
+        }
+      }));
+      verify(abortable, atLeastOnce()).abort();
+    }
+  }
+
+  private static Map<String, byte[]> unzip(ResponseEntity<StreamingResponseBody> response)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.getBody().writeTo(out);
+    Map<String, byte[]> entries = new LinkedHashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        entries.put(entry.getName(), zip.readAllBytes());
+      }
+    }
+    return entries;
+  }
+}
@@ -6,32 +6,63 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.refEq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import callum.nightingale.api.dto.audit.model.AuditDiff;
 import callum.nightingale.api.dto.audit.model.AuditEventType;
+import callum.nightingale.api.dto.audit.model.AuditInfo;
 import callum.nightingale.api.dto.audit.request.AuditSearchRequest;
 import callum.nightingale.api.dto.audit.response.AuditSearchResponse;
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.properties.FanOutProperties;
+import callum.nightingale.api.properties.HedgeProperties;
+import callum.nightingale.api.service.cache.StaleCache;
+import callum.nightingale.api.service.client.Hedger;
+import callum.nightingale.api.service.client.SingleFlight;
+import callum.nightingale.api.service.diff.BlockDelta;
+import callum.nightingale.api.service.fanout.FanOut;
+import callum.nightingale.api.service.storage.FileSystemS3Client;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.ResponseEntity;
 import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
@@ -40,6 +71,7 @@ import software.amazon.awssdk.services.s3.model.GetObjectTaggingResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Object;
 import software.amazon.awssdk.services.s3.model.Tag;
 
@@ -47,6 +79,13 @@ import software.amazon.awssdk.services.s3.model.Tag;
 @DisplayName("Testing AuditService")
 public class AuditServiceTest {
 
+  private static final FanOut FAN_OUT = new FanOut(Executors.newVirtualThreadPerTaskExecutor(),
+      new FanOutProperties());
+  private static final Hedger HEDGER = new Hedger(new HedgeProperties(),
+      Executors.newVirtualThreadPerTaskExecutor(), new SimpleMeterRegistry());
+  private static final SingleFlight SINGLE_FLIGHT = new SingleFlight(new SimpleMeterRegistry());
+  private static final StaleCache STALE_CACHE = new StaleCache(new BreakerProperties());
+
   @Nested
   @DisplayName("writeAuditDiff")
   class WriteAuditDiff {
@@ -55,7 +94,8 @@ public class AuditServiceTest {
     @DisplayName("When audit is not enabled, then the method is returned from")
     void whenAuditIsNotEnabledThenMethodIsReturnedFrom() {
       S3Client s3Client = mock(S3Client.class);
-      AuditService auditService = new AuditService(s3Client);
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
       ReflectionTestUtils.setField(auditService, "auditEnabled", false);
 
       AuditEventType eventType = AuditEventType.UPLOAD;
@@ -73,7 +113,8 @@ public class AuditServiceTest {
     @DisplayName("When audit is enabled, then the method is executed")
     void whenAuditIsEnabledThenMethodIsExecuted() {
       S3Client s3Client = mock(S3Client.class);
-      AuditService auditService = new AuditService(s3Client);
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
       ReflectionTestUtils.setField(auditService, "auditEnabled", true);
       ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
 
@@ -104,6 +145,44 @@ public class AuditServiceTest {
     }
   }
 
+  @Nested
+  @DisplayName("writeAuditBatch")
+  class WriteAuditBatch {
+
+    @Test
+    @DisplayName("When one record of a batch fails, then the others are written")
+    void whenOneRecordFailsThenTheOthersAreWritten() {
+      S3Client s3Client = mock(S3Client.class);
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditEnabled", true);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
+      RuntimeException failure = new RuntimeException("Audit bucket is down");
+      when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(
+          invocation -> {
+            if (invocation.<PutObjectRequest>getArgument(0).tagging().contains("objectKey=b")) {
+              throw failure;
+            }
+            return PutObjectResponse.builder().build();
+          });
+
+      List<RuntimeException> failures = auditService.writeAuditBatch("bucketName", "userName",
+          List.of(batchRecord(AuditEventType.UPLOAD, "a"), batchRecord(AuditEventType.MODIFY, "b"),
+              batchRecord(AuditEventType.UPLOAD, "c")));
+
+      verify(s3Client, times(3)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+      assertEquals(Arrays.asList(null, failure, null), failures);
+    }
+
+    private AuditService.BatchRecord batchRecord(AuditEventType eventType, String objectKey) {
+      return AuditService.BatchRecord.builder()
+          .eventType(eventType)
+          .objectKey(objectKey)
+          .unifiedDiff(List.of())
+          .build();
+    }
+  }
+
   @Nested
   @DisplayName("searchObjectsByMetadata")
   class SearchObjectsByMetadata {
@@ -112,7 +191,8 @@ public class AuditServiceTest {
     @DisplayName("When there are objects in the bucket, then a list is returned")
     void whenThereAreObjectsInBucketThenListIsReturned() {
       S3Client s3Client = mock(S3Client.class);
-      AuditService auditService = new AuditService(s3Client);
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
       ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
       ReflectionTestUtils.setField(auditService, "maxAuditRecords", 100);
 
@@ -175,6 +255,194 @@ public class AuditServiceTest {
     }
   }
 
+  @Nested
+  @DisplayName("searchObjectsByMetadata fan-out")
+  class SearchObjectsByMetadataFanOut {
+
+    @Test
+    @DisplayName("When a page needs tags, then they are fetched concurrently")
+    void whenPageNeedsTagsThenTheyAreFetchedConcurrently() {
+      S3Client s3Client = mock(S3Client.class);
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
+      ReflectionTestUtils.setField(auditService, "maxAuditRecords", 100);
+
+      Instant now = Instant.now();
+      when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(
+          ListObjectsV2Response.builder()
+              .contents(S3Object.builder().key("MODIFY/1").lastModified(now).build(),
+                  S3Object.builder().key("MODIFY/2").lastModified(now).build())
+              .build());
+      CountDownLatch bothInFlight = new CountDownLatch(2);
+      List<Boolean> overlapped = new CopyOnWriteArrayList<>();
+      when(s3Client.getObjectTagging(any(GetObjectTaggingRequest.class))).thenAnswer(
+          invocation -> {
+            bothInFlight.countDown();
+            overlapped.add(bothInFlight.await(5, TimeUnit.SECONDS));
+            return GetObjectTaggingResponse.builder()
+                .tagSet(Tag.builder().key("objectKey").value("objectKey").build(),
+                    Tag.builder().key("bucketName").value("bucketName").build(),
+                    Tag.builder().key("userName").value("userName").build())
+                .build();
+          });
+
+      AuditSearchResponse searchResponse = auditService.searchObjectsByMetadata(
+          AuditSearchRequest.builder()
+              .bucketName("bucketName")
+              .build());
+
+      verify(s3Client, times(2)).getObjectTagging(any(GetObjectTaggingRequest.class));
+      assertAll(
+          () -> assertEquals(List.of(true, true), overlapped),
+          () -> assertEquals(2, searchResponse.getAuditRecords().size())
+      );
+    }
+  }
+
+  @Nested
+  @DisplayName("searchObjectsByMetadataAsync")
+  class SearchObjectsByMetadataAsync {
+
+    @Test
+    @DisplayName("When matches span pages, then each object's tags are fetched once")
+    void whenMatchesSpanPagesThenTagsAreFetchedOnce() {
+      S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+      AuditService auditService = new AuditService(mock(S3Client.class), Optional.of(s3AsyncClient),
+          FAN_OUT, HEDGER, SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
+      ReflectionTestUtils.setField(auditService, "maxAuditRecords", 100);
+
+      Instant now = Instant.now();
+      when(s3AsyncClient.listObjectsV2(any(ListObjectsV2Request.class)))
+          .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+              .contents(S3Object.builder().key("MODIFY/1").lastModified(now).build(),
+                  S3Object.builder().key("MODIFY/2").lastModified(now).build())
+              .nextContinuationToken("page2")
+              .build()))
+          .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+              .contents(S3Object.builder().key("MODIFY/3").lastModified(now).build())
+              .build()));
+      when(s3AsyncClient.getObjectTagging(any(GetObjectTaggingRequest.class))).thenAnswer(
+          invocation -> {
+            GetObjectTaggingRequest request = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(GetObjectTaggingResponse.builder()
+                .tagSet(Tag.builder().key("objectKey").value(request.key()).build(),
+                    Tag.builder().key("bucketName")
+                        .value(request.key().equals("MODIFY/2") ? "other" : "bucketName").build(),
+                    Tag.builder().key("userName").value("userName").build())
+                .build());
+          });
+
+      AuditSearchResponse searchResponse = auditService.searchObjectsByMetadataAsync(
+          AuditSearchRequest.builder()
+              .eventType(AuditEventType.MODIFY)
+              .bucketName("bucketName")
+              .build()).join().getBody();
+
+      ArgumentCaptor<ListObjectsV2Request> listRequest = ArgumentCaptor.forClass(
+          ListObjectsV2Request.class);
+      verify(s3AsyncClient, times(2)).listObjectsV2(listRequest.capture());
+      verify(s3AsyncClient, times(3)).getObjectTagging(any(GetObjectTaggingRequest.class));
+      assertAll(
+          () -> assertEquals("page2", listRequest.getAllValues().get(1).continuationToken()),
+          () -> assertEquals(List.of("MODIFY/1", "MODIFY/3"), searchResponse.getAuditRecords()
+              .stream().map(AuditInfo::getAuditObjectKey).sorted().toList())
+      );
+    }
+
+    @Test
+    @DisplayName("When a page has more objects than the fan-out limit, then tags are fetched "
+        + "within it")
+    void whenPageExceedsFanOutLimitThenTagsAreFetchedWithinIt() {
+      S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+      FanOut fanOut = new FanOut(Executors.newVirtualThreadPerTaskExecutor(),
+          new FanOutProperties(32, 1024, 2));
+      AuditService auditService = new AuditService(mock(S3Client.class), Optional.of(s3AsyncClient),
+          fanOut, HEDGER, SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
+      ReflectionTestUtils.setField(auditService, "maxAuditRecords", 100);
+
+      Instant now = Instant.now();
+      when(s3AsyncClient.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(
+          CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+              .contents(IntStream.rangeClosed(1, 5)
+                  .mapToObj(i -> S3Object.builder().key("MODIFY/" + i).lastModified(now).build())
+                  .toList())
+              .build()));
+      List<CompletableFuture<GetObjectTaggingResponse>> inFlight = new CopyOnWriteArrayList<>();
+      when(s3AsyncClient.getObjectTagging(any(GetObjectTaggingRequest.class))).thenAnswer(
+          invocation -> {
+            CompletableFuture<GetObjectTaggingResponse> tagging = new CompletableFuture<>();
+            inFlight.add(tagging);
+            return tagging;
+          });
+
+      CompletableFuture<ResponseEntity<AuditSearchResponse>> search =
+          auditService.searchObjectsByMetadataAsync(AuditSearchRequest.builder()
+              .bucketName("bucketName")
+              .build());
+
+      List<Integer> started = new ArrayList<>();
+      for (int completed = 0; completed < 5; completed++) {
+        started.add(inFlight.size());
+        inFlight.get(completed).complete(GetObjectTaggingResponse.builder()
+            .tagSet(Tag.builder().key("objectKey").value("objectKey").build(),
+                Tag.builder().key("bucketName").value("bucketName").build(),
+                Tag.builder().key("userName").value("userName").build())
+            .build());
+      }
+
+      assertAll(
+          () -> assertEquals(List.of(2, 3, 4, 5, 5), started),
+          () -> assertEquals(5, search.join().getBody().getAuditRecords().size())
+      );
+    }
+
+    @Test
+    @DisplayName("When the async client is disabled, then the blocking search is used")
+    void whenAsyncClientDisabledThenBlockingSearchIsUsed() {
+      S3Client s3Client = mock(S3Client.class);
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
+      when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+          .thenReturn(ListObjectsV2Response.builder().build());
+
+      AuditSearchResponse searchResponse = auditService.searchObjectsByMetadataAsync(
+          AuditSearchRequest.builder().build()).join().getBody();
+
+      verify(s3Client).listObjectsV2(any(ListObjectsV2Request.class));
+      assertTrue(searchResponse.getAuditRecords().isEmpty());
+    }
+  }
+
+  @Nested
+  @DisplayName("getAuditDiffAsync")
+  class GetAuditDiffAsync {
+
+    @Test
+    @DisplayName("When the file is found, then the diff is returned")
+    void fileFoundDiffReturned() {
+      S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+      AuditService auditService = new AuditService(mock(S3Client.class), Optional.of(s3AsyncClient),
+          FAN_OUT, HEDGER, SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
+      when(s3AsyncClient.getObject(any(GetObjectRequest.class),
+          ArgumentMatchers.<AsyncResponseTransformer<GetObjectResponse,
+              ResponseBytes<GetObjectResponse>>>any()))
+          .thenReturn(CompletableFuture.completedFuture(ResponseBytes.fromByteArray(
+              GetObjectResponse.builder().build(),
+              "diff content line 1\ndiff content line 2".getBytes(StandardCharsets.UTF_8))));
+
+      AuditDiff auditDiff = auditService.getAuditDiffAsync("auditObjectKey").join()
+          .getBody();
+
+      assertEquals(List.of("diff content line 1", "diff content line 2"),
+          auditDiff.getUnifiedDiff());
+    }
+  }
+
   @Nested
   @DisplayName("getAuditDiff")
   class GetAuditDiff {
@@ -183,7 +451,8 @@ public class AuditServiceTest {
     @DisplayName("When the file is found, then the diff is returned")
     void fileFoundDiffReturned() {
       S3Client s3Client = mock(S3Client.class);
-      AuditService auditService = new AuditService(s3Client);
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
       ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
 
       String diffContent = "diff content line 1\ndiff content line 2";
@@ -207,5 +476,112 @@ public class AuditServiceTest {
       );
 
     }
+
+    @Test
+    @DisplayName("When the same record is read concurrently, then S3 is called once")
+    void concurrentReadsShareOneCall() throws Exception {
+      S3Client s3Client = mock(S3Client.class);
+      SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          new SingleFlight(meterRegistry), STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
+      CountDownLatch release = new CountDownLatch(1);
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+        release.await(5, TimeUnit.SECONDS);
+        return new ResponseInputStream<>(mock(GetObjectResponse.class),
+            new ByteArrayInputStream("line".getBytes(StandardCharsets.UTF_8)));
+      });
+
+      List<CompletableFuture<AuditDiff>> diffs = new ArrayList<>();
+      try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+        for (int i = 0; i < 5; i++) {
+          diffs.add(CompletableFuture.supplyAsync(
+              () -> auditService.getAuditDiff("auditObjectKey"), readers));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.counter("s3.singleflight.requests", "operation", "getAuditDiff",
+            "result", "shared").count() < 4 && System.nanoTime() < deadline) {
+          Thread.sleep(5);
+        }
+        release.countDown();
+      }
+
+      verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+      for (CompletableFuture<AuditDiff> diff : diffs) {
+        assertEquals(List.of("line"), diff.join().getUnifiedDiff());
+      }
+    }
+
+    @Test
+    @DisplayName("When the file is a binary delta, then the changed ranges are returned")
+    void deltaFoundRangesReturned() throws Exception {
+      S3Client s3Client = mock(S3Client.class);
+      AuditService auditService = new AuditService(s3Client, Optional.empty(), FAN_OUT, HEDGER,
+          SINGLE_FLIGHT, STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "auditBucketName");
+
+      byte[] original = new byte[64];
+      new Random(1).nextBytes(original);
+      byte[] revised = original.clone();
+      revised[20] = 1;
+      ByteArrayOutputStream delta = new ByteArrayOutputStream();
+      BlockDelta.write(new ByteArrayInputStream(original), original.length,
+          new ByteArrayInputStream(revised), revised.length, 16, delta);
+
+      GetObjectResponse getObjectResponse = GetObjectResponse.builder()
+          .contentType(BlockDelta.CONTENT_TYPE)
+          .build();
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(new ResponseInputStream<>(
+          getObjectResponse, new ByteArrayInputStream(delta.toByteArray())));
+
+      AuditDiff auditDiff = auditService.getAuditDiff("auditObjectKey");
+
+      assertAll(
+          () -> assertTrue(auditDiff.isBinary()),
+          () -> assertEquals(1, auditDiff.getChangedRanges().size()),
+          () -> assertEquals(16, auditDiff.getChangedRanges().get(0).getOffset()),
+          () -> assertEquals(16, auditDiff.getChangedRanges().get(0).getLength())
+      );
+    }
+  }
+
+  @Nested
+  @DisplayName("with the filesystem backend")
+  class FileSystemBackend {
+
+    @TempDir
+    Path root;
+
+    @Test
+    @DisplayName("When records are written, then they are searched by their tags and read back")
+    void whenRecordsAreWrittenThenTheyAreSearchedByTagsAndReadBack() {
+      AuditService auditService = new AuditService(new FileSystemS3Client(root, List.of("audit")),
+          Optional.empty(), FAN_OUT, HEDGER, new SingleFlight(new SimpleMeterRegistry()),
+          STALE_CACHE, ObservationRegistry.NOOP);
+      ReflectionTestUtils.setField(auditService, "auditEnabled", true);
+      ReflectionTestUtils.setField(auditService, "auditBucketName", "audit");
+      ReflectionTestUtils.setField(auditService, "maxAuditRecords", 200);
+
+      auditService.writeAuditDiff(AuditEventType.MODIFY, "bucket", "a b.txt", "alice",
+          List.of("-old", "+new"));
+      auditService.writeAuditDiff(AuditEventType.UPLOAD, "bucket", "c.txt", "bob", List.of());
+
+      AuditSearchResponse response = auditService.searchObjectsByMetadata(
+          AuditSearchRequest.builder()
+              .userName("alice")
+              .build());
+      AuditInfo record = response.getAuditRecords().get(0);
+      AuditDiff auditDiff = auditService.getAuditDiff(record.getAuditObjectKey());
+
+      assertAll(
+          () -> assertEquals(1, response.getAuditRecords().size()),
+          () -> assertEquals(AuditEventType.MODIFY, record.getEventType()),
+          () -> assertEquals("a b.txt", record.getObjectKey()),
+          () -> assertEquals("bucket", record.getBucketName()),
+          () -> assertEquals(List.of("-old", "+new"), auditDiff.getUnifiedDiff()),
+          () -> assertEquals(2, auditService.searchObjectsByMetadata(
+              AuditSearchRequest.builder().build()).getAuditRecords().size())
+      );
+    }
   }
 }
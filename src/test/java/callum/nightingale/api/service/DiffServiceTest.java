@@ -0,0 +1,425 @@
+package callum.nightingale.api.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import callum.nightingale.api.dto.s3.model.ByteRange;
+import callum.nightingale.api.properties.DiffProperties;
+import callum.nightingale.api.service.client.CallOrigin;
+import callum.nightingale.api.service.diff.BlockDelta;
+import callum.nightingale.api.service.diff.DiffCancelledException;
+import callum.nightingale.api.service.diff.DiffResult;
+import callum.nightingale.api.service.diff.HistogramDiff;
+import callum.nightingale.api.service.timing.RequestTimings;
+import callum.nightingale.api.service.timing.ServerTimingHandler;
+import callum.nightingale.api.service.upload.StreamedContent;
+import callum.nightingale.api.service.upload.UploadPipeline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Testing DiffService")
+class DiffServiceTest {
+
+  private static final Pattern HUNK_HEADER = Pattern.compile("@@ -(\\d+),(\\d+) \\+(\\d+),(\\d+) @@");
+
+  @Nested
+  @DisplayName("diff")
+  class Diff {
+
+    @Test
+    @DisplayName("When content is identical, then the diff is empty")
+    void identicalContent() {
+      DiffResult result = diff(new DiffProperties(), "a\nb\n", "a\nb\n");
+
+      assertAll(
+          () -> assertEquals(List.of(), result.getUnifiedDiff()),
+          () -> assertEquals(false, result.isTooLarge())
+      );
+    }
+
+    @Test
+    @DisplayName("When one line changes, then only the context window is emitted")
+    void contextWindow() {
+      String original = String.join("\n", lines(1, 20)) + "\n";
+      String revised = original.replace("line 10\n", "line ten\n");
+
+      DiffResult result = diff(new DiffProperties(), original, revised);
+
+      assertEquals(List.of(
+          "--- objectKey",
+          "+++ objectKey",
+          "@@ -7,7 +7,7 @@",
+          " line 7",
+          " line 8",
+          " line 9",
+          "-line 10",
+          "+line ten",
+          " line 11",
+          " line 12",
+          " line 13"), result.getUnifiedDiff());
+    }
+
+    @Test
+    @DisplayName("When changes are far apart, then they are emitted as separate hunks")
+    void separateHunks() {
+      String original = String.join("\n", lines(1, 30)) + "\n";
+      String revised = "line 0\n" + original.replace("line 30\n", "");
+
+      DiffResult result = diff(new DiffProperties(), original, revised);
+
+      assertAll(
+          () -> assertEquals("@@ -1,3 +1,4 @@", result.getUnifiedDiff().get(2)),
+          () -> assertEquals("+line 0", result.getUnifiedDiff().get(3)),
+          () -> assertEquals("@@ -27,4 +28,3 @@", result.getUnifiedDiff().get(7)),
+          () -> assertEquals("-line 30", result.getUnifiedDiff().get(11))
+      );
+    }
+
+    @Test
+    @DisplayName("When random edits are made, then applying the diff reproduces the revision")
+    void randomEditsRoundTrip() {
+      Random random = new Random(42);
+      for (int iteration = 0; iteration < 300; iteration++) {
+        // A tiny alphabet forces heavily repeated lines through both histogram and Myers paths.
+        List<String> original = randomLines(random, random.nextInt(60), 4 + random.nextInt(40));
+        List<String> revised = mutate(random, original);
+        DiffProperties properties = new DiffProperties();
+        properties.setContextLines(random.nextInt(4));
+        properties.setMaxEditDistance(1 + random.nextInt(50));
+
+        DiffResult result = diff(properties, join(original), join(revised));
+
+        assertEquals(revised, apply(original, result.getUnifiedDiff()),
+            "iteration " + iteration);
+      }
+    }
+
+    @Test
+    @DisplayName("When content is binary, then a block delta reproducing the revision is returned")
+    void binaryContent() throws Exception {
+      Random random = new Random(7);
+      byte[] original = new byte[200_000];
+      random.nextBytes(original);
+      byte[] inserted = new byte[1000];
+      random.nextBytes(inserted);
+      ByteArrayOutputStream revised = new ByteArrayOutputStream();
+      revised.write(original, 0, 50_000);
+      revised.write(inserted);
+      revised.write(original, 50_000, original.length - 50_000);
+      byte[] revisedBytes = revised.toByteArray();
+      revisedBytes[150_000] ^= 1;
+      DiffProperties properties = new DiffProperties();
+      properties.setBlockSize(512);
+
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      DiffService diffService = new DiffService(properties, executor, new SimpleMeterRegistry(),
+          ObservationRegistry.NOOP);
+      try (StreamedContent originalContent = UploadPipeline.read(
+          new ByteArrayInputStream(original), diffService.maxLinesPerSide());
+          StreamedContent revisedContent = UploadPipeline.read(
+              new ByteArrayInputStream(revisedBytes), diffService.maxLinesPerSide());
+          DiffResult result = diffService.diff("objectKey", originalContent, revisedContent)) {
+        List<ByteRange> ranges = result.getChangedRanges();
+
+        assertAll(
+            () -> assertTrue(result.isBinary()),
+            () -> assertEquals(2, ranges.size()),
+            () -> assertTrue(ranges.get(0).getOffset() <= 50_000
+                && ranges.get(0).getOffset() + ranges.get(0).getLength() >= 51_000),
+            () -> assertTrue(ranges.get(1).getOffset() <= 150_000
+                && ranges.get(1).getOffset() + ranges.get(1).getLength() > 150_000),
+            () -> assertTrue(result.getDelta().size() < 4 * 1024),
+            () -> assertArrayEquals(revisedBytes, applyDelta(original, result))
+        );
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    @Test
+    @DisplayName("When a request is being timed, then the diff is recorded as its diff span")
+    void recordsDiffSpan() {
+      ObservationRegistry observationRegistry = ObservationRegistry.create();
+      observationRegistry.observationConfig().observationHandler(new ServerTimingHandler());
+      RequestTimings timings = new RequestTimings();
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      DiffService diffService = new DiffService(new DiffProperties(), executor,
+          new SimpleMeterRegistry(), observationRegistry);
+      CallOrigin.setTimings(timings);
+      try (StreamedContent originalContent = read(diffService,
+          "a\nb\n".getBytes(StandardCharsets.UTF_8));
+          StreamedContent revisedContent = read(diffService,
+              "a\nc\n".getBytes(StandardCharsets.UTF_8))) {
+        diffService.diff("objectKey", originalContent, revisedContent);
+
+        assertEquals(List.of("diff"), List.copyOf(timings.getSpans().keySet()));
+      } finally {
+        CallOrigin.clear();
+        executor.shutdownNow();
+      }
+    }
+
+    @Test
+    @DisplayName("When content is not valid in the configured charset, then it is treated as binary")
+    void charset() {
+      String original = "caf\u00e9\n";
+      String revised = "caf\u00e8\n";
+      DiffProperties latin1 = new DiffProperties();
+      latin1.setCharset(StandardCharsets.ISO_8859_1);
+
+      DiffResult asUtf8 = diff(new DiffProperties(), original.getBytes(StandardCharsets.ISO_8859_1),
+          revised.getBytes(StandardCharsets.ISO_8859_1));
+      DiffResult asLatin1 = diff(latin1, original.getBytes(StandardCharsets.ISO_8859_1),
+          revised.getBytes(StandardCharsets.ISO_8859_1));
+
+      assertAll(
+          () -> assertTrue(asUtf8.isBinary()),
+          () -> assertEquals(false, asLatin1.isBinary()),
+          () -> assertEquals("-caf\u00e9", asLatin1.getUnifiedDiff().get(3)),
+          () -> assertEquals("+caf\u00e8", asLatin1.getUnifiedDiff().get(4))
+      );
+    }
+
+    @Test
+    @DisplayName("When the memory budget is exceeded, then a summary is returned")
+    void memoryBudgetExceeded() {
+      DiffProperties properties = new DiffProperties();
+      properties.setMaxMemoryBytes(1024);
+
+      DiffResult result = diff(properties, String.join("\n", lines(1, 500)),
+          String.join("\n", lines(2, 501)));
+
+      assertAll(
+          () -> assertTrue(result.isTooLarge()),
+          () -> assertEquals("Diff omitted: content exceeds the diff memory budget",
+              result.getUnifiedDiff().get(0)),
+          () -> assertTrue(result.getUnifiedDiff().get(1).startsWith("--- objectKey\t4391 bytes"))
+      );
+    }
+
+    @Test
+    @DisplayName("When the deadline passes, then a summary is returned")
+    void deadlinePassed() throws Exception {
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      CountDownLatch release = new CountDownLatch(1);
+      executor.submit(() -> {
+        release.await();
+        return null;
+      });
+      DiffProperties properties = new DiffProperties();
+      properties.setTimeout(Duration.ofMillis(50));
+
+      try {
+        DiffResult result = diff(properties, executor, "a\n", "b\n");
+
+        assertAll(
+            () -> assertTrue(result.isTooLarge()),
+            () -> assertEquals("Diff omitted: diff did not finish within PT0.05S",
+                result.getUnifiedDiff().get(0))
+        );
+      } finally {
+        release.countDown();
+        executor.shutdownNow();
+      }
+    }
+
+    @Test
+    @DisplayName("When the executor is at capacity, then a summary is returned")
+    void executorAtCapacity() {
+      ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+          new SynchronousQueue<>());
+      CountDownLatch release = new CountDownLatch(1);
+      executor.submit(() -> {
+        release.await();
+        return null;
+      });
+
+      try {
+        DiffResult result = diff(new DiffProperties(), executor, "a\n", "b\n");
+
+        assertAll(
+            () -> assertTrue(result.isTooLarge()),
+            () -> assertEquals("Diff omitted: too many diffs in progress",
+                result.getUnifiedDiff().get(0))
+        );
+      } finally {
+        release.countDown();
+        executor.shutdownNow();
+      }
+    }
+
+    @Test
+    @DisplayName("When the diff thread is interrupted, then the diff is abandoned")
+    void interrupted() {
+      StreamedContent original = UploadPipeline.read(
+          new ByteArrayInputStream("a\nb\n".getBytes(StandardCharsets.UTF_8)), 10);
+      StreamedContent revised = UploadPipeline.read(
+          new ByteArrayInputStream("b\nc\n".getBytes(StandardCharsets.UTF_8)), 10);
+
+      Thread.currentThread().interrupt();
+      try {
+        assertThrows(DiffCancelledException.class, () -> HistogramDiff.diff(
+            original.getLineHashes(), revised.getLineHashes(), 10));
+      } finally {
+        Thread.interrupted();
+      }
+    }
+  }
+
+  private static DiffResult diff(DiffProperties properties, String original, String revised) {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      return diff(properties, executor, original, revised);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static DiffResult diff(DiffProperties properties, byte[] original, byte[] revised) {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    DiffService diffService = new DiffService(properties, executor, new SimpleMeterRegistry(),
+        ObservationRegistry.NOOP);
+    try (StreamedContent originalContent = read(diffService, original);
+        StreamedContent revisedContent = read(diffService, revised);
+        DiffResult result = diffService.diff("objectKey", originalContent, revisedContent)) {
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static DiffResult diff(DiffProperties properties, ExecutorService executor,
+      String original, String revised) {
+    DiffService diffService = new DiffService(properties, executor, new SimpleMeterRegistry(),
+        ObservationRegistry.NOOP);
+    try (StreamedContent originalContent = read(diffService,
+        original.getBytes(StandardCharsets.UTF_8));
+        StreamedContent revisedContent = read(diffService,
+            revised.getBytes(StandardCharsets.UTF_8))) {
+      return diffService.diff("objectKey", originalContent, revisedContent);
+    }
+  }
+
+  private static StreamedContent read(DiffService diffService, byte[] content) {
+    return UploadPipeline.read(new ByteArrayInputStream(content), diffService.maxLinesPerSide());
+  }
+
+  private static byte[] applyDelta(byte[] original, DiffResult result) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream delta = result.getDelta().openInputStream()) {
+      BlockDelta.read(delta, new BlockDelta.Visitor() {
+        private int blockSize;
+
+        @Override
+        public void header(int blockSize, long originalSize, long revisedSize) {
+          this.blockSize = blockSize;
+        }
+
+        @Override
+        public void copy(long block, long count) {
+          int offset = (int) block * blockSize;
+          out.write(original, offset, Math.min((int) count * blockSize, original.length - offset));
+        }
+
+        @Override
+        public void literal(InputStream data, long length) throws IOException {
+          out.write(data.readNBytes((int) length));
+        }
+      });
+    }
+    return out.toByteArray();
+  }
+
+  private static List<String> lines(int from, int to) {
+    List<String> lines = new ArrayList<>();
+    for (int i = from; i <= to; i++) {
+      lines.add("line " + i);
+    }
+    return lines;
+  }
+
+  private static String join(List<String> lines) {
+    return lines.isEmpty() ? "" : String.join("\n", lines) + "\n";
+  }
+
+  private static List<String> randomLines(Random random, int count, int alphabet) {
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      lines.add("l" + random.nextInt(alphabet));
+    }
+    return lines;
+  }
+
+  private static List<String> mutate(Random random, List<String> original) {
+    List<String> revised = new ArrayList<>(original);
+    int edits = random.nextInt(10);
+    for (int i = 0; i < edits; i++) {
+      int position = revised.isEmpty() ? 0 : random.nextInt(revised.size());
+      switch (random.nextInt(3)) {
+        case 0 -> revised.add(position, "n" + random.nextInt(8));
+        case 1 -> {
+          if (!revised.isEmpty()) {
+            revised.remove(position);
+          }
+        }
+        default -> {
+          if (!revised.isEmpty()) {
+            revised.set(position, "c" + random.nextInt(8));
+          }
+        }
+      }
+    }
+    return revised;
+  }
+
+  private static List<String> apply(List<String> original, List<String> unifiedDiff) {
+    List<String> result = new ArrayList<>();
+    int position = 0;
+    for (String line : unifiedDiff) {
+      Matcher header = HUNK_HEADER.matcher(line);
+      if (line.startsWith("--- ") || line.startsWith("+++ ")) {
+        continue;
+      }
+      if (header.matches()) {
+        int start = Integer.parseInt(header.group(1)) - 1;
+        while (position < start) {
+          result.add(original.get(position++));
+        }
+      } else if (line.startsWith(" ")) {
+        assertEquals(original.get(position++), line.substring(1));
+        result.add(line.substring(1));
+      } else if (line.startsWith("-")) {
+        assertEquals(original.get(position++), line.substring(1));
+      } else if (line.startsWith("+")) {
+        result.add(line.substring(1));
+      }
+    }
+    while (position < original.size()) {
+      result.add(original.get(position++));
+    }
+    return result;
+  }
+}
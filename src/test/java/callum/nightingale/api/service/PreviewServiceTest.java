@@ -0,0 +1,223 @@
+package callum.nightingale.api.service;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import callum.nightingale.api.dto.s3.model.PreviewMode;
+import callum.nightingale.api.dto.s3.response.PreviewObjectResponse;
+import callum.nightingale.api.exception.ForbiddenException;
+import callum.nightingale.api.properties.PreviewProperties;
+import callum.nightingale.api.properties.S3Properties;
+import callum.nightingale.api.service.preview.LineIndexCache;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+@DisplayName("Testing PreviewService")
+class PreviewServiceTest {
+
+  private S3Client s3Client;
+  private PreviewProperties previewProperties;
+  private PreviewService previewService;
+  private List<GetObjectRequest> requests;
+  private byte[] content;
+  private String eTag;
+
+  @BeforeEach
+  void setUp() {
+    s3Client = mock(S3Client.class);
+    S3Properties s3Properties = mock(S3Properties.class);
+    when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+    previewProperties = new PreviewProperties();
+    previewProperties.setInitialRangeBytes(64);
+    previewProperties.setIndexInterval(100);
+    previewService = new PreviewService(s3Client, mock(AuditService.class), s3Properties,
+        previewProperties, new LineIndexCache(previewProperties));
+    requests = new ArrayList<>();
+    when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(
+        invocation -> getObject(invocation.getArgument(0)));
+  }
+
+  @Nested
+  @DisplayName("preview")
+  class Preview {
+
+    @Test
+    @DisplayName("When bucket is not in list, then throw ForbiddenException")
+    void shouldThrowForbiddenExceptionWhenBucketNotInList() {
+      assertThrows(ForbiddenException.class, () -> previewService.preview("bucket2", "log",
+          PreviewMode.HEAD, 0, 10, false));
+    }
+
+    @Test
+    @DisplayName("When the head is requested, then ranges grow until enough lines are read")
+    void headGrowsRange() {
+      store(lines(1, 10_000, "\n"), "\"v1\"");
+
+      PreviewObjectResponse response = previewService.preview("bucket1", "log", PreviewMode.HEAD,
+          0, 20, false);
+
+      assertAll(
+          () -> assertEquals(expected(1, 20), response.getLines()),
+          () -> assertEquals(0L, response.getFirstLine()),
+          () -> assertEquals(content.length, response.getObjectSize()),
+          () -> assertEquals(false, response.isEndOfObject()),
+          () -> assertTrue(response.getBytesRead() < 1024),
+          () -> assertEquals("bytes=0-63", requests.get(0).range()),
+          () -> assertEquals("bytes=64-191", requests.get(1).range()),
+          () -> assertEquals("\"v1\"", requests.get(1).ifMatch())
+      );
+    }
+
+    @Test
+    @DisplayName("When the tail is requested, then suffix ranges are read back from the end")
+    void tailReadsSuffix() {
+      store(lines(1, 10_000, "\r\n"), "\"v1\"");
+
+      PreviewObjectResponse response = previewService.preview("bucket1", "log", PreviewMode.TAIL,
+          0, 15, false);
+
+      assertAll(
+          () -> assertEquals(expected(9_986, 10_000), response.getLines()),
+          () -> assertNull(response.getFirstLine()),
+          () -> assertEquals(true, response.isEndOfObject()),
+          () -> assertEquals("bytes=-64", requests.get(0).range()),
+          () -> assertTrue(response.getBytesRead() < 1024)
+      );
+    }
+
+    @Test
+    @DisplayName("When the whole object fits in the tail range, then line numbers are known")
+    void tailOfSmallObject() {
+      store("one\ntwo\nthree", "\"v1\"");
+
+      PreviewObjectResponse response = previewService.preview("bucket1", "log", PreviewMode.TAIL,
+          0, 2, false);
+
+      assertAll(
+          () -> assertEquals(List.of("two", "three"), response.getLines()),
+          () -> assertEquals(1L, response.getFirstLine()),
+          () -> assertEquals(3L, response.getTotalLines())
+      );
+    }
+
+    @Test
+    @DisplayName("When the index is built, then a deep window is one read from a checkpoint")
+    void indexedOffset() {
+      store(lines(1, 10_000, "\n"), "\"v1\"");
+      previewService.preview("bucket1", "log", PreviewMode.HEAD, 0, 1, true);
+      requests.clear();
+
+      PreviewObjectResponse response = previewService.preview("bucket1", "log",
+          PreviewMode.OFFSET, 7_205, 3, false);
+      PreviewObjectResponse tail = previewService.preview("bucket1", "log", PreviewMode.TAIL,
+          0, 2, false);
+
+      assertAll(
+          () -> assertEquals(expected(7_206, 7_208), response.getLines()),
+          () -> assertEquals(10_000L, response.getTotalLines()),
+          () -> assertEquals(2, requests.size()),
+          () -> assertEquals("bytes=" + offsetOfLine(7_200) + "-" + (offsetOfLine(7_300) - 1),
+              requests.get(0).range()),
+          () -> assertEquals("bytes=" + offsetOfLine(9_900) + "-" + (content.length - 1),
+              requests.get(1).range()),
+          () -> assertEquals(expected(9_999, 10_000), tail.getLines()),
+          () -> assertEquals(9_998L, tail.getFirstLine())
+      );
+    }
+
+    @Test
+    @DisplayName("When the object changed since it was indexed, then the index is not used")
+    void staleIndex() {
+      store(lines(1, 1_000, "\n"), "\"v1\"");
+      previewService.preview("bucket1", "log", PreviewMode.HEAD, 0, 1, true);
+      store(lines(5_001, 6_000, "\n"), "\"v2\"");
+
+      PreviewObjectResponse response = previewService.preview("bucket1", "log",
+          PreviewMode.OFFSET, 500, 2, false);
+
+      assertAll(
+          () -> assertEquals(expected(5_501, 5_502), response.getLines()),
+          () -> assertEquals("\"v2\"", response.getETag())
+      );
+    }
+
+    @Test
+    @DisplayName("When the scan budget runs out, then the partial window is marked truncated")
+    void truncatedWhenBudgetExhausted() {
+      store(lines(1, 10_000, "\n"), "\"v1\"");
+      previewProperties.setMaxScanBytes(1_000);
+
+      PreviewObjectResponse response = previewService.preview("bucket1", "log",
+          PreviewMode.OFFSET, 5_000, 2, false);
+
+      assertAll(
+          () -> assertEquals(List.of(), response.getLines()),
+          () -> assertEquals(true, response.isTruncated())
+      );
+    }
+  }
+
+  private void store(String text, String eTag) {
+    this.content = text.getBytes(StandardCharsets.UTF_8);
+    this.eTag = eTag;
+  }
+
+  private static String lines(int from, int to, String terminator) {
+    return IntStream.rangeClosed(from, to)
+        .mapToObj(i -> "line " + i + terminator)
+        .collect(Collectors.joining());
+  }
+
+  private static List<String> expected(int from, int to) {
+    return IntStream.rangeClosed(from, to).mapToObj(i -> "line " + i).toList();
+  }
+
+  private long offsetOfLine(int line) {
+    return lines(1, line, "\n").length();
+  }
+
+  private ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+    requests.add(request);
+    if (request.ifMatch() != null && !request.ifMatch().equals(eTag)) {
+      throw S3Exception.builder().statusCode(412).build();
+    }
+    long start = 0;
+    long end = content.length - 1;
+    String range = request.range();
+    if (range != null) {
+      String[] bounds = range.substring("bytes=".length()).split("-", -1);
+      if (bounds[0].isEmpty()) {
+        start = Math.max(0, content.length - Long.parseLong(bounds[1]));
+      } else {
+        start = Long.parseLong(bounds[0]);
+        end = bounds[1].isEmpty() ? end : Math.min(end, Long.parseLong(bounds[1]));
+      }
+    }
+    GetObjectResponse response = GetObjectResponse.builder()
+        .eTag(eTag)
+        .contentRange(range == null ? null : "bytes " + start + "-" + end + "/" + content.length)
+        .build();
+    return new ResponseInputStream<>(response, new ByteArrayInputStream(
+        Arrays.copyOfRange(content, (int) start, (int) end + 1)));
+  }
+}
@@ -2,41 +2,108 @@ package callum.nightingale.api.service;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import callum.nightingale.api.dto.audit.model.AuditEventType;
+import callum.nightingale.api.dto.s3.model.UploadResult;
+import callum.nightingale.api.dto.s3.model.UploadStatus;
+import callum.nightingale.api.dto.s3.response.BatchUploadResponse;
 import callum.nightingale.api.dto.s3.response.ListBucketsResponse;
 import callum.nightingale.api.dto.s3.response.ListContentsResponse;
 import callum.nightingale.api.dto.s3.response.PreUploadObjectResponse;
+import callum.nightingale.api.exception.BadRequestException;
+import callum.nightingale.api.exception.ConflictException;
 import callum.nightingale.api.exception.ForbiddenException;
+import callum.nightingale.api.exception.NotFoundException;
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.properties.CacheProperties;
+import callum.nightingale.api.properties.DiffProperties;
+import callum.nightingale.api.properties.DownloadProperties;
+import callum.nightingale.api.properties.HedgeProperties;
 import callum.nightingale.api.properties.S3Properties;
+import callum.nightingale.api.properties.UploadProperties;
+import callum.nightingale.api.service.cache.ContentCache;
+import callum.nightingale.api.service.cache.StaleCache;
+import callum.nightingale.api.service.client.Hedger;
+import callum.nightingale.api.service.client.SingleFlight;
+import callum.nightingale.api.service.download.DownloadStreamer;
+import callum.nightingale.api.service.storage.FileSystemS3Client;
+import callum.nightingale.api.service.upload.UploadSessionStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.Abortable;
+import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 
 @ExtendWith(MockitoExtension.class)
@@ -46,6 +113,12 @@ class S3ServiceTest {
   private S3Client s3Client;
   private AuditService auditService;
   private S3Properties s3Properties;
+  private ExecutorService diffExecutor;
+  private ExecutorService uploadExecutor;
+  private CacheProperties cacheProperties;
+  private HedgeProperties hedgeProperties;
+  private SimpleMeterRegistry meterRegistry;
+  private DownloadStreamer downloadStreamer;
   private S3Service s3Service;
 
   @BeforeEach
@@ -53,7 +126,30 @@ class S3ServiceTest {
     s3Client = mock(S3Client.class);
     auditService = mock(AuditService.class);
     s3Properties = mock(S3Properties.class);
-    s3Service = new S3Service(s3Client, auditService, s3Properties);
+    diffExecutor = Executors.newSingleThreadExecutor();
+    uploadExecutor = Executors.newFixedThreadPool(4);
+    cacheProperties = new CacheProperties();
+    hedgeProperties = new HedgeProperties();
+    meterRegistry = new SimpleMeterRegistry();
+    downloadStreamer = new DownloadStreamer(new DownloadProperties(), new SimpleMeterRegistry());
+    s3Service = newService(Optional.empty());
+  }
+
+  private S3Service newService(Optional<S3AsyncClient> s3AsyncClient) {
+    return new S3Service(s3Client, s3Client, auditService, s3Properties,
+        new DiffService(new DiffProperties(), diffExecutor, new SimpleMeterRegistry(),
+            ObservationRegistry.NOOP),
+        new UploadSessionStore(new UploadProperties()), downloadStreamer,
+        new UploadProperties(), uploadExecutor,
+        new ContentCache(cacheProperties, new SimpleMeterRegistry()), s3AsyncClient,
+        new Hedger(hedgeProperties, uploadExecutor, new SimpleMeterRegistry()),
+        new SingleFlight(meterRegistry), new StaleCache(new BreakerProperties()));
+  }
+
+  @AfterEach
+  void tearDown() {
+    diffExecutor.shutdownNow();
+    uploadExecutor.shutdownNow();
   }
 
   @Nested
@@ -106,6 +202,95 @@ class S3ServiceTest {
     }
   }
 
+  @Nested
+  @DisplayName("listContentsAsync")
+  class ListContentsAsync {
+
+    @Test
+    @DisplayName("When the async client is enabled, then the bucket is listed through it")
+    void shouldListThroughAsyncClient() {
+      S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3AsyncClient.headBucket(any(HeadBucketRequest.class)))
+          .thenReturn(CompletableFuture.completedFuture(HeadBucketResponse.builder().build()));
+      when(s3AsyncClient.listObjectsV2(any(ListObjectsV2Request.class)))
+          .thenReturn(CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+              .contents(S3Object.builder().key("object1").size(100L).lastModified(Instant.now())
+                  .build())
+              .build()));
+
+      ListContentsResponse response = newService(Optional.of(s3AsyncClient))
+          .listContentsAsync("bucket1").join().getBody();
+
+      verifyNoInteractions(s3Client);
+      assertEquals("object1", response.getObjects().get(0).getObjectKey());
+    }
+
+    @Test
+    @DisplayName("When the bucket does not exist, then the future fails with NotFoundException")
+    void shouldFailWithNotFoundWhenBucketMissing() {
+      S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3AsyncClient.headBucket(any(HeadBucketRequest.class)))
+          .thenReturn(CompletableFuture.failedFuture(NoSuchBucketException.builder().build()));
+
+      CompletableFuture<ResponseEntity<ListContentsResponse>> response = newService(
+          Optional.of(s3AsyncClient)).listContentsAsync("bucket1");
+
+      CompletionException exception = assertThrows(CompletionException.class, response::join);
+      assertInstanceOf(NotFoundException.class, exception.getCause());
+    }
+
+    @Test
+    @DisplayName("When the async client is disabled, then the blocking client is used")
+    void shouldFallBackToBlockingClient() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+          .thenReturn(ListObjectsV2Response.builder().build());
+
+      CompletableFuture<ResponseEntity<ListContentsResponse>> response = s3Service
+          .listContentsAsync("bucket1");
+
+      assertTrue(response.isDone());
+      verify(s3Client).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    @Test
+    @DisplayName("When S3 is out, then the last good listing is served stale")
+    void shouldServeStaleListingWhenS3IsOut() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+          .thenReturn(ListObjectsV2Response.builder()
+              .contents(S3Object.builder().key("object1").size(100L).lastModified(Instant.now())
+                  .build())
+              .build())
+          .thenThrow(SdkClientException.create("Connection refused"));
+
+      ResponseEntity<ListContentsResponse> fresh = s3Service.listContentsAsync("bucket1").join();
+      ResponseEntity<ListContentsResponse> stale = s3Service.listContentsAsync("bucket1").join();
+
+      assertAll(
+          () -> assertNull(fresh.getHeaders().getFirst(StaleCache.STALE_HEADER)),
+          () -> assertEquals("0", stale.getHeaders().getFirst(StaleCache.STALE_HEADER)),
+          () -> assertEquals("object1", stale.getBody().getObjects().get(0).getObjectKey())
+      );
+    }
+
+    @Test
+    @DisplayName("When S3 is out and there is no earlier listing, then the failure is passed on")
+    void shouldFailWhenS3IsOutAndNothingIsCached() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.listObjectsV2(any(ListObjectsV2Request.class)))
+          .thenThrow(SdkClientException.create("Connection refused"));
+
+      CompletableFuture<ResponseEntity<ListContentsResponse>> response = s3Service
+          .listContentsAsync("bucket1");
+
+      CompletionException exception = assertThrows(CompletionException.class, response::join);
+      assertInstanceOf(SdkClientException.class, exception.getCause());
+    }
+  }
+
   @Nested
   @DisplayName("getFile")
   class GetFile {
@@ -115,7 +300,8 @@ class S3ServiceTest {
     void shouldThrowForbiddenExceptionWhenBucketNotInList() {
       when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
 
-      assertThrows(ForbiddenException.class, () -> s3Service.getFile("bucket2", "objectKey"));
+      assertThrows(ForbiddenException.class, () -> s3Service.getFile("bucket2", "objectKey",
+          new HttpHeaders()));
     }
 
     @Test
@@ -130,17 +316,334 @@ class S3ServiceTest {
           mock(GetObjectResponse.class), new ByteArrayInputStream(file.getBytes()));
       when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(responseInputStream);
 
-      ResponseEntity<InputStreamResource> response = s3Service.getFile("bucket1", "objectKey");
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          new HttpHeaders());
 
       assertAll(
           () -> assertEquals("attachment; filename=objectKey", response.getHeaders().get(
               HttpHeaders.CONTENT_DISPOSITION).get(0)),
           () -> assertEquals("application/octet-stream",
               response.getHeaders().get(HttpHeaders.CONTENT_TYPE).get(0)),
-          () -> assertEquals(file, new String(response.getBody().getInputStream().readAllBytes()))
+          () -> assertEquals(file, readBody(response))
+
+      );
+    }
+
+    @Test
+    @DisplayName("When a range is requested, then it is passed to S3 and 206 is returned")
+    void shouldReturnPartialContent() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      GetObjectResponse getObjectResponse = GetObjectResponse.builder()
+          .contentLength(5L)
+          .contentRange("bytes 0-4/12")
+          .eTag("\"etag\"")
+          .lastModified(Instant.parse("2025-01-01T00:00:00Z"))
+          .build();
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(new ResponseInputStream<>(
+          getObjectResponse, new ByteArrayInputStream("hello".getBytes())));
+      HttpHeaders requestHeaders = new HttpHeaders();
+      requestHeaders.set(HttpHeaders.RANGE, "bytes=0-4");
+
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          requestHeaders);
+
+      ArgumentCaptor<GetObjectRequest> getObjectRequest = ArgumentCaptor.forClass(
+          GetObjectRequest.class);
+      verify(s3Client).getObject(getObjectRequest.capture());
+      assertAll(
+          () -> assertEquals("bytes=0-4", getObjectRequest.getValue().range()),
+          () -> assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode()),
+          () -> assertEquals(5L, response.getHeaders().getContentLength()),
+          () -> assertEquals("bytes 0-4/12",
+              response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)),
+          () -> assertEquals("\"etag\"", response.getHeaders().getETag()),
+          () -> assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES)),
+          () -> assertEquals(Instant.parse("2025-01-01T00:00:00Z").toEpochMilli(),
+              response.getHeaders().getLastModified())
+      );
+      verify(auditService).writeAuditDiff(AuditEventType.VIEW, "bucket1", "objectKey", "admin",
+          List.of());
+    }
+
+    @Test
+    @DisplayName("When a later range of the object is requested, then no view is audited")
+    void shouldNotAuditLaterRanges() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(new ResponseInputStream<>(
+          GetObjectResponse.builder()
+              .contentLength(7L)
+              .contentRange("bytes 5-11/12")
+              .build(), new ByteArrayInputStream(" world!".getBytes())));
+      HttpHeaders requestHeaders = new HttpHeaders();
+      requestHeaders.set(HttpHeaders.RANGE, "bytes=5-");
 
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          requestHeaders);
+
+      assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+      verifyNoInteractions(auditService);
+    }
+
+    @Test
+    @DisplayName("When the ETag still matches, then 304 is returned without auditing a view")
+    void shouldReturnNotModified() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(
+          S3Exception.builder().statusCode(304).build());
+      HttpHeaders requestHeaders = new HttpHeaders();
+      requestHeaders.setIfNoneMatch("\"etag\"");
+      requestHeaders.setIfModifiedSince(Instant.parse("2025-01-01T00:00:00Z"));
+
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          requestHeaders);
+
+      ArgumentCaptor<GetObjectRequest> getObjectRequest = ArgumentCaptor.forClass(
+          GetObjectRequest.class);
+      verify(s3Client).getObject(getObjectRequest.capture());
+      assertAll(
+          () -> assertEquals("\"etag\"", getObjectRequest.getValue().ifNoneMatch()),
+          () -> assertEquals(Instant.parse("2025-01-01T00:00:00Z"),
+              getObjectRequest.getValue().ifModifiedSince()),
+          () -> assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode())
       );
+      verifyNoInteractions(auditService);
     }
+
+    @Test
+    @DisplayName("When a small object is read again, then it is served from the cache")
+    void shouldServeSmallObjectFromCache() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(
+          invocation -> smallObject("hello"));
+
+      s3Service.getFile("bucket1", "objectKey", new HttpHeaders());
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          new HttpHeaders());
+
+      verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+      verify(auditService, times(2)).writeAuditDiff(AuditEventType.VIEW, "bucket1", "objectKey",
+          "admin", List.of());
+      assertAll(
+          () -> assertEquals("hello", readBody(response)),
+          () -> assertEquals("\"v1\"", response.getHeaders().getETag()),
+          () -> assertEquals(5L, response.getHeaders().getContentLength())
+      );
+    }
+
+    @Test
+    @DisplayName("When the cached copy is stale, then it is revalidated with its ETag")
+    void shouldRevalidateStaleCacheEntry() throws IOException {
+      cacheProperties.setRevalidateAfter(Duration.ZERO);
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.getObject(any(GetObjectRequest.class)))
+          .thenReturn(smallObject("hello"))
+          .thenThrow(S3Exception.builder().statusCode(304).build());
+
+      s3Service.getFile("bucket1", "objectKey", new HttpHeaders());
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          new HttpHeaders());
+
+      ArgumentCaptor<GetObjectRequest> getObjectRequest = ArgumentCaptor.forClass(
+          GetObjectRequest.class);
+      verify(s3Client, times(2)).getObject(getObjectRequest.capture());
+      assertAll(
+          () -> assertEquals("\"v1\"", getObjectRequest.getAllValues().get(1).ifNoneMatch()),
+          () -> assertEquals(HttpStatus.OK, response.getStatusCode()),
+          () -> assertEquals("hello", readBody(response))
+      );
+    }
+
+    @Test
+    @DisplayName("When S3 is out, then the cached copy is served stale")
+    void shouldServeStaleCopyWhenS3IsOut() throws IOException {
+      cacheProperties.setRevalidateAfter(Duration.ZERO);
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.getObject(any(GetObjectRequest.class)))
+          .thenReturn(smallObject("hello"))
+          .thenThrow(S3Exception.builder().statusCode(503).build());
+
+      s3Service.getFile("bucket1", "objectKey", new HttpHeaders());
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          new HttpHeaders());
+
+      assertAll(
+          () -> assertEquals(HttpStatus.OK, response.getStatusCode()),
+          () -> assertEquals("0", response.getHeaders().getFirst(StaleCache.STALE_HEADER)),
+          () -> assertEquals("hello", readBody(response))
+      );
+    }
+
+    @Test
+    @DisplayName("When the client already has the cached version, then 304 is returned")
+    void shouldReturnNotModifiedFromCache() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(
+          invocation -> smallObject("hello"));
+      HttpHeaders requestHeaders = new HttpHeaders();
+      requestHeaders.setIfNoneMatch("\"v1\"");
+
+      s3Service.getFile("bucket1", "objectKey", new HttpHeaders());
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          requestHeaders);
+
+      verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+      assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("When the object is uploaded through the service, then the cached copy is dropped")
+    void shouldInvalidateCacheOnUpload() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(
+          invocation -> smallObject("hello"));
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(NoSuchKeyException.class);
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenReturn(new ByteArrayInputStream("world".getBytes()));
+      when(file.getSize()).thenReturn(5L);
+
+      s3Service.getFile("bucket1", "objectKey", new HttpHeaders());
+      s3Service.uploadFile("bucket1", file, "objectKey", null);
+      s3Service.getFile("bucket1", "objectKey", new HttpHeaders());
+
+      verify(s3Client, times(2)).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    @DisplayName("When identical reads arrive together, then they share one GET")
+    void shouldCoalesceConcurrentReads() throws Exception {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      CountDownLatch release = new CountDownLatch(1);
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+        release.await(5, TimeUnit.SECONDS);
+        return smallObject("hello");
+      });
+
+      List<CompletableFuture<ResponseEntity<StreamingResponseBody>>> responses;
+      try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+        responses = IntStream.range(0, 5)
+            .mapToObj(i -> CompletableFuture.supplyAsync(
+                () -> s3Service.getFile("bucket1", "objectKey", new HttpHeaders()), callers))
+            .toList();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.counter("s3.singleflight.requests", "operation", "getObject",
+            "result", "shared").count() < 4 && System.nanoTime() < deadline) {
+          Thread.sleep(5);
+        }
+        release.countDown();
+      }
+
+      verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+      for (CompletableFuture<ResponseEntity<StreamingResponseBody>> response : responses) {
+        assertEquals("hello", readBody(response.join()));
+      }
+      verify(auditService, times(5)).writeAuditDiff(AuditEventType.VIEW, "bucket1", "objectKey",
+          "admin", List.of());
+    }
+
+    @Test
+    @DisplayName("When the first read is slow, then the hedge answers and the slow read is aborted")
+    void shouldHedgeSlowRead() throws IOException {
+      hedgeProperties.setEnabled(true);
+      hedgeProperties.setDelay(Duration.ofMillis(20));
+      s3Service = newService(Optional.empty());
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      Abortable slowAbortable = mock(Abortable.class);
+      CountDownLatch answered = new CountDownLatch(1);
+      AtomicInteger reads = new AtomicInteger();
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+        if (reads.incrementAndGet() == 1) {
+          answered.await(5, TimeUnit.SECONDS);
+          return new ResponseInputStream<>(mock(GetObjectResponse.class),
+              AbortableInputStream.create(new ByteArrayInputStream("slow".getBytes()),
+                  slowAbortable));
+        }
+        return new ResponseInputStream<>(mock(GetObjectResponse.class),
+            new ByteArrayInputStream("fast".getBytes()));
+      });
+
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          new HttpHeaders());
+      answered.countDown();
+
+      assertEquals("fast", readBody(response));
+      verify(s3Client, times(2)).getObject(any(GetObjectRequest.class));
+      verify(slowAbortable, timeout(5000)).abort();
+    }
+
+    @Test
+    @DisplayName("When the client disconnects mid-stream, then the S3 stream is aborted")
+    void shouldAbortWhenClientDisconnects() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      Abortable abortable = mock(Abortable.class);
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(new ResponseInputStream<>(
+          GetObjectResponse.builder().build(), AbortableInputStream.create(
+              new ByteArrayInputStream("hello".getBytes()), abortable)));
+
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1", "objectKey",
+          new HttpHeaders());
+
+      assertThrows(IOException.class, () -> response.getBody().writeTo(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          throw new IOException("Broken pipe");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          throw new IOException("Broken pipe");
+        }
+      }));
+      verify(abortable).abort();
+    }
+
+    @Test
+    @DisplayName("When the download pool rejects the body, then the S3 stream is aborted")
+    void shouldAbortWhenDownloadIsRejected() throws Exception {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      Abortable abortable = mock(Abortable.class);
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(new ResponseInputStream<>(
+          GetObjectResponse.builder().build(), AbortableInputStream.create(
+              new ByteArrayInputStream("hello".getBytes()), abortable)));
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.setAsyncSupported(true);
+      RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+      ResponseEntity<StreamingResponseBody> response;
+      try {
+        response = s3Service.getFile("bucket1", "objectKey", new HttpHeaders());
+      } finally {
+        RequestContextHolder.resetRequestAttributes();
+      }
+      WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+      asyncManager.setAsyncWebRequest(
+          new StandardServletAsyncWebRequest(request, new MockHttpServletResponse()));
+      asyncManager.setTaskExecutor(task -> {
+        throw new TaskRejectedException("Download pool is full");
+      });
+      asyncManager.registerCallableInterceptor("download", downloadStreamer);
+
+      asyncManager.startCallableProcessing(() -> {
+        response.getBody().writeTo(OutputStream.nullOutputStream());
+        return null;
+      });
+      request.getAsyncContext().complete();
+
+      assertInstanceOf(TaskRejectedException.class, asyncManager.getConcurrentResult());
+      verify(abortable).abort();
+    }
+  }
+
+  private static ResponseInputStream<GetObjectResponse> smallObject(String content) {
+    return new ResponseInputStream<>(GetObjectResponse.builder()
+        .contentLength((long) content.length())
+        .eTag("\"v1\"")
+        .build(), new ByteArrayInputStream(content.getBytes()));
+  }
+
+  private static String readBody(ResponseEntity<StreamingResponseBody> response)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.getBody().writeTo(out);
+    return out.toString();
   }
 
   @Nested
@@ -154,7 +657,7 @@ class S3ServiceTest {
       MultipartFile file = mock(MultipartFile.class);
 
       assertThrows(ForbiddenException.class,
-          () -> s3Service.uploadFile("bucket2", file, "objectKey"));
+          () -> s3Service.uploadFile("bucket2", file, "objectKey", null));
     }
 
     @Test
@@ -162,15 +665,286 @@ class S3ServiceTest {
     void shouldUploadFile() throws IOException {
       when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
       MultipartFile file = mock(MultipartFile.class);
-      InputStream inputStream = mock(InputStream.class);
+      InputStream inputStream = new ByteArrayInputStream(new byte[0]);
       when(file.getInputStream()).thenReturn(inputStream);
-      when(inputStream.available()).thenReturn(0);
-      when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(NoSuchKeyException.class);
+      when(file.getSize()).thenReturn(0L);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(NoSuchKeyException.class);
 
-      s3Service.uploadFile("bucket1", file, "objectKey");
+      s3Service.uploadFile("bucket1", file, "objectKey", null);
 
       verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
     }
+
+    @Test
+    @DisplayName("When a file is uploaded, then only the upload lane's client is used")
+    void shouldUploadThroughUploadLane() throws IOException {
+      S3Client uploadS3Client = mock(S3Client.class);
+      S3Service laneService = new S3Service(s3Client, uploadS3Client, auditService, s3Properties,
+          new DiffService(new DiffProperties(), diffExecutor, new SimpleMeterRegistry(),
+              ObservationRegistry.NOOP),
+          new UploadSessionStore(new UploadProperties()),
+          new DownloadStreamer(new DownloadProperties(), new SimpleMeterRegistry()),
+          new UploadProperties(), uploadExecutor,
+          new ContentCache(cacheProperties, new SimpleMeterRegistry()), Optional.empty(),
+          new Hedger(hedgeProperties, uploadExecutor, new SimpleMeterRegistry()),
+          new SingleFlight(new SimpleMeterRegistry()), new StaleCache(new BreakerProperties()));
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+      when(file.getSize()).thenReturn(0L);
+      when(uploadS3Client.headObject(any(HeadObjectRequest.class)))
+          .thenThrow(NoSuchKeyException.class);
+
+      laneService.uploadFile("bucket1", file, "objectKey", null);
+
+      verify(uploadS3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+      verifyNoInteractions(s3Client);
+    }
+
+    @Test
+    @DisplayName("When object exists with the same size but new content, then the diff is audited")
+    void shouldAuditDiffWhenContentChanged() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenAnswer(
+          invocation -> new ByteArrayInputStream("hello\nthere\n".getBytes()));
+      when(file.getSize()).thenReturn(12L);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(
+          HeadObjectResponse.builder().contentLength(12L).build());
+      ResponseInputStream<GetObjectResponse> responseInputStream = new ResponseInputStream<>(
+          mock(GetObjectResponse.class), new ByteArrayInputStream("hello\nworld\n".getBytes()));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(responseInputStream);
+
+      s3Service.uploadFile("bucket1", file, "objectKey", null);
+
+      verify(file, times(2)).getInputStream();
+      verify(auditService).writeAuditDiff(AuditEventType.MODIFY, "bucket1", "objectKey", "admin",
+          List.of("--- objectKey", "+++ objectKey", "@@ -1,2 +1,2 @@", " hello", "-world",
+              "+there"));
+    }
+
+    @Test
+    @DisplayName("When object exists with a different size, then the upload is read once")
+    void shouldReadUploadOnceWhenSizeDiffers() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenAnswer(
+          invocation -> new ByteArrayInputStream("hello\nthere\n".getBytes()));
+      when(file.getSize()).thenReturn(12L);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(
+          HeadObjectResponse.builder().contentLength(6L).build());
+      ResponseInputStream<GetObjectResponse> responseInputStream = new ResponseInputStream<>(
+          mock(GetObjectResponse.class), new ByteArrayInputStream("hello\n".getBytes()));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(responseInputStream);
+
+      s3Service.uploadFile("bucket1", file, "objectKey", null);
+
+      verify(file, times(1)).getInputStream();
+      verify(s3Client).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    @DisplayName("When the upload matches the object ETag, then nothing is fetched or put")
+    void shouldSkipUnchangedUpload() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenReturn(new ByteArrayInputStream("hello".getBytes()));
+      when(file.getSize()).thenReturn(5L);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(
+          HeadObjectResponse.builder()
+              .contentLength(5L)
+              .eTag("\"5d41402abc4b2a76b9719d911017c592\"")
+              .build());
+
+      s3Service.uploadFile("bucket1", file, "objectKey", null);
+
+      verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+      verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+      verifyNoInteractions(auditService);
+    }
+
+    @Test
+    @DisplayName("When an upload token is given, then the pre-upload diff is reused with If-Match")
+    void shouldReusePreUploadSession() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenAnswer(
+          invocation -> new ByteArrayInputStream("hello\nthere\n".getBytes()));
+      when(file.getSize()).thenReturn(12L);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(
+          HeadObjectResponse.builder().contentLength(12L).eTag("\"etag\"").build());
+      ResponseInputStream<GetObjectResponse> responseInputStream = new ResponseInputStream<>(
+          mock(GetObjectResponse.class), new ByteArrayInputStream("hello\nworld\n".getBytes()));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(responseInputStream);
+
+      String uploadToken = s3Service.preUploadFile("bucket1", file, "objectKey").getUploadToken();
+      s3Service.uploadFile("bucket1", file, "objectKey", uploadToken);
+
+      ArgumentCaptor<PutObjectRequest> putObjectRequest = ArgumentCaptor.forClass(
+          PutObjectRequest.class);
+      verify(s3Client).putObject(putObjectRequest.capture(), any(RequestBody.class));
+      verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+      // Read once for the pre-upload and once to check it is still the diffed content.
+      verify(file, times(2)).getInputStream();
+      assertEquals("\"etag\"", putObjectRequest.getValue().ifMatch());
+      verify(auditService).writeAuditDiff(AuditEventType.MODIFY, "bucket1", "objectKey", "admin",
+          List.of("--- objectKey", "+++ objectKey", "@@ -1,2 +1,2 @@", " hello", "-world",
+              "+there"));
+    }
+
+    @Test
+    @DisplayName("When the object changed since the pre-upload, then throw ConflictException")
+    void shouldThrowConflictWhenObjectChanged() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenReturn(new ByteArrayInputStream("hello\n".getBytes()));
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(
+          HeadObjectResponse.builder().contentLength(6L).eTag("\"etag\"").build());
+      ResponseInputStream<GetObjectResponse> responseInputStream = new ResponseInputStream<>(
+          mock(GetObjectResponse.class), new ByteArrayInputStream("world\n".getBytes()));
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(responseInputStream);
+      when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenThrow(
+          S3Exception.builder().statusCode(412).build());
+
+      String uploadToken = s3Service.preUploadFile("bucket1", file, "objectKey").getUploadToken();
+
+      assertThrows(ConflictException.class,
+          () -> s3Service.uploadFile("bucket1", null, "objectKey", uploadToken));
+      verifyNoInteractions(auditService);
+    }
+
+    @Test
+    @DisplayName("When the upload token is unknown and no file is sent, then throw BadRequest")
+    void shouldThrowBadRequestWhenSessionMissing() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+
+      assertThrows(BadRequestException.class,
+          () -> s3Service.uploadFile("bucket1", null, "objectKey", "unknown"));
+    }
+
+    @Test
+    @DisplayName("When a same-size edit is sent with the token, then the edit is put instead")
+    void shouldPutEditedFileOfSameSize() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile diffed = mock(MultipartFile.class);
+      when(diffed.getInputStream()).thenReturn(
+          new ByteArrayInputStream("hello\nthere\n".getBytes()));
+      MultipartFile edited = mock(MultipartFile.class);
+      when(edited.getInputStream()).thenAnswer(
+          invocation -> new ByteArrayInputStream("hello\nThere\n".getBytes()));
+      when(edited.getSize()).thenReturn(12L);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(
+          HeadObjectResponse.builder().contentLength(12L).eTag("\"etag\"").build());
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(
+          invocation -> new ResponseInputStream<>(GetObjectResponse.builder().build(),
+              new ByteArrayInputStream("hello\nworld\n".getBytes())));
+
+      String uploadToken = s3Service.preUploadFile("bucket1", diffed, "objectKey")
+          .getUploadToken();
+      s3Service.uploadFile("bucket1", edited, "objectKey", uploadToken);
+
+      ArgumentCaptor<PutObjectRequest> putObjectRequest = ArgumentCaptor.forClass(
+          PutObjectRequest.class);
+      verify(s3Client).putObject(putObjectRequest.capture(), any(RequestBody.class));
+      assertNull(putObjectRequest.getValue().ifMatch());
+      verify(auditService).writeAuditDiff(AuditEventType.MODIFY, "bucket1", "objectKey", "admin",
+          List.of("--- objectKey", "+++ objectKey", "@@ -1,2 +1,2 @@", " hello", "-world",
+              "+There"));
+    }
+  }
+
+  @Nested
+  @DisplayName("uploadFiles")
+  class UploadFiles {
+
+    @Test
+    @DisplayName("When bucket is not in list, then throw ForbiddenException")
+    void shouldThrowForbiddenExceptionWhenBucketNotInList() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+
+      assertThrows(ForbiddenException.class, () -> s3Service.uploadFiles("bucket2",
+          List.of(mock(MultipartFile.class)), List.of("objectKey")));
+    }
+
+    @Test
+    @DisplayName("When keys and files do not pair up, then throw BadRequestException")
+    void shouldThrowBadRequestWhenKeysMismatch() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+
+      assertThrows(BadRequestException.class, () -> s3Service.uploadFiles("bucket1",
+          List.of(mock(MultipartFile.class), mock(MultipartFile.class)), List.of("objectKey")));
+    }
+
+    @Test
+    @DisplayName("When files are uploaded, then each has a result and successes are audited")
+    void shouldUploadEachFile() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile created = file("new\n");
+      MultipartFile modified = file("hello\nthere\n");
+      MultipartFile failed = mock(MultipartFile.class);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenAnswer(invocation -> {
+        String key = invocation.<HeadObjectRequest>getArgument(0).key();
+        return switch (key) {
+          case "created" -> throw NoSuchKeyException.builder().build();
+          case "modified" -> HeadObjectResponse.builder().contentLength(6L).build();
+          default -> throw S3Exception.builder().statusCode(500).message("S3 is down").build();
+        };
+      });
+      when(s3Client.getObject(any(GetObjectRequest.class))).thenReturn(new ResponseInputStream<>(
+          mock(GetObjectResponse.class), new ByteArrayInputStream("hello\n".getBytes())));
+
+      BatchUploadResponse response = s3Service.uploadFiles("bucket1",
+          List.of(created, modified, failed), List.of("created", "modified", "failed"));
+
+      assertAll(
+          () -> assertEquals(List.of("created", "modified", "failed"),
+              response.getResults().stream().map(UploadResult::getObjectKey).toList()),
+          () -> assertEquals(List.of(UploadStatus.CREATED, UploadStatus.MODIFIED,
+                  UploadStatus.FAILED),
+              response.getResults().stream().map(UploadResult::getStatus).toList()),
+          () -> assertEquals("S3 is down", response.getResults().get(2).getError())
+      );
+      verify(s3Client, times(2)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+      ArgumentCaptor<List<AuditService.BatchRecord>> records = ArgumentCaptor.captor();
+      verify(auditService).writeAuditBatch(eq("bucket1"), eq("admin"), records.capture());
+      assertAll(
+          () -> assertEquals(List.of(AuditEventType.UPLOAD, AuditEventType.MODIFY),
+              records.getValue().stream().map(AuditService.BatchRecord::getEventType).toList()),
+          () -> assertEquals(List.of("created", "modified"),
+              records.getValue().stream().map(AuditService.BatchRecord::getObjectKey).toList()),
+          () -> assertEquals(List.of("--- modified", "+++ modified", "@@ -1,1 +1,2 @@", " hello",
+              "+there"), records.getValue().get(1).getUnifiedDiff())
+      );
+    }
+
+    @Test
+    @DisplayName("When an audit record of the batch fails, then only that file reports it")
+    void shouldReportFailedAuditRecord() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(
+          NoSuchKeyException.builder().build());
+      List<RuntimeException> failures = new ArrayList<>();
+      failures.add(null);
+      failures.add(new RuntimeException("Audit bucket is down"));
+      when(auditService.writeAuditBatch(eq("bucket1"), eq("admin"), any())).thenReturn(failures);
+
+      BatchUploadResponse response = s3Service.uploadFiles("bucket1",
+          List.of(file("a\n"), file("b\n")), List.of("a", "b"));
+
+      assertAll(
+          () -> assertNull(response.getResults().get(0).getError()),
+          () -> assertEquals("Uploaded, but the audit record could not be written",
+              response.getResults().get(1).getError())
+      );
+    }
+
+    private MultipartFile file(String content) throws IOException {
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenAnswer(
+          invocation -> new ByteArrayInputStream(content.getBytes()));
+      when(file.getSize()).thenReturn((long) content.length());
+      return file;
+    }
   }
 
   @Nested
@@ -191,7 +965,7 @@ class S3ServiceTest {
     @DisplayName("When object does not exist, then return new upload")
     void shouldReturnNewUpload() {
       when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
-      when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(NoSuchKeyException.class);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenThrow(NoSuchKeyException.class);
 
       PreUploadObjectResponse response = s3Service.preUploadFile("bucket1",
           mock(MultipartFile.class), "objectKey");
@@ -207,6 +981,8 @@ class S3ServiceTest {
       MultipartFile file = mock(MultipartFile.class);
       InputStream inputStream = new ByteArrayInputStream("file content".getBytes());
       when(file.getInputStream()).thenReturn(inputStream);
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(
+          HeadObjectResponse.builder().contentLength(12L).build());
 
       ResponseInputStream<GetObjectResponse> responseInputStream = new ResponseInputStream<>(
           mock(GetObjectResponse.class), new ByteArrayInputStream("file content".getBytes()));
@@ -216,5 +992,129 @@ class S3ServiceTest {
 
       assertEquals(false, response.isNewUpload());
     }
+
+    @Test
+    @DisplayName("When the upload matches the stored checksum, then return unchanged without a GET")
+    void shouldReturnUnchangedUpload() throws IOException {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      MultipartFile file = mock(MultipartFile.class);
+      when(file.getInputStream()).thenReturn(new ByteArrayInputStream("hello".getBytes()));
+      when(s3Client.headObject(any(HeadObjectRequest.class))).thenReturn(
+          HeadObjectResponse.builder()
+              .contentLength(5L)
+              .checksumSHA256("LPJNul+wow4m6DsqxbninhsWHlwfp0JecwQzYpOLmCQ=")
+              .build());
+
+      PreUploadObjectResponse response = s3Service.preUploadFile("bucket1", file, "objectKey");
+
+      assertAll(
+          () -> assertEquals(false, response.isNewUpload()),
+          () -> assertEquals(true, response.isUnchanged()),
+          () -> assertEquals(List.of(), response.getUnifiedDiff())
+      );
+      verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+    }
+  }
+
+  @Nested
+  @DisplayName("with the filesystem backend")
+  class FileSystemBackend {
+
+    @TempDir
+    Path root;
+
+    @BeforeEach
+    void setUp() {
+      when(s3Properties.getBuckets()).thenReturn(List.of("bucket1"));
+      // Without the content cache every read is served from disk.
+      cacheProperties.setEnabled(false);
+      s3Client = new FileSystemS3Client(root, List.of("bucket1"));
+      s3Service = newService(Optional.empty());
+    }
+
+    @Test
+    @DisplayName("When a file is uploaded, then it is listed and downloaded from disk")
+    void shouldListAndDownloadUploadedFile() throws IOException {
+      s3Service.uploadFile("bucket1", new MockMultipartFile("file", "hello world".getBytes()),
+          "reports/a.txt", null);
+
+      ListContentsResponse contents = s3Service.listContents("bucket1");
+      ResponseEntity<StreamingResponseBody> response = s3Service.getFile("bucket1",
+          "reports/a.txt", new HttpHeaders());
+
+      assertAll(
+          () -> assertEquals(1, contents.getObjects().size()),
+          () -> assertEquals("reports/a.txt", contents.getObjects().get(0).getObjectKey()),
+          () -> assertEquals(11L, contents.getObjects().get(0).getObjectSize()),
+          () -> assertEquals(HttpStatus.OK, response.getStatusCode()),
+          () -> assertEquals("\"5eb63bbbe01eeed093cb22bb8f5acdc3\"",
+              response.getHeaders().getETag()),
+          () -> assertEquals("hello world", readBody(response))
+      );
+    }
+
+    @Test
+    @DisplayName("When a range or a current ETag is sent, then 206 and 304 are answered")
+    void shouldAnswerRangesAndConditionalReads() throws IOException {
+      s3Service.uploadFile("bucket1", new MockMultipartFile("file", "hello world".getBytes()),
+          "a.txt", null);
+      HttpHeaders rangeHeaders = new HttpHeaders();
+      rangeHeaders.set(HttpHeaders.RANGE, "bytes=6-");
+      HttpHeaders conditionalHeaders = new HttpHeaders();
+      conditionalHeaders.setIfNoneMatch("\"5eb63bbbe01eeed093cb22bb8f5acdc3\"");
+
+      ResponseEntity<StreamingResponseBody> partial = s3Service.getFile("bucket1", "a.txt",
+          rangeHeaders);
+      ResponseEntity<StreamingResponseBody> notModified = s3Service.getFile("bucket1", "a.txt",
+          conditionalHeaders);
+
+      assertAll(
+          () -> assertEquals(HttpStatus.PARTIAL_CONTENT, partial.getStatusCode()),
+          () -> assertEquals("bytes 6-10/11",
+              partial.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)),
+          () -> assertEquals("world", readBody(partial)),
+          () -> assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode()),
+          () -> assertThrows(NotFoundException.class,
+              () -> s3Service.getFile("bucket1", "missing.txt", new HttpHeaders()))
+      );
+    }
+
+    @Test
+    @DisplayName("When a changed file is pre-uploaded, then it is diffed and put from disk")
+    void shouldDiffAndPutChangedFile() throws IOException {
+      s3Service.uploadFile("bucket1", new MockMultipartFile("file", "a\nb\n".getBytes()),
+          "a.txt", null);
+
+      PreUploadObjectResponse unchanged = s3Service.preUploadFile("bucket1",
+          new MockMultipartFile("file", "a\nb\n".getBytes()), "a.txt");
+      PreUploadObjectResponse changed = s3Service.preUploadFile("bucket1",
+          new MockMultipartFile("file", "a\nc\n".getBytes()), "a.txt");
+      s3Service.uploadFile("bucket1", null, "a.txt", changed.getUploadToken());
+
+      assertAll(
+          () -> assertEquals(true, unchanged.isUnchanged()),
+          () -> assertTrue(changed.getUnifiedDiff().contains("+c")),
+          () -> assertEquals("a\nc\n", readBody(s3Service.getFile("bucket1", "a.txt",
+              new HttpHeaders())))
+      );
+      verify(auditService).writeAuditDiff(eq(AuditEventType.MODIFY), eq("bucket1"), eq("a.txt"),
+          any(String.class), any());
+    }
+
+    @Test
+    @DisplayName("When the file changes after it was diffed, then the upload conflicts")
+    void shouldConflictWhenFileChangedAfterDiff() throws IOException {
+      s3Service.uploadFile("bucket1", new MockMultipartFile("file", "a\nb\n".getBytes()),
+          "a.txt", null);
+      PreUploadObjectResponse changed = s3Service.preUploadFile("bucket1",
+          new MockMultipartFile("file", "a\nc\n".getBytes()), "a.txt");
+      s3Client.putObject(PutObjectRequest.builder()
+          .bucket("bucket1")
+          .key("a.txt")
+          .build(), RequestBody.fromString("a\nd\n"));
+
+      assertThrows(ConflictException.class,
+          () -> s3Service.uploadFile("bucket1", null, "a.txt", changed.getUploadToken()));
+    }
   }
 }
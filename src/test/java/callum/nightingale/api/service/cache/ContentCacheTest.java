@@ -0,0 +1,59 @@
+package callum.nightingale.api.service.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import callum.nightingale.api.properties.CacheProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class ContentCacheTest {
+
+  private static final byte[] OLD_CONTENT = "old".getBytes(StandardCharsets.UTF_8);
+
+  private ContentCache contentCache;
+
+  @BeforeEach
+  void setUp() {
+    contentCache = new ContentCache(
+        new CacheProperties(true, 1024, 4096, Duration.ofSeconds(5), false),
+        new SimpleMeterRegistry());
+  }
+
+  @Nested
+  @DisplayName("put")
+  class Put {
+
+    @Test
+    @DisplayName("When the key is invalidated while the GET is in flight, then it is not cached")
+    void whenInvalidatedDuringGetThenNotCached() {
+      long fetchedSince = System.nanoTime();
+      contentCache.invalidate("bucket1", "objectKey");
+
+      CachedObject cached = contentCache.put("bucket1", "objectKey", "\"old\"", Instant.now(),
+          OLD_CONTENT, fetchedSince);
+
+      assertNotNull(cached);
+      assertNull(contentCache.get("bucket1", "objectKey"));
+    }
+
+    @Test
+    @DisplayName("When the GET starts after the key was invalidated, then it is cached")
+    void whenGetStartsAfterInvalidationThenCached() {
+      contentCache.invalidate("bucket1", "objectKey");
+      long fetchedSince = System.nanoTime();
+
+      contentCache.put("bucket1", "objectKey", "\"new\"", Instant.now(), OLD_CONTENT,
+          fetchedSince);
+
+      assertEquals("\"new\"", contentCache.get("bucket1", "objectKey").getETag());
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package callum.nightingale.api.service.client;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import callum.nightingale.api.properties.LimiterProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveLimiterTest {
+
+  private static final long SLOW = Duration.ofSeconds(30).toNanos();
+
+  private AdaptiveLimiter adaptiveLimiter;
+
+  @BeforeEach
+  void setUp() {
+    adaptiveLimiter = new AdaptiveLimiter(
+        new LimiterProperties(true, 20, 2, 200, 0.5, Duration.ofSeconds(2), Duration.ZERO),
+        new SimpleMeterRegistry());
+  }
+
+  @Nested
+  @DisplayName("release")
+  class Release {
+
+    @Test
+    @DisplayName("When calls on one lane are slow, then the other lanes keep their limit")
+    void whenOneLaneIsSlowThenOtherLanesKeepTheirLimit() throws InterruptedException {
+      for (int i = 0; i < 10; i++) {
+        assertTrue(adaptiveLimiter.acquire("upload", "bucket1"));
+        adaptiveLimiter.release("upload", "bucket1", SLOW, false);
+      }
+
+      assertAll(
+          () -> assertEquals(2, adaptiveLimiter.getLimit("upload", "bucket1")),
+          () -> assertEquals(20, adaptiveLimiter.getLimit("interactive", "bucket1"))
+      );
+    }
+
+    @Test
+    @DisplayName("When a call is released without a latency sample, then the limit is unchanged")
+    void whenReleasedWithoutLatencySampleThenLimitIsUnchanged() throws InterruptedException {
+      for (int i = 0; i < 10; i++) {
+        assertTrue(adaptiveLimiter.acquire("upload", "bucket1"));
+        adaptiveLimiter.release("upload", "bucket1");
+      }
+
+      assertEquals(20, adaptiveLimiter.getLimit("upload", "bucket1"));
+    }
+  }
+}
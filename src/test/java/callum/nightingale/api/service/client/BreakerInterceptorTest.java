@@ -0,0 +1,88 @@
+package callum.nightingale.api.service.client;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import callum.nightingale.api.exception.ThrottledException;
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.properties.LimiterProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.URI;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+@DisplayName("Testing BreakerInterceptor")
+class BreakerInterceptorTest {
+
+  private static final HeadObjectRequest HEAD_OBJECT = HeadObjectRequest.builder()
+      .bucket("bucket1")
+      .key("objectKey")
+      .build();
+
+  private CircuitBreakers circuitBreakers;
+  private AdaptiveLimiter adaptiveLimiter;
+  private S3Client s3Client;
+
+  @BeforeEach
+  void setUp() {
+    circuitBreakers = new CircuitBreakers(
+        new BreakerProperties(true, 2, 2, 50, Duration.ZERO, 2, 256), new SimpleMeterRegistry());
+    adaptiveLimiter = new AdaptiveLimiter(
+        new LimiterProperties(true, 1, 1, 1, 0.9, Duration.ofSeconds(2), Duration.ZERO),
+        new SimpleMeterRegistry());
+    s3Client = S3Client.builder()
+        .endpointOverride(URI.create("http://127.0.0.1:1"))
+        .region(Region.EU_WEST_2)
+        .forcePathStyle(true)
+        .credentialsProvider(StaticCredentialsProvider.create(
+            AwsBasicCredentials.create("test", "test")))
+        .httpClient(ApacheHttpClient.create())
+        .overrideConfiguration(configuration -> configuration
+            .addExecutionInterceptor(new BreakerInterceptor(circuitBreakers))
+            .addExecutionInterceptor(new LimiterInterceptor(adaptiveLimiter, "interactive")))
+        .build();
+  }
+
+  @AfterEach
+  void tearDown() {
+    s3Client.close();
+  }
+
+  @Nested
+  @DisplayName("beforeExecution")
+  class BeforeExecution {
+
+    @Test
+    @DisplayName("When the limiter sheds calls while half-open, then the trial slots are kept")
+    void whenLimiterShedsWhileHalfOpenThenTrialSlotsAreKept() throws InterruptedException {
+      circuitBreakers.record("HeadObject", SdkClientException.create("Connection refused"));
+      circuitBreakers.record("HeadObject", SdkClientException.create("Connection refused"));
+      assertEquals(CircuitBreakers.State.OPEN, circuitBreakers.getState("HeadObject"));
+      assertTrue(adaptiveLimiter.acquire("interactive", "bucket1"));
+
+      for (int i = 0; i < 3; i++) {
+        assertThrows(ThrottledException.class, () -> s3Client.headObject(HEAD_OBJECT));
+      }
+
+      assertAll(
+          () -> assertEquals(CircuitBreakers.State.HALF_OPEN,
+              circuitBreakers.getState("HeadObject")),
+          () -> assertTrue(circuitBreakers.tryAcquire("HeadObject")),
+          () -> assertTrue(circuitBreakers.tryAcquire("HeadObject"))
+      );
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package callum.nightingale.api.service.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import callum.nightingale.api.properties.BreakerProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+class CircuitBreakersTest {
+
+  private CircuitBreakers circuitBreakers;
+
+  @BeforeEach
+  void setUp() {
+    circuitBreakers = new CircuitBreakers(
+        new BreakerProperties(true, 4, 4, 50, Duration.ofSeconds(30), 2, 256),
+        new SimpleMeterRegistry());
+  }
+
+  private static S3Exception serviceException(int statusCode, String errorCode) {
+    return (S3Exception) S3Exception.builder()
+        .statusCode(statusCode)
+        .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build())
+        .build();
+  }
+
+  @Nested
+  @DisplayName("record")
+  class Record {
+
+    @Test
+    @DisplayName("When calls are aborted or interrupted by us, then the breaker stays closed")
+    void whenCallsAreCancelledThenBreakerStaysClosed() {
+      for (int i = 0; i < 4; i++) {
+        circuitBreakers.record("GetObject", AbortedException.create("Thread was interrupted"));
+        circuitBreakers.record("GetObject", SdkClientException.create("Unable to execute request",
+            new InterruptedException()));
+      }
+
+      assertEquals(CircuitBreakers.State.CLOSED, circuitBreakers.getState("GetObject"));
+    }
+
+    @Test
+    @DisplayName("When S3 answers 503 SlowDown, then the breaker stays closed")
+    void whenSlowDownThenBreakerStaysClosed() {
+      for (int i = 0; i < 4; i++) {
+        circuitBreakers.record("GetObject", serviceException(503, "SlowDown"));
+      }
+
+      assertEquals(CircuitBreakers.State.CLOSED, circuitBreakers.getState("GetObject"));
+    }
+
+    @Test
+    @DisplayName("When S3 answers 503 ServiceUnavailable, then the breaker opens")
+    void whenServiceUnavailableThenBreakerOpens() {
+      for (int i = 0; i < 4; i++) {
+        circuitBreakers.record("GetObject", serviceException(503, "ServiceUnavailable"));
+      }
+
+      assertEquals(CircuitBreakers.State.OPEN, circuitBreakers.getState("GetObject"));
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package callum.nightingale.api.service.client;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollector;
+
+@DisplayName("Testing PoolMetricsPublisher")
+class PoolMetricsPublisherTest {
+
+  @Nested
+  @DisplayName("publish")
+  class Publish {
+
+    @Test
+    @DisplayName("When a call reports pool figures, then they are published for its client")
+    void whenCallReportsPoolFiguresThenTheyArePublished() {
+      SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+      PoolMetricsPublisher publisher = new PoolMetricsPublisher(meterRegistry, "upload");
+      MetricCollector apiCall = MetricCollector.create("ApiCall");
+      MetricCollector httpClient = apiCall.createChild("ApiCallAttempt").createChild("HttpClient");
+      httpClient.reportMetric(HttpMetric.MAX_CONCURRENCY, 25);
+      httpClient.reportMetric(HttpMetric.LEASED_CONCURRENCY, 20);
+      httpClient.reportMetric(HttpMetric.AVAILABLE_CONCURRENCY, 5);
+      httpClient.reportMetric(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, 3);
+      httpClient.reportMetric(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, Duration.ofMillis(40));
+
+      CallOrigin.set("GET /api/v1/s3/buckets/{bucketName}/contents");
+      try {
+        publisher.publish(apiCall.collect());
+      } finally {
+        CallOrigin.clear();
+      }
+
+      Timer acquire = meterRegistry.get("s3.http.pool.acquire")
+          .tag("client", "upload")
+          .tag("endpoint", "GET /api/v1/s3/buckets/{bucketName}/contents")
+          .timer();
+      assertAll(
+          () -> assertEquals(25, meterRegistry.get("s3.http.pool.max").tag("client", "upload")
+              .gauge().value()),
+          () -> assertEquals(20, meterRegistry.get("s3.http.pool.leased").tag("client", "upload")
+              .gauge().value()),
+          () -> assertEquals(5, meterRegistry.get("s3.http.pool.available")
+              .tag("client", "upload").gauge().value()),
+          () -> assertEquals(3, meterRegistry.get("s3.http.pool.pending").tag("client", "upload")
+              .gauge().value()),
+          () -> assertEquals(1, acquire.count()),
+          () -> assertEquals(40, acquire.totalTime(TimeUnit.MILLISECONDS))
+      );
+    }
+  }
+}
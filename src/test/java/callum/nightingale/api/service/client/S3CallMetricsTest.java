@@ -0,0 +1,137 @@
+package callum.nightingale.api.service.client;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import callum.nightingale.api.exception.ServiceUnavailableException;
+import callum.nightingale.api.properties.BreakerProperties;
+import callum.nightingale.api.service.timing.RequestTimings;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.net.URI;
+import java.time.Duration;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.retries.api.BackoffStrategy;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+@DisplayName("Testing S3CallMetrics")
+class S3CallMetricsTest {
+
+  private static final HeadObjectRequest HEAD_OBJECT = HeadObjectRequest.builder()
+      .bucket("bucket1")
+      .key("objectKey")
+      .build();
+
+  private SimpleMeterRegistry meterRegistry;
+  private ObservationRegistry observationRegistry;
+  private S3Client s3Client;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    observationRegistry = ObservationRegistry.create();
+    observationRegistry.observationConfig()
+        .observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+  }
+
+  @AfterEach
+  void tearDown() {
+    s3Client.close();
+  }
+
+  private S3Client client(Consumer<ClientOverrideConfiguration.Builder> interceptors) {
+    return S3Client.builder()
+        .endpointOverride(URI.create("http://127.0.0.1:1"))
+        .region(Region.EU_WEST_2)
+        .forcePathStyle(true)
+        .credentialsProvider(StaticCredentialsProvider.create(
+            AwsBasicCredentials.create("test", "test")))
+        .httpClient(ApacheHttpClient.create())
+        .overrideConfiguration(configuration -> interceptors.accept(configuration
+            .retryStrategy(AwsRetryStrategy.standardRetryStrategy().toBuilder()
+                .maxAttempts(2)
+                .backoffStrategy(BackoffStrategy.retryImmediately())
+                .build())
+            .addExecutionInterceptor(
+                new S3CallMetrics(meterRegistry, observationRegistry, "interactive"))))
+        .build();
+  }
+
+  @Nested
+  @DisplayName("onExecutionFailure")
+  class OnExecutionFailure {
+
+    @Test
+    @DisplayName("When S3 cannot be reached, then the call is recorded as failed with its retry")
+    void whenS3CannotBeReachedThenCallIsRecordedAsFailed() {
+      s3Client = client(configuration -> {
+      });
+
+      assertThrows(SdkClientException.class, () -> s3Client.headObject(HEAD_OBJECT));
+
+      assertAll(
+          () -> assertEquals(1, meterRegistry.get("s3.calls")
+              .tag("client", "interactive")
+              .tag("operation", "HeadObject")
+              .tag("bucket", "bucket1")
+              .tag("endpoint", CallOrigin.NONE)
+              .tag("outcome", "FAILED")
+              .timer().count()),
+          () -> assertEquals(1, meterRegistry.get("s3.call.retries")
+              .tag("operation", "HeadObject")
+              .counter().count()),
+          () -> assertEquals(1, meterRegistry.get(RequestTimings.SPAN)
+              .tag(RequestTimings.SPAN_KEY, "s3")
+              .tag("error", "SdkClientException")
+              .timer().count())
+      );
+    }
+  }
+
+  @Nested
+  @DisplayName("beforeExecution")
+  class BeforeExecution {
+
+    @Test
+    @DisplayName("When the breaker refuses the call, then it is recorded as shed and its span "
+        + "stopped")
+    void whenBreakerRefusesCallThenItIsRecordedAsShed() {
+      CircuitBreakers circuitBreakers = new CircuitBreakers(
+          new BreakerProperties(true, 1, 1, 50, Duration.ofMinutes(1), 1, 256),
+          new SimpleMeterRegistry());
+      circuitBreakers.record("HeadObject", SdkClientException.create("Connection refused"));
+      s3Client = client(configuration -> configuration
+          .addExecutionInterceptor(new BreakerInterceptor(circuitBreakers)));
+
+      assertThrows(ServiceUnavailableException.class, () -> s3Client.headObject(HEAD_OBJECT));
+
+      assertAll(
+          () -> assertEquals(1, meterRegistry.get("s3.calls")
+              .tag("operation", "HeadObject")
+              .tag("outcome", "SHED")
+              .timer().count()),
+          () -> assertEquals(1, meterRegistry.get(RequestTimings.SPAN)
+              .tag(RequestTimings.SPAN_KEY, "s3")
+              .tag("error", "ServiceUnavailableException")
+              .timer().count()),
+          () -> assertEquals(0, meterRegistry.get(RequestTimings.SPAN + ".active")
+              .longTaskTimer().activeTasks())
+      );
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package callum.nightingale.api.service.fanout;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import callum.nightingale.api.properties.FanOutProperties;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@DisplayName("Testing FanOut")
+class FanOutTest {
+
+  private static final List<Integer> ITEMS = IntStream.range(0, 40).boxed().toList();
+
+  private ExecutorService executor;
+  private FanOut fanOut;
+
+  @BeforeEach
+  void setUp() {
+    // One thread keeps most calls queued, so a failure cancels calls that never started.
+    executor = Executors.newSingleThreadExecutor();
+    fanOut = new FanOut(executor, new FanOutProperties(1, 1024, 10));
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Nested
+  @DisplayName("map")
+  class Map {
+
+    @Test
+    @DisplayName("When fan-outs fail repeatedly, then every permit is given back")
+    void whenFanOutsFailRepeatedlyThenEveryPermitIsGivenBack() throws InterruptedException {
+      // A leaked permit would leave a later fan-out blocked waiting for one.
+      assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+        for (int i = 0; i < 25; i++) {
+          assertThrows(IllegalStateException.class, () -> fanOut.map(ITEMS, item -> {
+            if (item == 0) {
+              throw new IllegalStateException("Object was deleted");
+            }
+            return item;
+          }));
+        }
+      });
+
+      Semaphore permits = (Semaphore) ReflectionTestUtils.getField(fanOut, "permits");
+      executor.shutdown();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+      assertEquals(10, permits.availablePermits());
+    }
+  }
+
+  @Nested
+  @DisplayName("mapAsync")
+  class MapAsync {
+
+    @Test
+    @DisplayName("When thousands of calls fail as they start, then the fan-out still completes")
+    void whenCallsFailAsTheyStartThenFanOutCompletes() {
+      List<Integer> items = IntStream.range(0, 20_000).boxed().toList();
+
+      CompletableFuture<List<Integer>> results = fanOut.mapAsync(items,
+          item -> CompletableFuture.failedFuture(new IllegalStateException("Breaker is open")));
+
+      ExecutionException failure = assertThrows(ExecutionException.class,
+          () -> results.get(5, TimeUnit.SECONDS));
+      assertInstanceOf(IllegalStateException.class, failure.getCause());
+      Semaphore permits = (Semaphore) ReflectionTestUtils.getField(fanOut, "permits");
+      assertEquals(10, permits.availablePermits());
+    }
+
+    @Test
+    @DisplayName("When calls complete as they start, then results keep item order")
+    void whenCallsCompleteAsTheyStartThenResultsKeepItemOrder() throws Exception {
+      assertEquals(ITEMS, fanOut.mapAsync(ITEMS, CompletableFuture::completedFuture)
+          .get(5, TimeUnit.SECONDS));
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package callum.nightingale.api.service.storage;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+class FileSystemS3ClientTest {
+
+  @TempDir
+  Path root;
+
+  private FileSystemS3Client s3Client;
+
+  @BeforeEach
+  void setUp() {
+    s3Client = new FileSystemS3Client(root, List.of("bucket1"));
+  }
+
+  private void put(String key) {
+    s3Client.putObject(PutObjectRequest.builder()
+        .bucket("bucket1")
+        .key(key)
+        .build(), RequestBody.fromString(key));
+  }
+
+  @Nested
+  @DisplayName("listObjectsV2")
+  class ListObjectsV2 {
+
+    @Test
+    @DisplayName("When keys are listed a page at a time, then every key comes once in key order")
+    void shouldListPagesInKeyOrder() {
+      List<String> keys = List.of("a-b.txt", "a/1.txt", "a/2/x.txt", "a0.txt", "b.txt",
+          "logs/1.log", "logs/2.log");
+      keys.forEach(FileSystemS3ClientTest.this::put);
+
+      List<String> listed = new ArrayList<>();
+      String continuationToken = null;
+      do {
+        ListObjectsV2Response page = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+            .bucket("bucket1")
+            .maxKeys(2)
+            .continuationToken(continuationToken)
+            .build());
+        page.contents().forEach(object -> listed.add(object.key()));
+        continuationToken = page.nextContinuationToken();
+      } while (continuationToken != null);
+      ListObjectsV2Response prefixed = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+          .bucket("bucket1")
+          .prefix("a/")
+          .build());
+
+      assertAll(
+          () -> assertEquals(keys, listed),
+          () -> assertEquals(List.of("a/1.txt", "a/2/x.txt"),
+              prefixed.contents().stream().map(S3Object::key).toList())
+      );
+    }
+  }
+
+  @Nested
+  @DisplayName("headObject")
+  class HeadObject {
+
+    @Test
+    @DisplayName("When a key is not a normal path, then it is rejected")
+    void shouldRejectKeysThatAreNotNormalPaths() {
+      put("b.txt");
+
+      for (String key : List.of("a/../b.txt", "./b.txt", "a//b.txt", "b.txt/")) {
+        S3Exception exception = assertThrows(S3Exception.class,
+            () -> s3Client.headObject(HeadObjectRequest.builder()
+                .bucket("bucket1")
+                .key(key)
+                .build()));
+        assertEquals(400, exception.statusCode());
+      }
+    }
+  }
+}
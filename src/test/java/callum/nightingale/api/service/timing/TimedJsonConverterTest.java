@@ -0,0 +1,71 @@
+package callum.nightingale.api.service.timing;
+
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import callum.nightingale.api.service.client.CallOrigin;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+class TimedJsonConverterTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final TimedJsonConverter converter = new TimedJsonConverter(objectMapper,
+      ObservationRegistry.create(), 1024);
+
+  @BeforeEach
+  void setUp() {
+    CallOrigin.setTimings(new RequestTimings());
+  }
+
+  @AfterEach
+  void tearDown() {
+    CallOrigin.clear();
+  }
+
+  @Nested
+  @DisplayName("write")
+  class Write {
+
+    @Test
+    @DisplayName("When the body fits the buffer, then it is sent with a Content-Length")
+    void whenBodyFitsBufferThenContentLengthIsSent() throws IOException {
+      MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+      List<Integer> body = List.of(1, 2, 3);
+
+      converter.write(body, MediaType.APPLICATION_JSON, outputMessage);
+
+      assertAll(
+          () -> assertEquals(objectMapper.writeValueAsString(body),
+              outputMessage.getBodyAsString()),
+          () -> assertEquals(outputMessage.getBodyAsBytes().length,
+              outputMessage.getHeaders().getContentLength())
+      );
+    }
+
+    @Test
+    @DisplayName("When the body outgrows the buffer, then it is streamed whole")
+    void whenBodyOutgrowsBufferThenItIsStreamed() throws IOException {
+      MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+      List<Integer> body = IntStream.range(0, 10_000).boxed().toList();
+
+      converter.write(body, MediaType.APPLICATION_JSON, outputMessage);
+
+      assertAll(
+          () -> assertEquals(objectMapper.writeValueAsString(body),
+              outputMessage.getBodyAsString()),
+          () -> assertEquals(-1, outputMessage.getHeaders().getContentLength())
+      );
+    }
+  }
+}
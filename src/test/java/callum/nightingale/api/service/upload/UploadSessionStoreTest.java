@@ -0,0 +1,66 @@
+package callum.nightingale.api.service.upload;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import callum.nightingale.api.properties.UploadProperties;
+import java.time.Duration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class UploadSessionStoreTest {
+
+  private static UploadSession session(StreamedContent uploaded) {
+    return UploadSession.builder()
+        .bucketName("bucket1")
+        .objectKey("objectKey")
+        .uploaded(uploaded)
+        .build();
+  }
+
+  @Nested
+  @DisplayName("save")
+  class Save {
+
+    @Test
+    @DisplayName("When maxSessions is not positive, then one session is kept")
+    void whenMaxSessionsNotPositiveThenOneSessionIsKept() {
+      UploadSessionStore store = new UploadSessionStore(
+          new UploadProperties(Duration.ofMinutes(5), 0, 8, 512, 500));
+      StreamedContent first = mock(StreamedContent.class);
+      UploadSession second = session(mock(StreamedContent.class));
+
+      String firstToken = store.save(session(first));
+      String secondToken = assertTimeoutPreemptively(Duration.ofSeconds(5),
+          () -> store.save(second));
+
+      verify(first).close();
+      assertNull(store.take(firstToken, "bucket1", "objectKey"));
+      assertSame(second, store.take(secondToken, "bucket1", "objectKey"));
+    }
+  }
+
+  @Nested
+  @DisplayName("take")
+  class Take {
+
+    @Test
+    @DisplayName("When taken for a different object, then the session is kept for its own object")
+    void whenTakenForDifferentObjectThenSessionIsKept() {
+      UploadSessionStore store = new UploadSessionStore(new UploadProperties());
+      StreamedContent uploaded = mock(StreamedContent.class);
+      UploadSession session = session(uploaded);
+      String token = store.save(session);
+
+      assertNull(store.take(token, "bucket1", "otherKey"));
+
+      verify(uploaded, never()).close();
+      assertSame(session, store.take(token, "bucket1", "objectKey"));
+    }
+  }
+}